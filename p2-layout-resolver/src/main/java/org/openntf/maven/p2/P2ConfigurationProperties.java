@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+
+/**
+ * Session configuration properties recognized by the p2 layout resolver. These can be
+ * specified as user or system properties, e.g. {@code -Dp2layout.cacheDir=/some/path}.
+ *
+ * @since 1.9.0
+ */
+public enum P2ConfigurationProperties {
+	;
+
+	public static final String PREFIX = "p2layout."; //$NON-NLS-1$
+
+	/**
+	 * The directory used to store persistent caches. Defaults to
+	 * {@code .cache/p2-layout-resolver} within the local Maven repository.
+	 */
+	public static final String CACHE_DIR = PREFIX + "cacheDir"; //$NON-NLS-1$
+
+	/**
+	 * Whether parsed repository indexes should be cached between builds. Defaults to
+	 * {@value #DEFAULT_INDEX_CACHE}.
+	 */
+	public static final String INDEX_CACHE = PREFIX + "indexCache"; //$NON-NLS-1$
+	public static final boolean DEFAULT_INDEX_CACHE = true;
+
+	/**
+	 * Whether downloaded bundles should be kept with their HTTP validators so that later
+	 * builds can revalidate them with conditional requests. Defaults to
+	 * {@value #DEFAULT_HTTP_CACHE}.
+	 */
+	public static final String HTTP_CACHE = PREFIX + "httpCache"; //$NON-NLS-1$
+	public static final boolean DEFAULT_HTTP_CACHE = true;
+
+	/**
+	 * Whether downloaded bundles should be stored by their published content checksums and
+	 * shared between builds and repositories. Defaults to {@value #DEFAULT_BUNDLE_CACHE}.
+	 */
+	public static final String BUNDLE_CACHE = PREFIX + "bundleCache"; //$NON-NLS-1$
+	public static final boolean DEFAULT_BUNDLE_CACHE = true;
+
+	/**
+	 * Whether synthesized POMs and {@code maven-metadata.xml} files should be kept between
+	 * builds, keyed by the bundle and the repository index they were generated from.
+	 * Defaults to {@value #DEFAULT_METADATA_CACHE}.
+	 */
+	public static final String METADATA_CACHE = PREFIX + "metadataCache"; //$NON-NLS-1$
+	public static final boolean DEFAULT_METADATA_CACHE = true;
+
+	/**
+	 * The transport used for remote requests: {@code auto}, {@code httpclient} or
+	 * {@code urlconnection}. The default, {@code auto}, uses the pooled HTTP/2-capable
+	 * {@code java.net.http} client on Java 11+ and {@code URLConnection} otherwise.
+	 * Connection and request timeouts follow the standard
+	 * {@code aether.connector.connectTimeout} and {@code aether.connector.requestTimeout}
+	 * properties.
+	 */
+	public static final String TRANSPORT = PREFIX + "transport"; //$NON-NLS-1$
+
+	/**
+	 * The maximum number of composite repository children to load concurrently. Defaults
+	 * to {@value #DEFAULT_COMPOSITE_THREADS}.
+	 */
+	public static final String COMPOSITE_THREADS = PREFIX + "compositeThreads"; //$NON-NLS-1$
+	public static final int DEFAULT_COMPOSITE_THREADS = 8;
+
+	/**
+	 * The kind of threads used for composite index loading and downloads: {@code platform}
+	 * (the default) for bounded pools of platform threads, or {@code virtual} to run each
+	 * task on its own virtual thread. Virtual threads require Java 21; older JVMs fall back
+	 * to platform threads.
+	 */
+	public static final String EXECUTOR = PREFIX + "executor"; //$NON-NLS-1$
+
+	/**
+	 * The number of artifacts and metadata files to download concurrently for each
+	 * repository. Defaults to {@value #DEFAULT_DOWNLOAD_THREADS}; {@code 1} downloads
+	 * sequentially.
+	 */
+	public static final String DOWNLOAD_THREADS = PREFIX + "downloadThreads"; //$NON-NLS-1$
+	public static final int DEFAULT_DOWNLOAD_THREADS = 5;
+
+	/**
+	 * The number of times to try downloading a bundle before failing, waiting a randomized,
+	 * exponentially-increasing time between attempts. Interrupted downloads of bundles with
+	 * a published checksum are resumed from where they stopped when the server supports range
+	 * requests, while those read through the HTTP cache start again. Defaults to
+	 * {@value #DEFAULT_DOWNLOAD_ATTEMPTS}; {@code 1} disables retries.
+	 */
+	public static final String DOWNLOAD_ATTEMPTS = PREFIX + "downloadAttempts"; //$NON-NLS-1$
+	public static final int DEFAULT_DOWNLOAD_ATTEMPTS = 4;
+
+	/**
+	 * Whether all embedded jars of a bundle should be extracted in a single pass on the first
+	 * request for any of them, rather than read individually through {@code jar:} URLs.
+	 * Defaults to {@value #DEFAULT_EXTRACT_EMBEDDED_JARS}.
+	 */
+	public static final String EXTRACT_EMBEDDED_JARS = PREFIX + "extractEmbeddedJars"; //$NON-NLS-1$
+	public static final boolean DEFAULT_EXTRACT_EMBEDDED_JARS = true;
+
+	/**
+	 * Whether POM synthesis should read only the central directory, manifest and
+	 * localization of remote bundles with HTTP {@code Range} requests, rather than
+	 * downloading them in full. Servers that do not honor range requests fall back to full
+	 * downloads, and embedded jars are always read from the full bundle. Defaults to
+	 * {@value #DEFAULT_RANGE_REQUESTS}.
+	 */
+	public static final String RANGE_REQUESTS = PREFIX + "rangeRequests"; //$NON-NLS-1$
+	public static final boolean DEFAULT_RANGE_REQUESTS = true;
+
+	/**
+	 * Whether synthesized POMs should include dependencies on the bundles exporting the
+	 * packages listed in each bundle's {@code Import-Package} header. Resolving these
+	 * requires the manifest of every bundle in the repository, which are read once and
+	 * then kept between builds. Defaults to {@value #DEFAULT_PACKAGE_DEPENDENCIES}.
+	 */
+	public static final String PACKAGE_DEPENDENCIES = PREFIX + "packageDependencies"; //$NON-NLS-1$
+	public static final boolean DEFAULT_PACKAGE_DEPENDENCIES = false;
+
+	/**
+	 * Whether the p2 metadata repository (content.xml) should be read alongside the
+	 * artifact index, so that POMs can be synthesized from the bundle units it describes
+	 * without fetching bundle manifests. Bundles without a unit are still read from their
+	 * manifests. Defaults to {@value #DEFAULT_CONTENT_METADATA}.
+	 */
+	public static final String CONTENT_METADATA = PREFIX + "contentMetadata"; //$NON-NLS-1$
+	public static final boolean DEFAULT_CONTENT_METADATA = false;
+
+	/**
+	 * Whether bundles with a published checksum should be downloaded from the mirrors listed
+	 * by the repository's {@code p2.mirrorsURL} property, choosing the fastest mirror and
+	 * sending a second request to the next one when a download stalls. Content from mirrors
+	 * is always verified against the published checksum. Defaults to {@value #DEFAULT_MIRRORS}.
+	 */
+	public static final String MIRRORS = PREFIX + "mirrors"; //$NON-NLS-1$
+	public static final boolean DEFAULT_MIRRORS = false;
+
+	/**
+	 * Whether synthesizing a POM should start downloading the bundles it depends on in the
+	 * background, along with their own POMs and embedded jars, so that they are already
+	 * local when requested. Prefetching runs at most {@link #DOWNLOAD_THREADS} downloads
+	 * at a time. Defaults to {@value #DEFAULT_PREFETCH}.
+	 */
+	public static final String PREFETCH = PREFIX + "prefetch"; //$NON-NLS-1$
+	public static final boolean DEFAULT_PREFETCH = false;
+
+	public static String getString(RepositorySystemSession session, String key, String defaultValue) {
+		Map<String, Object> config = session == null ? null : session.getConfigProperties();
+		Object value = config == null ? null : config.get(key);
+		if(value == null || StringUtils.isEmpty(value.toString())) {
+			return defaultValue;
+		}
+		return value.toString();
+	}
+
+	public static boolean getBoolean(RepositorySystemSession session, String key, boolean defaultValue) {
+		String value = getString(session, key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	public static int getInt(RepositorySystemSession session, String key, int defaultValue) {
+		String value = getString(session, key, null);
+		if(value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Determines the root directory for persistent caches for the provided session.
+	 *
+	 * @param session the active session
+	 * @return a {@link Path} to the cache directory, or {@code null} if none can be determined
+	 */
+	public static Path getCacheDir(RepositorySystemSession session) {
+		String configured = getString(session, CACHE_DIR, null);
+		if(configured != null) {
+			return Paths.get(configured);
+		}
+		LocalRepository localRepo = session == null ? null : session.getLocalRepository();
+		if(localRepo != null && localRepo.getBasedir() != null) {
+			return localRepo.getBasedir().toPath().resolve(".cache").resolve("p2-layout-resolver"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return null;
+	}
+}
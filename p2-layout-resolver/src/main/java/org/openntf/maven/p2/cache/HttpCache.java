@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.Optional;
+
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.transport.P2Transport;
+import org.openntf.maven.p2.util.HttpValidators;
+import org.openntf.maven.p2.util.NotModifiedException;
+import org.slf4j.Logger;
+
+/**
+ * Keeps local copies of remote HTTP resources along with their {@code ETag} and
+ * {@code Last-Modified} validators, so that later requests can be made conditionally
+ * and a 304 response served from the local copy.
+ *
+ * <p>Each copy is held in a single file containing the validators followed by the
+ * resource content, and is replaced atomically once a new response has been read in
+ * full. Resources served without any validators are not stored.</p>
+ *
+ * @since 1.9.0
+ */
+public class HttpCache {
+	private static final int MAGIC = 0x50324843; // "P2HC"
+
+	private final Path directory;
+	private final P2Transport transport;
+	private final Logger log;
+
+	public HttpCache(Path directory, P2Transport transport, Logger log) {
+		this.directory = directory;
+		this.transport = transport;
+		this.log = log;
+	}
+
+	/**
+	 * Opens the provided URI, revalidating and serving any local copy when possible.
+	 * Non-HTTP URIs are opened directly.
+	 *
+	 * @param uri the {@link URI} to open
+	 * @return an {@link Optional} describing the resource content, or an empty one if the
+	 *         resource does not exist
+	 * @throws IOException if there is a problem opening the resource
+	 */
+	public Optional<InputStream> open(URI uri) throws IOException {
+		String scheme = uri.getScheme();
+		if(!"http".equals(scheme) && !"https".equals(scheme)) { //$NON-NLS-1$ //$NON-NLS-2$
+			return transport.open(uri, null);
+		}
+
+		Path file = getFile(uri);
+		// Validators are only sent when present, and are filled in from a successful response
+		HttpValidators validators = readValidators(file).orElseGet(HttpValidators::new);
+		Optional<InputStream> result;
+		try {
+			result = transport.open(uri, validators);
+		} catch(NotModifiedException e) {
+			try {
+				if(log.isDebugEnabled()) {
+					log.debug(MessageFormat.format(Messages.getString("HttpCache.notModified"), uri)); //$NON-NLS-1$
+				}
+				return Optional.of(openCopy(file));
+			} catch(NoSuchFileException e2) {
+				// Removed in the meantime - fetch unconditionally
+				validators = new HttpValidators();
+				result = transport.open(uri, validators);
+			}
+		}
+		if(!result.isPresent()) {
+			Files.deleteIfExists(file);
+			return result;
+		}
+		if(!validators.isPresent()) {
+			return result;
+		}
+		return Optional.of(new CachingInputStream(result.get(), file, validators));
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private Path getFile(URI uri) {
+		return this.directory.resolve(P2IndexCache.hash(uri.toString()) + ".bin"); //$NON-NLS-1$
+	}
+
+	private Optional<HttpValidators> readValidators(Path file) {
+		if(!Files.isRegularFile(file)) {
+			return Optional.empty();
+		}
+		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			return Optional.of(readHeader(dis));
+		} catch(IOException e) {
+			// Unreadable - treat as absent
+			return Optional.empty();
+		}
+	}
+
+	private static InputStream openCopy(Path file) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+		try {
+			readHeader(dis);
+			return dis;
+		} catch(IOException e) {
+			dis.close();
+			throw e;
+		}
+	}
+
+	private static HttpValidators readHeader(DataInputStream dis) throws IOException {
+		if(dis.readInt() != MAGIC) {
+			throw new IOException("Unrecognized cache file format");
+		}
+		String etag = dis.readBoolean() ? dis.readUTF() : null;
+		String lastModified = dis.readBoolean() ? dis.readUTF() : null;
+		return new HttpValidators(etag, lastModified);
+	}
+
+	/**
+	 * Copies the content read from a response into a temporary file, moving it into place
+	 * once the response has been read to the end.
+	 */
+	private class CachingInputStream extends FilterInputStream {
+		private final Path target;
+		private final Path temp;
+		private final DataOutputStream out;
+		private boolean complete;
+		private boolean failed;
+
+		CachingInputStream(InputStream in, Path target, HttpValidators validators) throws IOException {
+			super(in);
+			this.target = target;
+			Files.createDirectories(directory);
+			this.temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+			out.writeInt(MAGIC);
+			writeNullable(validators.getEtag());
+			writeNullable(validators.getLastModified());
+		}
+
+		private void writeNullable(String value) throws IOException {
+			out.writeBoolean(value != null);
+			if(value != null) {
+				out.writeUTF(value);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b == -1) {
+				complete = true;
+			} else {
+				copy(new byte[] { (byte)b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read == -1) {
+				complete = true;
+			} else {
+				copy(b, off, read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped content can't be copied
+			failed = true;
+			return super.skip(n);
+		}
+
+		private void copy(byte[] b, int off, int len) {
+			if(!failed) {
+				try {
+					out.write(b, off, len);
+				} catch(IOException e) {
+					failed = true;
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				out.close();
+				if(complete && !failed) {
+					try {
+						Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} catch(AtomicMoveNotSupportedException e) {
+						Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+					} catch(IOException e) {
+						if(log.isWarnEnabled()) {
+							log.warn(MessageFormat.format(Messages.getString("HttpCache.unwritableEntry"), target), e); //$NON-NLS-1$
+						}
+						Files.deleteIfExists(temp);
+					}
+				} else {
+					Files.deleteIfExists(temp);
+				}
+			}
+		}
+	}
+}
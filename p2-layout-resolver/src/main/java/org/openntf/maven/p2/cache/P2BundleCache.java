@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.util.P2Checksums;
+import org.openntf.maven.p2.util.P2Util;
+
+/**
+ * Stores downloaded bundles by the content checksums published for them in the p2
+ * artifact index, so that they can be shared between builds, connectors and
+ * repositories.
+ * 
+ * <p>Entries are verified against their checksum when inserted and are then never
+ * downloaded again. Bundles without a published checksum are not stored.</p>
+ * 
+ * @since 1.9.0
+ */
+public class P2BundleCache {
+	/**
+	 * A content checksum identifying a cached bundle.
+	 */
+	public static class Key {
+		private final String algorithm;
+		private final String value;
+		
+		public Key(String algorithm, String value) {
+			this.algorithm = algorithm;
+			this.value = value.toLowerCase(Locale.ROOT);
+		}
+		
+		/**
+		 * @return the {@link MessageDigest} name of the checksum algorithm
+		 */
+		public String getAlgorithm() {
+			return algorithm;
+		}
+		
+		/**
+		 * @return the lowercase hex checksum value
+		 */
+		public String getValue() {
+			return value;
+		}
+		
+		@Override
+		public String toString() {
+			return algorithm + ':' + value;
+		}
+	}
+	
+	/**
+	 * Determines the cache key for the provided bundle from its strongest published checksum.
+	 * 
+	 * @param bundle the {@link P2Bundle} to look up
+	 * @return an {@link Optional} describing the key, or an empty one if the bundle has no
+	 *         usable checksum
+	 */
+	public static Optional<Key> keyFor(P2Bundle bundle) {
+		return P2Checksums.getPublishedChecksums(bundle.getProperties()).entrySet().stream()
+			.findFirst()
+			.map(entry -> new Key(entry.getKey(), entry.getValue()));
+	}
+	
+	private final Path directory;
+	
+	public P2BundleCache(Path directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * Retrieves the cached file for the provided key, if present.
+	 * 
+	 * @param key the content {@link Key} of the bundle
+	 * @return an {@link Optional} describing the cached file, or an empty one if the bundle
+	 *         is not cached
+	 */
+	public Optional<Path> get(Key key) {
+		Path file = getFile(key);
+		return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+	}
+	
+	/**
+	 * Determines where an interrupted download of the bundle with the provided key should be
+	 * kept so that a later build can resume it. Since the key identifies the content, the
+	 * file can be resumed from any repository publishing the same bundle.
+	 * 
+	 * @param key the content {@link Key} of the bundle
+	 * @return the {@link Path} of the partial file, which may not exist
+	 * @since 1.9.0
+	 */
+	public Path getPartialFile(Key key) {
+		Path file = getFile(key);
+		return file.resolveSibling(file.getFileName().toString() + ".part"); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Writes content to a cache entry.
+	 */
+	@FunctionalInterface
+	public interface ContentWriter {
+		void write(OutputStream os) throws IOException;
+	}
+	
+	/**
+	 * Stores the provided content under its key, verifying it against the key's checksum
+	 * first. The stream is read to its end but not closed.
+	 * 
+	 * @param key the content {@link Key} of the bundle
+	 * @param is the bundle content
+	 * @return the {@link Path} of the cached file
+	 * @throws IOException if there is a problem storing the content or it does not match
+	 *         the expected checksum
+	 */
+	public Path put(Key key, InputStream is) throws IOException {
+		return put(key, os -> {
+			byte[] buf = new byte[8192];
+			int read;
+			while((read = is.read(buf)) != -1) {
+				os.write(buf, 0, read);
+			}
+		});
+	}
+	
+	/**
+	 * Stores the content produced by the provided writer under its key, verifying it against
+	 * the key's checksum first.
+	 * 
+	 * @param key the content {@link Key} of the bundle
+	 * @param writer a {@link ContentWriter} that writes the bundle content
+	 * @return the {@link Path} of the cached file
+	 * @throws IOException if there is a problem storing the content or it does not match
+	 *         the expected checksum
+	 */
+	public Path put(Key key, ContentWriter writer) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(key.getAlgorithm());
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		
+		Path file = getFile(key);
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+		try {
+			try(OutputStream os = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), digest)) {
+				writer.write(os);
+			}
+			String actual = P2Util.toHex(digest.digest());
+			if(!key.getValue().equals(actual)) {
+				throw new IOException(MessageFormat.format(Messages.getString("P2BundleCache.checksumMismatch"), key.getAlgorithm(), key.getValue(), actual)); //$NON-NLS-1$
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return file;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Moves a file that was already verified against the key's checksum, such as while it
+	 * was downloaded, into the cache without reading it again.
+	 * 
+	 * @param key the content {@link Key} of the bundle
+	 * @param verified the verified bundle file, which is moved
+	 * @return the {@link Path} of the cached file
+	 * @throws IOException if there is a problem moving the file
+	 * @since 1.9.0
+	 */
+	public Path putVerified(Key key, Path verified) throws IOException {
+		Path file = getFile(key);
+		Files.createDirectories(file.getParent());
+		try {
+			Files.move(verified, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(verified, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return file;
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private Path getFile(Key key) {
+		// Spread entries across subdirectories to keep directory sizes manageable
+		String algorithm = key.getAlgorithm().replace("-", "").toLowerCase(Locale.ROOT); //$NON-NLS-1$ //$NON-NLS-2$
+		String value = key.getValue();
+		return this.directory.resolve(algorithm).resolve(value.substring(0, 2)).resolve(value + ".jar"); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2InstallableUnit;
+import org.openntf.maven.p2.util.HttpValidators;
+import org.openntf.maven.p2.util.P2Util;
+import org.slf4j.Logger;
+
+/**
+ * Persistent store of parsed p2 repository indexes, keyed by repository URI.
+ *
+ * <p>Each entry is held in a compact binary file containing the repository's child
+ * locations, bundle list, mirror list location and, when read, its bundle units from
+ * content.xml, along with the information needed to decide whether the entry is still
+ * current: the time it was fetched, the {@code p2.timestamp} property of each index
+ * file and their HTTP validators.</p>
+ *
+ * @since 1.9.0
+ */
+public class P2IndexCache {
+	private static final int MAGIC = 0x50324958; // "P2IX"
+	private static final int FORMAT_VERSION = 3;
+
+	/**
+	 * Describes the remote index file an {@link Entry} was read from.
+	 */
+	public static class Source {
+		private final URI uri;
+		private final HttpValidators validators;
+		private final String timestamp;
+
+		public Source(URI uri, HttpValidators validators, String timestamp) {
+			this.uri = uri;
+			this.validators = validators == null ? new HttpValidators() : validators;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * @return the URI of the index file, including its .xml, .xml.xz or .jar suffix
+		 */
+		public URI getUri() {
+			return uri;
+		}
+
+		/**
+		 * @return the HTTP validators of the index file; never null
+		 */
+		public HttpValidators getValidators() {
+			return validators;
+		}
+
+		/**
+		 * @return the value of the {@code p2.timestamp} repository property, or {@code null}
+		 *         if it was not present
+		 */
+		public String getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	/**
+	 * The parsed contents of a single repository's compositeArtifacts and artifacts
+	 * index files, and optionally its compositeContent and content index files.
+	 */
+	public static class Entry {
+		private long fetchedAt;
+		private Source compositeSource;
+		private Source artifactsSource;
+		private Source compositeContentSource;
+		private Source contentSource;
+		private List<URI> children = new ArrayList<>();
+		private List<P2Bundle> bundles = new ArrayList<>();
+		private List<P2InstallableUnit> units;
+		private String mirrorsUrl;
+
+		public Entry(long fetchedAt) {
+			this.fetchedAt = fetchedAt;
+		}
+
+		public long getFetchedAt() {
+			return fetchedAt;
+		}
+		public void setFetchedAt(long fetchedAt) {
+			this.fetchedAt = fetchedAt;
+		}
+		public Source getCompositeSource() {
+			return compositeSource;
+		}
+		public void setCompositeSource(Source compositeSource) {
+			this.compositeSource = compositeSource;
+		}
+		public Source getArtifactsSource() {
+			return artifactsSource;
+		}
+		public void setArtifactsSource(Source artifactsSource) {
+			this.artifactsSource = artifactsSource;
+		}
+		public List<URI> getChildren() {
+			return children;
+		}
+		public void setChildren(List<URI> children) {
+			this.children = children;
+		}
+		public List<P2Bundle> getBundles() {
+			return bundles;
+		}
+		public void setBundles(List<P2Bundle> bundles) {
+			this.bundles = bundles;
+		}
+		public Source getCompositeContentSource() {
+			return compositeContentSource;
+		}
+		public void setCompositeContentSource(Source compositeContentSource) {
+			this.compositeContentSource = compositeContentSource;
+		}
+		public Source getContentSource() {
+			return contentSource;
+		}
+		public void setContentSource(Source contentSource) {
+			this.contentSource = contentSource;
+		}
+		/**
+		 * @return the bundle units read from the repository's content metadata, or
+		 *         {@code null} if it was not read
+		 */
+		public List<P2InstallableUnit> getUnits() {
+			return units;
+		}
+		public void setUnits(List<P2InstallableUnit> units) {
+			this.units = units;
+		}
+		/**
+		 * @return the value of the {@code p2.mirrorsURL} property of the repository's
+		 *         artifacts index, or {@code null} if it was not present
+		 */
+		public String getMirrorsUrl() {
+			return mirrorsUrl;
+		}
+		public void setMirrorsUrl(String mirrorsUrl) {
+			this.mirrorsUrl = mirrorsUrl;
+		}
+	}
+
+	private final Path directory;
+	private final Logger log;
+
+	public P2IndexCache(Path directory, Logger log) {
+		this.directory = directory;
+		this.log = log;
+	}
+
+	/**
+	 * @return the directory the cached indexes are kept in
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Determines whether an index fetched at the provided time should be checked for
+	 * updates, following the semantics of Maven's repository update policies.
+	 *
+	 * @param fetchedAt the time the index was fetched, in epoch milliseconds
+	 * @param updatePolicy the update policy, such as {@link RepositoryPolicy#UPDATE_POLICY_DAILY}
+	 * @return {@code true} if the remote index should be checked
+	 */
+	public static boolean isUpdateRequired(long fetchedAt, String updatePolicy) {
+		String policy = StringUtils.defaultIfEmpty(updatePolicy, RepositoryPolicy.UPDATE_POLICY_DAILY);
+		if(RepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(policy)) {
+			return true;
+		} else if(RepositoryPolicy.UPDATE_POLICY_NEVER.equals(policy)) {
+			return false;
+		} else if(policy.startsWith(RepositoryPolicy.UPDATE_POLICY_INTERVAL + ':')) {
+			try {
+				long minutes = Long.parseLong(policy.substring(RepositoryPolicy.UPDATE_POLICY_INTERVAL.length() + 1).trim());
+				return fetchedAt < System.currentTimeMillis() - minutes * 60 * 1000;
+			} catch(NumberFormatException e) {
+				// Fall through to daily, matching Maven's handling of unknown policies
+			}
+		}
+		long midnight = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		return fetchedAt < midnight;
+	}
+
+	/**
+	 * Reads the cached index for the provided repository.
+	 *
+	 * @param repositoryUri the base URI of the repository
+	 * @return an {@link Optional} describing the cached {@link Entry}, or an empty one if
+	 *         there is no usable entry
+	 */
+	public Optional<Entry> read(URI repositoryUri) {
+		Path file = getFile(repositoryUri);
+		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION || !repositoryUri.toString().equals(readString(dis))) {
+				return Optional.empty();
+			}
+			Entry entry = new Entry(dis.readLong());
+			entry.setCompositeSource(readSource(dis));
+			entry.setArtifactsSource(readSource(dis));
+
+			int childCount = dis.readInt();
+			List<URI> children = new ArrayList<>(childCount);
+			for(int i = 0; i < childCount; i++) {
+				children.add(URI.create(readString(dis)));
+			}
+			entry.setChildren(children);
+
+			int keyCount = dis.readInt();
+			String[] keys = new String[keyCount];
+			for(int i = 0; i < keyCount; i++) {
+				keys[i] = readString(dis);
+			}
+			int bundleCount = dis.readInt();
+			List<P2Bundle> bundles = new ArrayList<>(bundleCount);
+			// Symbolic names repeat for each version of a bundle
+			Map<String, String> ids = new HashMap<>();
+			for(int i = 0; i < bundleCount; i++) {
+				String id = ids.computeIfAbsent(readString(dis), Function.identity());
+				String version = readString(dis);
+				int propCount = dis.readInt();
+				Map<String, String> properties = new HashMap<>(propCount * 2);
+				for(int j = 0; j < propCount; j++) {
+					properties.put(keys[dis.readInt()], readString(dis));
+				}
+				bundles.add(new P2Bundle(repositoryUri, id, version, properties));
+			}
+			entry.setBundles(bundles);
+
+			entry.setCompositeContentSource(readSource(dis));
+			entry.setContentSource(readSource(dis));
+			if(dis.readBoolean()) {
+				int unitCount = dis.readInt();
+				List<P2InstallableUnit> units = new ArrayList<>(unitCount);
+				for(int i = 0; i < unitCount; i++) {
+					units.add(readUnit(dis, keys));
+				}
+				entry.setUnits(units);
+			}
+			entry.setMirrorsUrl(readNullableString(dis));
+			return Optional.of(entry);
+		} catch(NoSuchFileException e) {
+			return Optional.empty();
+		} catch(IOException | RuntimeException e) {
+			// Treat unreadable entries as absent; they will be replaced on the next write
+			if(log.isDebugEnabled()) {
+				log.debug(MessageFormat.format(Messages.getString("P2IndexCache.unreadableEntry"), file), e); //$NON-NLS-1$
+			}
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Stores the provided index for the repository, replacing any existing entry.
+	 *
+	 * @param repositoryUri the base URI of the repository
+	 * @param entry the index to store
+	 */
+	public void write(URI repositoryUri, Entry entry) {
+		Path file = getFile(repositoryUri);
+		Path temp = null;
+		try {
+			Files.createDirectories(this.directory);
+			temp = Files.createTempFile(this.directory, file.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+			try(OutputStream os = Files.newOutputStream(temp); DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os))) {
+				dos.writeInt(MAGIC);
+				dos.writeInt(FORMAT_VERSION);
+				writeString(dos, repositoryUri.toString());
+				dos.writeLong(entry.getFetchedAt());
+				writeSource(dos, entry.getCompositeSource());
+				writeSource(dos, entry.getArtifactsSource());
+
+				dos.writeInt(entry.getChildren().size());
+				for(URI child : entry.getChildren()) {
+					writeString(dos, child.toString());
+				}
+
+				// Property names repeat across nearly every bundle, so store them once
+				Map<String, Integer> keys = new LinkedHashMap<>();
+				for(P2Bundle bundle : entry.getBundles()) {
+					for(String key : bundle.getProperties().keySet()) {
+						keys.putIfAbsent(key, keys.size());
+					}
+				}
+				if(entry.getUnits() != null) {
+					for(P2InstallableUnit unit : entry.getUnits()) {
+						for(String key : unit.getProperties().keySet()) {
+							keys.putIfAbsent(key, keys.size());
+						}
+					}
+				}
+				dos.writeInt(keys.size());
+				for(String key : keys.keySet()) {
+					writeString(dos, key);
+				}
+				dos.writeInt(entry.getBundles().size());
+				for(P2Bundle bundle : entry.getBundles()) {
+					writeString(dos, bundle.getId());
+					writeString(dos, bundle.getVersion());
+					Map<String, String> properties = bundle.getProperties();
+					dos.writeInt(properties.size());
+					for(Map.Entry<String, String> prop : properties.entrySet()) {
+						dos.writeInt(keys.get(prop.getKey()));
+						writeString(dos, prop.getValue());
+					}
+				}
+
+				writeSource(dos, entry.getCompositeContentSource());
+				writeSource(dos, entry.getContentSource());
+				dos.writeBoolean(entry.getUnits() != null);
+				if(entry.getUnits() != null) {
+					dos.writeInt(entry.getUnits().size());
+					for(P2InstallableUnit unit : entry.getUnits()) {
+						writeUnit(dos, unit, keys);
+					}
+				}
+				writeNullableString(dos, entry.getMirrorsUrl());
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			// A failed cache write shouldn't fail the build
+			if(log.isWarnEnabled()) {
+				log.warn(MessageFormat.format(Messages.getString("P2IndexCache.unwritableEntry"), file), e); //$NON-NLS-1$
+			}
+			if(temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e1) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private Path getFile(URI repositoryUri) {
+		return this.directory.resolve(hash(repositoryUri.toString()) + ".idx"); //$NON-NLS-1$
+	}
+
+	static String hash(String value) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+			return P2Util.toHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static P2InstallableUnit readUnit(DataInputStream dis, String[] keys) throws IOException {
+		String id = readString(dis);
+		String version = readString(dis);
+		int propCount = dis.readInt();
+		Map<String, String> properties = new HashMap<>(propCount * 2);
+		for(int i = 0; i < propCount; i++) {
+			properties.put(keys[dis.readInt()], readString(dis));
+		}
+		int provideCount = dis.readInt();
+		List<P2InstallableUnit.Capability> provides = new ArrayList<>(provideCount);
+		for(int i = 0; i < provideCount; i++) {
+			provides.add(new P2InstallableUnit.Capability(readString(dis), readString(dis), readString(dis)));
+		}
+		int requireCount = dis.readInt();
+		List<P2InstallableUnit.Requirement> requires = new ArrayList<>(requireCount);
+		for(int i = 0; i < requireCount; i++) {
+			requires.add(new P2InstallableUnit.Requirement(readString(dis), readString(dis), readNullableString(dis), dis.readBoolean()));
+		}
+		return new P2InstallableUnit(id, version, properties, provides, requires);
+	}
+
+	private static void writeUnit(DataOutputStream dos, P2InstallableUnit unit, Map<String, Integer> keys) throws IOException {
+		writeString(dos, unit.getId());
+		writeString(dos, unit.getVersion());
+		dos.writeInt(unit.getProperties().size());
+		for(Map.Entry<String, String> prop : unit.getProperties().entrySet()) {
+			dos.writeInt(keys.get(prop.getKey()));
+			writeString(dos, prop.getValue());
+		}
+		dos.writeInt(unit.getProvides().size());
+		for(P2InstallableUnit.Capability capability : unit.getProvides()) {
+			writeString(dos, capability.getNamespace());
+			writeString(dos, capability.getName());
+			writeString(dos, capability.getVersion());
+		}
+		dos.writeInt(unit.getRequires().size());
+		for(P2InstallableUnit.Requirement requirement : unit.getRequires()) {
+			writeString(dos, requirement.getNamespace());
+			writeString(dos, requirement.getName());
+			writeNullableString(dos, requirement.getRange());
+			dos.writeBoolean(requirement.isOptional());
+		}
+	}
+
+	private static Source readSource(DataInputStream dis) throws IOException {
+		if(!dis.readBoolean()) {
+			return null;
+		}
+		URI uri = URI.create(readString(dis));
+		String etag = readNullableString(dis);
+		String lastModified = readNullableString(dis);
+		String timestamp = readNullableString(dis);
+		return new Source(uri, new HttpValidators(etag, lastModified), timestamp);
+	}
+
+	private static void writeSource(DataOutputStream dos, Source source) throws IOException {
+		dos.writeBoolean(source != null);
+		if(source != null) {
+			writeString(dos, source.getUri().toString());
+			writeNullableString(dos, source.getValidators().getEtag());
+			writeNullableString(dos, source.getValidators().getLastModified());
+			writeNullableString(dos, source.getTimestamp());
+		}
+	}
+
+	static String readString(DataInputStream dis) throws IOException {
+		int len = dis.readInt();
+		byte[] bytes = new byte[len];
+		dis.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeString(DataOutputStream dos, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	private static String readNullableString(DataInputStream dis) throws IOException {
+		return dis.readBoolean() ? readString(dis) : null;
+	}
+
+	private static void writeNullableString(DataOutputStream dos, String value) throws IOException {
+		dos.writeBoolean(value != null);
+		if(value != null) {
+			writeString(dos, value);
+		}
+	}
+}
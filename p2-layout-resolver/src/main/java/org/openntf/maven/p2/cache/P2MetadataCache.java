@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.openntf.maven.p2.util.P2Util;
+
+/**
+ * Stores synthesized POMs and {@code maven-metadata.xml} files between builds, keyed by
+ * everything their content is derived from, so that they can be served without fetching
+ * bundles or generating XML again.
+ * 
+ * <p>Since a key changes whenever any of its inputs does, entries are never updated in
+ * place: a changed repository index simply leads to new keys. Entries are therefore stored
+ * by repository and by generation, such as the repository index version, and the first
+ * entry stored for a new generation of a repository removes those of every other
+ * generation, which could no longer be looked up.</p>
+ * 
+ * @since 1.9.0
+ */
+public class P2MetadataCache {
+	/**
+	 * Builds a cache key from the provided parts, such as the repository ID, bundle ID,
+	 * bundle version and repository index version.
+	 * 
+	 * @param parts the values identifying the cached content
+	 * @return an opaque key suitable for {@link #get(String, String, String, String)} and
+	 *         {@link #put(String, String, String, String, P2BundleCache.ContentWriter)}
+	 */
+	public static String key(String... parts) {
+		return P2IndexCache.hash(String.join("\0", parts)); //$NON-NLS-1$
+	}
+	
+	private final Path directory;
+	/** The repository generations whose predecessors have been removed by this instance */
+	private final Set<String> pruned = ConcurrentHashMap.newKeySet();
+	
+	public P2MetadataCache(Path directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * Retrieves the cached file for the provided key, if present.
+	 * 
+	 * @param repository a key built by {@link #key(String...)} identifying the repository
+	 *        the content belongs to
+	 * @param generation the state of the repository the content was derived from, such as
+	 *        its index version
+	 * @param key a key built by {@link #key(String...)}
+	 * @param extension the file extension of the content, such as {@code "pom"}
+	 * @return an {@link Optional} describing the cached file, or an empty one if there is
+	 *         no entry for the key
+	 */
+	public Optional<Path> get(String repository, String generation, String key, String extension) {
+		Path file = getFile(repository, generation, key, extension);
+		return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+	}
+	
+	/**
+	 * Stores the content produced by the provided writer under its key, replacing the
+	 * entry atomically. The first call for a generation of a repository also removes the
+	 * entries of its other generations.
+	 * 
+	 * @param repository a key built by {@link #key(String...)} identifying the repository
+	 *        the content belongs to
+	 * @param generation the state of the repository the content was derived from, such as
+	 *        its index version
+	 * @param key a key built by {@link #key(String...)}
+	 * @param extension the file extension of the content, such as {@code "pom"}
+	 * @param writer a {@link P2BundleCache.ContentWriter} that writes the content
+	 * @return the {@link Path} of the cached file
+	 * @throws IOException if there is a problem storing the content
+	 */
+	public Path put(String repository, String generation, String key, String extension, P2BundleCache.ContentWriter writer) throws IOException {
+		if(this.pruned.add(repository + '/' + generation)) {
+			prune(repository, generation);
+		}
+		Path file = getFile(repository, generation, key, extension);
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+		try {
+			try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				writer.write(os);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return file;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private Path getGeneration(String repository, String generation) {
+		// Generations are hashed to keep arbitrary values usable as file names
+		return this.directory.resolve(repository).resolve(key(generation));
+	}
+	
+	private Path getFile(String repository, String generation, String key, String extension) {
+		// Spread entries across subdirectories to keep directory sizes manageable
+		return getGeneration(repository, generation).resolve(key.substring(0, 2)).resolve(key + '.' + extension);
+	}
+	
+	/**
+	 * Deletes the entries of every generation of the repository other than the provided one.
+	 * Failures are ignored, as another process may be pruning the same entries.
+	 */
+	private void prune(String repository, String generation) {
+		Path current = getGeneration(repository, generation);
+		Path repositoryDir = current.getParent();
+		if(!Files.isDirectory(repositoryDir)) {
+			return;
+		}
+		try(Stream<Path> generations = Files.list(repositoryDir)) {
+			generations
+				.filter(dir -> !dir.equals(current))
+				.forEach(P2Util::deleteTree);
+		} catch(IOException | UncheckedIOException e) {
+			// Then they'll be pruned on a later run
+		}
+	}
+
+}
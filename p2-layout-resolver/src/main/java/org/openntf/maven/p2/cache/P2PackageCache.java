@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2PackageIndex;
+import org.osgi.framework.Version;
+import org.slf4j.Logger;
+
+/**
+ * Persistent store of the packages exported by each bundle of a repository, so that a
+ * {@link P2PackageIndex} can be rebuilt by reading only the manifests of bundles added
+ * since the last build.
+ *
+ * <p>Entries are keyed by a fingerprint of each bundle, which changes when the bundle is
+ * republished with different content.</p>
+ *
+ * @since 1.9.0
+ */
+public class P2PackageCache {
+	private static final int MAGIC = 0x50325058; // "P2PX"
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Determines the fingerprint identifying the content of the provided bundle: its
+	 * strongest published checksum when available, otherwise its location.
+	 *
+	 * @param bundle the {@link P2Bundle} to identify
+	 * @return an opaque fingerprint for the bundle
+	 */
+	public static String fingerprint(P2Bundle bundle) {
+		String content = P2BundleCache.keyFor(bundle)
+			.map(P2BundleCache.Key::toString)
+			.orElseGet(() -> bundle.getUri(null).toString());
+		return bundle.getId() + '\0' + bundle.getVersion() + '\0' + content;
+	}
+
+	private final Path directory;
+	private final Logger log;
+
+	public P2PackageCache(Path directory, Logger log) {
+		this.directory = directory;
+		this.log = log;
+	}
+
+	/**
+	 * Reads the stored exports for the provided repository.
+	 *
+	 * @param repositoryUri the base URI of the repository
+	 * @return a {@link Map} of bundle fingerprints to their exported packages, which is
+	 *         empty if there is no usable entry
+	 */
+	public Map<String, List<P2PackageIndex.Export>> read(URI repositoryUri) {
+		Path file = getFile(repositoryUri);
+		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION || !repositoryUri.toString().equals(P2IndexCache.readString(dis))) {
+				return Collections.emptyMap();
+			}
+			int bundleCount = dis.readInt();
+			Map<String, List<P2PackageIndex.Export>> result = new HashMap<>(bundleCount * 2);
+			for(int i = 0; i < bundleCount; i++) {
+				String fingerprint = P2IndexCache.readString(dis);
+				int exportCount = dis.readInt();
+				List<P2PackageIndex.Export> exports = new ArrayList<>(exportCount);
+				for(int j = 0; j < exportCount; j++) {
+					String packageName = P2IndexCache.readString(dis);
+					exports.add(new P2PackageIndex.Export(packageName, Version.parseVersion(P2IndexCache.readString(dis))));
+				}
+				result.put(fingerprint, exports);
+			}
+			return result;
+		} catch(NoSuchFileException e) {
+			return Collections.emptyMap();
+		} catch(IOException | RuntimeException e) {
+			// Treat unreadable entries as absent; they will be replaced on the next write
+			if(log.isDebugEnabled()) {
+				log.debug(MessageFormat.format(Messages.getString("P2PackageCache.unreadableEntry"), file), e); //$NON-NLS-1$
+			}
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Stores the exports for the repository, replacing any existing entry.
+	 *
+	 * @param repositoryUri the base URI of the repository
+	 * @param exports a {@link Map} of bundle fingerprints to their exported packages
+	 */
+	public void write(URI repositoryUri, Map<String, List<P2PackageIndex.Export>> exports) {
+		Path file = getFile(repositoryUri);
+		Path temp = null;
+		try {
+			Files.createDirectories(this.directory);
+			temp = Files.createTempFile(this.directory, file.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+			try(OutputStream os = Files.newOutputStream(temp); DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os))) {
+				dos.writeInt(MAGIC);
+				dos.writeInt(FORMAT_VERSION);
+				P2IndexCache.writeString(dos, repositoryUri.toString());
+				dos.writeInt(exports.size());
+				for(Map.Entry<String, List<P2PackageIndex.Export>> entry : exports.entrySet()) {
+					P2IndexCache.writeString(dos, entry.getKey());
+					dos.writeInt(entry.getValue().size());
+					for(P2PackageIndex.Export export : entry.getValue()) {
+						P2IndexCache.writeString(dos, export.getPackageName());
+						P2IndexCache.writeString(dos, export.getVersion().toString());
+					}
+				}
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			// A failed cache write shouldn't fail the build
+			if(log.isWarnEnabled()) {
+				log.warn(MessageFormat.format(Messages.getString("P2PackageCache.unwritableEntry"), file), e); //$NON-NLS-1$
+			}
+			if(temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e1) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private Path getFile(URI repositoryUri) {
+		return this.directory.resolve(P2IndexCache.hash(repositoryUri.toString()) + ".pkg"); //$NON-NLS-1$
+	}
+}
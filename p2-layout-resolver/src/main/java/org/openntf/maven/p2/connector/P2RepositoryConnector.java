@@ -19,6 +19,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -27,15 +28,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.spi.connector.ArtifactDownload;
 import org.eclipse.aether.spi.connector.ArtifactUpload;
@@ -45,7 +47,6 @@ import org.eclipse.aether.spi.connector.RepositoryConnector;
 import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactory;
 import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactorySelector;
 import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmHelper;
-import org.eclipse.aether.spi.connector.layout.RepositoryLayout.ChecksumLocation;
 import org.eclipse.aether.transfer.ArtifactNotFoundException;
 import org.eclipse.aether.transfer.ArtifactTransferException;
 import org.eclipse.aether.transfer.ChecksumFailureException;
@@ -55,7 +56,8 @@ import org.eclipse.aether.transfer.TransferEvent;
 import org.eclipse.aether.transfer.TransferResource;
 import org.openntf.maven.p2.Messages;
 import org.openntf.maven.p2.layout.P2RepositoryLayout;
-import org.openntf.maven.p2.util.P2Util;
+import org.openntf.maven.p2.model.P2RepositorySettings;
+import org.openntf.maven.p2.transport.P2Downloader;
 import org.slf4j.Logger;
 
 public class P2RepositoryConnector implements RepositoryConnector {
@@ -65,17 +67,21 @@ public class P2RepositoryConnector implements RepositoryConnector {
 	
 	private final RemoteRepository repository;
 	private final P2RepositoryLayout layout;
-	// Use a single thread for now to avoid observed inconsistent behavior
-	private final ExecutorService executor = Executors.newSingleThreadExecutor();
-	private boolean closed;
+	private final P2RepositorySettings settings;
+	private final ExecutorService executor;
+	private final P2Downloader downloader;
+	private volatile boolean closed;
 	
 	public P2RepositoryConnector(RepositorySystemSession session, RemoteRepository repository, Logger logger, ChecksumAlgorithmFactorySelector checksumAlgorithmFactorySelector) {
 		this.session = session;
 		this.repository = repository;
 		this.log = logger;
+		this.settings = P2RepositorySettings.fromSession(session, repository, logger);
+		this.executor = this.settings.newExecutor("p2-download-" + repository.getId() + '-', this.settings.getDownloadThreads()); //$NON-NLS-1$
+		this.downloader = new P2Downloader(this.settings.getTransport(), this.settings.getDownloadAttempts(), P2Downloader.DEFAULT_BACKOFF, logger);
 		try {
 			// TODO support auth
-			this.layout = new P2RepositoryLayout(repository.getId(), repository.getUrl(), log, checksumAlgorithmFactorySelector);
+			this.layout = new P2RepositoryLayout(repository.getId(), repository.getUrl(), log, checksumAlgorithmFactorySelector, settings);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -101,22 +107,36 @@ public class P2RepositoryConnector implements RepositoryConnector {
 						download.getListener().transferInitiated(builder.build());
 
 						Path dest = download.getFile().toPath();
-						URI sourceUri = layout.getLocation(download.getArtifact(), false);
-						if(sourceUri == null) {
+						Artifact artifact = download.getArtifact();
+						boolean bundleJar = "jar".equals(artifact.getExtension()) && StringUtils.isEmpty(artifact.getClassifier()); //$NON-NLS-1$
+						URI sourceUri = bundleJar ? null : layout.getLocation(artifact, false);
+						if(!bundleJar && sourceUri == null) {
 							return null;
 						}
 						try {
 							download.getListener().transferStarted(builder.build());
-							download(sourceUri, dest);
-							
-							for(ChecksumLocation checksum : layout.getChecksumLocations(download.getArtifact(), false, sourceUri)) {
-								String ext = checksum.getChecksumAlgorithmFactory().getFileExtension(); //$NON-NLS-1$ //$NON-NLS-2$
-								Path checksumPath = dest.getParent().resolve(dest.getFileName().toString()+"."+ext); //$NON-NLS-1$
-								download(sourceUri.resolve(checksum.getLocation()), checksumPath);
+							if(bundleJar) {
+								// Bundles are streamed straight to the destination by the layout
+								if(!layout.downloadBundle(artifact, dest)) {
+									throw new FileNotFoundException(artifact.toString());
+								}
 								
-								verifyChecksum(dest, checksumPath, checksum.getChecksumAlgorithmFactory());
-								download.getListener().transferSucceeded(builder.build());
+								// Expected checksums come straight from the index, strongest first
+								Map<ChecksumAlgorithmFactory, String> checksums = layout.getExpectedChecksums(artifact);
+								if(!checksums.isEmpty()) {
+									Map.Entry<ChecksumAlgorithmFactory, String> strongest = checksums.entrySet().iterator().next();
+									ChecksumAlgorithmFactory algorithm = strongest.getKey();
+									verifyChecksum(dest, algorithm, strongest.getValue(), layout.getBundleDigests(artifact).get(algorithm.getName()));
+								}
+								for(Map.Entry<ChecksumAlgorithmFactory, String> checksum : checksums.entrySet()) {
+									String ext = checksum.getKey().getFileExtension();
+									Path checksumPath = dest.getParent().resolve(dest.getFileName().toString()+"."+ext); //$NON-NLS-1$
+									Files.write(checksumPath, checksum.getValue().getBytes(StandardCharsets.US_ASCII));
+								}
+							} else {
+								download(sourceUri, dest);
 							}
+							download.getListener().transferSucceeded(builder.build());
 						} catch(FileNotFoundException e) {
 							download.getListener().transferFailed(builder.build());
 							download.setException(new ArtifactNotFoundException(download.getArtifact(), repository, Messages.getString("P2RepositoryConnector.artifactNotFound"), e)); //$NON-NLS-1$
@@ -198,24 +218,42 @@ public class P2RepositoryConnector implements RepositoryConnector {
 	}
 	
 	private void download(URI source, Path dest) throws FileNotFoundException, IOException {
-		Optional<InputStream> isOpt = P2Util.openConnection(source);
-		if(!isOpt.isPresent()) {
-			throw new FileNotFoundException();
-		}
-		try(InputStream is = isOpt.get()) {
-			Files.createDirectories(dest.getParent());
-			Files.copy(is, dest, StandardCopyOption.REPLACE_EXISTING);
+		// Nothing is published to verify these against, so a failed attempt starts again from the beginning
+		boolean found = this.downloader.withRetries(source, () -> {
+			Optional<InputStream> isOpt = this.settings.openConnection(source);
+			if(!isOpt.isPresent()) {
+				return false;
+			}
+			try(InputStream is = isOpt.get()) {
+				Files.createDirectories(dest.getParent());
+				Files.copy(is, dest, StandardCopyOption.REPLACE_EXISTING);
+			} catch(IOException e) {
+				Files.deleteIfExists(dest);
+				throw e;
+			}
+			return true;
+		});
+		if(!found) {
+			throw new FileNotFoundException(source.toString());
 		}
 	}
 	
-	private void verifyChecksum(Path artifactPath, Path checksumPath, ChecksumAlgorithmFactory algorithm) throws ChecksumFailureException {
+	/**
+	 * Verifies a downloaded artifact against its expected checksum.
+	 * 
+	 * @param computed the digest computed while the artifact was downloaded, or {@code null}
+	 *        to read the artifact again to compute it
+	 */
+	private void verifyChecksum(Path artifactPath, ChecksumAlgorithmFactory algorithm, String expected, String computed) throws ChecksumFailureException {
 		try {
-			String checksum = new String(Files.readAllBytes(checksumPath));
-			String fileChecksum = ChecksumAlgorithmHelper.calculate(artifactPath.toFile(), Collections.singletonList(algorithm)).get(algorithm.getName());
-			if(!StringUtils.equals(checksum, fileChecksum)) {
+			String fileChecksum = computed;
+			if(fileChecksum == null) {
+				fileChecksum = ChecksumAlgorithmHelper.calculate(artifactPath.toFile(), Collections.singletonList(algorithm)).get(algorithm.getName());
+			}
+			if(!StringUtils.equalsIgnoreCase(expected, fileChecksum)) {
 				throw new ChecksumFailureException(MessageFormat.format(
 						Messages.getString("P2RepositoryConnector.checksumMismatch"), artifactPath, //$NON-NLS-1$
-						algorithm, checksum, fileChecksum));
+						algorithm.getName(), expected, fileChecksum));
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
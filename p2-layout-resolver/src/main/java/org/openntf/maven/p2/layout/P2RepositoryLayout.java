@@ -15,76 +15,157 @@
  */
 package org.openntf.maven.p2.layout;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
-import java.io.Writer;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
-import java.time.ZonedDateTime;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-
-import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.metadata.Metadata;
+import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactory;
 import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactorySelector;
 import org.eclipse.aether.spi.connector.layout.RepositoryLayout;
 import org.eclipse.osgi.util.ManifestElement;
 import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.cache.P2BundleCache;
+import org.openntf.maven.p2.cache.P2MetadataCache;
+import org.openntf.maven.p2.cache.P2PackageCache;
 import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2BundleContents;
 import org.openntf.maven.p2.model.P2BundleManifest;
+import org.openntf.maven.p2.model.P2InstallableUnit;
+import org.openntf.maven.p2.model.P2PackageIndex;
 import org.openntf.maven.p2.model.P2Repository;
+import org.openntf.maven.p2.model.P2RepositorySettings;
+import org.openntf.maven.p2.transport.P2Downloader;
+import org.openntf.maven.p2.transport.P2Mirrors;
+import org.openntf.maven.p2.transport.RemoteZipFile;
+import org.openntf.maven.p2.util.P2Checksums;
+import org.openntf.maven.p2.util.P2Checksums.DigestingOutputStream;
 import org.openntf.maven.p2.util.P2Util;
-import org.openntf.maven.p2.util.xml.XMLDocument;
-import org.openntf.maven.p2.util.xml.XMLNode;
+import org.openntf.maven.p2.util.xml.XMLWriter;
 import org.osgi.framework.BundleException;
-import org.osgi.framework.Version;
-import org.osgi.framework.VersionRange;
+import org.osgi.framework.Constants;
 import org.slf4j.Logger;
-import org.xml.sax.SAXException;
 
 public class P2RepositoryLayout implements RepositoryLayout, Closeable {
+	/** Identifies the structure of synthesized POMs and metadata; changing it invalidates cached copies */
+	private static final String METADATA_FORMAT = "2"; //$NON-NLS-1$
+	/** How long {@link #close()} waits for cancelled prefetches to stop, in milliseconds */
+	private static final long PREFETCH_SHUTDOWN_TIMEOUT = 5000;
+	
 	private final Logger log;
 
 	private final String id;
 	private final P2Repository p2Repo;
 
 	private final ChecksumAlgorithmFactorySelector checksumAlgorithmFactorySelector;
+	private final P2RepositorySettings settings;
+	private final P2Downloader downloader;
+	// Executors and the scratch directory are created on first use, guarded by this, so that unused layouts hold none
+	/** Downloads bundles from the repository's mirrors, or {@code null} if not yet used */
+	private P2Mirrors mirrors;
+	private ExecutorService mirrorExecutor;
+	/** Downloads the dependencies of synthesized POMs ahead of time, or {@code null} if not yet used */
+	private ExecutorService prefetchExecutor;
+	/** Bounds prefetching for executors, such as virtual threads, that don't bound it themselves; {@code null} if not enabled */
+	private final Semaphore prefetchPermits;
+	private final Set<P2Bundle> prefetched = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed;
 
 	private Path metadataScratch;
+	private final AtomicLong fakeCounter = new AtomicLong();
 	
-	private final Map<String, Path> poms = new HashMap<>();
-	private final Map<String, Path> metadatas = new HashMap<>();
-	private Map<Artifact, List<ChecksumLocation>> checksums = new HashMap<>();
-	private Map<P2Bundle, Path> localJars = new HashMap<>();
+	// Generated files are memoized per key so that concurrent downloads each produce them once
+	private final ConcurrentMap<String, CompletableFuture<Path>> poms = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CompletableFuture<Path>> metadatas = new ConcurrentHashMap<>();
+	private final ConcurrentMap<P2Bundle, CompletableFuture<Path>> localJars = new ConcurrentHashMap<>();
+	private final ConcurrentMap<P2Bundle, CompletableFuture<P2BundleContents>> contents = new ConcurrentHashMap<>();
+	private final ConcurrentMap<P2Bundle, Map<String, String>> digests = new ConcurrentHashMap<>();
+	private final ConcurrentMap<P2Bundle, CompletableFuture<Map<String, Path>>> embeddedJars = new ConcurrentHashMap<>();
+	private final ConcurrentMap<P2Bundle, CompletableFuture<Optional<RemoteZipFile>>> remoteZips = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CompletableFuture<P2PackageIndex>> packageIndexes = new ConcurrentHashMap<>();
 
 	public P2RepositoryLayout(String id, String url, Logger log, ChecksumAlgorithmFactorySelector checksumAlgorithmFactorySelector) throws IOException {
+		this(id, url, log, checksumAlgorithmFactorySelector, P2RepositorySettings.DEFAULT);
+	}
+	
+	/**
+	 * Constructs a new layout for the provided repository, using the persistent caches and
+	 * update policy configured for the session.
+	 * 
+	 * @param session the active {@link RepositorySystemSession}
+	 * @param repository the p2 {@link RemoteRepository} to lay out
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 * @param checksumAlgorithmFactorySelector the selector for checksum algorithms
+	 * @throws IOException declared for compatibility; the working directory for the layout
+	 *         is created on first use
+	 * @since 1.9.0
+	 */
+	public P2RepositoryLayout(RepositorySystemSession session, RemoteRepository repository, Logger log, ChecksumAlgorithmFactorySelector checksumAlgorithmFactorySelector) throws IOException {
+		this(repository.getId(), repository.getUrl(), log, checksumAlgorithmFactorySelector, P2RepositorySettings.fromSession(session, repository, log));
+	}
+	
+	/**
+	 * Constructs a new layout for the provided repository.
+	 * 
+	 * @param id the ID of the repository, used as the group ID of its artifacts
+	 * @param url the base URL of the p2 repository
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 * @param checksumAlgorithmFactorySelector the selector for checksum algorithms
+	 * @param settings the {@link P2RepositorySettings} to use when loading the repository
+	 * @throws IOException declared for compatibility; the working directory for the layout
+	 *         is created on first use
+	 * @since 1.9.0
+	 */
+	public P2RepositoryLayout(String id, String url, Logger log, ChecksumAlgorithmFactorySelector checksumAlgorithmFactorySelector, P2RepositorySettings settings) throws IOException {
 		this.id = id;
+		this.settings = settings;
 		this.log = log;
 		this.checksumAlgorithmFactorySelector = checksumAlgorithmFactorySelector;
 		P2Repository repo;
 		try {
-			repo = P2Repository.getInstance(URI.create(url), log);
-			this.metadataScratch = Files.createTempDirectory(getClass().getName() + '-' + id + "-metadata"); //$NON-NLS-1$
+			repo = P2Repository.getInstance(URI.create(url), log, settings);
 		} catch(IllegalArgumentException e) {
 			// This almost definitely means that the runtime hasn't interpolated a ${} property yet
 			if(log.isWarnEnabled()) {
@@ -93,12 +174,21 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 			repo = null;
 		}
 		this.p2Repo = repo;
+		this.downloader = new P2Downloader(settings.getTransport(), settings.getDownloadAttempts(), P2Downloader.DEFAULT_BACKOFF, log);
+		if(repo != null && settings.isPrefetch()) {
+			this.prefetchPermits = new Semaphore(settings.getDownloadThreads());
+		} else {
+			this.prefetchPermits = null;
+		}
 	}
 
 	@Override
 	public List<ChecksumAlgorithmFactory> getChecksumAlgorithmFactories() {
-		// TODO: unsure what checksums P2 uses, I guess it DOES use SHA-1
-		return checksumAlgorithmFactorySelector.selectList(Arrays.asList("SHA-1", "MD5"));
+		// p2 publishes any of these as download.checksum.* properties; skip any the runtime lacks
+		return P2Checksums.ALGORITHMS.stream()
+			.map(this::selectChecksumAlgorithm)
+			.filter(Objects::nonNull)
+			.collect(Collectors.toList());
 	}
 
 	@Override
@@ -141,18 +231,26 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 					.orElse(fakeUri());
 			}
 			default: {
-				Path localJar = getLocalJar(artifact, true).orElse(null);
-				if(localJar != null) {
-					try(ZipFile jarFile = new ZipFile(localJar.toFile())) {
-						ZipEntry classifiedEntry = jarFile.getEntry(artifact.getClassifier() + '.' + artifact.getExtension());
-						if(classifiedEntry == null) {
-							classifiedEntry = jarFile.getEntry(uncleanClassifier(artifact.getClassifier()) + '.' + artifact.getExtension());
-						}
-						if(classifiedEntry != null) {
-							return URI.create("jar:" + localJar.toUri().toString() + "!/" + classifiedEntry.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+				// Check the entry names indexed when the bundle was fetched rather than reopening it
+				P2BundleContents bundleContents = getBundleContents(artifact).orElse(null);
+				if(bundleContents != null) {
+					String entryName = artifact.getClassifier() + '.' + artifact.getExtension();
+					if(!bundleContents.containsEntry(entryName)) {
+						entryName = uncleanClassifier(artifact.getClassifier()) + '.' + artifact.getExtension();
+					}
+					if(bundleContents.containsEntry(entryName)) {
+						// Embedded jars can be large and usually come together, so fetch the bundle once for all of them
+						Path localJar = getLocalJar(artifact, true).orElse(null);
+						if(localJar != null) {
+							if(this.settings.isExtractEmbeddedJars()) {
+								// Extract every embedded jar on the first request, as the rest usually follow
+								Path extracted = getEmbeddedJars(artifact, localJar).get(entryName);
+								if(extracted != null) {
+									return extracted.toUri();
+								}
+							}
+							return URI.create("jar:" + localJar.toUri().toString() + "!/" + entryName); //$NON-NLS-1$ //$NON-NLS-2$
 						}
-					} catch (IOException e) {
-						throw new UncheckedIOException("Encountered exception reading local file " + localJar, e);
 					}
 				}
 				return fakeUri();
@@ -178,59 +276,143 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 
 	@Override
 	public List<ChecksumLocation> getChecksumLocations(Artifact artifact, boolean upload, URI location) {
-		if(this.p2Repo == null) {
-			return Collections.emptyList();
-		}
-		return this.checksums.computeIfAbsent(artifact, key -> {
-			if(!"jar".equals(key.getExtension()) || StringUtils.isNotEmpty(artifact.getClassifier())) { //$NON-NLS-1$
-				return Collections.emptyList();
-			}
-			
-			P2Bundle bundle = findBundle(artifact.getArtifactId(), artifact.getVersion()).orElse(null);
-			if(bundle != null) {
-				return bundle.getProperties().entrySet().stream()
-					.filter(entry -> String.valueOf(entry.getKey()).startsWith("download.checksum.")) //$NON-NLS-1$
-					.map(property -> {
-						String algorithmName = property.getKey().substring("download.checksum.".length()); //$NON-NLS-1$
-						ChecksumAlgorithmFactory algorithmFactory = checksumAlgorithmFactorySelector.select(algorithmName.toUpperCase(Locale.ROOT));
-						String value = property.getValue();
-						Path checksumFile = metadataScratch.resolve(toFileName(artifact, true) + "." + algorithmFactory.getFileExtension()); //$NON-NLS-1$
-						try {
-							Files.write(checksumFile, value.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-							return new ChecksumLocation(URI.create(checksumFile.getFileName().toString()), algorithmFactory);
-						} catch(IOException e) {
-							throw new UncheckedIOException("Encountered exception writing to local file " + checksumFile, e);
-						}
-					})
-					.collect(Collectors.toList());
-			}
-			return Collections.emptyList();
-		});
+		// p2 doesn't publish checksum files; P2RepositoryConnector verifies bundles against getExpectedChecksums
+		return Collections.emptyList();
 	}
 
 	@Override
 	public List<ChecksumLocation> getChecksumLocations(Metadata metadata, boolean upload, URI location) {
 		return Collections.emptyList();
 	}
+	
+	/**
+	 * Retrieves the checksums published for the bundle for the provided artifact, for each
+	 * algorithm supported by Maven Resolver, read straight from the artifact index.
+	 * 
+	 * @param artifact the {@link Artifact} to look up
+	 * @return a {@link Map} of algorithms to their expected lowercase hex values, strongest
+	 *         first, or an empty map if the artifact is not a bundle JAR with published checksums
+	 * @since 1.9.0
+	 */
+	public Map<ChecksumAlgorithmFactory, String> getExpectedChecksums(Artifact artifact) {
+		if(this.p2Repo == null || !"jar".equals(artifact.getExtension()) || StringUtils.isNotEmpty(artifact.getClassifier())) { //$NON-NLS-1$
+			return Collections.emptyMap();
+		}
+		return findBundle(artifact.getArtifactId(), artifact.getVersion())
+			.map(bundle -> {
+				Map<ChecksumAlgorithmFactory, String> result = new LinkedHashMap<>();
+				P2Checksums.getPublishedChecksums(bundle.getProperties()).forEach((algorithm, value) -> {
+					ChecksumAlgorithmFactory algorithmFactory = selectChecksumAlgorithm(algorithm);
+					if(algorithmFactory != null) {
+						result.put(algorithmFactory, value);
+					}
+				});
+				return result;
+			})
+			.orElse(Collections.emptyMap());
+	}
+	
+	/**
+	 * Transfers the bundle JAR for the provided artifact to the provided destination.
+	 * 
+	 * <p>The bundle is read from the remote repository at most once per layout: a copy
+	 * fetched earlier, such as for POM synthesis, or one present in the shared bundle
+	 * cache is linked or copied into place. Otherwise, the bundle is streamed straight
+	 * to the destination, capturing the manifest data needed for POM synthesis on the
+	 * way.</p>
+	 * 
+	 * @param artifact the {@link Artifact} for a bundle JAR without a classifier
+	 * @param dest the destination {@link Path}
+	 * @return {@code true} if the bundle was transferred; {@code false} if the repository
+	 *         does not contain it
+	 * @throws IOException if there is a problem transferring the bundle
+	 * @since 1.9.0
+	 */
+	public boolean downloadBundle(Artifact artifact, Path dest) throws IOException {
+		if(this.p2Repo == null) {
+			return false;
+		}
+		P2Bundle bundle = findBundle(artifact.getArtifactId(), artifact.getVersion()).orElse(null);
+		if(bundle == null) {
+			return false;
+		}
+		
+		Path source;
+		try {
+			source = P2Util.computeOnce(localJars, bundle, key -> {
+				try {
+					return fetchBundle(bundle, bundle.getUri(null), dest, true);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if(source == null) {
+			return false;
+		}
+		if(!source.equals(dest)) {
+			linkOrCopy(source, dest);
+		}
+		return true;
+	}
+	
+	/**
+	 * Retrieves the digests of the bundle for the provided artifact that were computed while
+	 * it was downloaded, for each checksum algorithm published for it. Bundles served from the
+	 * shared bundle cache report the checksum they were verified against when stored.
+	 * 
+	 * @param artifact the {@link Artifact} for a bundle JAR without a classifier
+	 * @return a {@link Map} of {@link java.security.MessageDigest} algorithm names to lowercase
+	 *         hex values, empty if the bundle has not been downloaded
+	 * @since 1.9.0
+	 */
+	public Map<String, String> getBundleDigests(Artifact artifact) {
+		return findBundle(artifact.getArtifactId(), artifact.getVersion())
+			.map(this.digests::get)
+			.orElse(Collections.emptyMap());
+	}
 
 	@Override
 	public void close() {
-		for(Path path : poms.values()) {
+		ExecutorService prefetchExecutor;
+		ExecutorService mirrorExecutor;
+		Path metadataScratch;
+		synchronized(this) {
+			this.closed = true;
+			prefetchExecutor = this.prefetchExecutor;
+			mirrorExecutor = this.mirrorExecutor;
+			metadataScratch = this.metadataScratch;
+		}
+		if(prefetchExecutor != null) {
+			prefetchExecutor.shutdownNow();
 			try {
-				Files.deleteIfExists(path);
-			} catch (IOException e) {
-				// Ignore
+				// Let interrupted prefetches finish writing before their files are removed
+				prefetchExecutor.awaitTermination(PREFETCH_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
-		for(Path path : metadatas.values()) {
-			try {
-				Files.deleteIfExists(path);
-			} catch (IOException e) {
-				// Ignore
+		if(mirrorExecutor != null) {
+			mirrorExecutor.shutdownNow();
+		}
+		if(metadataScratch == null) {
+			// Then nothing was written outside the persistent caches
+			return;
+		}
+		for(Path path : P2Util.completedValues(poms)) {
+			// Leave entries in the persistent metadata cache in place
+			if(path.startsWith(metadataScratch)) {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException e) {
+					// Ignore
+				}
 			}
 		}
-		for(Path path : localJars.values()) {
-			if(path != null) {
+		for(Path path : P2Util.completedValues(metadatas)) {
+			if(path.startsWith(metadataScratch)) {
 				try {
 					Files.deleteIfExists(path);
 				} catch (IOException e) {
@@ -238,20 +420,21 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 				}
 			}
 		}
-		for(List<ChecksumLocation> cks : checksums.values()) {
-			for(ChecksumLocation checksum : cks) {
+		for(Path path : P2Util.completedValues(localJars)) {
+			// Leave entries in the shared bundle cache in place
+			if(path.startsWith(metadataScratch)) {
 				try {
-					Path path = this.metadataScratch.resolve(checksum.getLocation().toString());
 					Files.deleteIfExists(path);
 				} catch (IOException e) {
 					// Ignore
 				}
 			}
 		}
+		P2Util.deleteTree(metadataScratch.resolve("embedded")); //$NON-NLS-1$
+		P2Util.deleteTree(metadataScratch.resolve("mirrored")); //$NON-NLS-1$
+		P2Util.deleteTree(metadataScratch.resolve("downloads")); //$NON-NLS-1$
 		try {
-			if(this.metadataScratch != null) {
-				Files.deleteIfExists(this.metadataScratch);
-			}
+			Files.deleteIfExists(metadataScratch);
 		} catch (IOException e) {
 			// Ignore
 		}
@@ -261,49 +444,95 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 	// * Internal implementation methods
 	// *******************************************************************************
 	
+	/**
+	 * Retrieves the working directory for files generated by this layout, creating it on
+	 * first use.
+	 * 
+	 * @throws UncheckedIOException if the directory can't be created
+	 * @throws IllegalStateException if the layout was closed before the directory was created
+	 */
+	private synchronized Path getScratch() {
+		if(this.metadataScratch == null) {
+			if(this.closed) {
+				throw new IllegalStateException(MessageFormat.format(Messages.getString("P2RepositoryLayout.closed"), this.id)); //$NON-NLS-1$
+			}
+			try {
+				this.metadataScratch = Files.createTempDirectory(getClass().getName() + '-' + id + "-metadata"); //$NON-NLS-1$
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return this.metadataScratch;
+	}
+	
+	/**
+	 * Retrieves the downloader for the repository's mirrors, creating it and its executor
+	 * on first use.
+	 * 
+	 * @throws IOException if the layout has been closed
+	 */
+	private synchronized P2Mirrors getMirrors() throws IOException {
+		if(this.closed) {
+			throw new IOException(MessageFormat.format(Messages.getString("P2RepositoryLayout.closed"), this.id)); //$NON-NLS-1$
+		}
+		if(this.mirrors == null) {
+			this.mirrorExecutor = settings.newExecutor("p2-mirrors-" + id + '-', settings.getDownloadThreads() * P2Mirrors.MAX_IN_FLIGHT); //$NON-NLS-1$
+			this.mirrors = new P2Mirrors(settings.getTransport(), this.mirrorExecutor, P2Mirrors.DEFAULT_HEDGE_DELAY, log);
+		}
+		return this.mirrors;
+	}
+	
+	/**
+	 * Retrieves the executor for prefetches, creating it on first use.
+	 * 
+	 * @return the prefetch {@link ExecutorService}, or {@code null} if the layout has been closed
+	 */
+	private synchronized ExecutorService getPrefetchExecutor() {
+		if(this.closed) {
+			return null;
+		}
+		if(this.prefetchExecutor == null) {
+			this.prefetchExecutor = settings.newExecutor("p2-prefetch-" + id + '-', settings.getDownloadThreads()); //$NON-NLS-1$
+		}
+		return this.prefetchExecutor;
+	}
+	
 	private URI fakeUri() {
-		return this.metadataScratch.resolve(Long.toString(System.nanoTime())).toUri();
+		return getScratch().resolve(Long.toString(System.nanoTime()) + '-' + fakeCounter.incrementAndGet()).toUri();
 	}
 	
 	private Path getPom(Artifact artifact) {
-		return this.poms.computeIfAbsent(artifact.getArtifactId() + artifact.getVersion(), key -> {
-			Path pomOut = this.metadataScratch.resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".pom"); //$NON-NLS-1$ //$NON-NLS-2$
+		return P2Util.computeOnce(this.poms, artifact.getArtifactId() + artifact.getVersion(), key -> {
+			Path pomOut = getScratch().resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".pom"); //$NON-NLS-1$ //$NON-NLS-2$
 			if(!Files.exists(pomOut) && this.id.equals(artifact.getGroupId())) {
 				// Check if it exists in the artifacts.jar
 				try {
 					P2Bundle bundle = findBundle(artifact.getArtifactId(), artifact.getVersion()).orElse(null);
 					if(bundle != null) {
-						// Then it's safe to make a file for it
-						XMLDocument xml = new XMLDocument();
-						xml.loadString("<?xml version='1.0' encoding='UTF-8'?>\n<project xmlns='http://maven.apache.org/POM/4.0.0'/>"); //$NON-NLS-1$
-
-						xml.appendChild(xml.createComment(MessageFormat.format(Messages.getString("P2RepositoryLayout.commentSynthesizedBy"), getClass().getName(), ZonedDateTime.now()))); //$NON-NLS-1$
-						xml.appendChild(xml.createComment(MessageFormat.format(Messages.getString("P2RepositoryLayout.commentSource"), bundle.getUri(null)))); //$NON-NLS-1$
-						
-						XMLNode project = xml.getDocumentElement();
-						project.addChildElement("modelVersion").setTextContent("4.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
-						project.addChildElement("groupId").setTextContent(artifact.getGroupId()); //$NON-NLS-1$
-						project.addChildElement("artifactId").setTextContent(artifact.getArtifactId()); //$NON-NLS-1$
-						project.addChildElement("version").setTextContent(artifact.getVersion()); //$NON-NLS-1$
-						
-						// Look for additional information to be gleaned from the bundle manifest
-						Path jar = getLocalJar(artifact, true).orElse(null);
-						if(jar != null) {
-							P2BundleManifest manifest = new P2BundleManifest(jar);
-							
-							addBundleMetadata(project, manifest);
-							addBundleDependencies(project, artifact, manifest);
+						// Output is reproducible for a given repository state, so earlier copies can be reused
+						P2MetadataCache metadataCache = this.settings.getMetadataCache();
+						String cacheKey = metadataCache == null ? null : metadataCacheKey("pom", artifact.getArtifactId(), artifact.getVersion()); //$NON-NLS-1$
+						if(cacheKey != null) {
+							Optional<Path> cached = metadataCache.get(metadataCacheRepository(), this.p2Repo.getIndexVersion(), cacheKey, "pom"); //$NON-NLS-1$
+							if(cached.isPresent()) {
+								return cached.get();
+							}
 						}
 						
-						project.setAttribute("xmlns", "http://maven.apache.org/POM/4.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
-						project.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance"); //$NON-NLS-1$ //$NON-NLS-2$
-						project.setAttribute("xsi:schemaLocation", "http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd"); //$NON-NLS-1$ //$NON-NLS-2$
+						// Content metadata describes the bundle without fetching it; otherwise, look for
+						// additional information to be gleaned from the bundle manifest
+						P2InstallableUnit unit = this.settings.isContentMetadata() ? this.p2Repo.getUnit(bundle.getId(), bundle.getVersion()).orElse(null) : null;
+						P2BundleContents bundleContents = unit == null ? getBundleContents(artifact).orElse(null) : null;
+						P2BundleCache.ContentWriter pom = os -> writePom(os, artifact, bundle, unit, bundleContents);
 						
-						try(Writer w = Files.newBufferedWriter(pomOut, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-							xml.getXml(null, w);
+						if(cacheKey != null && (unit != null || bundleContents != null) && isPackageIndexComplete()) {
+							// Don't keep POMs missing the bundle's own metadata or dependencies due to a failed fetch
+							return metadataCache.put(metadataCacheRepository(), this.p2Repo.getIndexVersion(), cacheKey, "pom", pom); //$NON-NLS-1$
 						}
+						// Then it's safe to make a file for it
+						writeScratchFile(pomOut, pom);
 					}
-				} catch(IOException | SAXException | ParserConfigurationException e) {
+				} catch(IOException e) {
 					throw new RuntimeException("Encountered exception writing to local pom " + pomOut, e);
 				}
 			}
@@ -311,149 +540,402 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 		});
 	}
 	
-	private static void addBundleMetadata(XMLNode project, P2BundleManifest manifest) {
-		XMLDocument xml = project.getOwnerDocument();
+	private void writePom(OutputStream os, Artifact artifact, P2Bundle bundle, P2InstallableUnit unit, P2BundleContents bundleContents) throws IOException {
+		XMLWriter xml = new XMLWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)));
+		xml.startDocument();
+		xml.startElement("project") //$NON-NLS-1$
+			.attribute("xmlns", "http://maven.apache.org/POM/4.0.0") //$NON-NLS-1$ //$NON-NLS-2$
+			.attribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance") //$NON-NLS-1$ //$NON-NLS-2$
+			.attribute("xsi:schemaLocation", "http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd"); //$NON-NLS-1$ //$NON-NLS-2$
+		xml.element("modelVersion", "4.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		xml.element("groupId", artifact.getGroupId()); //$NON-NLS-1$
+		xml.element("artifactId", artifact.getArtifactId()); //$NON-NLS-1$
+		xml.element("version", artifact.getVersion()); //$NON-NLS-1$
+		
+		if(unit != null) {
+			addUnitMetadata(xml, unit);
+			addUnitDependencies(xml, artifact, unit);
+		} else if(bundleContents != null && bundleContents.getManifest() != null) {
+			P2BundleManifest manifest = bundleContents.getManifest();
+			
+			addBundleMetadata(xml, manifest);
+			addBundleDependencies(xml, artifact, manifest, bundleContents);
+		}
+		xml.endElement();
+		
+		// Kept after the root element, where earlier versions of this plugin wrote them
+		xml.comment(MessageFormat.format(Messages.getString("P2RepositoryLayout.commentSynthesizedBy"), getClass().getName())); //$NON-NLS-1$
+		xml.comment(MessageFormat.format(Messages.getString("P2RepositoryLayout.commentSource"), bundle.getUri(null))); //$NON-NLS-1$
+		xml.endDocument();
+	}
+	
+	private static void addBundleMetadata(XMLWriter xml, P2BundleManifest manifest) throws IOException {
 		String bundleName = manifest.get("Bundle-Name"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(bundleName)) {
-			project.addChildElement("name").setTextContent(bundleName); //$NON-NLS-1$
+			xml.element("name", bundleName); //$NON-NLS-1$
 		}
 		String bundleDescription = manifest.get("Bundle-Description"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(bundleDescription)) {
-			project.addChildElement("description").setTextContent(bundleDescription); //$NON-NLS-1$
+			xml.element("description", bundleDescription); //$NON-NLS-1$
 		}
 		String bundleLicense = manifest.get("Bundle-License"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(bundleLicense)) {
-			XMLNode licenses = project.addChildElement("licenses"); //$NON-NLS-1$
-			XMLNode license = licenses.addChildElement("license"); //$NON-NLS-1$
-			license.addChildElement("url").setTextContent(bundleLicense); //$NON-NLS-1$
+			xml.startElement("licenses"); //$NON-NLS-1$
+			xml.startElement("license"); //$NON-NLS-1$
+			xml.element("url", bundleLicense); //$NON-NLS-1$
+			xml.endElement();
+			xml.endElement();
 		}
 		String bundleVendor = manifest.get("Bundle-Vendor"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(bundleVendor)) {
-			XMLNode organization = project.addChildElement("organization"); //$NON-NLS-1$
-			organization.addChildElement("name").setTextContent(bundleVendor); //$NON-NLS-1$
+			xml.startElement("organization"); //$NON-NLS-1$
+			xml.element("name", bundleVendor); //$NON-NLS-1$
+			xml.endElement();
 		}
 		String bundleCopyright = manifest.get("Bundle-Copyright"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(bundleCopyright)) {
-			project.appendChild(xml.createComment(MessageFormat.format(Messages.getString("P2RepositoryLayout.copyrightComment"), bundleCopyright))); //$NON-NLS-1$
+			xml.comment(MessageFormat.format(Messages.getString("P2RepositoryLayout.copyrightComment"), bundleCopyright)); //$NON-NLS-1$
 		}
 		String bundleDocUrl = manifest.get("Bundle-DocURL"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(bundleDocUrl)) {
-			project.addChildElement("url").setTextContent(bundleDocUrl); //$NON-NLS-1$
+			xml.element("url", bundleDocUrl); //$NON-NLS-1$
 		}
 		String sourceRef = manifest.get("Eclipse-SourceReferences"); //$NON-NLS-1$
 		if(StringUtils.isNotEmpty(sourceRef)) {
 			// Only use the first
 			sourceRef = StringUtils.split(sourceRef, ',')[0];
-			XMLNode scm = project.addChildElement("scm"); //$NON-NLS-1$
-			scm.addChildElement("url").setTextContent(sourceRef); //$NON-NLS-1$
+			xml.startElement("scm"); //$NON-NLS-1$
+			xml.element("url", sourceRef); //$NON-NLS-1$
+			xml.endElement();
 		}
 	}
 
-	private void addBundleDependencies(XMLNode project, Artifact artifact, P2BundleManifest manifest) {
-		XMLNode dependencies = null;
+	private void addBundleDependencies(XMLWriter xml, Artifact artifact, P2BundleManifest manifest, P2BundleContents bundleContents) throws IOException {
+		List<P2InstallableUnit.Requirement> requirements = new ArrayList<>();
+		List<String> classifiers = new ArrayList<>();
 		
 		String requireBundle = manifest.get("Require-Bundle"); //$NON-NLS-1$
-		if(StringUtils.isNotEmpty(requireBundle)) {
-			dependencies = project.addChildElement("dependencies"); //$NON-NLS-1$
-			
-			try {
+		String bundleClassPath = manifest.get("Bundle-ClassPath"); //$NON-NLS-1$
+		try {
+			if(StringUtils.isNotEmpty(requireBundle)) {
 				for(ManifestElement el : ManifestElement.parseHeader("Require-Bundle", requireBundle)) { //$NON-NLS-1$
-					String bundleName = el.getValue();
 					String v = el.getAttribute("bundle-version"); //$NON-NLS-1$
-					VersionRange versionRange = StringUtils.isEmpty(v) ? null : new VersionRange(v);
-					
-					P2Bundle dep = this.p2Repo.getBundles().stream()
-						.filter(bundle -> StringUtils.equals(bundleName, bundle.getId()))
-						.filter(bundle -> versionRange == null || versionRange.includes(new Version(bundle.getVersion())))
-						.findFirst()
-						.orElse(null);
-					if(dep != null) {
-						XMLNode dependency = dependencies.addChildElement("dependency"); //$NON-NLS-1$
-						dependency.addChildElement("groupId").setTextContent(this.id); //$NON-NLS-1$
-						dependency.addChildElement("artifactId").setTextContent(dep.getId()); //$NON-NLS-1$
-						dependency.addChildElement("version").setTextContent(dep.getVersion()); //$NON-NLS-1$
+					requirements.add(new P2InstallableUnit.Requirement(P2InstallableUnit.NAMESPACE_BUNDLE, el.getValue(), v, isOptional(el)));
+				}
+			}
+			
+			String importPackage = this.settings.isPackageDependencies() ? manifest.get(Constants.IMPORT_PACKAGE) : null;
+			if(StringUtils.isNotEmpty(importPackage)) {
+				for(ManifestElement el : ManifestElement.parseHeader(Constants.IMPORT_PACKAGE, importPackage)) {
+					String v = P2PackageIndex.getVersionAttribute(el);
+					for(String packageName : el.getValueComponents()) {
+						requirements.add(new P2InstallableUnit.Requirement(P2InstallableUnit.NAMESPACE_PACKAGE, packageName, v, isOptional(el)));
 					}
 				}
-			} catch (BundleException e) {
-				throw new RuntimeException("Encountered exception processing bundle manifest for " + artifact, e);
 			}
-		}
-
-		Path localJar = getLocalJar(artifact, true).orElse(null);
-		if(localJar != null) {
-			String bundleClassPath = manifest.get("Bundle-ClassPath"); //$NON-NLS-1$
+			
 			if(StringUtils.isNotEmpty(bundleClassPath)) {
-				if(dependencies == null) {
-					dependencies = project.addChildElement("dependencies"); //$NON-NLS-1$
-				}
-				try {
-					for(ManifestElement el : ManifestElement.parseHeader("Bundle-ClassPath", bundleClassPath)) { //$NON-NLS-1$
-						String cpName = el.getValue();
-						if(StringUtils.isEmpty(cpName) || ".".equals(cpName) || !containsJarEntry(localJar, cpName)) { //$NON-NLS-1$
-							continue;
-						}
-
-						if(cpName.toLowerCase().endsWith(".jar")) { //$NON-NLS-1$
-							cpName = cpName.substring(0, cpName.length()-4);
-						}
+				for(ManifestElement el : ManifestElement.parseHeader("Bundle-ClassPath", bundleClassPath)) { //$NON-NLS-1$
+					String cpName = el.getValue();
+					if(StringUtils.isEmpty(cpName) || ".".equals(cpName) || !bundleContents.containsEntry(cpName)) { //$NON-NLS-1$
+						continue;
+					}
 
-						XMLNode dependency = dependencies.addChildElement("dependency"); //$NON-NLS-1$
-						dependency.addChildElement("groupId").setTextContent(this.id); //$NON-NLS-1$
-						dependency.addChildElement("artifactId").setTextContent(artifact.getArtifactId()); //$NON-NLS-1$
-						dependency.addChildElement("version").setTextContent(artifact.getVersion()); //$NON-NLS-1$
-						dependency.addChildElement("classifier").setTextContent(cleanClassifier(cpName)); //$NON-NLS-1$
+					if(cpName.toLowerCase().endsWith(".jar")) { //$NON-NLS-1$
+						cpName = cpName.substring(0, cpName.length()-4);
 					}
-				} catch (BundleException e) {
-					throw new RuntimeException("Encountered exception processing bundle manifest for " + artifact, e);
+					classifiers.add(cleanClassifier(cpName));
 				}
 			}
+		} catch (BundleException e) {
+			throw new RuntimeException("Encountered exception processing bundle manifest for " + artifact, e);
 		}
+		
+		writeDependencies(xml, artifact, requirements, classifiers, StringUtils.isNotEmpty(requireBundle) || StringUtils.isNotEmpty(bundleClassPath));
 	}
-
-	private boolean containsJarEntry(Path localJar, String fileName) {
-		try(ZipFile jarFile = new ZipFile(localJar.toFile())) {
-			ZipEntry classifiedEntry = jarFile.getEntry(fileName);
-			return classifiedEntry != null;
-		} catch (IOException e) {
-			throw new UncheckedIOException("Encountered exception reading local file " + localJar, e);
+	
+	private static void addUnitMetadata(XMLWriter xml, P2InstallableUnit unit) throws IOException {
+		String name = unit.getLocalizedProperty(P2InstallableUnit.PROP_NAME);
+		if(StringUtils.isNotEmpty(name)) {
+			xml.element("name", name); //$NON-NLS-1$
+		}
+		String description = unit.getLocalizedProperty(P2InstallableUnit.PROP_DESCRIPTION);
+		if(StringUtils.isNotEmpty(description)) {
+			xml.element("description", description); //$NON-NLS-1$
+		}
+		String provider = unit.getLocalizedProperty(P2InstallableUnit.PROP_PROVIDER);
+		if(StringUtils.isNotEmpty(provider)) {
+			xml.startElement("organization"); //$NON-NLS-1$
+			xml.element("name", provider); //$NON-NLS-1$
+			xml.endElement();
+		}
+		String docUrl = unit.getLocalizedProperty(P2InstallableUnit.PROP_DOC_URL);
+		if(StringUtils.isNotEmpty(docUrl)) {
+			xml.element("url", docUrl); //$NON-NLS-1$
 		}
 	}
-
+	
+	private void addUnitDependencies(XMLWriter xml, Artifact artifact, P2InstallableUnit unit) throws IOException {
+		boolean requiresBundles = unit.getRequires().stream()
+			.anyMatch(requirement -> P2InstallableUnit.NAMESPACE_BUNDLE.equals(requirement.getNamespace()));
+		// Content metadata doesn't list bundle entries, so embedded jars can't be included
+		writeDependencies(xml, artifact, unit.getRequires(), Collections.emptyList(), requiresBundles);
+	}
+	
+	/**
+	 * Writes the {@code dependencies} element for the provided requirements, followed by
+	 * the bundle's own embedded jars.
+	 * 
+	 * <p>Required bundles resolve to the highest version in range. Required packages resolve
+	 * to the bundle exporting the highest version in range when package dependencies are
+	 * enabled; packages provided by the bundle itself or by no bundle in the repository,
+	 * such as those of the JRE, are skipped. Each bundle is listed once, and is optional
+	 * only when every package import it satisfies is optional.</p>
+	 * 
+	 * @param writeEmpty whether to write the element even when there are no dependencies
+	 */
+	private void writeDependencies(XMLWriter xml, Artifact artifact, List<P2InstallableUnit.Requirement> requirements, List<String> classifiers, boolean writeEmpty) throws IOException {
+		Map<String, P2Bundle> dependencies = new LinkedHashMap<>();
+		Map<String, Boolean> optional = new HashMap<>();
+		P2PackageIndex packageIndex = null;
+		for(P2InstallableUnit.Requirement requirement : requirements) {
+			Optional<P2Bundle> dep;
+			boolean optionalDep;
+			if(P2InstallableUnit.NAMESPACE_BUNDLE.equals(requirement.getNamespace())) {
+				dep = this.p2Repo.resolveBundle(requirement.getName(), requirement.getVersionRange());
+				// Required bundles have never been marked optional
+				optionalDep = false;
+			} else if(P2InstallableUnit.NAMESPACE_PACKAGE.equals(requirement.getNamespace()) && this.settings.isPackageDependencies()) {
+				if(packageIndex == null) {
+					packageIndex = getPackageIndex();
+				}
+				dep = packageIndex.resolve(requirement.getName(), requirement.getVersionRange())
+					.filter(provider -> !provider.getId().equals(artifact.getArtifactId()));
+				optionalDep = requirement.isOptional();
+			} else {
+				continue;
+			}
+			if(dep.isPresent()) {
+				dependencies.putIfAbsent(dep.get().getId(), dep.get());
+				optional.merge(dep.get().getId(), optionalDep, Boolean::logicalAnd);
+			}
+		}
+		
+		// Maven requests these next, one level of the tree at a time, but never the optional
+		// dependencies of a dependency
+		prefetch(dependencies.values().stream()
+			.filter(dep -> !optional.get(dep.getId()))
+			.collect(Collectors.toList()));
+		
+		if(!writeEmpty && dependencies.isEmpty() && classifiers.isEmpty()) {
+			return;
+		}
+		xml.startElement("dependencies"); //$NON-NLS-1$
+		for(P2Bundle dep : dependencies.values()) {
+			xml.startElement("dependency"); //$NON-NLS-1$
+			xml.element("groupId", this.id); //$NON-NLS-1$
+			xml.element("artifactId", dep.getId()); //$NON-NLS-1$
+			xml.element("version", dep.getVersion()); //$NON-NLS-1$
+			if(optional.get(dep.getId())) {
+				xml.element("optional", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			xml.endElement();
+		}
+		for(String classifier : classifiers) {
+			xml.startElement("dependency"); //$NON-NLS-1$
+			xml.element("groupId", this.id); //$NON-NLS-1$
+			xml.element("artifactId", artifact.getArtifactId()); //$NON-NLS-1$
+			xml.element("version", artifact.getVersion()); //$NON-NLS-1$
+			xml.element("classifier", classifier); //$NON-NLS-1$
+			xml.endElement();
+		}
+		xml.endElement();
+	}
+	
+	private static boolean isOptional(ManifestElement el) {
+		return Constants.RESOLUTION_OPTIONAL.equals(el.getDirective(Constants.RESOLUTION_DIRECTIVE));
+	}
+	
+	/**
+	 * Starts downloading the provided bundles in the background when prefetching is enabled,
+	 * skipping those already started.
+	 */
+	private void prefetch(Collection<P2Bundle> bundles) {
+		if(this.prefetchPermits == null) {
+			return;
+		}
+		for(P2Bundle bundle : bundles) {
+			if(this.closed || !this.prefetched.add(bundle)) {
+				continue;
+			}
+			ExecutorService prefetchExecutor = getPrefetchExecutor();
+			if(prefetchExecutor == null) {
+				return;
+			}
+			try {
+				prefetchExecutor.execute(() -> prefetchBundle(bundle));
+			} catch(RejectedExecutionException e) {
+				// Then the layout was closed in the meantime
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Synthesizes the POM of the provided bundle, which prefetches its own dependencies in
+	 * turn, and then fetches the bundle and extracts its embedded jars through the same
+	 * memoized loads that later requests for them use.
+	 */
+	private void prefetchBundle(P2Bundle bundle) {
+		try {
+			this.prefetchPermits.acquire();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		Artifact artifact = new DefaultArtifact(this.id, bundle.getId(), null, "jar", bundle.getVersion()); //$NON-NLS-1$
+		try {
+			if(this.closed) {
+				return;
+			}
+			getPom(artifact);
+			Path localJar = this.closed ? null : getLocalJar(artifact, false).orElse(null);
+			if(localJar != null && this.settings.isExtractEmbeddedJars()) {
+				boolean hasEmbeddedJars = getBundleContents(artifact)
+					.map(bundleContents -> bundleContents.getEntryNames().stream().anyMatch(name -> name.toLowerCase(Locale.ROOT).endsWith(".jar"))) //$NON-NLS-1$
+					.orElse(false);
+				if(hasEmbeddedJars && !this.closed) {
+					getEmbeddedJars(artifact, localJar);
+				}
+			}
+		} catch(RuntimeException e) {
+			// Failed loads aren't memoized, so the request for the bundle itself will try again
+			if(log.isDebugEnabled()) {
+				log.debug(MessageFormat.format(Messages.getString("P2RepositoryLayout.prefetchFailed"), bundle.getUri(null)), e); //$NON-NLS-1$
+			}
+		} finally {
+			this.prefetchPermits.release();
+		}
+	}
+	
+	/**
+	 * Retrieves the package export index for the current contents of the repository,
+	 * building it on first use.
+	 */
+	private P2PackageIndex getPackageIndex() {
+		return P2Util.computeOnce(this.packageIndexes, this.p2Repo.getIndexVersion(), key -> buildPackageIndex());
+	}
+	
+	/**
+	 * Determines whether POMs generated now can be reproduced later, which is not the case
+	 * when package dependencies are in use but some bundle manifests could not be read.
+	 */
+	private boolean isPackageIndexComplete() {
+		return !this.settings.isPackageDependencies() || getPackageIndex().isComplete();
+	}
+	
+	/**
+	 * Builds the package export index from the content metadata or manifests of all
+	 * bundles in the repository. Exports stored by an earlier build are reused, and the
+	 * manifests of the remaining bundles are read concurrently.
+	 */
+	private P2PackageIndex buildPackageIndex() {
+		List<P2Bundle> bundles = this.p2Repo.getBundles();
+		P2PackageCache packageCache = this.settings.getPackageCache();
+		Map<String, List<P2PackageIndex.Export>> cached = packageCache == null ? Collections.emptyMap() : packageCache.read(this.p2Repo.getUri());
+		
+		Map<P2Bundle, CompletableFuture<List<P2PackageIndex.Export>>> pending = new LinkedHashMap<>();
+		Map<String, List<P2PackageIndex.Export>> known = new HashMap<>();
+		ExecutorService executor = null;
+		try {
+			for(P2Bundle bundle : bundles) {
+				String fingerprint = P2PackageCache.fingerprint(bundle);
+				List<P2PackageIndex.Export> exports = cached.get(fingerprint);
+				if(exports == null && this.settings.isContentMetadata()) {
+					exports = this.p2Repo.getUnit(bundle.getId(), bundle.getVersion()).map(P2PackageIndex::getExports).orElse(null);
+				}
+				if(exports != null) {
+					known.put(fingerprint, exports);
+					pending.put(bundle, CompletableFuture.completedFuture(exports));
+				} else {
+					if(executor == null) {
+						executor = this.settings.newExecutor("p2-packages-" + this.id + '-', this.settings.getDownloadThreads()); //$NON-NLS-1$
+					}
+					pending.put(bundle, CompletableFuture.supplyAsync(() -> readExports(bundle), executor));
+				}
+			}
+			
+			boolean complete = true;
+			Map<P2Bundle, List<P2PackageIndex.Export>> exports = new LinkedHashMap<>();
+			for(Map.Entry<P2Bundle, CompletableFuture<List<P2PackageIndex.Export>>> entry : pending.entrySet()) {
+				List<P2PackageIndex.Export> bundleExports = entry.getValue().join();
+				if(bundleExports == null) {
+					complete = false;
+				} else {
+					exports.put(entry.getKey(), bundleExports);
+					known.put(P2PackageCache.fingerprint(entry.getKey()), bundleExports);
+				}
+			}
+			
+			// Rewrite when bundles were added or removed, which also drops entries for removed ones
+			if(packageCache != null && !known.keySet().equals(cached.keySet())) {
+				packageCache.write(this.p2Repo.getUri(), known);
+			}
+			return new P2PackageIndex(exports, complete);
+		} finally {
+			if(executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+	
+	/**
+	 * Reads the exported packages of a single bundle from its manifest.
+	 * 
+	 * @return the exported packages, or {@code null} if the bundle could not be read
+	 */
+	private List<P2PackageIndex.Export> readExports(P2Bundle bundle) {
+		Artifact artifact = new DefaultArtifact(this.id, bundle.getId(), "jar", bundle.getVersion()); //$NON-NLS-1$
+		try {
+			P2BundleContents bundleContents = getBundleContents(artifact).orElse(null);
+			if(bundleContents == null) {
+				if(log.isWarnEnabled()) {
+					log.warn(MessageFormat.format(Messages.getString("P2RepositoryLayout.packageExportsUnavailable"), artifact)); //$NON-NLS-1$
+				}
+				return null;
+			}
+			P2BundleManifest manifest = bundleContents.getManifest();
+			return manifest == null ? Collections.emptyList() : P2PackageIndex.parseExports(manifest.get(Constants.EXPORT_PACKAGE));
+		} catch(BundleException | RuntimeException e) {
+			if(log.isWarnEnabled()) {
+				log.warn(MessageFormat.format(Messages.getString("P2RepositoryLayout.packageExportsUnavailable"), artifact), e); //$NON-NLS-1$
+			}
+			return null;
+		}
+	}
+	
 	private Path getMetadata(Metadata metadata) {
-		return this.metadatas.computeIfAbsent(metadata.getArtifactId(), key -> {
-			Path metadataOut = this.metadataScratch.resolve("maven-metadata-" + metadata.getArtifactId() + ".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+		return P2Util.computeOnce(this.metadatas, metadata.getArtifactId(), key -> {
+			Path metadataOut = getScratch().resolve("maven-metadata-" + metadata.getArtifactId() + ".xml"); //$NON-NLS-1$ //$NON-NLS-2$
 			if(!Files.exists(metadataOut) && this.id.equals(metadata.getGroupId())) {
 				// Create a temporary maven-metadata.xml
 				try {
 					List<P2Bundle> bundles = findBundles(metadata.getArtifactId());
 					if(!bundles.isEmpty()) {
-						
-						XMLDocument result = new XMLDocument();
-						result.loadString("<?xml version='1.0' encoding='UTF-8'?>\n<metadata/>"); //$NON-NLS-1$
-						XMLNode metadataNode = result.getDocumentElement();
-						metadataNode.addChildElement("groupId").setTextContent(this.id); //$NON-NLS-1$
-						metadataNode.addChildElement("artifactId").setTextContent(metadata.getArtifactId()); //$NON-NLS-1$
-						XMLNode versioning = metadataNode.addChildElement("versioning"); //$NON-NLS-1$
-						XMLNode versions = versioning.addChildElement("versions"); //$NON-NLS-1$
-
-						for(P2Bundle bundle : bundles) {
-							versions.addChildElement("version").setTextContent(bundle.getVersion()); //$NON-NLS-1$
+						P2MetadataCache metadataCache = this.settings.getMetadataCache();
+						String cacheKey = metadataCache == null ? null : metadataCacheKey("metadata", metadata.getArtifactId(), ""); //$NON-NLS-1$ //$NON-NLS-2$
+						if(cacheKey != null) {
+							Optional<Path> cached = metadataCache.get(metadataCacheRepository(), this.p2Repo.getIndexVersion(), cacheKey, "xml"); //$NON-NLS-1$
+							if(cached.isPresent()) {
+								return cached.get();
+							}
 						}
 						
-						// Just assume that the last one by string comparison is the newest for now
-						String latestVersion = bundles.stream()
-							.map(P2Bundle::getVersion)
-							.map(Version::new)
-							.sorted(Comparator.reverseOrder())
-							.map(String::valueOf)
-							.findFirst()
-							.orElse(null);
-						versioning.addChildElement("latest").setTextContent(latestVersion); //$NON-NLS-1$
-						versioning.addChildElement("release").setTextContent(latestVersion); //$NON-NLS-1$
-						
-						try(Writer w = Files.newBufferedWriter(metadataOut, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-							result.getXml(null, w);
+						P2BundleCache.ContentWriter content = os -> writeMetadata(os, metadata, bundles);
+						if(cacheKey != null) {
+							return metadataCache.put(metadataCacheRepository(), this.p2Repo.getIndexVersion(), cacheKey, "xml", content); //$NON-NLS-1$
 						}
+						writeScratchFile(metadataOut, content);
 					}
 				} catch(Throwable e) {
 					throw new RuntimeException(e);
@@ -463,37 +945,57 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 		});
 	}
 	
+	private void writeMetadata(OutputStream os, Metadata metadata, List<P2Bundle> bundles) throws IOException {
+		XMLWriter xml = new XMLWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)));
+		xml.startDocument();
+		xml.startElement("metadata"); //$NON-NLS-1$
+		xml.element("groupId", this.id); //$NON-NLS-1$
+		xml.element("artifactId", metadata.getArtifactId()); //$NON-NLS-1$
+		xml.startElement("versioning"); //$NON-NLS-1$
+		xml.startElement("versions"); //$NON-NLS-1$
+		for(P2Bundle bundle : bundles) {
+			xml.element("version", bundle.getVersion()); //$NON-NLS-1$
+		}
+		xml.endElement();
+		
+		String latestVersion = this.p2Repo.getLatestBundle(metadata.getArtifactId())
+			.map(P2Bundle::getVersion)
+			.orElse(null);
+		xml.element("latest", latestVersion); //$NON-NLS-1$
+		xml.element("release", latestVersion); //$NON-NLS-1$
+		xml.endDocument();
+	}
+	
+	/** Identifies this layout's repository in the metadata cache, across index versions */
+	private String metadataCacheRepository() {
+		return P2MetadataCache.key(this.id, this.p2Repo.getUri().toString());
+	}
+	
+	/**
+	 * Builds the persistent cache key for synthesized content, covering every input that
+	 * affects it: the repository contents, the bundle, the locale used for manifest
+	 * localization and whether package dependencies are included.
+	 */
+	private String metadataCacheKey(String kind, String artifactId, String version) {
+		return P2MetadataCache.key(METADATA_FORMAT, kind, this.id, artifactId, version, this.p2Repo.getIndexVersion(), Locale.getDefault().toString(), Boolean.toString(this.settings.isPackageDependencies()), Boolean.toString(this.settings.isContentMetadata()));
+	}
+	
 	private List<P2Bundle> findBundles(String artifactId) {
-		return this.p2Repo.getBundles().stream()
-			.filter(bundle -> StringUtils.equals(bundle.getId(), artifactId))
-			.collect(Collectors.toList());
+		return this.p2Repo.getBundles(artifactId);
 	}
 	
 	private Optional<P2Bundle> findBundle(String artifactId, String version) {
-		return this.p2Repo.getBundles().stream()
-			.filter(bundle -> StringUtils.equals(bundle.getId(), artifactId))
-			.filter(bundle -> version == null || version.equals(bundle.getVersion()))
-			.findFirst();
+		return this.p2Repo.getBundle(artifactId, version);
 	}
 	
 	private Optional<Path> getLocalJar(Artifact artifact, boolean ignoreClassifier) {
 		return findBundle(artifact.getArtifactId(), artifact.getVersion())
 			.flatMap(bundle -> {
-				return Optional.ofNullable(localJars.computeIfAbsent(bundle, key -> {
-					String jar = toFileName(artifact, ignoreClassifier);
-					
+				return Optional.ofNullable(P2Util.computeOnce(localJars, bundle, key -> {
 					URI uri = bundle.getUri(ignoreClassifier ? null : artifact.getClassifier());
+					boolean mainArtifact = ignoreClassifier || StringUtils.isEmpty(artifact.getClassifier());
 					try {
-						Optional<InputStream> optIs = P2Util.openConnection(uri);
-						if(optIs.isPresent()) {
-							try(InputStream is = optIs.get()) {
-								Path localJar = this.metadataScratch.resolve(jar);
-								Files.copy(is, localJar, StandardCopyOption.REPLACE_EXISTING);
-								return localJar;
-							}
-						} else {
-							return null;
-						}
+						return fetchBundle(bundle, uri, getScratch().resolve(toFileName(artifact, ignoreClassifier)), mainArtifact);
 					} catch(IOException e) {
 						if(log.isWarnEnabled()) {
 							log.warn("Encountered exception reading " + uri, e);
@@ -501,11 +1003,291 @@ public class P2RepositoryLayout implements RepositoryLayout, Closeable {
 						}
 						return null;
 					}
-					
 				}));
 			});
 	}
 	
+	/**
+	 * Retrieves the manifest and entry names of the bundle for the provided artifact,
+	 * fetching the bundle if it has not been already.
+	 */
+	private Optional<P2BundleContents> getBundleContents(Artifact artifact) {
+		P2Bundle bundle = findBundle(artifact.getArtifactId(), artifact.getVersion()).orElse(null);
+		if(bundle == null) {
+			return Optional.empty();
+		}
+		// A bundle that hasn't been fetched yet can be read from its central directory and manifest alone
+		Optional<RemoteZipFile> remote = getRemoteZip(bundle);
+		if(remote.isPresent()) {
+			try {
+				return Optional.of(P2Util.computeOnce(contents, bundle, key -> {
+					try {
+						return P2BundleContents.read(remote.get());
+					} catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+			} catch(UncheckedIOException e) {
+				if(log.isDebugEnabled()) {
+					log.debug(MessageFormat.format(Messages.getString("P2RepositoryLayout.rangeRequestFailed"), remote.get().getUri()), e); //$NON-NLS-1$
+				}
+			}
+		}
+		
+		// Fetching the bundle usually captures its contents on the way
+		Path jar = getLocalJar(artifact, true).orElse(null);
+		if(jar == null) {
+			return Optional.empty();
+		}
+		return Optional.of(P2Util.computeOnce(contents, bundle, key -> {
+			try {
+				return P2BundleContents.read(jar);
+			} catch(IOException e) {
+				throw new UncheckedIOException("Encountered exception reading local file " + jar, e);
+			}
+		}));
+	}
+	
+	/**
+	 * Opens the central directory of the remote bundle with HTTP {@code Range} requests, if
+	 * enabled and the bundle is not already available locally.
+	 * 
+	 * @return an {@link Optional} describing the remote bundle, or an empty one if it should
+	 *         be read in full instead
+	 */
+	private Optional<RemoteZipFile> getRemoteZip(P2Bundle bundle) {
+		if(!this.settings.isRangeRequests() || this.localJars.containsKey(bundle)) {
+			return Optional.empty();
+		}
+		URI uri = bundle.getUri(null);
+		if(!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) { //$NON-NLS-1$ //$NON-NLS-2$
+			return Optional.empty();
+		}
+		P2BundleCache bundleCache = this.settings.getBundleCache();
+		if(bundleCache != null && P2BundleCache.keyFor(bundle).flatMap(bundleCache::get).isPresent()) {
+			return Optional.empty();
+		}
+		return P2Util.computeOnce(this.remoteZips, bundle, key -> {
+			try {
+				Optional<RemoteZipFile> result = RemoteZipFile.open(this.settings.getTransport(), uri);
+				if(!result.isPresent() && log.isDebugEnabled()) {
+					log.debug(MessageFormat.format(Messages.getString("P2RepositoryLayout.rangeRequestFailed"), uri)); //$NON-NLS-1$
+				}
+				return result;
+			} catch(IOException e) {
+				if(log.isDebugEnabled()) {
+					log.debug(MessageFormat.format(Messages.getString("P2RepositoryLayout.rangeRequestFailed"), uri), e); //$NON-NLS-1$
+				}
+				return Optional.empty();
+			}
+		});
+	}
+	
+	/**
+	 * Extracts all embedded jars from the local copy of the bundle for the provided artifact
+	 * in a single pass, the first time any of them is requested.
+	 * 
+	 * @return a {@link Map} of entry names to extracted files
+	 */
+	private Map<String, Path> getEmbeddedJars(Artifact artifact, Path localJar) {
+		P2Bundle bundle = findBundle(artifact.getArtifactId(), artifact.getVersion()).get();
+		return P2Util.computeOnce(this.embeddedJars, bundle, key -> {
+			Path dir = getScratch().resolve("embedded").resolve(toFileName(artifact, true)); //$NON-NLS-1$
+			Map<String, Path> result = new HashMap<>();
+			try(ZipFile zipFile = ZipFile.builder().setFile(localJar.toFile()).get()) {
+				Enumeration<ZipArchiveEntry> entries = zipFile.getEntriesInPhysicalOrder();
+				while(entries.hasMoreElements()) {
+					ZipArchiveEntry entry = entries.nextElement();
+					String name = entry.getName();
+					if(entry.isDirectory() || !name.toLowerCase(Locale.ROOT).endsWith(".jar")) { //$NON-NLS-1$
+						continue;
+					}
+					Path target = dir.resolve(name).normalize();
+					if(!target.startsWith(dir)) {
+						// Skip entries that would escape the extraction directory
+						continue;
+					}
+					Files.createDirectories(target.getParent());
+					// STORED entries are copied as-is, without passing through an inflater
+					boolean stored = entry.getMethod() == ZipEntry.STORED;
+					try(InputStream is = stored ? zipFile.getRawInputStream(entry) : zipFile.getInputStream(entry)) {
+						Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+					}
+					result.put(name, target);
+				}
+			} catch(IOException e) {
+				throw new UncheckedIOException("Encountered exception extracting embedded jars from " + localJar, e);
+			}
+			return result;
+		});
+	}
+	
+	/**
+	 * Reads a bundle from the remote repository once, storing it in the shared bundle cache
+	 * when it has a published checksum or in {@code target} otherwise. The bundle's
+	 * manifest and entry names are captured in the same pass when it is streamed.
+	 * 
+	 * @return the local path of the bundle, or {@code null} if it does not exist remotely
+	 */
+	private Path fetchBundle(P2Bundle bundle, URI uri, Path target, boolean mainArtifact) throws IOException {
+		// Bundles with a published checksum are shared through the content-addressed cache
+		P2BundleCache bundleCache = this.settings.getBundleCache();
+		Optional<P2BundleCache.Key> cacheKey = bundleCache == null || !mainArtifact ? Optional.empty() : P2BundleCache.keyFor(bundle);
+		if(cacheKey.isPresent()) {
+			Optional<Path> cached = bundleCache.get(cacheKey.get());
+			if(cached.isPresent()) {
+				// Entries are verified against their key when stored
+				this.digests.putIfAbsent(bundle, Collections.singletonMap(cacheKey.get().getAlgorithm(), cacheKey.get().getValue()));
+				return cached.get();
+			}
+		}
+		
+		boolean http = "http".equals(uri.getScheme()) || "https".equals(uri.getScheme()); //$NON-NLS-1$ //$NON-NLS-2$
+		Map<String, String> checksums = mainArtifact ? P2Checksums.getPublishedChecksums(bundle.getProperties()) : Collections.emptyMap();
+		Optional<URI> mirrorsUrl = Optional.empty();
+		URI path = bundle.getBaseUri().relativize(uri);
+		if(this.settings.isMirrors() && http && !checksums.isEmpty() && !path.isAbsolute()) {
+			mirrorsUrl = this.p2Repo.getMirrorsUrl(bundle.getBaseUri());
+		}
+		
+		// Resumable downloads are kept in the bundle cache or the scratch directory, never beside the target
+		Path partial = null;
+		if(http && !checksums.isEmpty() && !mirrorsUrl.isPresent()) {
+			if(cacheKey.isPresent()) {
+				partial = bundleCache.getPartialFile(cacheKey.get());
+			} else if(this.settings.getHttpCache() == null) {
+				partial = P2Downloader.getPartialFile(getScratch().resolve("downloads"), uri, checksums); //$NON-NLS-1$
+			}
+		}
+		if(partial != null) {
+			// The downloader digests the file as it is written, so it's moved into place as-is
+			return this.downloader.download(uri, partial, checksums, bundle.getDownloadSize().orElse(-1), (file, fileDigests) -> {
+				this.digests.put(bundle, fileDigests);
+				if(cacheKey.isPresent()) {
+					return bundleCache.putVerified(cacheKey.get(), file);
+				}
+				Files.createDirectories(target.getParent());
+				moveIntoPlace(file, target);
+				return target;
+			}).orElse(null);
+		}
+		
+		Optional<URI> fromMirrors = mirrorsUrl;
+		P2Downloader.Attempt<Path> fetch = () -> {
+			Optional<InputStream> optIs = openBundle(bundle, uri, path, checksums, fromMirrors);
+			if(!optIs.isPresent()) {
+				return null;
+			}
+			try(InputStream is = optIs.get()) {
+				if(cacheKey.isPresent()) {
+					return bundleCache.put(cacheKey.get(), os -> writeBundle(bundle, is, os, mainArtifact));
+				}
+				Files.createDirectories(target.getParent());
+				Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+				try {
+					try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+						writeBundle(bundle, is, os, mainArtifact);
+					}
+					moveIntoPlace(temp, target);
+				} finally {
+					Files.deleteIfExists(temp);
+				}
+				return target;
+			}
+		};
+		// Mirrors fail over between themselves, while a single source is retried with backoff
+		return fromMirrors.isPresent() ? fetch.run() : this.downloader.withRetries(uri, fetch);
+	}
+	
+	/**
+	 * Opens a bundle from the fastest of the repository's mirrors when a mirrors URL applies
+	 * to it, and otherwise from the repository itself.
+	 * 
+	 * @param path the path of the bundle relative to its repository
+	 * @param checksums the published checksums to verify mirrored content against
+	 * @param mirrorsUrl the mirrors URL of the repository, if mirrors are enabled and the
+	 *        bundle has a published checksum to verify them against
+	 * @return an {@link Optional} describing the bundle content, or an empty one if it does
+	 *         not exist
+	 */
+	private Optional<InputStream> openBundle(P2Bundle bundle, URI uri, URI path, Map<String, String> checksums, Optional<URI> mirrorsUrl) throws IOException {
+		if(mirrorsUrl.isPresent()) {
+			Optional<Path> file = getMirrors().download(bundle.getBaseUri(), mirrorsUrl.get(), path.toString(), checksums, bundle.getDownloadSize().orElse(-1), getScratch().resolve("mirrored")); //$NON-NLS-1$
+			if(!file.isPresent()) {
+				return Optional.empty();
+			}
+			// The verified copy is only needed until it has been read into place
+			return Optional.of(Files.newInputStream(file.get(), StandardOpenOption.DELETE_ON_CLOSE));
+		}
+		return this.settings.openConnection(uri);
+	}
+	
+	private void writeBundle(P2Bundle bundle, InputStream is, OutputStream os, boolean mainArtifact) throws IOException {
+		if(mainArtifact) {
+			// Compute every published checksum inline so the written file needn't be read again
+			DigestingOutputStream dos = P2Checksums.digesting(os, P2Checksums.getPublishedChecksums(bundle.getProperties()).keySet());
+			P2BundleContents captured = P2BundleContents.capture(is, dos);
+			dos.flush();
+			this.digests.put(bundle, dos.getDigests());
+			if(captured != null) {
+				this.contents.putIfAbsent(bundle, CompletableFuture.completedFuture(captured));
+			}
+		} else {
+			byte[] buf = new byte[8192];
+			int read;
+			while((read = is.read(buf)) != -1) {
+				os.write(buf, 0, read);
+			}
+		}
+	}
+	
+	private ChecksumAlgorithmFactory selectChecksumAlgorithm(String algorithm) {
+		try {
+			return this.checksumAlgorithmFactorySelector.select(algorithm);
+		} catch(IllegalArgumentException e) {
+			// Not supported by this version of Maven Resolver
+			return null;
+		}
+	}
+	
+	/**
+	 * Places the provided file at the destination, sharing its storage via a hard link when
+	 * the filesystem allows it.
+	 */
+	private static void linkOrCopy(Path source, Path dest) throws IOException {
+		Files.createDirectories(dest.getParent());
+		Files.deleteIfExists(dest);
+		try {
+			Files.createLink(dest, source);
+		} catch(IOException | UnsupportedOperationException | SecurityException e) {
+			Files.copy(source, dest, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Writes the provided content to a scratch file via a temporary file, so that the
+	 * file never appears partially written to concurrent readers.
+	 */
+	private void writeScratchFile(Path file, P2BundleCache.ContentWriter writer) throws IOException {
+		Path temp = Files.createTempFile(getScratch(), file.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+		try {
+			try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				writer.write(os);
+			}
+			moveIntoPlace(temp, file);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	private static void moveIntoPlace(Path temp, Path file) throws IOException {
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
 	private String toFileName(Artifact artifact, boolean ignoreClassifier) {
 		StringBuilder builder = new StringBuilder();
 		builder.append(artifact.getArtifactId());
@@ -54,7 +54,7 @@ public class P2RepositoryLayoutFactory implements RepositoryLayoutFactory {
 		}
 		
 		try {
-			return new P2RepositoryLayout(repository.getId(), repository.getUrl(), log, checksumAlgorithmFactorySelector);
+			return new P2RepositoryLayout(session, repository, log, checksumAlgorithmFactorySelector);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
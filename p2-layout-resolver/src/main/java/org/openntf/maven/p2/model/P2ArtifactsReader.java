@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.model;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.util.xml.XMLStreams;
+
+/**
+ * Streaming reader for p2 artifacts.xml and compositeArtifacts.xml documents.
+ *
+ * <p>Unlike loading the document into a DOM, this emits {@link P2Bundle}s as the
+ * corresponding {@code <artifact>} elements are read, and so never holds the full
+ * document in memory.</p>
+ *
+ * @author Jesse Gallagher
+ * @since 1.9.0
+ */
+public enum P2ArtifactsReader {
+	;
+
+	/**
+	 * Receives the contents of an artifacts.xml or compositeArtifacts.xml document as it
+	 * is read.
+	 * 
+	 * @since 1.9.0
+	 */
+	public interface Handler {
+		/**
+		 * Called once the repository-level {@code <properties>} element has been read.
+		 * 
+		 * @param properties the repository properties, such as {@code p2.timestamp}
+		 * @return {@code true} to continue reading the document; {@code false} to stop
+		 */
+		default boolean repositoryProperties(Map<String, String> properties) {
+			return true;
+		}
+		
+		/**
+		 * Called for each non-processed "osgi.bundle" artifact, in document order.
+		 * 
+		 * @param bundle the read bundle
+		 */
+		default void bundle(P2Bundle bundle) {
+		}
+		
+		/**
+		 * Called for each child of a composite repository, in document order.
+		 * 
+		 * @param location the child location, resolved against the repository base URI
+		 */
+		default void child(URI location) {
+		}
+	}
+
+	/**
+	 * Reads all non-processed "osgi.bundle" artifacts from the provided artifacts.xml
+	 * stream.
+	 *
+	 * @param is the artifacts.xml content
+	 * @param baseUri the base URI of the containing repository
+	 * @param consumer a {@link Consumer} to receive each bundle in document order
+	 * @throws XMLStreamException if there is a problem parsing the document
+	 */
+	public static void readBundles(InputStream is, URI baseUri, Consumer<P2Bundle> consumer) throws XMLStreamException {
+		read(is, baseUri, new Handler() {
+			@Override
+			public void bundle(P2Bundle bundle) {
+				consumer.accept(bundle);
+			}
+		});
+	}
+
+	/**
+	 * Reads the child repository locations from the provided compositeArtifacts.xml
+	 * stream.
+	 *
+	 * @param is the compositeArtifacts.xml content
+	 * @param baseUri the base URI of the composite repository, used to resolve relative
+	 *        locations
+	 * @return a {@link List} of resolved child {@link URI}s, in document order
+	 * @throws XMLStreamException if there is a problem parsing the document
+	 */
+	public static List<URI> readCompositeChildren(InputStream is, URI baseUri) throws XMLStreamException {
+		List<URI> result = new ArrayList<>();
+		read(is, baseUri, new Handler() {
+			@Override
+			public void child(URI location) {
+				result.add(location);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Reads the provided artifacts.xml or compositeArtifacts.xml stream, reporting its
+	 * contents to the provided handler.
+	 *
+	 * @param is the document content
+	 * @param baseUri the base URI of the repository
+	 * @param handler the {@link Handler} to receive the document contents
+	 * @throws XMLStreamException if there is a problem parsing the document
+	 */
+	public static void read(InputStream is, URI baseUri, Handler handler) throws XMLStreamException {
+		XMLStreamReader reader = XMLStreams.createReader(is);
+		try {
+			// Track the path as /repository/{properties,artifacts,children}/...
+			int depth = 0;
+			String section = null;
+
+			Map<String, String> repositoryProperties = new HashMap<>();
+			// Symbolic names repeat for each version and property names for each bundle
+			Map<String, String> names = new HashMap<>();
+
+			String id = null;
+			String version = null;
+			boolean bundle = false;
+			boolean processed = false;
+			Map<String, String> properties = null;
+
+			while(reader.hasNext()) {
+				switch(reader.next()) {
+				case XMLStreamConstants.START_ELEMENT: {
+					depth++;
+					String name = reader.getLocalName();
+					if(depth == 2) {
+						section = name;
+					} else if(depth == 3 && "properties".equals(section)) { //$NON-NLS-1$
+						if("property".equals(name)) { //$NON-NLS-1$
+							repositoryProperties.put(attribute(reader, "name"), attribute(reader, "value")); //$NON-NLS-1$ //$NON-NLS-2$
+						}
+					} else if(depth == 3 && "children".equals(section)) { //$NON-NLS-1$
+						if("child".equals(name)) { //$NON-NLS-1$
+							handler.child(baseUri.resolve(attribute(reader, "location"))); //$NON-NLS-1$
+						}
+					} else if(depth == 3 && "artifacts".equals(section) && "artifact".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+						id = names.computeIfAbsent(attribute(reader, "id"), Function.identity()); //$NON-NLS-1$
+						version = attribute(reader, "version"); //$NON-NLS-1$
+						bundle = "osgi.bundle".equals(reader.getAttributeValue(null, "classifier")); //$NON-NLS-1$ //$NON-NLS-2$
+						processed = false;
+						properties = new HashMap<>();
+					} else if(depth > 3 && bundle) {
+						if("processing".equals(name)) { //$NON-NLS-1$
+							processed = true;
+						} else if("property".equals(name) && !processed) { //$NON-NLS-1$
+							properties.put(names.computeIfAbsent(attribute(reader, "name"), Function.identity()), attribute(reader, "value")); //$NON-NLS-1$ //$NON-NLS-2$
+						}
+					}
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT: {
+					if(depth == 3 && bundle && !processed) {
+						handler.bundle(new P2Bundle(baseUri, id, version, properties));
+					}
+					if(depth == 3) {
+						bundle = false;
+						properties = null;
+					} else if(depth == 2) {
+						if("properties".equals(section) && !handler.repositoryProperties(repositoryProperties)) { //$NON-NLS-1$
+							return;
+						}
+						section = null;
+					}
+					depth--;
+					break;
+				}
+				default:
+					// Not relevant
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	/**
+	 * Matches the behavior of {@code XMLNode#getAttribute}, which returns an empty string
+	 * for missing attributes.
+	 */
+	private static String attribute(XMLStreamReader reader, String name) {
+		return StringUtils.defaultString(reader.getAttributeValue(null, name));
+	}
+}
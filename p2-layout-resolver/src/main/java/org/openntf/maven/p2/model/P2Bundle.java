@@ -16,36 +16,116 @@
 package org.openntf.maven.p2.model;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.util.P2Util;
 import org.openntf.maven.p2.util.xml.XMLNode;
 
 /**
  * Represents a bundle entry inside of a P2 repository, based on the containing
  * artifacts.xml.
  * 
+ * <p>Repositories can list tens of thousands of bundles and are kept for the life of the
+ * build, so entries are stored compactly: sizes are kept as numbers, checksums as bytes,
+ * the remaining properties in a flat array, and the {@link Map} returned by
+ * {@link #getProperties()} is a view over them. Readers share the base URI, symbolic names and property names
+ * between the entries they create.</p>
+ * 
  * @author Jesse Gallagher
  * @since 1.0.0
  */
 public class P2Bundle {
+	private static final String PROP_ARTIFACT_SIZE = "artifact.size"; //$NON-NLS-1$
+	private static final String PROP_DOWNLOAD_SIZE = "download.size"; //$NON-NLS-1$
+	private static final long NO_SIZE = -1;
+	/** The shortest hex value worth storing as bytes, which covers all checksums */
+	private static final int MIN_PACKED_HEX = 16;
+	
 	private final URI baseUri;
 	private final String id;
 	private final String version;
-	private final Map<String, String> properties;
+	/** The {@code artifact.size} property, or {@link #NO_SIZE} if absent or kept in {@link #properties} */
+	private final long artifactSize;
+	/** The {@code download.size} property, or {@link #NO_SIZE} if absent or kept in {@link #properties} */
+	private final long downloadSize;
+	/**
+	 * The remaining properties, as alternating names and values in name order; lowercase
+	 * hex values such as checksums are stored as {@code byte[]}, and all others as
+	 * {@link String}
+	 */
+	private final Object[] properties;
+	/** The location of the bundle itself, created on first use as most entries are never fetched */
+	private volatile URI uri;
+	/** The view returned by {@link #getProperties()}, created on first use */
+	private volatile Map<String, String> propertiesView;
 	
 	public P2Bundle(URI baseUri, XMLNode element) {
+		this(
+			baseUri,
+			element.getAttribute("id"), //$NON-NLS-1$
+			element.getAttribute("version"), //$NON-NLS-1$
+			element.getElementsByTagName("property") //$NON-NLS-1$
+				.stream()
+				.collect(Collectors.toMap(
+					prop -> prop.getAttribute("name"), //$NON-NLS-1$
+					prop -> prop.getAttribute("value") //$NON-NLS-1$
+				))
+		);
+	}
+	
+	/**
+	 * Constructs a bundle entry from already-parsed artifact information.
+	 * 
+	 * @param baseUri the base URI of the containing repository
+	 * @param id the symbolic name of the bundle
+	 * @param version the version of the bundle
+	 * @param properties the properties declared on the artifact, which are copied
+	 * @since 1.9.0
+	 */
+	public P2Bundle(URI baseUri, String id, String version, Map<String, String> properties) {
 		this.baseUri = baseUri;
-		this.id = element.getAttribute("id"); //$NON-NLS-1$
-		this.version = element.getAttribute("version"); //$NON-NLS-1$
-		this.properties = element.getElementsByTagName("property") //$NON-NLS-1$
-			.stream()
-			.collect(Collectors.toMap(
-				prop -> prop.getAttribute("name"), //$NON-NLS-1$
-				prop -> prop.getAttribute("value") //$NON-NLS-1$
-			));
+		this.id = id;
+		this.version = version;
+		
+		long artifactSize = NO_SIZE;
+		long downloadSize = NO_SIZE;
+		List<Map.Entry<String, String>> sorted = new ArrayList<>(properties.entrySet());
+		// Kept in name order so that digests of the properties are stable
+		sorted.sort(Map.Entry.comparingByKey());
+		List<Object> remaining = new ArrayList<>(properties.size() * 2);
+		for(Map.Entry<String, String> prop : sorted) {
+			if(PROP_ARTIFACT_SIZE.equals(prop.getKey()) && toSize(prop.getValue()) != NO_SIZE) {
+				artifactSize = toSize(prop.getValue());
+			} else if(PROP_DOWNLOAD_SIZE.equals(prop.getKey()) && toSize(prop.getValue()) != NO_SIZE) {
+				downloadSize = toSize(prop.getValue());
+			} else {
+				remaining.add(prop.getKey());
+				remaining.add(pack(prop.getValue()));
+			}
+		}
+		this.artifactSize = artifactSize;
+		this.downloadSize = downloadSize;
+		this.properties = remaining.toArray();
+	}
+
+	/**
+	 * @return the base URI of the repository containing the bundle
+	 * @since 1.9.0
+	 */
+	public URI getBaseUri() {
+		return baseUri;
 	}
 
 	/**
@@ -66,11 +146,105 @@ public class P2Bundle {
 	 * @return an unmodifiable view {@link Map} of any properties associated with this bundle
 	 */
 	public Map<String, String> getProperties() {
-		return Collections.unmodifiableMap(properties);
+		Map<String, String> result = this.propertiesView;
+		if(result == null) {
+			// Racing callers create equivalent views, so either can be kept
+			result = new PropertiesView();
+			this.propertiesView = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Retrieves a single property of this bundle without materializing the others.
+	 * 
+	 * @param name the name of the property
+	 * @return the property value, or {@code null} if it is not set
+	 * @since 1.9.0
+	 */
+	public String getProperty(String name) {
+		if(PROP_ARTIFACT_SIZE.equals(name) && this.artifactSize != NO_SIZE) {
+			return Long.toString(this.artifactSize);
+		} else if(PROP_DOWNLOAD_SIZE.equals(name) && this.downloadSize != NO_SIZE) {
+			return Long.toString(this.downloadSize);
+		}
+		for(int i = 0; i < this.properties.length; i += 2) {
+			if(this.properties[i].equals(name)) {
+				return unpack(this.properties[i+1]);
+			}
+		}
+		return null;
 	}
 	
+	/**
+	 * @return an {@link OptionalLong} describing the published {@code download.size} of
+	 *         this bundle, or an empty one if it is absent or not a valid size
+	 * @since 1.9.0
+	 */
+	public OptionalLong getDownloadSize() {
+		return this.downloadSize == NO_SIZE ? OptionalLong.empty() : OptionalLong.of(this.downloadSize);
+	}
+	
+	/**
+	 * Determines the location of the bundle or of a related artifact, such as its source
+	 * bundle. The location of the bundle itself is created once and then reused.
+	 * 
+	 * @param classifier the classifier of the related artifact, such as {@code "sources"},
+	 *        or {@code null} for the bundle itself
+	 * @return the {@link URI} of the artifact
+	 */
 	public URI getUri(String classifier) {
-		StringBuilder result = new StringBuilder();
+		if(StringUtils.isEmpty(classifier)) {
+			URI result = this.uri;
+			if(result == null) {
+				// Racing callers create equal values, so either can be kept
+				result = buildUri(null);
+				this.uri = result;
+			}
+			return result;
+		}
+		return buildUri(classifier);
+	}
+	
+	/**
+	 * Adds the properties of this bundle to a digest in a stable order, reading the stored
+	 * values directly rather than through {@link #getProperties()}.
+	 * 
+	 * @param digest the {@link MessageDigest} to update
+	 */
+	void updateDigest(MessageDigest digest) {
+		updateDigest(digest, PROP_ARTIFACT_SIZE, this.artifactSize);
+		updateDigest(digest, PROP_DOWNLOAD_SIZE, this.downloadSize);
+		for(int i = 0; i < this.properties.length; i += 2) {
+			digest.update(((String)this.properties[i]).getBytes(StandardCharsets.UTF_8));
+			Object value = this.properties[i+1];
+			if(value instanceof byte[]) {
+				// Packed values are only ever hex, so the marker can't collide with a string value
+				digest.update((byte)1);
+				digest.update((byte[])value);
+			} else {
+				digest.update((byte)0);
+				digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+			}
+			digest.update((byte)0);
+		}
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private static void updateDigest(MessageDigest digest, String name, long size) {
+		if(size != NO_SIZE) {
+			digest.update(name.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)0);
+			digest.update(Long.toString(size).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)0);
+		}
+	}
+	
+	private URI buildUri(String classifier) {
+		StringBuilder result = new StringBuilder(this.baseUri.toString().length() + this.id.length() + this.version.length() + 32);
 		result.append(this.baseUri.toString());
 		result.append("plugins/"); //$NON-NLS-1$
 		result.append(this.id);
@@ -85,4 +259,101 @@ public class P2Bundle {
 		result.append(".jar"); //$NON-NLS-1$
 		return URI.create(result.toString());
 	}
+	
+	/**
+	 * Parses a size property that can be stored as a number and restored exactly.
+	 * 
+	 * @return the size, or {@link #NO_SIZE} if the value isn't in canonical form
+	 */
+	private static long toSize(String value) {
+		if(value == null || value.isEmpty() || value.length() > 18) {
+			return NO_SIZE;
+		}
+		long result = 0;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c < '0' || c > '9' || (c == '0' && i == 0 && value.length() > 1)) {
+				return NO_SIZE;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+	
+	/**
+	 * Converts a property value to its stored form, packing values that can be restored
+	 * exactly from their bytes.
+	 */
+	private static Object pack(String value) {
+		if(value == null || value.length() < MIN_PACKED_HEX || value.length() % 2 != 0) {
+			return value;
+		}
+		byte[] result = new byte[value.length() / 2];
+		for(int i = 0; i < result.length; i++) {
+			int high = lowerHexDigit(value.charAt(i * 2));
+			int low = lowerHexDigit(value.charAt(i * 2 + 1));
+			if(high < 0 || low < 0) {
+				return value;
+			}
+			result[i] = (byte)((high << 4) | low);
+		}
+		return result;
+	}
+	
+	private static int lowerHexDigit(char c) {
+		if(c >= '0' && c <= '9') {
+			return c - '0';
+		} else if(c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+	
+	private static String unpack(Object value) {
+		return value instanceof byte[] ? P2Util.toHex((byte[])value) : (String)value;
+	}
+	
+	private class PropertiesView extends AbstractMap<String, String> {
+		@Override
+		public String get(Object key) {
+			return key instanceof String ? getProperty((String)key) : null;
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+		
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public int size() {
+					int size = properties.length / 2;
+					if(artifactSize != NO_SIZE) {
+						size++;
+					}
+					if(downloadSize != NO_SIZE) {
+						size++;
+					}
+					return size;
+				}
+				
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					List<Map.Entry<String, String>> entries = new ArrayList<>(size());
+					if(artifactSize != NO_SIZE) {
+						entries.add(new SimpleImmutableEntry<>(PROP_ARTIFACT_SIZE, Long.toString(artifactSize)));
+					}
+					if(downloadSize != NO_SIZE) {
+						entries.add(new SimpleImmutableEntry<>(PROP_DOWNLOAD_SIZE, Long.toString(downloadSize)));
+					}
+					for(int i = 0; i < properties.length; i += 2) {
+						entries.add(new SimpleImmutableEntry<>((String)properties[i], unpack(properties[i+1])));
+					}
+					return Collections.unmodifiableList(entries).iterator();
+				}
+			};
+		}
+	}
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.openntf.maven.p2.transport.RemoteZipFile;
+
+/**
+ * Holds the parts of a bundle JAR needed to synthesize its POM: the bundle manifest and
+ * the names of its entries.
+ * 
+ * @since 1.9.0
+ */
+public class P2BundleContents {
+	/**
+	 * Reads the contents of a local bundle JAR.
+	 * 
+	 * @param jar a {@link Path} to a bundle file on the local filesystem
+	 * @return the bundle contents
+	 * @throws IOException if there is a problem reading the file
+	 */
+	public static P2BundleContents read(Path jar) throws IOException {
+		Set<String> entryNames = new LinkedHashSet<>();
+		boolean hasManifest;
+		try(ZipFile zipFile = new ZipFile(jar.toFile())) {
+			zipFile.stream().map(ZipEntry::getName).forEach(entryNames::add);
+			hasManifest = zipFile.getEntry(JarFile.MANIFEST_NAME) != null;
+		}
+		return new P2BundleContents(hasManifest ? new P2BundleManifest(jar) : null, entryNames);
+	}
+	
+	/**
+	 * Reads the contents of a remote bundle JAR, fetching only its manifest and localization
+	 * entries.
+	 * 
+	 * @param zip the remote bundle file
+	 * @return the bundle contents
+	 * @throws IOException if there is a problem reading the remote entries
+	 */
+	public static P2BundleContents read(RemoteZipFile zip) throws IOException {
+		Set<String> entryNames = new LinkedHashSet<>(zip.getEntryNames());
+		Optional<byte[]> manifestContent = zip.readEntry(JarFile.MANIFEST_NAME);
+		if(!manifestContent.isPresent()) {
+			return new P2BundleContents(null, entryNames);
+		}
+		Manifest manifest = new Manifest(new ByteArrayInputStream(manifestContent.get()));
+		Map<String, byte[]> resources = new HashMap<>();
+		for(String name : P2BundleManifest.getLocalizationEntryNames(manifest)) {
+			Optional<byte[]> content = zip.readEntry(name);
+			if(content.isPresent()) {
+				// Only the most specific localization is used
+				resources.put(name, content.get());
+				break;
+			}
+		}
+		return new P2BundleContents(new P2BundleManifest(manifest, resources), entryNames);
+	}
+	
+	/**
+	 * Copies a bundle from the provided stream to the provided output, capturing its
+	 * manifest, localization and entry names in the same pass.
+	 * 
+	 * <p>The input is always copied in full. If it cannot be read as a ZIP stream, the
+	 * copy still completes and {@code null} is returned.</p>
+	 * 
+	 * @param is the bundle content, which is read to its end but not closed
+	 * @param os the destination for the bundle content, which is not closed
+	 * @return the captured contents, or {@code null} if the content could not be read as
+	 *         a ZIP stream
+	 * @throws IOException if there is a problem reading the input or writing the output
+	 */
+	public static P2BundleContents capture(InputStream is, OutputStream os) throws IOException {
+		TeeInputStream tee = new TeeInputStream(is, os);
+		
+		Set<String> entryNames = new LinkedHashSet<>();
+		Manifest manifest = null;
+		Set<String> localizationNames = null;
+		Map<String, byte[]> resources = new HashMap<>();
+		boolean parsed;
+		try {
+			// Not closed, as that would close the underlying stream before it is drained
+			@SuppressWarnings("resource")
+			ZipInputStream zis = new ZipInputStream(tee);
+			ZipEntry entry;
+			while((entry = zis.getNextEntry()) != null) {
+				String name = entry.getName();
+				entryNames.add(name);
+				if(manifest == null && JarFile.MANIFEST_NAME.equalsIgnoreCase(name)) {
+					manifest = new Manifest(zis);
+					localizationNames = P2BundleManifest.getLocalizationEntryNames(manifest);
+				} else if(localizationNames == null ? name.endsWith(".properties") : localizationNames.contains(name)) { //$NON-NLS-1$
+					// Keep localization candidates, or any properties if the manifest hasn't been seen yet
+					resources.put(name, readFully(zis));
+				}
+			}
+			parsed = true;
+		} catch(IOException e) {
+			if(tee.failure != null) {
+				throw tee.failure;
+			}
+			// Not a stream ZipInputStream can read - finish the copy regardless
+			parsed = false;
+		}
+		
+		// Copy anything after the last entry, such as the central directory
+		byte[] buf = new byte[8192];
+		while(tee.read(buf) != -1) {
+			// Written by the tee
+		}
+		
+		if(!parsed) {
+			return null;
+		}
+		P2BundleManifest bundleManifest = manifest == null ? null : new P2BundleManifest(manifest, resources);
+		return new P2BundleContents(bundleManifest, entryNames);
+	}
+	
+	private final P2BundleManifest manifest;
+	private final Set<String> entryNames;
+	
+	public P2BundleContents(P2BundleManifest manifest, Set<String> entryNames) {
+		this.manifest = manifest;
+		this.entryNames = Collections.unmodifiableSet(entryNames);
+	}
+	
+	/**
+	 * @return the bundle manifest, or {@code null} if the JAR has none
+	 */
+	public P2BundleManifest getManifest() {
+		return manifest;
+	}
+	
+	/**
+	 * @return the names of all entries in the JAR
+	 */
+	public Set<String> getEntryNames() {
+		return entryNames;
+	}
+	
+	public boolean containsEntry(String name) {
+		return entryNames.contains(name);
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while((read = is.read(buf)) != -1) {
+			baos.write(buf, 0, read);
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Writes each byte read from the source to the output exactly once, in order, and
+	 * records failures of the source or output separately from parsing failures.
+	 */
+	private static class TeeInputStream extends FilterInputStream {
+		private final OutputStream out;
+		IOException failure;
+		
+		TeeInputStream(InputStream in, OutputStream out) {
+			super(in);
+			this.out = out;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read == -1 ? -1 : (b[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				int read = super.read(b, off, len);
+				if(read > 0) {
+					out.write(b, off, read);
+				}
+				return read;
+			} catch(IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped bytes still need to be copied
+			byte[] buf = new byte[(int)Math.min(n, 8192)];
+			int read = read(buf, 0, buf.length);
+			return Math.max(read, 0);
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -15,11 +15,13 @@
  */
 package org.openntf.maven.p2.model;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.LinkedHashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.jar.JarEntry;
@@ -50,39 +52,61 @@ public class P2BundleManifest {
 	public P2BundleManifest(Path path) {
 		try(JarFile jarFile = new JarFile(path.toFile())) {
 			this.manifest = jarFile.getManifest();
-			
-			
-			this.localization = new Properties();
-			
-			// Check for a Bundle-Localization header
-			String locHeader = this.manifest.getMainAttributes().getValue("Bundle-Localization"); //$NON-NLS-1$
-			if(StringUtils.isEmpty(locHeader)) {
-				locHeader = "OSGI-INF/l10n/bundle"; // default when not otherwise specified //$NON-NLS-1$
-			}
-			Set<String> localeVariants = buildLocaleVariants();
-			for(String locale : localeVariants) {
-				String entryName;
-				if(StringUtils.isEmpty(locale)) {
-					entryName = locHeader + ".properties"; //$NON-NLS-1$
-				} else {
-					entryName = locHeader + "_" + locale + ".properties"; //$NON-NLS-1$ //$NON-NLS-2$
-				}
+			this.localization = loadLocalization(this.manifest, entryName -> {
 				JarEntry entry = jarFile.getJarEntry(entryName);
-				if(entry != null) {
-					// Then we found the most specific
-					try(InputStream is = jarFile.getInputStream(entry)) {
-						this.localization.load(is);
-					}
-					
-					break;
-				}
-			}
-			
+				return entry == null ? null : jarFile.getInputStream(entry);
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Constructs a bundle manifest wrapper for an already-read manifest, such as one
+	 * captured while streaming the bundle.
+	 * 
+	 * @param manifest the bundle's {@link Manifest}
+	 * @param resources the content of any localization resources read alongside the
+	 *        manifest, keyed by entry name
+	 * @since 1.9.0
+	 */
+	public P2BundleManifest(Manifest manifest, Map<String, byte[]> resources) {
+		this.manifest = manifest;
+		try {
+			this.localization = loadLocalization(manifest, entryName -> {
+				byte[] content = resources.get(entryName);
+				return content == null ? null : new ByteArrayInputStream(content);
+			});
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Determines the names of the localization entries that may be used by the provided
+	 * manifest, most specific first.
+	 * 
+	 * @param manifest the bundle's {@link Manifest}
+	 * @return an ordered {@link Set} of candidate entry names
+	 * @since 1.9.0
+	 */
+	public static Set<String> getLocalizationEntryNames(Manifest manifest) {
+		// Check for a Bundle-Localization header
+		String locHeader = manifest.getMainAttributes().getValue("Bundle-Localization"); //$NON-NLS-1$
+		if(StringUtils.isEmpty(locHeader)) {
+			locHeader = "OSGI-INF/l10n/bundle"; // default when not otherwise specified //$NON-NLS-1$
+		}
+		Set<String> result = new LinkedHashSet<>();
+		for(String locale : buildLocaleVariants()) {
+			if(StringUtils.isEmpty(locale)) {
+				result.add(locHeader + ".properties"); //$NON-NLS-1$
+			} else {
+				result.add(locHeader + "_" + locale + ".properties"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return result;
+	}
+	
 	public String get(String headerName) {
 		String headerValue = this.manifest.getMainAttributes().getValue(headerName);
 		if(StringUtils.isNotEmpty(headerValue) && headerValue.startsWith("%") && headerValue.length() > 1) { //$NON-NLS-1$
@@ -97,6 +121,26 @@ public class P2BundleManifest {
 	// * Internal mplementation methods
 	// *******************************************************************************
 	
+	@FunctionalInterface
+	private interface EntryOpener {
+		InputStream open(String entryName) throws IOException;
+	}
+	
+	private static Properties loadLocalization(Manifest manifest, EntryOpener opener) throws IOException {
+		Properties localization = new Properties();
+		for(String entryName : getLocalizationEntryNames(manifest)) {
+			InputStream is = opener.open(entryName);
+			if(is != null) {
+				// Then we found the most specific
+				try(InputStream in = is) {
+					localization.load(in);
+				}
+				break;
+			}
+		}
+		return localization;
+	}
+	
 	private static Set<String> buildLocaleVariants() {
 		Set<String> localeVariants = new LinkedHashSet<>();
 		String locale = Locale.getDefault().toString();
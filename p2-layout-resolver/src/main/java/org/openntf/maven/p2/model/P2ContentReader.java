@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.model;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.util.xml.XMLStreams;
+
+/**
+ * Streaming reader for p2 metadata repository documents: content.xml and
+ * compositeContent.xml.
+ *
+ * <p>Only units providing a bundle are reported, and only with their bundle and package
+ * capabilities and requirements, so the memory held is proportional to the bundles in
+ * the repository rather than to the size of the document.</p>
+ *
+ * @since 1.9.0
+ */
+public enum P2ContentReader {
+	;
+
+	/**
+	 * Receives the contents of a content.xml or compositeContent.xml document as it is
+	 * read. Composite children are reported through {@link #child(URI)} as for
+	 * compositeArtifacts.xml.
+	 */
+	public interface Handler extends P2ArtifactsReader.Handler {
+		/**
+		 * Called for each unit providing an "osgi.bundle" capability, in document order.
+		 *
+		 * @param unit the read unit
+		 */
+		default void unit(P2InstallableUnit unit) {
+		}
+	}
+
+	/**
+	 * Reads the bundle units from the provided content.xml stream.
+	 *
+	 * @param is the content.xml content
+	 * @param baseUri the base URI of the containing repository
+	 * @return a {@link List} of the bundle units, in document order
+	 * @throws XMLStreamException if there is a problem parsing the document
+	 */
+	public static List<P2InstallableUnit> readUnits(InputStream is, URI baseUri) throws XMLStreamException {
+		List<P2InstallableUnit> result = new ArrayList<>();
+		read(is, baseUri, new Handler() {
+			@Override
+			public void unit(P2InstallableUnit unit) {
+				result.add(unit);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Reads the provided content.xml or compositeContent.xml stream, reporting its
+	 * contents to the provided handler.
+	 *
+	 * @param is the document content
+	 * @param baseUri the base URI of the repository
+	 * @param handler the {@link P2ArtifactsReader.Handler} to receive the document contents;
+	 *        units are reported if it is a {@link Handler}
+	 * @throws XMLStreamException if there is a problem parsing the document
+	 */
+	public static void read(InputStream is, URI baseUri, P2ArtifactsReader.Handler handler) throws XMLStreamException {
+		XMLStreamReader reader = XMLStreams.createReader(is);
+		try {
+			// Track the path as /repository/{properties,units,children}/unit/{properties,provides,requires}/...
+			int depth = 0;
+			String section = null;
+			String unitSection = null;
+
+			Map<String, String> repositoryProperties = new HashMap<>();
+
+			String id = null;
+			String version = null;
+			Map<String, String> properties = null;
+			List<P2InstallableUnit.Capability> provides = null;
+			List<P2InstallableUnit.Requirement> requires = null;
+			boolean bundle = false;
+
+			while(reader.hasNext()) {
+				switch(reader.next()) {
+				case XMLStreamConstants.START_ELEMENT: {
+					depth++;
+					String name = reader.getLocalName();
+					if(depth == 2) {
+						section = name;
+					} else if(depth == 3 && "properties".equals(section)) { //$NON-NLS-1$
+						if("property".equals(name)) { //$NON-NLS-1$
+							repositoryProperties.put(attribute(reader, "name"), attribute(reader, "value")); //$NON-NLS-1$ //$NON-NLS-2$
+						}
+					} else if(depth == 3 && "children".equals(section)) { //$NON-NLS-1$
+						if("child".equals(name)) { //$NON-NLS-1$
+							handler.child(baseUri.resolve(attribute(reader, "location"))); //$NON-NLS-1$
+						}
+					} else if(depth == 3 && "units".equals(section) && "unit".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+						id = attribute(reader, "id"); //$NON-NLS-1$
+						version = attribute(reader, "version"); //$NON-NLS-1$
+						properties = new HashMap<>();
+						provides = new ArrayList<>();
+						requires = new ArrayList<>();
+						bundle = false;
+					} else if(depth == 4 && properties != null) {
+						unitSection = name;
+					} else if(depth == 5 && properties != null) {
+						// Requirements nested elsewhere, such as a fragment's host requirements, are not dependencies
+						if("properties".equals(unitSection) && "property".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+							properties.put(attribute(reader, "name"), attribute(reader, "value")); //$NON-NLS-1$ //$NON-NLS-2$
+						} else if("provides".equals(unitSection) && "provided".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+							String namespace = attribute(reader, "namespace"); //$NON-NLS-1$
+							if(P2InstallableUnit.NAMESPACE_BUNDLE.equals(namespace)) {
+								bundle = true;
+								provides.add(new P2InstallableUnit.Capability(namespace, attribute(reader, "name"), attribute(reader, "version"))); //$NON-NLS-1$ //$NON-NLS-2$
+							} else if(P2InstallableUnit.NAMESPACE_PACKAGE.equals(namespace)) {
+								provides.add(new P2InstallableUnit.Capability(namespace, attribute(reader, "name"), attribute(reader, "version"))); //$NON-NLS-1$ //$NON-NLS-2$
+							}
+						} else if("requires".equals(unitSection) && "required".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+							String namespace = attribute(reader, "namespace"); //$NON-NLS-1$
+							if(P2InstallableUnit.NAMESPACE_BUNDLE.equals(namespace) || P2InstallableUnit.NAMESPACE_PACKAGE.equals(namespace)) {
+								requires.add(new P2InstallableUnit.Requirement(
+									namespace,
+									attribute(reader, "name"), //$NON-NLS-1$
+									reader.getAttributeValue(null, "range"), //$NON-NLS-1$
+									Boolean.parseBoolean(reader.getAttributeValue(null, "optional")) //$NON-NLS-1$
+								));
+							}
+						}
+					}
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT: {
+					if(depth == 3 && properties != null) {
+						if(bundle && handler instanceof Handler) {
+							((Handler)handler).unit(new P2InstallableUnit(id, version, properties, provides, requires));
+						}
+						properties = null;
+						provides = null;
+						requires = null;
+					} else if(depth == 4) {
+						unitSection = null;
+					} else if(depth == 2) {
+						if("properties".equals(section) && !handler.repositoryProperties(repositoryProperties)) { //$NON-NLS-1$
+							return;
+						}
+						section = null;
+					}
+					depth--;
+					break;
+				}
+				default:
+					// Not relevant
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private static String attribute(XMLStreamReader reader, String name) {
+		return StringUtils.defaultString(reader.getAttributeValue(null, name));
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.osgi.framework.VersionRange;
+
+/**
+ * Represents the parts of a p2 installable unit for a bundle that are needed to
+ * synthesize its POM: its descriptive properties and its bundle and package
+ * capabilities and requirements.
+ *
+ * @since 1.9.0
+ */
+public class P2InstallableUnit {
+	/** The capability namespace of bundles, matching {@code Bundle-SymbolicName} and {@code Require-Bundle} */
+	public static final String NAMESPACE_BUNDLE = "osgi.bundle"; //$NON-NLS-1$
+	/** The capability namespace of packages, matching {@code Export-Package} and {@code Import-Package} */
+	public static final String NAMESPACE_PACKAGE = "java.package"; //$NON-NLS-1$
+
+	public static final String PROP_NAME = "org.eclipse.equinox.p2.name"; //$NON-NLS-1$
+	public static final String PROP_DESCRIPTION = "org.eclipse.equinox.p2.description"; //$NON-NLS-1$
+	public static final String PROP_PROVIDER = "org.eclipse.equinox.p2.provider"; //$NON-NLS-1$
+	public static final String PROP_DOC_URL = "org.eclipse.equinox.p2.doc.url"; //$NON-NLS-1$
+
+	/** The locale prefix p2 uses for the default translations of localized properties */
+	private static final String DEFAULT_LOCALE = "df_LT"; //$NON-NLS-1$
+
+	/**
+	 * A capability provided by a unit, such as an exported package.
+	 */
+	public static class Capability {
+		private final String namespace;
+		private final String name;
+		private final String version;
+
+		public Capability(String namespace, String name, String version) {
+			this.namespace = namespace;
+			this.name = name;
+			this.version = version;
+		}
+
+		public String getNamespace() {
+			return namespace;
+		}
+		public String getName() {
+			return name;
+		}
+		public String getVersion() {
+			return version;
+		}
+	}
+
+	/**
+	 * A capability required by a unit, such as a required bundle or imported package.
+	 */
+	public static class Requirement {
+		private final String namespace;
+		private final String name;
+		private final String range;
+		private final boolean optional;
+
+		public Requirement(String namespace, String name, String range, boolean optional) {
+			this.namespace = namespace;
+			this.name = name;
+			this.range = range;
+			this.optional = optional;
+		}
+
+		public String getNamespace() {
+			return namespace;
+		}
+		public String getName() {
+			return name;
+		}
+		/**
+		 * @return the version range in its declared form, or {@code null} if none was declared
+		 */
+		public String getRange() {
+			return range;
+		}
+		public boolean isOptional() {
+			return optional;
+		}
+
+		/**
+		 * @return the parsed version range, or {@code null} to match any version, which is
+		 *         also the case for ranges that are not valid OSGi ranges
+		 */
+		public VersionRange getVersionRange() {
+			if(StringUtils.isEmpty(range)) {
+				return null;
+			}
+			try {
+				return new VersionRange(range);
+			} catch(IllegalArgumentException e) {
+				return null;
+			}
+		}
+	}
+
+	private final String id;
+	private final String version;
+	private final Map<String, String> properties;
+	private final List<Capability> provides;
+	private final List<Requirement> requires;
+
+	public P2InstallableUnit(String id, String version, Map<String, String> properties, List<Capability> provides, List<Requirement> requires) {
+		this.id = id;
+		this.version = version;
+		this.properties = Collections.unmodifiableMap(properties);
+		this.provides = Collections.unmodifiableList(provides);
+		this.requires = Collections.unmodifiableList(requires);
+	}
+
+	public String getId() {
+		return id;
+	}
+	public String getVersion() {
+		return version;
+	}
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+	public List<Capability> getProvides() {
+		return provides;
+	}
+	public List<Requirement> getRequires() {
+		return requires;
+	}
+
+	/**
+	 * Retrieves a unit property, resolving {@code %key} values against the translations
+	 * p2 stores alongside them for the default locale.
+	 *
+	 * @param name the name of the property, such as {@link #PROP_NAME}
+	 * @return the property value, or {@code null} if it is not set
+	 */
+	public String getLocalizedProperty(String name) {
+		String value = this.properties.get(name);
+		if(StringUtils.isEmpty(value) || !value.startsWith("%") || value.length() < 2) { //$NON-NLS-1$
+			return value;
+		}
+		String key = value.substring(1);
+		// Translations are stored as <locale>.<key>, from most to least specific
+		String locale = Locale.getDefault().toString();
+		while(!locale.isEmpty()) {
+			String translated = this.properties.get(locale + '.' + key);
+			if(translated != null) {
+				return translated;
+			}
+			int index = locale.lastIndexOf('_');
+			locale = index < 0 ? "" : locale.substring(0, index); //$NON-NLS-1$
+		}
+		return this.properties.getOrDefault(DEFAULT_LOCALE + '.' + key, key);
+	}
+}
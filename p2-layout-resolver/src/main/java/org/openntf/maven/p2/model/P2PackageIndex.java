@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.osgi.util.ManifestElement;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+/**
+ * Maps Java packages to the bundles in a repository that export them, so that
+ * {@code Import-Package} headers can be resolved to the bundles providing them.
+ *
+ * @since 1.9.0
+ */
+public class P2PackageIndex {
+	/**
+	 * A single package exported by a bundle.
+	 */
+	public static class Export {
+		private final String packageName;
+		private final Version version;
+
+		public Export(String packageName, Version version) {
+			this.packageName = packageName;
+			this.version = version;
+		}
+
+		/**
+		 * @return the name of the exported package
+		 */
+		public String getPackageName() {
+			return packageName;
+		}
+
+		/**
+		 * @return the version the package is exported at, which is
+		 *         {@link Version#emptyVersion} when none is declared
+		 */
+		public Version getVersion() {
+			return version;
+		}
+	}
+
+	/**
+	 * Parses the packages declared by an {@code Export-Package} manifest header. Exports
+	 * with invalid versions are skipped.
+	 *
+	 * @param exportPackage the header value, which may be {@code null}
+	 * @return a {@link List} of the exported packages. Never null
+	 * @throws BundleException if the header cannot be parsed
+	 */
+	public static List<Export> parseExports(String exportPackage) throws BundleException {
+		if(StringUtils.isEmpty(exportPackage)) {
+			return Collections.emptyList();
+		}
+		List<Export> result = new ArrayList<>();
+		for(ManifestElement el : ManifestElement.parseHeader(Constants.EXPORT_PACKAGE, exportPackage)) {
+			Version version;
+			try {
+				version = Version.parseVersion(getVersionAttribute(el));
+			} catch(IllegalArgumentException e) {
+				continue;
+			}
+			// Packages sharing a clause share its attributes
+			for(String packageName : el.getValueComponents()) {
+				result.add(new Export(packageName, version));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the packages exported by a bundle from the package capabilities of its unit.
+	 * Exports with invalid versions are skipped.
+	 *
+	 * @param unit the bundle's {@link P2InstallableUnit}
+	 * @return a {@link List} of the exported packages. Never null
+	 */
+	public static List<Export> getExports(P2InstallableUnit unit) {
+		List<Export> result = new ArrayList<>();
+		for(P2InstallableUnit.Capability capability : unit.getProvides()) {
+			if(P2InstallableUnit.NAMESPACE_PACKAGE.equals(capability.getNamespace())) {
+				try {
+					result.add(new Export(capability.getName(), Version.parseVersion(capability.getVersion())));
+				} catch(IllegalArgumentException e) {
+					// Skip, as for manifests
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Determines the value of the version attribute of an {@code Export-Package} or
+	 * {@code Import-Package} clause, including the deprecated
+	 * {@code specification-version} form.
+	 *
+	 * @param el the header clause
+	 * @return the version attribute, or {@code null} if none is present
+	 */
+	public static String getVersionAttribute(ManifestElement el) {
+		String version = el.getAttribute(Constants.VERSION_ATTRIBUTE);
+		if(StringUtils.isEmpty(version)) {
+			version = el.getAttribute("specification-version"); //$NON-NLS-1$
+		}
+		return StringUtils.isEmpty(version) ? null : version;
+	}
+
+	private final Map<String, NavigableMap<Version, P2Bundle>> providers;
+	private final boolean complete;
+
+	/**
+	 * Builds an index from the exports of each bundle.
+	 *
+	 * @param exports the exported packages of each bundle; when several bundles export
+	 *        the same version of a package, the highest bundle version is preferred
+	 * @param complete whether {@code exports} covers every bundle in the repository
+	 */
+	public P2PackageIndex(Map<P2Bundle, List<Export>> exports, boolean complete) {
+		Map<String, NavigableMap<Version, P2Bundle>> providers = new HashMap<>();
+		for(Map.Entry<P2Bundle, List<Export>> entry : exports.entrySet()) {
+			P2Bundle bundle = entry.getKey();
+			for(Export export : entry.getValue()) {
+				providers.computeIfAbsent(export.getPackageName(), key -> new TreeMap<>())
+					.merge(export.getVersion(), bundle, (a, b) -> bundleVersion(b).compareTo(bundleVersion(a)) > 0 ? b : a);
+			}
+		}
+		this.providers = providers;
+		this.complete = complete;
+	}
+
+	/**
+	 * Finds the bundle exporting the highest version of a package within the provided range.
+	 *
+	 * @param packageName the name of the imported package
+	 * @param range the range of acceptable package versions, or {@code null} to accept any
+	 *        version
+	 * @return an {@link Optional} describing the providing {@link P2Bundle}, or an empty one
+	 *         if no bundle exports the package in the range
+	 */
+	public Optional<P2Bundle> resolve(String packageName, VersionRange range) {
+		NavigableMap<Version, P2Bundle> versions = this.providers.get(packageName);
+		return versions == null ? Optional.empty() : P2Repository.highestInRange(versions, range);
+	}
+
+	/**
+	 * @return whether the exports of every bundle in the repository were known when the
+	 *         index was built
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private static Version bundleVersion(P2Bundle bundle) {
+		try {
+			return Version.parseVersion(bundle.getVersion());
+		} catch(IllegalArgumentException e) {
+			return Version.emptyVersion;
+		}
+	}
+}
@@ -18,25 +18,47 @@ package org.openntf.maven.p2.model;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarInputStream;
-import java.util.stream.Collectors;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.cache.P2IndexCache;
+import org.openntf.maven.p2.util.HttpValidators;
+import org.openntf.maven.p2.util.NotModifiedException;
 import org.openntf.maven.p2.util.P2Util;
-import org.openntf.maven.p2.util.xml.XMLDocument;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
 import org.slf4j.Logger;
-import org.xml.sax.SAXException;
 
 /**
  * Represents a local or remote P2 repository root.
@@ -45,131 +67,660 @@ import org.xml.sax.SAXException;
  * @since 1.0.0
  */
 public class P2Repository {
-	private static final Map<URI, P2Repository> instances = Collections.synchronizedMap(new HashMap<>());
+	/**
+	 * Shared instances, softly referenced so that repositories no session is using can be
+	 * reclaimed under memory pressure rather than accumulating in a long-lived JVM
+	 */
+	private static final ConcurrentMap<List<Object>, InstanceReference> instances = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<P2Repository> reclaimed = new ReferenceQueue<>();
+	
+	private static class InstanceReference extends SoftReference<P2Repository> {
+		private final List<Object> key;
+		
+		InstanceReference(List<Object> key, P2Repository instance) {
+			super(instance, reclaimed);
+			this.key = key;
+		}
+	}
+	
+	/** Index file suffixes, in the order p2 itself checks them */
+	private static final String[] INDEX_SUFFIXES = { ".xml", ".xml.xz", ".jar" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	private static final String PROP_TIMESTAMP = "p2.timestamp"; //$NON-NLS-1$
+	private static final String PROP_MIRRORS_URL = "p2.mirrorsURL"; //$NON-NLS-1$
 	
 	public static P2Repository getInstance(URI uri, Logger log) {
-		return instances.computeIfAbsent(uri, key -> new P2Repository(key, log));
+		return getInstance(uri, log, P2RepositorySettings.DEFAULT);
+	}
+	
+	/**
+	 * Retrieves the shared instance for the provided repository URI, creating it if needed.
+	 * 
+	 * <p>Instances are shared between sessions that read the same data from the repository,
+	 * such as consecutive builds in a Maven daemon, whatever their thread counts or executor
+	 * type. A session that reads content metadata and one that doesn't get instances of their
+	 * own. Later loads of a shared instance, such as a retry after a failure, use the settings
+	 * and {@link Logger} of its most recent caller.</p>
+	 * 
+	 * @param uri the base URI of the repository
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 * @param settings the {@link P2RepositorySettings} to use when loading the repository
+	 * @return the {@link P2Repository} for the URI
+	 * @since 1.9.0
+	 */
+	public static P2Repository getInstance(URI uri, Logger log, P2RepositorySettings settings) {
+		expungeReclaimed();
+		URI normalized = normalize(uri);
+		List<Object> key = Arrays.asList(normalized, settings.isContentMetadata());
+		// Instances are cheap to create and load lazily, so this never waits on a load
+		P2Repository result = null;
+		while(result == null) {
+			InstanceReference ref = instances.get(key);
+			P2Repository existing = ref == null ? null : ref.get();
+			if(existing != null) {
+				result = existing;
+			} else {
+				P2Repository created = new P2Repository(normalized, log, settings);
+				InstanceReference replacement = new InstanceReference(key, created);
+				if(ref == null ? instances.putIfAbsent(key, replacement) == null : instances.replace(key, ref, replacement)) {
+					result = created;
+				}
+			}
+		}
+		result.log = log;
+		result.settings = settings;
+		return result;
+	}
+	
+	/**
+	 * Removes the registry entries of instances that have been reclaimed.
+	 */
+	private static void expungeReclaimed() {
+		Reference<? extends P2Repository> ref;
+		while((ref = reclaimed.poll()) != null) {
+			instances.remove(((InstanceReference)ref).key, ref);
+		}
+	}
+	
+	/**
+	 * The loaded contents of a repository and its children, along with the lookup tables
+	 * derived from them. Instances are immutable once published.
+	 */
+	private static class Contents {
+		private final List<P2Bundle> bundles;
+		private final Map<String, List<P2Bundle>> bundlesById;
+		private final Map<String, Map<String, P2Bundle>> bundlesByIdAndVersion;
+		private final Map<String, NavigableMap<Version, P2Bundle>> bundlesByParsedVersion;
+		private final Map<String, Map<String, P2InstallableUnit>> unitsByIdAndVersion;
+		private final Map<URI, URI> mirrorsUrls;
+		private final String indexVersion;
+		
+		Contents(List<P2Bundle> bundles, List<P2InstallableUnit> units, Map<URI, URI> mirrorsUrls) {
+			this.bundles = Collections.unmodifiableList(bundles);
+			this.mirrorsUrls = mirrorsUrls;
+			
+			Map<String, List<P2Bundle>> byId = new HashMap<>();
+			Map<String, Map<String, P2Bundle>> byIdAndVersion = new HashMap<>();
+			Map<String, NavigableMap<Version, P2Bundle>> byParsedVersion = new HashMap<>();
+			for(P2Bundle bundle : bundles) {
+				byId.computeIfAbsent(bundle.getId(), key -> new ArrayList<>()).add(bundle);
+				// Keep the first entry for a given version, matching the previous list-order lookup
+				byIdAndVersion.computeIfAbsent(bundle.getId(), key -> new HashMap<>()).putIfAbsent(bundle.getVersion(), bundle);
+				
+				// Versions are parsed once here so that range lookups don't re-parse them
+				Version version;
+				try {
+					version = Version.parseVersion(bundle.getVersion());
+				} catch(IllegalArgumentException e) {
+					continue;
+				}
+				byParsedVersion.computeIfAbsent(bundle.getId(), key -> new TreeMap<>()).putIfAbsent(version, bundle);
+			}
+			this.bundlesById = byId;
+			this.bundlesByIdAndVersion = byIdAndVersion;
+			this.bundlesByParsedVersion = byParsedVersion;
+			
+			Map<String, Map<String, P2InstallableUnit>> unitsByIdAndVersion = new HashMap<>();
+			for(P2InstallableUnit unit : units) {
+				unitsByIdAndVersion.computeIfAbsent(unit.getId(), key -> new HashMap<>()).putIfAbsent(unit.getVersion(), unit);
+			}
+			this.unitsByIdAndVersion = unitsByIdAndVersion;
+			
+			this.indexVersion = computeIndexVersion(bundles, units);
+		}
 	}
 	
 	private final URI uri;
-	private List<P2Bundle> bundles;
-	private final Logger log;
+	/** The logger of the most recent caller of {@link #getInstance} */
+	private volatile Logger log;
+	/** The settings of the most recent caller of {@link #getInstance}, used for loads that haven't started */
+	private volatile P2RepositorySettings settings;
+	
+	/** The contents of this repository and its children, set once loaded successfully */
+	private final AtomicReference<CompletableFuture<Contents>> contents = new AtomicReference<>();
+	/** The index of this repository alone, shared by each composite repository that includes it */
+	private final AtomicReference<CompletableFuture<P2IndexCache.Entry>> index = new AtomicReference<>();
 
-	private P2Repository(URI uri, Logger log) {
-		String baseUri = uri.toString();
-		this.uri = URI.create(baseUri.endsWith("/") ? baseUri : (baseUri+"/")); //$NON-NLS-1$ //$NON-NLS-2$
+	private P2Repository(URI uri, Logger log, P2RepositorySettings settings) {
+		this.uri = uri;
 		this.log = log;
+		this.settings = settings;
 	}
 	
 	/**
 	 * Retrieves a list of bundles in this repository. Specifically, this includes artifacts designated
 	 * as "osgi.bundle" in the repository's artifacts.xml manifest.
 	 * 
+	 * <p>For composite repositories, child repositories are loaded concurrently, but the
+	 * resulting list is always ordered as a depth-first walk of the children in document
+	 * order. Each distinct child repository is included once, and cyclic references are
+	 * ignored.</p>
+	 * 
+	 * <p>Concurrent first calls share a single load, and calls after a successful load
+	 * return without blocking. A load that fails is not kept, so a later call tries again.</p>
+	 * 
 	 * @return a {@link List} of {@link P2Bundle}s. Never null
 	 * @throws RuntimeException if there is a problem finding the repository or parsing its artifact manifest
 	 */
-	public synchronized List<P2Bundle> getBundles() {
-		if(this.bundles == null) {
-			this.bundles = new ArrayList<>();
+	public List<P2Bundle> getBundles() {
+		return getContents().bundles;
+	}
+	
+	/**
+	 * @return the base URI of this repository, ending with a {@code /}
+	 * @since 1.9.0
+	 */
+	public URI getUri() {
+		return this.uri;
+	}
+	
+	/**
+	 * Retrieves an identifier for the current contents of this repository's indexes,
+	 * including those of any composite children. The value changes whenever a bundle is
+	 * added, removed or republished, and is stable for identical indexes, so it can be
+	 * used to key content derived from the repository.
+	 * 
+	 * @return an opaque version string for the loaded indexes
+	 * @since 1.9.0
+	 */
+	public String getIndexVersion() {
+		return getContents().indexVersion;
+	}
+	
+	/**
+	 * Retrieves all bundles in this repository with the provided symbolic name, in the
+	 * order they are listed in the repository.
+	 * 
+	 * @param id the symbolic name of the bundle to find
+	 * @return a {@link List} of matching {@link P2Bundle}s. Never null
+	 */
+	public List<P2Bundle> getBundles(String id) {
+		return getContents().bundlesById.getOrDefault(id, Collections.emptyList());
+	}
+	
+	/**
+	 * Finds a bundle in this repository by symbolic name and version.
+	 * 
+	 * @param id the symbolic name of the bundle to find
+	 * @param version the exact version of the bundle to find, or {@code null} to
+	 *        match the first bundle with the given name
+	 * @return an {@link Optional} describing the matching {@link P2Bundle}, or an empty one
+	 *         if no such bundle exists
+	 */
+	public Optional<P2Bundle> getBundle(String id, String version) {
+		if(version == null) {
+			return getBundles(id).stream().findFirst();
+		}
+		Map<String, P2Bundle> versions = getContents().bundlesByIdAndVersion.get(id);
+		return versions == null ? Optional.empty() : Optional.ofNullable(versions.get(version));
+	}
+	
+	/**
+	 * Finds the unit describing a bundle in this repository's content metadata. Units are
+	 * only available when {@link P2RepositorySettings#isContentMetadata()} is enabled and
+	 * the repository publishes a content.xml.
+	 * 
+	 * @param id the symbolic name of the bundle to find
+	 * @param version the exact version of the bundle to find
+	 * @return an {@link Optional} describing the matching {@link P2InstallableUnit}, or an
+	 *         empty one if there is no such unit
+	 * @since 1.9.0
+	 */
+	public Optional<P2InstallableUnit> getUnit(String id, String version) {
+		Map<String, P2InstallableUnit> versions = getContents().unitsByIdAndVersion.get(id);
+		return versions == null ? Optional.empty() : Optional.ofNullable(versions.get(version));
+	}
+
+	/**
+	 * Finds the mirror list advertised by the {@code p2.mirrorsURL} property of this
+	 * repository or one of its composite children.
+	 *
+	 * @param repositoryUri the base URI of the repository, such as
+	 *        {@link P2Bundle#getBaseUri()}
+	 * @return an {@link Optional} describing the absolute URI of the mirror list, or an
+	 *         empty one if the repository does not advertise mirrors
+	 * @since 1.9.0
+	 */
+	public Optional<URI> getMirrorsUrl(URI repositoryUri) {
+		return Optional.ofNullable(getContents().mirrorsUrls.get(normalize(repositoryUri)));
+	}
+
+	/**
+	 * Finds the highest version of a bundle within the provided range, which is the
+	 * version the OSGi framework would wire a matching {@code Require-Bundle} header to
+	 * when resolving against this repository alone.
+	 * 
+	 * <p>Bundles whose versions are not valid OSGi versions are never matched.</p>
+	 * 
+	 * @param id the symbolic name of the bundle to find
+	 * @param range the range of acceptable versions, or {@code null} to accept any version
+	 * @return an {@link Optional} describing the matching {@link P2Bundle}, or an empty one
+	 *         if no bundle with the name has a version in the range
+	 * @since 1.9.0
+	 */
+	public Optional<P2Bundle> resolveBundle(String id, VersionRange range) {
+		NavigableMap<Version, P2Bundle> versions = getContents().bundlesByParsedVersion.get(id);
+		if(versions == null) {
+			return Optional.empty();
+		}
+		return highestInRange(versions, range);
+	}
+	
+	/**
+	 * Finds the highest version of a bundle in this repository.
+	 * 
+	 * @param id the symbolic name of the bundle to find
+	 * @return an {@link Optional} describing the newest {@link P2Bundle} with the name, or
+	 *         an empty one if there is none with a valid OSGi version
+	 * @since 1.9.0
+	 */
+	public Optional<P2Bundle> getLatestBundle(String id) {
+		return resolveBundle(id, null);
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private static URI normalize(URI uri) {
+		String baseUri = uri.toString();
+		return baseUri.endsWith("/") ? uri : URI.create(baseUri + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+	
+	private Contents getContents() {
+		return P2Util.computeOnce(this.contents, () -> {
+			Map<URI, P2IndexCache.Entry> indexes = loadIndexes();
 			
-			try {
-				// Check if this is a composite repository
-				InputStream compositeArtifacts = findXml(this.uri, "compositeArtifacts"); //$NON-NLS-1$
-				if(compositeArtifacts != null) {
-					try {
-						resolveCompositeChildren(compositeArtifacts, this.uri).stream()
-							.map(P2Repository::getBundles)
-							.forEach(this.bundles::addAll);
-					} finally {
-						if (compositeArtifacts != null) {
-							compositeArtifacts.close();
-						}
-					}
-				}
-				
-				// Check if this is a single repository
-				InputStream artifactsXml = findXml(this.uri, "artifacts"); //$NON-NLS-1$
-				if(artifactsXml != null) {
+			List<P2Bundle> result = new ArrayList<>();
+			List<P2InstallableUnit> units = new ArrayList<>();
+			Set<URI> visited = new HashSet<>();
+			visited.add(this.uri);
+			collectBundles(this.uri, indexes, visited, result, units);
+			
+			Map<URI, URI> mirrorsUrls = new HashMap<>();
+			indexes.forEach((location, index) -> {
+				if(StringUtils.isNotBlank(index.getMirrorsUrl())) {
 					try {
-						collectBundles(artifactsXml, this.bundles, this.uri);
-					} finally {
-						if (artifactsXml != null) {
-							artifactsXml.close();
-						}
+						mirrorsUrls.put(location, location.resolve(index.getMirrorsUrl().trim()));
+					} catch(IllegalArgumentException e) {
+						// Then the repository is treated as unmirrored
 					}
 				}
-			} catch(SAXException e) {
-				// Problem parsing XML - log and ignore
-				if(log.isWarnEnabled()) {
-					log.warn(MessageFormat.format("Encountered XML parsing exception reading from {0}", uri), e);
-				}
-			} catch(Throwable e) {
+			});
+			return new Contents(result, units, mirrorsUrls);
+		});
+	}
+	
+	/**
+	 * Retrieves the index of this repository alone, not including any composite children.
+	 */
+	private P2IndexCache.Entry getIndex() {
+		return P2Util.computeOnce(this.index, () -> {
+			try {
+				return loadIndex();
+			} catch(XMLStreamException e) {
+				// Not memoized, so a truncated or garbled download doesn't empty the repository for the session
+				throw new RuntimeException(MessageFormat.format("Encountered XML parsing exception reading from {0}", uri), e);
+			} catch(RuntimeException e) {
+				throw e;
+			} catch(Exception e) {
 				throw new RuntimeException(e);
 			}
+		});
+	}
+	
+	/**
+	 * Loads the index of this repository and all repositories reachable from it as
+	 * composite children, loading each distinct child once.
+	 * 
+	 * @return a {@link Map} of repository URIs to their indexes
+	 */
+	private Map<URI, P2IndexCache.Entry> loadIndexes() {
+		Map<URI, P2IndexCache.Entry> indexes = new ConcurrentHashMap<>();
+		P2IndexCache.Entry root = getIndex();
+		indexes.put(this.uri, root);
+		if(root.getChildren().isEmpty()) {
+			return indexes;
+		}
+		
+		P2RepositorySettings settings = this.settings;
+		ExecutorService executor = settings.newExecutor("p2-composite-", settings.getCompositeThreads()); //$NON-NLS-1$
+		// Bounds loading for executors, such as virtual threads, that don't bound it themselves
+		Semaphore permits = new Semaphore(Math.max(1, settings.getCompositeThreads()));
+		try {
+			Set<URI> scheduled = ConcurrentHashMap.newKeySet();
+			scheduled.add(this.uri);
+			loadChildIndexes(root, indexes, scheduled, executor, permits).join();
+		} catch(CompletionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			executor.shutdownNow();
 		}
-		return this.bundles;
+		return indexes;
+	}
+	
+	/**
+	 * Schedules loading of each not-yet-seen child of the provided index, returning a future
+	 * that completes when those children and all of their own descendants have loaded.
+	 */
+	private CompletableFuture<Void> loadChildIndexes(P2IndexCache.Entry parent, Map<URI, P2IndexCache.Entry> indexes, Set<URI> scheduled, ExecutorService executor, Semaphore permits) {
+		CompletableFuture<?>[] children = parent.getChildren().stream()
+			.map(location -> getInstance(location, log, settings))
+			// Only the first reference to a child loads it, which also breaks cycles
+			.filter(child -> scheduled.add(child.uri))
+			.map(child -> CompletableFuture.supplyAsync(() -> loadChildIndex(child, permits), executor)
+				.thenCompose(index -> {
+					indexes.put(child.uri, index);
+					return loadChildIndexes(index, indexes, scheduled, executor, permits);
+				})
+			)
+			.toArray(CompletableFuture[]::new);
+		return CompletableFuture.allOf(children);
 	}
-
-	// *******************************************************************************
-	// * Internal implementation methods
-	// *******************************************************************************
 	
-	private static InputStream findXml(URI baseUri, String baseName) throws IOException, CompressorException {
-		URI xml = URI.create(P2Util.concatPath('/', baseUri.toString(), baseName + ".xml")); //$NON-NLS-1$
+	/**
+	 * Loads the index of the provided child repository once a permit is available.
+	 */
+	private static P2IndexCache.Entry loadChildIndex(P2Repository child, Semaphore permits) {
 		try {
-			Optional<InputStream> result = P2Util.openConnection(xml);
-			if(result.isPresent()) {
-				return result.get();
+			permits.acquire();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		try {
+			return child.getIndex();
+		} finally {
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Adds the bundles of the provided repository to {@code result} in a deterministic
+	 * order: composite children first, depth-first in document order, followed by the
+	 * repository's own artifacts.
+	 */
+	private static void collectBundles(URI repositoryUri, Map<URI, P2IndexCache.Entry> indexes, Set<URI> visited, List<P2Bundle> result, List<P2InstallableUnit> units) {
+		P2IndexCache.Entry index = indexes.get(repositoryUri);
+		if(index == null) {
+			return;
+		}
+		for(URI child : index.getChildren()) {
+			URI childUri = normalize(child);
+			if(visited.add(childUri)) {
+				collectBundles(childUri, indexes, visited, result, units);
 			}
-		} catch(FileNotFoundException e) {
-			// Plain XML not present
 		}
-		
-		URI xz = URI.create(P2Util.concatPath('/', baseUri.toString(), baseName + ".xml.xz")); //$NON-NLS-1$
+		result.addAll(index.getBundles());
+		if(index.getUnits() != null) {
+			units.addAll(index.getUnits());
+		}
+	}
+	
+	/**
+	 * Finds the value for the highest version within the provided range.
+	 * 
+	 * @param <T> the value type
+	 * @param versions the values to search, keyed by version
+	 * @param range the range of acceptable versions, or {@code null} to accept any version
+	 * @return an {@link Optional} describing the value for the highest matching version, or
+	 *         an empty one if no version matches
+	 */
+	static <T> Optional<T> highestInRange(NavigableMap<Version, T> versions, VersionRange range) {
+		if(versions.isEmpty()) {
+			return Optional.empty();
+		}
+		if(range == null) {
+			return Optional.of(versions.lastEntry().getValue());
+		}
+		if(range.isEmpty()) {
+			return Optional.empty();
+		}
+		boolean leftClosed = range.getLeftType() == VersionRange.LEFT_CLOSED;
+		NavigableMap<Version, T> matches = range.getRight() == null
+			? versions.tailMap(range.getLeft(), leftClosed)
+			: versions.subMap(range.getLeft(), leftClosed, range.getRight(), range.getRightType() == VersionRange.RIGHT_CLOSED);
+		return matches.isEmpty() ? Optional.empty() : Optional.of(matches.lastEntry().getValue());
+	}
+	
+	private static String computeIndexVersion(List<P2Bundle> bundles, List<P2InstallableUnit> units) {
+		MessageDigest digest;
 		try {
-			Optional<InputStream> result = P2Util.openConnection(xz);
-			if(result.isPresent()) {
-				return CompressorStreamFactory.getSingleton().createCompressorInputStream(CompressorStreamFactory.getXz(), result.get());
+			digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for(P2Bundle bundle : bundles) {
+			update(digest, bundle.getId());
+			update(digest, bundle.getVersion());
+			// The location follows from these and the base URI, without creating one per bundle
+			update(digest, bundle.getBaseUri().toString());
+			// Properties include the published checksums, which change when a bundle is republished
+			bundle.updateDigest(digest);
+		}
+		// Units only affect the digest when content metadata was read, keeping it stable otherwise
+		for(P2InstallableUnit unit : units) {
+			update(digest, unit.getId());
+			update(digest, unit.getVersion());
+			for(Map.Entry<String, String> property : new TreeMap<>(unit.getProperties()).entrySet()) {
+				update(digest, property.getKey());
+				update(digest, property.getValue());
+			}
+			for(P2InstallableUnit.Capability capability : unit.getProvides()) {
+				update(digest, capability.getNamespace());
+				update(digest, capability.getName());
+				update(digest, capability.getVersion());
+			}
+			for(P2InstallableUnit.Requirement requirement : unit.getRequires()) {
+				update(digest, requirement.getNamespace());
+				update(digest, requirement.getName());
+				update(digest, requirement.getRange());
+				update(digest, Boolean.toString(requirement.isOptional()));
+			}
+		}
+		return P2Util.toHex(digest.digest());
+	}
+	
+	private static void update(MessageDigest digest, String value) {
+		digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+	}
+	
+	/**
+	 * Reads the index of this repository from the persistent cache when it is current,
+	 * otherwise from the remote repository.
+	 */
+	private P2IndexCache.Entry loadIndex() throws IOException, XMLStreamException, CompressorException {
+		// The same settings throughout, even if another session calls getInstance meanwhile
+		P2RepositorySettings settings = this.settings;
+		P2IndexCache.Entry cached = settings.getIndexCache() == null ? null : settings.getIndexCache().read(this.uri).orElse(null);
+		boolean contentMetadata = settings.isContentMetadata();
+		// An entry stored without content metadata can't serve a build that needs it
+		boolean cacheUsable = cached != null && (!contentMetadata || cached.getUnits() != null);
+		if(cacheUsable && !P2IndexCache.isUpdateRequired(cached.getFetchedAt(), settings.getUpdatePolicy())) {
+			if(log.isDebugEnabled()) {
+				log.debug(MessageFormat.format(Messages.getString("P2Repository.usingCachedIndex"), this.uri)); //$NON-NLS-1$
 			}
-		} catch(FileNotFoundException e) {
-			// XZ-compressed XML not present
+			return cached;
 		}
 		
-		URI jar = URI.create(P2Util.concatPath('/', baseUri.toString(), baseName + ".jar")); //$NON-NLS-1$
-		try {
-			Optional<InputStream> result = P2Util.openConnection(jar);
+		P2IndexCache.Entry entry = new P2IndexCache.Entry(System.currentTimeMillis());
+		
+		// Check if this is a composite repository
+		entry.setCompositeSource(fetchIndex("compositeArtifacts", cached == null ? null : cached.getCompositeSource(), P2ArtifactsReader::read, new P2ArtifactsReader.Handler() { //$NON-NLS-1$
+			@Override
+			public void child(URI location) {
+				entry.getChildren().add(location);
+			}
+		}, () -> entry.setChildren(new ArrayList<>(cached.getChildren()))));
+		
+		// Check if this is a single repository
+		entry.setArtifactsSource(fetchIndex("artifacts", cached == null ? null : cached.getArtifactsSource(), P2ArtifactsReader::read, new P2ArtifactsReader.Handler() { //$NON-NLS-1$
+			@Override
+			public boolean repositoryProperties(Map<String, String> properties) {
+				entry.setMirrorsUrl(properties.get(PROP_MIRRORS_URL));
+				return true;
+			}
+			@Override
+			public void bundle(P2Bundle bundle) {
+				entry.getBundles().add(bundle);
+			}
+		}, () -> {
+			entry.setBundles(cached.getBundles());
+			entry.setMirrorsUrl(cached.getMirrorsUrl());
+		}));
+		
+		if(contentMetadata) {
+			// Metadata repositories usually mirror the artifact repository's children, so merge them
+			P2IndexCache.Entry cachedContent = cacheUsable ? cached : null;
+			entry.setCompositeContentSource(fetchIndex("compositeContent", cachedContent == null ? null : cachedContent.getCompositeContentSource(), P2ContentReader::read, new P2ArtifactsReader.Handler() { //$NON-NLS-1$
+				@Override
+				public void child(URI location) {
+					if(!entry.getChildren().contains(location)) {
+						entry.getChildren().add(location);
+					}
+				}
+			}, () -> cachedContent.getChildren().stream()
+				.filter(location -> !entry.getChildren().contains(location))
+				.forEach(entry.getChildren()::add)
+			));
+			
+			List<P2InstallableUnit> units = new ArrayList<>();
+			entry.setUnits(units);
+			entry.setContentSource(fetchIndex("content", cachedContent == null ? null : cachedContent.getContentSource(), P2ContentReader::read, new P2ContentReader.Handler() { //$NON-NLS-1$
+				@Override
+				public void unit(P2InstallableUnit unit) {
+					units.add(unit);
+				}
+			}, () -> entry.setUnits(cachedContent.getUnits())));
+		}
+		
+		if(settings.getIndexCache() != null) {
+			settings.getIndexCache().write(this.uri, entry);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Reads the named index file of this repository, first revalidating the previously-cached
+	 * location if there is one.
+	 * 
+	 * @param baseName the base name of the index file, such as "artifacts"
+	 * @param cachedSource the source of the cached copy of this index, or {@code null}
+	 * @param reader the parser for the index document
+	 * @param handler the handler to receive the contents of a freshly-read index
+	 * @param useCached called when the cached copy of the index is still current
+	 * @return the {@link P2IndexCache.Source} describing the index file, or {@code null} if
+	 *         the repository has no such index
+	 */
+	private P2IndexCache.Source fetchIndex(String baseName, P2IndexCache.Source cachedSource, IndexReader reader, P2ArtifactsReader.Handler handler, Runnable useCached) throws IOException, XMLStreamException, CompressorException {
+		List<URI> candidates = new ArrayList<>();
+		if(cachedSource != null) {
+			candidates.add(cachedSource.getUri());
+		}
+		for(String suffix : INDEX_SUFFIXES) {
+			URI candidate = URI.create(P2Util.concatPath('/', this.uri.toString(), baseName + suffix));
+			if(!candidates.contains(candidate)) {
+				candidates.add(candidate);
+			}
+		}
+		
+		for(URI candidate : candidates) {
+			boolean revalidating = cachedSource != null && candidate.equals(cachedSource.getUri());
+			HttpValidators validators = revalidating ? cachedSource.getValidators() : new HttpValidators();
+			Optional<InputStream> result;
+			try {
+				result = this.settings.getTransport().open(candidate, validators);
+			} catch(NotModifiedException e) {
+				useCached.run();
+				return cachedSource;
+			} catch(FileNotFoundException e) {
+				result = Optional.empty();
+			}
 			if(result.isPresent()) {
-				InputStream is = result.get();
-				JarInputStream jis = new JarInputStream(is);
-				jis.getNextEntry();
-				return jis;
+				String[] timestamp = new String[1];
+				boolean[] unchanged = new boolean[1];
+				try(InputStream is = decompress(candidate, result.get())) {
+					reader.read(is, this.uri, new P2ContentReader.Handler() {
+						@Override
+						public boolean repositoryProperties(Map<String, String> properties) {
+							handler.repositoryProperties(properties);
+							timestamp[0] = properties.get(PROP_TIMESTAMP);
+							if(revalidating && StringUtils.isNotEmpty(timestamp[0]) && timestamp[0].equals(cachedSource.getTimestamp())) {
+								// Same p2.timestamp as the cached copy - skip the rest of the document
+								unchanged[0] = true;
+								return false;
+							}
+							return true;
+						}
+						@Override
+						public void bundle(P2Bundle bundle) {
+							handler.bundle(bundle);
+						}
+						@Override
+						public void child(URI location) {
+							handler.child(location);
+						}
+						@Override
+						public void unit(P2InstallableUnit unit) {
+							if(handler instanceof P2ContentReader.Handler) {
+								((P2ContentReader.Handler)handler).unit(unit);
+							}
+						}
+					});
+				}
+				if(unchanged[0]) {
+					useCached.run();
+				}
+				return new P2IndexCache.Source(candidate, validators, timestamp[0]);
 			}
-		} catch(FileNotFoundException e) {
-			// Jar-compressed XML not present
 		}
 		
 		return null;
 	}
 	
-	private static void collectBundles(InputStream is, List<P2Bundle> bundles, URI base) throws SAXException, IOException, ParserConfigurationException {
-		XMLDocument artifactsXml = new XMLDocument();
-		artifactsXml.loadInputStream(is);
-		artifactsXml.selectNodes("/repository/artifacts/artifact[@classifier=\"osgi.bundle\"]") //$NON-NLS-1$
-			.filter(el -> {
-				return el.getElementsByTagName("processing").isEmpty(); //$NON-NLS-1$
-			})
-			.map(el -> new P2Bundle(base, el))
-			.forEach(bundles::add);
-	}
-	
-	private List<P2Repository> resolveCompositeChildren(InputStream is, URI baseUri) throws SAXException, IOException, ParserConfigurationException {
-		XMLDocument compositeArtifacts = new XMLDocument();
-		compositeArtifacts.loadInputStream(is);
-		return compositeArtifacts.selectNodes("/repository/children/child") //$NON-NLS-1$
-			.map(el -> el.getAttribute("location")) //$NON-NLS-1$
-			.map(location -> baseUri.resolve(location))
-			.map(uri -> getInstance(uri, log))
-			.collect(Collectors.toList());
+	/**
+	 * Parses a p2 index document, such as {@link P2ArtifactsReader#read}.
+	 */
+	@FunctionalInterface
+	private interface IndexReader {
+		void read(InputStream is, URI baseUri, P2ArtifactsReader.Handler handler) throws XMLStreamException;
+	}
+	
+	private static InputStream decompress(URI uri, InputStream is) throws IOException, CompressorException {
+		String path = uri.toString();
+		if(path.endsWith(".xml.xz")) { //$NON-NLS-1$
+			return CompressorStreamFactory.getSingleton().createCompressorInputStream(CompressorStreamFactory.getXz(), is);
+		} else if(path.endsWith(".jar")) { //$NON-NLS-1$
+			JarInputStream jis = new JarInputStream(is);
+			jis.getNextEntry();
+			return jis;
+		} else {
+			return is;
+		}
 	}
 	
 }
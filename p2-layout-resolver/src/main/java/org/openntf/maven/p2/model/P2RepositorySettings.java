@@ -0,0 +1,317 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.aether.ConfigurationProperties;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.openntf.maven.p2.P2ConfigurationProperties;
+import org.openntf.maven.p2.cache.HttpCache;
+import org.openntf.maven.p2.cache.P2BundleCache;
+import org.openntf.maven.p2.cache.P2IndexCache;
+import org.openntf.maven.p2.cache.P2MetadataCache;
+import org.openntf.maven.p2.cache.P2PackageCache;
+import org.openntf.maven.p2.transport.P2Transport;
+import org.openntf.maven.p2.transport.P2Transports;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+import org.openntf.maven.p2.util.P2Executors;
+import org.slf4j.Logger;
+
+/**
+ * Settings controlling how {@link P2Repository} indexes and bundles are loaded.
+ *
+ * @since 1.9.0
+ */
+public class P2RepositorySettings {
+	/** Settings with no persistent caching, matching the historical behavior */
+	public static final P2RepositorySettings DEFAULT = new P2RepositorySettings(
+		new URLConnectionTransport(ConfigurationProperties.DEFAULT_CONNECT_TIMEOUT, ConfigurationProperties.DEFAULT_REQUEST_TIMEOUT),
+		null, null, null, null, null, null, P2Executors.TYPE_PLATFORM, P2ConfigurationProperties.DEFAULT_COMPOSITE_THREADS,
+		P2ConfigurationProperties.DEFAULT_DOWNLOAD_THREADS, P2ConfigurationProperties.DEFAULT_DOWNLOAD_ATTEMPTS, P2ConfigurationProperties.DEFAULT_EXTRACT_EMBEDDED_JARS,
+		P2ConfigurationProperties.DEFAULT_RANGE_REQUESTS, P2ConfigurationProperties.DEFAULT_PACKAGE_DEPENDENCIES,
+		P2ConfigurationProperties.DEFAULT_CONTENT_METADATA, P2ConfigurationProperties.DEFAULT_MIRRORS,
+		P2ConfigurationProperties.DEFAULT_PREFETCH
+	);
+
+	/**
+	 * Reads the settings configured for the provided session and repository.
+	 *
+	 * @param session the active {@link RepositorySystemSession}
+	 * @param repository the p2 {@link RemoteRepository} being loaded
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 * @return the resolved settings
+	 */
+	public static P2RepositorySettings fromSession(RepositorySystemSession session, RemoteRepository repository, Logger log) {
+		// Timeouts follow the standard resolver transport settings
+		P2Transport transport = P2Transports.create(
+			P2ConfigurationProperties.getString(session, P2ConfigurationProperties.TRANSPORT, P2Transports.TYPE_AUTO),
+			P2ConfigurationProperties.getInt(session, ConfigurationProperties.CONNECT_TIMEOUT, ConfigurationProperties.DEFAULT_CONNECT_TIMEOUT),
+			P2ConfigurationProperties.getInt(session, ConfigurationProperties.REQUEST_TIMEOUT, ConfigurationProperties.DEFAULT_REQUEST_TIMEOUT),
+			log
+		);
+		
+		Path cacheDir = P2ConfigurationProperties.getCacheDir(session);
+		P2IndexCache indexCache = null;
+		if(cacheDir != null && P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.INDEX_CACHE, P2ConfigurationProperties.DEFAULT_INDEX_CACHE)) {
+			indexCache = new P2IndexCache(cacheDir.resolve("index"), log); //$NON-NLS-1$
+		}
+		HttpCache httpCache = null;
+		if(cacheDir != null && P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.HTTP_CACHE, P2ConfigurationProperties.DEFAULT_HTTP_CACHE)) {
+			httpCache = new HttpCache(cacheDir.resolve("http"), transport, log); //$NON-NLS-1$
+		}
+		P2BundleCache bundleCache = null;
+		if(cacheDir != null && P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.BUNDLE_CACHE, P2ConfigurationProperties.DEFAULT_BUNDLE_CACHE)) {
+			bundleCache = new P2BundleCache(cacheDir.resolve("bundles")); //$NON-NLS-1$
+		}
+		P2MetadataCache metadataCache = null;
+		if(cacheDir != null && P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.METADATA_CACHE, P2ConfigurationProperties.DEFAULT_METADATA_CACHE)) {
+			metadataCache = new P2MetadataCache(cacheDir.resolve("metadata")); //$NON-NLS-1$
+		}
+		boolean packageDependencies = P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.PACKAGE_DEPENDENCIES, P2ConfigurationProperties.DEFAULT_PACKAGE_DEPENDENCIES);
+		P2PackageCache packageCache = null;
+		if(cacheDir != null && packageDependencies) {
+			packageCache = new P2PackageCache(cacheDir.resolve("packages"), log); //$NON-NLS-1$
+		}
+
+		String updatePolicy;
+		if(session.isOffline()) {
+			updatePolicy = RepositoryPolicy.UPDATE_POLICY_NEVER;
+		} else {
+			// A session-wide policy, such as from "mvn -U", overrides the repository's own
+			updatePolicy = session.getUpdatePolicy();
+			if(StringUtils.isEmpty(updatePolicy)) {
+				updatePolicy = repository.getPolicy(false).getUpdatePolicy();
+			}
+		}
+
+		String executorType = P2Executors.resolveType(P2ConfigurationProperties.getString(session, P2ConfigurationProperties.EXECUTOR, P2Executors.TYPE_PLATFORM), log);
+		int compositeThreads = P2ConfigurationProperties.getInt(session, P2ConfigurationProperties.COMPOSITE_THREADS, P2ConfigurationProperties.DEFAULT_COMPOSITE_THREADS);
+		int downloadThreads = P2ConfigurationProperties.getInt(session, P2ConfigurationProperties.DOWNLOAD_THREADS, P2ConfigurationProperties.DEFAULT_DOWNLOAD_THREADS);
+		int downloadAttempts = P2ConfigurationProperties.getInt(session, P2ConfigurationProperties.DOWNLOAD_ATTEMPTS, P2ConfigurationProperties.DEFAULT_DOWNLOAD_ATTEMPTS);
+
+		boolean extractEmbeddedJars = P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.EXTRACT_EMBEDDED_JARS, P2ConfigurationProperties.DEFAULT_EXTRACT_EMBEDDED_JARS);
+		boolean rangeRequests = P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.RANGE_REQUESTS, P2ConfigurationProperties.DEFAULT_RANGE_REQUESTS);
+		boolean contentMetadata = P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.CONTENT_METADATA, P2ConfigurationProperties.DEFAULT_CONTENT_METADATA);
+		boolean mirrors = P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.MIRRORS, P2ConfigurationProperties.DEFAULT_MIRRORS);
+		boolean prefetch = P2ConfigurationProperties.getBoolean(session, P2ConfigurationProperties.PREFETCH, P2ConfigurationProperties.DEFAULT_PREFETCH);
+
+		return new P2RepositorySettings(transport, indexCache, httpCache, bundleCache, metadataCache, packageCache, updatePolicy, executorType, compositeThreads, downloadThreads, downloadAttempts, extractEmbeddedJars, rangeRequests, packageDependencies, contentMetadata, mirrors, prefetch);
+	}
+
+	private final P2Transport transport;
+	private final P2IndexCache indexCache;
+	private final HttpCache httpCache;
+	private final P2BundleCache bundleCache;
+	private final P2MetadataCache metadataCache;
+	private final P2PackageCache packageCache;
+	private final String updatePolicy;
+	private final String executorType;
+	private final int compositeThreads;
+	private final int downloadThreads;
+	private final int downloadAttempts;
+	private final boolean extractEmbeddedJars;
+	private final boolean rangeRequests;
+	private final boolean packageDependencies;
+	private final boolean contentMetadata;
+	private final boolean mirrors;
+	private final boolean prefetch;
+
+	public P2RepositorySettings(P2Transport transport, P2IndexCache indexCache, HttpCache httpCache, P2BundleCache bundleCache, P2MetadataCache metadataCache, P2PackageCache packageCache, String updatePolicy, String executorType, int compositeThreads, int downloadThreads, int downloadAttempts, boolean extractEmbeddedJars, boolean rangeRequests, boolean packageDependencies, boolean contentMetadata, boolean mirrors, boolean prefetch) {
+		this.transport = transport;
+		this.indexCache = indexCache;
+		this.httpCache = httpCache;
+		this.bundleCache = bundleCache;
+		this.metadataCache = metadataCache;
+		this.packageCache = packageCache;
+		this.updatePolicy = updatePolicy;
+		this.executorType = executorType;
+		this.compositeThreads = Math.max(1, compositeThreads);
+		this.downloadThreads = Math.max(1, downloadThreads);
+		this.downloadAttempts = Math.max(1, downloadAttempts);
+		this.extractEmbeddedJars = extractEmbeddedJars;
+		this.rangeRequests = rangeRequests;
+		this.packageDependencies = packageDependencies;
+		this.contentMetadata = contentMetadata;
+		this.mirrors = mirrors;
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @return the {@link P2Transport} used for remote requests
+	 */
+	public P2Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return the persistent {@link P2IndexCache} to read and store parsed indexes in, or
+	 *         {@code null} to always read the remote index
+	 */
+	public P2IndexCache getIndexCache() {
+		return indexCache;
+	}
+
+	/**
+	 * @return the {@link HttpCache} to keep revalidatable copies of downloaded bundles in,
+	 *         or {@code null} to always download them in full
+	 */
+	public HttpCache getHttpCache() {
+		return httpCache;
+	}
+
+	/**
+	 * @return the {@link P2BundleCache} to share downloaded bundles through, or {@code null}
+	 *         to download bundles for each layout
+	 */
+	public P2BundleCache getBundleCache() {
+		return bundleCache;
+	}
+
+	/**
+	 * @return the {@link P2MetadataCache} to keep synthesized POMs and metadata in, or
+	 *         {@code null} to generate them for each layout
+	 */
+	public P2MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * @return the {@link P2PackageCache} to keep the exported packages of bundles in, or
+	 *         {@code null} to read bundle manifests for each layout
+	 */
+	public P2PackageCache getPackageCache() {
+		return packageCache;
+	}
+
+	/**
+	 * Opens the provided URI, using the configured {@link HttpCache} if present.
+	 *
+	 * @param uri the {@link URI} to open
+	 * @return an {@link Optional} describing the resource content, or an empty one if the
+	 *         resource does not exist
+	 * @throws IOException if there is a problem opening the resource
+	 */
+	public Optional<InputStream> openConnection(URI uri) throws IOException {
+		return httpCache == null ? transport.open(uri, null) : httpCache.open(uri);
+	}
+
+	/**
+	 * @return the Maven update policy deciding when a cached index should be checked
+	 *         against the remote repository
+	 */
+	public String getUpdatePolicy() {
+		return updatePolicy;
+	}
+
+	/**
+	 * @return the type of executor to run concurrent tasks on, such as
+	 *         {@link P2Executors#TYPE_VIRTUAL}
+	 */
+	public String getExecutorType() {
+		return executorType;
+	}
+	
+	/**
+	 * Creates a new executor of the configured type.
+	 * 
+	 * @param name the prefix for thread names
+	 * @param threads the number of platform threads to use; virtual threads are not limited by
+	 *        it, so callers bound their own concurrency
+	 * @return a new {@link ExecutorService}, which should be shut down by the caller
+	 */
+	public ExecutorService newExecutor(String name, int threads) {
+		return P2Executors.newExecutor(executorType, name, threads);
+	}
+
+	/**
+	 * @return the maximum number of composite children to load concurrently
+	 */
+	public int getCompositeThreads() {
+		return compositeThreads;
+	}
+
+	/**
+	 * @return the number of artifacts, metadata files and bundle manifests to fetch
+	 *         concurrently
+	 */
+	public int getDownloadThreads() {
+		return downloadThreads;
+	}
+
+	/**
+	 * @return the maximum number of attempts made to download a single bundle
+	 */
+	public int getDownloadAttempts() {
+		return downloadAttempts;
+	}
+
+	/**
+	 * @return whether all embedded jars of a bundle should be extracted together on the
+	 *         first request for any of them
+	 */
+	public boolean isExtractEmbeddedJars() {
+		return extractEmbeddedJars;
+	}
+
+	/**
+	 * @return whether parts of remote bundles should be read with HTTP {@code Range}
+	 *         requests when only their manifest or an embedded jar is needed
+	 */
+	public boolean isRangeRequests() {
+		return rangeRequests;
+	}
+
+	/**
+	 * @return whether synthesized POMs should include dependencies resolved from
+	 *         {@code Import-Package} headers
+	 */
+	public boolean isPackageDependencies() {
+		return packageDependencies;
+	}
+
+	/**
+	 * @return whether the repository's content.xml should be read to synthesize POMs
+	 *         without fetching bundle manifests
+	 */
+	public boolean isContentMetadata() {
+		return contentMetadata;
+	}
+
+	/**
+	 * @return whether bundles should be downloaded from the mirrors advertised by the
+	 *         repository's {@code p2.mirrorsURL} property
+	 */
+	public boolean isMirrors() {
+		return mirrors;
+	}
+
+	/**
+	 * @return whether the bundles referenced by a synthesized POM should be downloaded in
+	 *         the background before they are requested
+	 */
+	public boolean isPrefetch() {
+		return prefetch;
+	}
+}
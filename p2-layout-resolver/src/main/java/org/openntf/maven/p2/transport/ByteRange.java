@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+/**
+ * A range of bytes read from a remote resource with an HTTP {@code Range} request.
+ * 
+ * @since 1.9.0
+ */
+public class ByteRange {
+	private final byte[] data;
+	private final long offset;
+	private final long totalLength;
+	
+	public ByteRange(byte[] data, long offset, long totalLength) {
+		this.data = data;
+		this.offset = offset;
+		this.totalLength = totalLength;
+	}
+	
+	/**
+	 * @return the bytes of the range
+	 */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/**
+	 * @return the offset of the first byte of the range within the resource
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return the total length of the resource, or {@code -1} if the server did not report it
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.util.HttpStatusException;
+import org.openntf.maven.p2.util.P2Checksums;
+import org.openntf.maven.p2.util.P2Checksums.DigestingOutputStream;
+import org.openntf.maven.p2.util.P2Util;
+import org.slf4j.Logger;
+
+/**
+ * Downloads remote files into partial files that survive interrupted transfers, resuming
+ * them with {@code Range: bytes=N-} requests where the server supports it.
+ *
+ * <p>Failed attempts, including responses with a temporary HTTP status such as
+ * {@code 503}, are retried with exponential backoff and full jitter. Completed
+ * files are verified against the size and strongest checksum published for them before
+ * they are reported as downloaded, and a file that fails verification is discarded so
+ * that the next attempt starts from the beginning. A partial file is only kept and resumed
+ * when there is a checksum to verify its eventual content against, as a matching size alone
+ * can't show that the earlier bytes came from the same version of the remote file.</p>
+ *
+ * <p>Digests are computed as content is written, so a completed file is never read back
+ * to verify it; only the part kept from an earlier attempt is read when a transfer is
+ * resumed.</p>
+ *
+ * <p>Downloads into the same file are serialized with a {@link FileLock} on a {@code .lock}
+ * file beside it, so that builds in other processes sharing the directory don't write to
+ * it at the same time.</p>
+ *
+ * @since 1.9.0
+ */
+public class P2Downloader {
+	/** The default delay before the first retry, in milliseconds */
+	public static final long DEFAULT_BACKOFF = 500;
+	/** The longest delay between attempts, in milliseconds */
+	private static final long MAX_BACKOFF = 30000;
+
+	/**
+	 * Serializes threads in this JVM before they take a file lock, which the JVM holds on
+	 * behalf of the whole process and so refuses to grant twice. Entries are removed once
+	 * no thread holds or waits for them.
+	 */
+	private static final ConcurrentMap<Path, PathLock> LOCKS = new ConcurrentHashMap<>();
+
+	private static class PathLock {
+		private final ReentrantLock lock = new ReentrantLock();
+		/** The threads holding or waiting for the lock, only changed within {@link ConcurrentMap#compute} */
+		private int users;
+	}
+
+	/**
+	 * A single try at an operation retried by {@link P2Downloader#withRetries}.
+	 *
+	 * @param <T> the result type
+	 */
+	@FunctionalInterface
+	public interface Attempt<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Receives a completed and verified download while the file is still locked.
+	 *
+	 * @param <T> the result type
+	 */
+	@FunctionalInterface
+	public interface Completion<T> {
+		/**
+		 * @param file the downloaded file
+		 * @param digests the digests of the file for each published algorithm the runtime
+		 *        supports, as lowercase hex values
+		 * @return the result of the download
+		 */
+		T complete(Path file, Map<String, String> digests) throws IOException;
+	}
+
+	/**
+	 * Determines the partial file for a download within the provided directory, named for
+	 * the URI and its strongest published checksum so that content is only ever resumed
+	 * into the same file.
+	 *
+	 * @param directory the directory to keep partial files in
+	 * @param uri the {@link URI} to download
+	 * @param checksums the published checksums of the file, strongest first
+	 * @return the {@link Path} of the partial file, which may not exist
+	 */
+	public static Path getPartialFile(Path directory, URI uri, Map<String, String> checksums) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(uri.toString().getBytes(StandardCharsets.UTF_8));
+		checksums.entrySet().stream().findFirst().ifPresent(checksum -> {
+			digest.update((byte)0);
+			digest.update((checksum.getKey() + ':' + checksum.getValue()).getBytes(StandardCharsets.UTF_8));
+		});
+		return directory.resolve(P2Util.toHex(digest.digest()) + ".part"); //$NON-NLS-1$
+	}
+
+	private final P2Transport transport;
+	private final int attempts;
+	private final long backoff;
+	private final Logger log;
+
+	/**
+	 * @param transport the {@link P2Transport} to read remote files with
+	 * @param attempts the maximum number of attempts made for a single download
+	 * @param backoff the upper bound of the delay before the first retry, in milliseconds,
+	 *        which doubles for each later retry
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 */
+	public P2Downloader(P2Transport transport, int attempts, long backoff, Logger log) {
+		this.transport = transport;
+		this.attempts = Math.max(1, attempts);
+		this.backoff = Math.max(0, backoff);
+		this.log = log;
+	}
+
+	/**
+	 * Downloads the provided URI into a file, resuming any partial content already there.
+	 *
+	 * @param uri the {@link URI} to download
+	 * @param file the file to write, which holds the complete and verified content when
+	 *        this method returns a value
+	 * @param checksums the published checksums of the file, strongest first, as returned by
+	 *        {@link P2Checksums#getPublishedChecksums(Map)}; may be empty
+	 * @param size the published size of the file, or a negative value if unknown
+	 * @return an {@link Optional} describing the digests of the file for each published
+	 *         algorithm the runtime supports, or an empty one if it does not exist
+	 * @throws IOException if every attempt failed
+	 */
+	public Optional<Map<String, String>> download(URI uri, Path file, Map<String, String> checksums, long size) throws IOException {
+		return download(uri, file, checksums, size, (downloaded, digests) -> digests);
+	}
+
+	/**
+	 * Downloads the provided URI into a file, resuming any partial content already there,
+	 * and hands the verified file to {@code completion} before another download into the
+	 * same file can start, such as to move it into place.
+	 *
+	 * @param <T> the result type
+	 * @param uri the {@link URI} to download
+	 * @param file the file to write
+	 * @param checksums the published checksums of the file, strongest first, as returned by
+	 *        {@link P2Checksums#getPublishedChecksums(Map)}; may be empty
+	 * @param size the published size of the file, or a negative value if unknown
+	 * @param completion receives the downloaded file and its digests
+	 * @return an {@link Optional} describing the result of {@code completion}, or an empty
+	 *         one if the file does not exist
+	 * @throws IOException if every attempt failed
+	 */
+	public <T> Optional<T> download(URI uri, Path file, Map<String, String> checksums, long size, Completion<T> completion) throws IOException {
+		Path target = file.toAbsolutePath().normalize();
+		Files.createDirectories(target.getParent());
+		// The lock file is left in place, as deleting it could let a waiting process and a new arrival both proceed
+		Path lockFile = target.resolveSibling(target.getFileName().toString() + ".lock"); //$NON-NLS-1$
+		PathLock pathLock = lock(target);
+		try(FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+			Optional<Map<String, String>> digests = doDownload(uri, target, checksums, size);
+			if(!digests.isPresent()) {
+				return Optional.empty();
+			}
+			return Optional.of(completion.complete(target, digests.get()));
+		} finally {
+			unlock(target, pathLock);
+		}
+	}
+
+	/**
+	 * Runs the provided operation until it succeeds, up to the configured number of attempts,
+	 * waiting with exponential backoff and jitter between them. A
+	 * {@link FileNotFoundException} is not retried.
+	 *
+	 * @param <T> the result type
+	 * @param uri the {@link URI} the operation reads, for diagnostic messages
+	 * @param attempt the operation, which is run again in full after a failure
+	 * @return the result of the first successful attempt
+	 * @throws IOException the failure of the last attempt, if every attempt failed
+	 */
+	public <T> T withRetries(URI uri, Attempt<T> attempt) throws IOException {
+		IOException failure = null;
+		for(int i = 1; i <= this.attempts; i++) {
+			if(i > 1) {
+				sleep(uri, i, failure);
+			}
+			try {
+				return attempt.run();
+			} catch(FileNotFoundException e) {
+				throw e;
+			} catch(IOException e) {
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private static PathLock lock(Path path) throws InterruptedIOException {
+		PathLock pathLock = LOCKS.compute(path, (key, existing) -> {
+			PathLock result = existing == null ? new PathLock() : existing;
+			result.users++;
+			return result;
+		});
+		try {
+			// Waiting here, rather than in a monitor, doesn't pin virtual threads to their carriers
+			pathLock.lock.lockInterruptibly();
+		} catch(InterruptedException e) {
+			release(path);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+		return pathLock;
+	}
+
+	private static void unlock(Path path, PathLock pathLock) {
+		pathLock.lock.unlock();
+		release(path);
+	}
+
+	private static void release(Path path) {
+		LOCKS.computeIfPresent(path, (key, existing) -> --existing.users == 0 ? null : existing);
+	}
+
+	private Optional<Map<String, String>> doDownload(URI uri, Path file, Map<String, String> checksums, long size) throws IOException {
+		Map.Entry<String, String> checksum = checksums.isEmpty() ? null : checksums.entrySet().iterator().next();
+		boolean resumable = checksum != null;
+		try {
+			return withRetries(uri, () -> {
+				if(!resumable) {
+					// Content left by an earlier call or attempt could belong to a different version of the file
+					Files.deleteIfExists(file);
+				}
+				try {
+					Map<String, String> digests = transfer(uri, file, checksums.keySet(), size);
+					if(digests == null) {
+						Files.deleteIfExists(file);
+						return Optional.empty();
+					}
+					verify(uri, file, checksum, size, digests);
+					return Optional.of(digests);
+				} catch(VerificationException e) {
+					// The content can't be trusted, so start again from the beginning
+					Files.deleteIfExists(file);
+					throw e;
+				}
+			});
+		} catch(IOException e) {
+			if(!resumable) {
+				Files.deleteIfExists(file);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends the rest of the remote file to the local one, or rewrites it entirely when
+	 * the server can't resume it, digesting the content as it is written.
+	 *
+	 * @return the digests of the complete file, or {@code null} if the remote file does not
+	 *         exist
+	 */
+	private Map<String, String> transfer(URI uri, Path file, Collection<String> algorithms, long size) throws IOException {
+		long offset = Files.isRegularFile(file) ? Files.size(file) : 0;
+		if(size >= 0 && offset > size) {
+			offset = 0;
+		}
+		if(size >= 0 && offset == size) {
+			// Already complete, such as when an earlier verification was interrupted
+			// Nothing is written, so the stream only holds the digests
+			try(DigestingOutputStream dos = P2Checksums.digesting(new ByteArrayOutputStream(0), algorithms)) {
+				digestExisting(file, offset, dos);
+				return dos.getDigests();
+			}
+		}
+
+		InputStream is = null;
+		if(offset > 0) {
+			is = this.transport.openFrom(uri, offset).orElse(null);
+			if(is == null) {
+				offset = 0;
+			}
+		}
+		if(is == null) {
+			is = this.transport.open(uri, null).orElse(null);
+			if(is == null) {
+				return null;
+			}
+		}
+
+		StandardOpenOption mode = offset > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+		long total = offset;
+		Map<String, String> digests;
+		try(InputStream in = is; DigestingOutputStream os = P2Checksums.digesting(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode), algorithms)) {
+			// Only the content kept from an earlier attempt is read back
+			digestExisting(file, offset, os);
+			// Written unbuffered, so that everything read before a failure is kept
+			byte[] buf = new byte[65536];
+			int read;
+			while((read = in.read(buf)) != -1) {
+				os.write(buf, 0, read);
+				total += read;
+			}
+			digests = os.getDigests();
+		}
+		if(size >= 0 && total < size) {
+			// Servers and proxies don't always report a dropped connection as an error
+			throw new EOFException(MessageFormat.format(Messages.getString("P2Downloader.truncated"), uri, total, size)); //$NON-NLS-1$
+		}
+		return digests;
+	}
+
+	/**
+	 * Adds the first {@code length} bytes of the provided file to the digests of the stream
+	 * without writing them.
+	 */
+	private static void digestExisting(Path file, long length, DigestingOutputStream dos) throws IOException {
+		if(length <= 0) {
+			return;
+		}
+		try(InputStream is = Files.newInputStream(file)) {
+			byte[] buf = new byte[65536];
+			long remaining = length;
+			int read;
+			while(remaining > 0 && (read = is.read(buf, 0, (int)Math.min(buf.length, remaining))) != -1) {
+				dos.updateDigests(buf, 0, read);
+				remaining -= read;
+			}
+		}
+	}
+
+	private static void verify(URI uri, Path file, Map.Entry<String, String> checksum, long size, Map<String, String> digests) throws IOException {
+		long actualSize = Files.size(file);
+		if(size >= 0 && actualSize != size) {
+			throw new VerificationException(MessageFormat.format(Messages.getString("P2Downloader.sizeMismatch"), uri, size, actualSize)); //$NON-NLS-1$
+		}
+		if(checksum != null) {
+			String actual = digests.get(checksum.getKey());
+			if(actual == null) {
+				// Then it can't be verified here; callers verifying it themselves will fail
+				return;
+			}
+			if(!checksum.getValue().equals(actual)) {
+				throw new VerificationException(MessageFormat.format(Messages.getString("P2Downloader.checksumMismatch"), uri, checksum.getKey(), checksum.getValue(), actual)); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Waits before the provided attempt, for a random time of up to the backoff doubled for
+	 * each earlier retry, or for as long as the server asked with {@code Retry-After} if
+	 * that is longer, up to {@link #MAX_BACKOFF}.
+	 */
+	private void sleep(URI uri, int attempt, IOException failure) throws IOException {
+		long bound = Math.min(MAX_BACKOFF, this.backoff << Math.min(attempt - 2, 20));
+		long delay = bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+		if(failure instanceof HttpStatusException) {
+			delay = Math.max(delay, Math.min(MAX_BACKOFF, ((HttpStatusException)failure).getRetryAfter()));
+		}
+		if(log.isWarnEnabled()) {
+			log.warn(MessageFormat.format(Messages.getString("P2Downloader.retrying"), uri, failure, delay, attempt, this.attempts)); //$NON-NLS-1$
+		}
+		try {
+			Thread.sleep(delay);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException ex = new InterruptedIOException(e.getMessage());
+			ex.addSuppressed(failure);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Signals downloaded content that does not match its published size or checksum.
+	 */
+	private static class VerificationException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		VerificationException(String message) {
+			super(message);
+		}
+	}
+}
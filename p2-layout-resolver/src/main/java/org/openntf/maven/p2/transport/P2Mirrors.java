@@ -0,0 +1,512 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.util.P2Checksums;
+import org.openntf.maven.p2.util.P2Util;
+import org.openntf.maven.p2.util.xml.XMLStreams;
+import org.slf4j.Logger;
+
+/**
+ * Downloads repository files from the mirrors a p2 repository advertises with its
+ * {@code p2.mirrorsURL} property.
+ *
+ * <p>The mirror list is read once per repository, and up to {@value #MAX_CANDIDATES}
+ * candidates, including the repository itself, are ranked by the latency of a small
+ * probe request and then by the throughput of completed downloads. Each download goes
+ * to the best candidate; if it stalls for longer than the 95th percentile of the gaps
+ * observed between reads so far, a hedged request is sent to the next candidate and the
+ * first verified result wins. Content is always verified against the published checksum
+ * and size before it is returned, and a candidate that fails is ranked after those that
+ * haven't until it succeeds again.</p>
+ *
+ * @since 1.9.0
+ */
+public class P2Mirrors {
+	/** The default minimum time a download may make no progress before it is hedged */
+	public static final long DEFAULT_HEDGE_DELAY = 1000;
+
+	/** The maximum number of candidates, including the repository itself, to consider */
+	public static final int MAX_CANDIDATES = 8;
+	/** The maximum number of requests in flight for a single download */
+	public static final int MAX_IN_FLIGHT = 3;
+	/** The number of recent read gaps kept to compute the hedging threshold */
+	private static final int GAP_WINDOW = 512;
+	/** The file requested to probe a candidate; its absence is as useful as its presence */
+	private static final String PROBE_PATH = "p2.index"; //$NON-NLS-1$
+	/** The weight given to the latest throughput sample of a candidate */
+	private static final double THROUGHPUT_WEIGHT = 0.3;
+
+	/**
+	 * Reads the mirror base URIs from a p2 mirror list document, such as the one served
+	 * by download.eclipse.org, in document order.
+	 *
+	 * @param is the mirror list content
+	 * @param baseUri the URI the list was read from, to resolve relative entries against
+	 * @return a {@link List} of mirror base URIs, each ending with {@code /}
+	 * @throws XMLStreamException if there is a problem parsing the document
+	 */
+	public static List<URI> readMirrorList(InputStream is, URI baseUri) throws XMLStreamException {
+		List<URI> result = new ArrayList<>();
+		XMLStreamReader reader = XMLStreams.createReader(is);
+		try {
+			while(reader.hasNext()) {
+				if(reader.next() == XMLStreamConstants.START_ELEMENT && "mirror".equals(reader.getLocalName())) { //$NON-NLS-1$
+					String url = reader.getAttributeValue(null, "url"); //$NON-NLS-1$
+					if(StringUtils.isNotBlank(url)) {
+						try {
+							result.add(toBase(baseUri.resolve(url.trim())));
+						} catch(IllegalArgumentException e) {
+							// Skip malformed entries
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Measurements of a single download candidate.
+	 */
+	private static class Candidate {
+		private final URI baseUri;
+		/** The probe round-trip time, or {@link Long#MAX_VALUE} if the probe failed */
+		private volatile long latencyNanos = Long.MAX_VALUE;
+		/** A moving average of download throughput, or {@code 0} before any download */
+		private volatile double bytesPerSecond;
+		/** The number of failed requests since the last successful one */
+		private volatile int failures;
+
+		Candidate(URI baseUri) {
+			this.baseUri = baseUri;
+		}
+
+		/**
+		 * @return the expected time to download {@code size} bytes from this candidate
+		 */
+		double estimateSeconds(long size) {
+			double latency = this.latencyNanos == Long.MAX_VALUE ? Double.MAX_VALUE : this.latencyNanos / 1e9;
+			double throughput = this.bytesPerSecond;
+			return throughput > 0 ? latency + Math.max(0, size) / throughput : latency;
+		}
+
+		synchronized void recordLatency(long nanos) {
+			this.latencyNanos = nanos;
+			this.failures = 0;
+		}
+
+		synchronized void recordThroughput(double sample) {
+			this.bytesPerSecond = this.bytesPerSecond == 0 ? sample : this.bytesPerSecond * (1 - THROUGHPUT_WEIGHT) + sample * THROUGHPUT_WEIGHT;
+			// A candidate that has recovered competes on its measurements again
+			this.failures = 0;
+		}
+
+		synchronized void recordFailure() {
+			this.failures++;
+		}
+	}
+
+	private final P2Transport transport;
+	private final ExecutorService executor;
+	private final long hedgeDelayNanos;
+	private final Logger log;
+
+	private final ConcurrentMap<URI, CompletableFuture<List<Candidate>>> candidateLists = new ConcurrentHashMap<>();
+	private final ConcurrentMap<URI, Candidate> candidates = new ConcurrentHashMap<>();
+	private final Deque<Long> gaps = new ArrayDeque<>();
+
+	/**
+	 * @param transport the {@link P2Transport} to read mirror lists and content with
+	 * @param executor the executor to run probes and download requests on, which must
+	 *        allow {@value #MAX_IN_FLIGHT} requests per concurrent download
+	 * @param hedgeDelay the minimum time, in milliseconds, a download may make no progress
+	 *        before a hedged request is sent
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 */
+	public P2Mirrors(P2Transport transport, ExecutorService executor, long hedgeDelay, Logger log) {
+		this.transport = transport;
+		this.executor = executor;
+		this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelay);
+		this.log = log;
+	}
+
+	/**
+	 * Retrieves the download candidates for a repository, best first.
+	 *
+	 * @param repositoryUri the base URI of the repository, ending with {@code /}
+	 * @param mirrorsUrl the value of the repository's {@code p2.mirrorsURL} property
+	 * @param size the expected size of the download, or a negative value if unknown
+	 * @return a {@link List} of candidate base URIs, always including the repository
+	 */
+	public List<URI> getCandidates(URI repositoryUri, URI mirrorsUrl, long size) {
+		List<Candidate> result = new ArrayList<>(P2Util.computeOnce(this.candidateLists, mirrorsUrl, key -> loadCandidates(repositoryUri, mirrorsUrl)));
+		// Fewest recent failures first, so that a candidate that has stopped working is used last
+		result.sort(Comparator.<Candidate>comparingInt(candidate -> candidate.failures)
+			.thenComparingDouble(candidate -> candidate.estimateSeconds(size)));
+		List<URI> uris = new ArrayList<>(result.size());
+		for(Candidate candidate : result) {
+			uris.add(candidate.baseUri);
+		}
+		return uris;
+	}
+
+	/**
+	 * Downloads a repository file from the best available candidate, hedging stalled
+	 * requests with the next candidates.
+	 *
+	 * @param repositoryUri the base URI of the repository, ending with {@code /}
+	 * @param mirrorsUrl the value of the repository's {@code p2.mirrorsURL} property
+	 * @param path the path of the file relative to the repository, such as
+	 *        {@code plugins/foo_1.0.0.jar}
+	 * @param checksums the published checksums of the file, strongest first, as returned by
+	 *        {@link P2Checksums#getPublishedChecksums(Map)}; must not be empty
+	 * @param size the published size of the file, or a negative value if unknown
+	 * @param tempDir the directory to write the downloaded file to
+	 * @return an {@link Optional} describing the verified file, which the caller should
+	 *         delete, or an empty one if no candidate has the file
+	 * @throws IOException if every candidate failed and at least one failed with an error
+	 *         other than the file being absent
+	 */
+	public Optional<Path> download(URI repositoryUri, URI mirrorsUrl, String path, Map<String, String> checksums, long size, Path tempDir) throws IOException {
+		if(checksums.isEmpty()) {
+			throw new IllegalArgumentException("Mirrored downloads require a published checksum");
+		}
+		Map.Entry<String, String> checksum = checksums.entrySet().iterator().next();
+		Deque<URI> remaining = new ArrayDeque<>(getCandidates(repositoryUri, mirrorsUrl, size));
+		BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+		List<Attempt> running = new ArrayList<>();
+		IOException failure = null;
+
+		Files.createDirectories(tempDir);
+		try {
+			start(remaining.removeFirst(), path, checksum, size, tempDir, completed, running);
+			while(!running.isEmpty()) {
+				long threshold = getHedgeThreshold();
+				Attempt done;
+				try {
+					done = completed.poll(Math.max(1, TimeUnit.NANOSECONDS.toMillis(threshold) / 4), TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+
+				if(done != null) {
+					running.remove(done);
+					if(done.result != null) {
+						return Optional.of(done.result);
+					}
+					if(done.error != null) {
+						failure = done.error;
+						if(log.isDebugEnabled()) {
+							log.debug(MessageFormat.format(Messages.getString("P2Mirrors.candidateFailed"), done.uri), done.error); //$NON-NLS-1$
+						}
+					}
+					if(running.isEmpty() && !remaining.isEmpty()) {
+						start(remaining.removeFirst(), path, checksum, size, tempDir, completed, running);
+					}
+					continue;
+				}
+
+				// Hedge each stalled request once with the next candidate
+				long now = System.nanoTime();
+				for(Attempt attempt : new ArrayList<>(running)) {
+					if(!attempt.hedged && now - attempt.lastProgress > threshold && !remaining.isEmpty() && running.size() < MAX_IN_FLIGHT) {
+						attempt.hedged = true;
+						URI next = remaining.removeFirst();
+						if(log.isDebugEnabled()) {
+							log.debug(MessageFormat.format(Messages.getString("P2Mirrors.hedging"), attempt.uri, next)); //$NON-NLS-1$
+						}
+						start(next, path, checksum, size, tempDir, completed, running);
+					}
+				}
+			}
+		} finally {
+			for(Attempt attempt : running) {
+				attempt.cancel();
+			}
+		}
+
+		if(failure != null) {
+			throw failure;
+		}
+		return Optional.empty();
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	private static URI toBase(URI uri) {
+		String value = uri.toString();
+		return value.endsWith("/") ? uri : URI.create(value + '/'); //$NON-NLS-1$
+	}
+
+	/**
+	 * Reads the mirror list and probes the repository and the first mirrors concurrently.
+	 * Probes that haven't answered within the hedge delay are ranked after those that have.
+	 */
+	private List<Candidate> loadCandidates(URI repositoryUri, URI mirrorsUrl) {
+		List<URI> uris = new ArrayList<>();
+		uris.add(toBase(repositoryUri));
+		try {
+			Optional<InputStream> is = this.transport.open(mirrorsUrl, null);
+			if(is.isPresent()) {
+				try(InputStream in = is.get()) {
+					for(URI mirror : readMirrorList(in, mirrorsUrl)) {
+						if(!uris.contains(mirror) && uris.size() < MAX_CANDIDATES) {
+							uris.add(mirror);
+						}
+					}
+				}
+			}
+		} catch(IOException | XMLStreamException e) {
+			if(log.isWarnEnabled()) {
+				log.warn(MessageFormat.format(Messages.getString("P2Mirrors.mirrorListUnavailable"), mirrorsUrl), e); //$NON-NLS-1$
+			}
+		}
+
+		List<Candidate> result = new ArrayList<>();
+		Map<Candidate, Future<?>> probes = new LinkedHashMap<>();
+		for(URI uri : uris) {
+			Candidate candidate = this.candidates.computeIfAbsent(uri, Candidate::new);
+			result.add(candidate);
+			probes.put(candidate, this.executor.submit(() -> {
+				long start = System.nanoTime();
+				try {
+					this.transport.readRange(candidate.baseUri.resolve(PROBE_PATH), 0, 1);
+					candidate.recordLatency(System.nanoTime() - start);
+				} catch(IOException e) {
+					candidate.recordFailure();
+				}
+			}));
+		}
+		long deadline = System.nanoTime() + Math.max(this.hedgeDelayNanos, TimeUnit.SECONDS.toNanos(1));
+		for(Map.Entry<Candidate, Future<?>> probe : probes.entrySet()) {
+			try {
+				probe.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch(TimeoutException e) {
+				probe.getValue().cancel(true);
+			} catch(ExecutionException e) {
+				// Then it stays unranked
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private void start(URI baseUri, String path, Map.Entry<String, String> checksum, long size, Path tempDir, BlockingQueue<Attempt> completed, List<Attempt> running) {
+		Attempt attempt = new Attempt(baseUri.resolve(path), this.candidates.computeIfAbsent(baseUri, Candidate::new));
+		running.add(attempt);
+		this.executor.execute(() -> {
+			try {
+				attempt.run(checksum, size, tempDir);
+			} finally {
+				completed.add(attempt);
+			}
+		});
+	}
+
+	/**
+	 * @return the time, in nanoseconds, a request may go without progress before it is
+	 *         considered stalled
+	 */
+	long getHedgeThreshold() {
+		long[] samples;
+		synchronized(this.gaps) {
+			samples = new long[this.gaps.size()];
+			int i = 0;
+			for(Long gap : this.gaps) {
+				samples[i++] = gap;
+			}
+		}
+		if(samples.length == 0) {
+			return this.hedgeDelayNanos;
+		}
+		Arrays.sort(samples);
+		long p95 = samples[Math.min(samples.length - 1, (int)Math.ceil(samples.length * 0.95) - 1)];
+		return Math.max(this.hedgeDelayNanos, p95);
+	}
+
+	private void recordGap(long nanos) {
+		synchronized(this.gaps) {
+			if(this.gaps.size() == GAP_WINDOW) {
+				this.gaps.removeFirst();
+			}
+			this.gaps.addLast(nanos);
+		}
+	}
+
+	/**
+	 * A single request for a file from one candidate.
+	 */
+	private class Attempt {
+		private final URI uri;
+		private final Candidate candidate;
+		private volatile long lastProgress = System.nanoTime();
+		private volatile InputStream stream;
+		private volatile boolean cancelled;
+		/** Only read and written by the thread calling {@link P2Mirrors#download} */
+		private boolean hedged;
+		private volatile Path result;
+		private volatile IOException error;
+
+		Attempt(URI uri, Candidate candidate) {
+			this.uri = uri;
+			this.candidate = candidate;
+		}
+
+		void run(Map.Entry<String, String> checksum, long size, Path tempDir) {
+			Path temp = null;
+			long start = System.nanoTime();
+			try {
+				Optional<InputStream> is = transport.open(this.uri, null);
+				if(!is.isPresent()) {
+					this.candidate.recordFailure();
+					return;
+				}
+				temp = Files.createTempFile(tempDir, "mirror", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+				long count = 0;
+				P2Checksums.DigestingOutputStream dos;
+				try(InputStream in = is.get(); OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+					this.stream = in;
+					if(this.cancelled) {
+						return;
+					}
+					dos = P2Checksums.digesting(os, Collections.singleton(checksum.getKey()));
+					byte[] buf = new byte[8192];
+					int read;
+					while((read = in.read(buf)) != -1) {
+						if(this.cancelled) {
+							return;
+						}
+						long now = System.nanoTime();
+						recordGap(now - this.lastProgress);
+						this.lastProgress = now;
+						dos.write(buf, 0, read);
+						count += read;
+					}
+					dos.flush();
+				}
+
+				if(size >= 0 && count != size) {
+					throw new IOException(MessageFormat.format(Messages.getString("P2Mirrors.sizeMismatch"), this.uri, size, count)); //$NON-NLS-1$
+				}
+				String actual = dos.getDigests().get(checksum.getKey());
+				if(!checksum.getValue().equals(actual)) {
+					throw new IOException(MessageFormat.format(Messages.getString("P2Mirrors.checksumMismatch"), this.uri, checksum.getKey(), checksum.getValue(), actual)); //$NON-NLS-1$
+				}
+
+				double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+				this.candidate.recordThroughput(count / seconds);
+				synchronized(this) {
+					// A losing request discards its copy
+					if(!this.cancelled) {
+						this.result = temp;
+						temp = null;
+					}
+				}
+			} catch(IOException e) {
+				if(!this.cancelled) {
+					this.candidate.recordFailure();
+					this.error = e;
+				}
+			} finally {
+				if(temp != null) {
+					try {
+						Files.deleteIfExists(temp);
+					} catch(IOException e) {
+						// Ignore
+					}
+				}
+			}
+		}
+
+		/**
+		 * Abandons this request, discarding its result if it has already completed.
+		 */
+		void cancel() {
+			Path completed;
+			synchronized(this) {
+				this.cancelled = true;
+				completed = this.result;
+			}
+			if(completed != null) {
+				try {
+					Files.deleteIfExists(completed);
+				} catch(IOException e) {
+					// Ignore
+				}
+			}
+			InputStream is = this.stream;
+			if(is != null) {
+				try {
+					// Some transports wait for a pending read to finish before closing, so
+					// this mustn't hold up the winning download
+					executor.execute(() -> {
+						try {
+							is.close();
+						} catch(IOException e) {
+							// Ignore
+						}
+					});
+				} catch(RejectedExecutionException e) {
+					// Then the executor is shutting down, which ends the read anyway
+				}
+			}
+		}
+	}
+}
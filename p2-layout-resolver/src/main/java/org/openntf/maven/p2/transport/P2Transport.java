@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Optional;
+
+import org.openntf.maven.p2.util.HttpValidators;
+import org.openntf.maven.p2.util.NotModifiedException;
+
+/**
+ * Opens remote and local resources for reading.
+ * 
+ * <p>Implementations are expected to be safe for concurrent use and to reuse
+ * connections to the same host where the underlying client supports it.</p>
+ * 
+ * @since 1.9.0
+ */
+public interface P2Transport {
+	/**
+	 * Opens the provided URI, optionally as a conditional request.
+	 * 
+	 * <p>Any {@code Content-Encoding} negotiated by the transport is decoded before the
+	 * content is returned.</p>
+	 * 
+	 * @param uri the {@link URI} to open
+	 * @param validators previously-stored validators to send with the request, updated in place
+	 *        with the validators of a successful response; may be {@code null}
+	 * @return an {@link Optional} describing the response stream, or an empty one if the
+	 *         resource does not exist
+	 * @throws NotModifiedException if {@code validators} were sent and the server reports
+	 *         that the resource has not changed
+	 * @throws IOException if there is a problem opening the connection
+	 */
+	Optional<InputStream> open(URI uri, HttpValidators validators) throws IOException;
+	
+	/**
+	 * Reads a range of bytes from the provided URI with an HTTP {@code Range} request.
+	 * 
+	 * <p>Range requests are neither compressed nor conditional. Implementations that do
+	 * not support them, and non-HTTP URIs, report the range as unavailable.</p>
+	 * 
+	 * @param uri the {@link URI} to read
+	 * @param offset the offset of the first byte to read, or a negative value to read the
+	 *        last {@code length} bytes of the resource
+	 * @param length the maximum number of bytes to read
+	 * @return an {@link Optional} describing the bytes read, or an empty one if the resource
+	 *         does not exist or the server does not honor range requests
+	 * @throws IOException if there is a problem reading the range
+	 */
+	default Optional<ByteRange> readRange(URI uri, long offset, int length) throws IOException {
+		return Optional.empty();
+	}
+	
+	/**
+	 * Opens the provided URI from an offset with an HTTP {@code Range: bytes=N-} request,
+	 * to resume an interrupted transfer.
+	 * 
+	 * <p>As with {@link #readRange}, these requests are neither compressed nor conditional,
+	 * and implementations that do not support them, and non-HTTP URIs, report the range
+	 * as unavailable.</p>
+	 * 
+	 * @param uri the {@link URI} to open
+	 * @param offset the offset of the first byte to read
+	 * @return an {@link Optional} describing the content from {@code offset} to the end of
+	 *         the resource, or an empty one if the resource does not exist or the server does
+	 *         not honor range requests
+	 * @throws IOException if there is a problem opening the connection
+	 */
+	default Optional<InputStream> openFrom(URI uri, long offset) throws IOException {
+		return Optional.empty();
+	}
+}
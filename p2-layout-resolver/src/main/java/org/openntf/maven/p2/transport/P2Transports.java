@@ -0,0 +1,457 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.text.MessageFormat;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.util.HttpStatusException;
+import org.slf4j.Logger;
+
+/**
+ * Creates {@link P2Transport} instances and holds behavior shared between them.
+ * 
+ * @since 1.9.0
+ */
+public enum P2Transports {
+	;
+	
+	/** Selects the best transport available on the running JVM */
+	public static final String TYPE_AUTO = "auto"; //$NON-NLS-1$
+	/** Selects the pooled HTTP/2-capable {@code java.net.http} client, available on Java 11+ */
+	public static final String TYPE_HTTP_CLIENT = "httpclient"; //$NON-NLS-1$
+	/** Selects {@link URLConnectionTransport} */
+	public static final String TYPE_URL_CONNECTION = "urlconnection"; //$NON-NLS-1$
+	
+	/** Maximum number of redirects followed for a single request */
+	static final int MAX_REDIRECTS = 10;
+	
+	/**
+	 * Class name of the {@code java.net.http}-based transport, which is only present in
+	 * the Java 11 section of the multi-release JAR
+	 */
+	private static final String HTTP_CLIENT_CLASS = "org.openntf.maven.p2.transport.HttpClientTransport"; //$NON-NLS-1$
+	
+	/** Matches a single-range {@code Content-Range} header value */
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)"); //$NON-NLS-1$
+	
+	/** Transports shared between connectors, so that pooled connections are reused across repositories */
+	private static final Map<String, P2Transport> TRANSPORTS = new ConcurrentHashMap<>();
+	
+	/**
+	 * Retrieves a transport of the requested type, falling back to {@link URLConnectionTransport}
+	 * when that type is not available on the running JVM. Transports are shared between
+	 * callers requesting the same type and timeouts.
+	 * 
+	 * @param type the transport type, such as {@link #TYPE_AUTO}
+	 * @param connectTimeout the connection timeout, in milliseconds
+	 * @param requestTimeout the read timeout, in milliseconds
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 * @return a {@link P2Transport} for the provided settings
+	 */
+	public static P2Transport create(String type, int connectTimeout, int requestTimeout, Logger log) {
+		String t = StringUtils.defaultIfEmpty(type, TYPE_AUTO).toLowerCase(Locale.ROOT);
+		String key = t + ':' + connectTimeout + ':' + requestTimeout;
+		return TRANSPORTS.computeIfAbsent(key, k -> createTransport(t, connectTimeout, requestTimeout, log));
+	}
+	
+	private static P2Transport createTransport(String t, int connectTimeout, int requestTimeout, Logger log) {
+		if(TYPE_AUTO.equals(t) || TYPE_HTTP_CLIENT.equals(t)) {
+			try {
+				Class<?> clazz = Class.forName(HTTP_CLIENT_CLASS, true, P2Transports.class.getClassLoader());
+				Constructor<?> ctor = clazz.getConstructor(int.class, int.class);
+				return (P2Transport)ctor.newInstance(connectTimeout, requestTimeout);
+			} catch(ReflectiveOperationException | LinkageError e) {
+				if(TYPE_HTTP_CLIENT.equals(t) && log.isWarnEnabled()) {
+					log.warn(MessageFormat.format(Messages.getString("P2Transports.httpClientUnavailable"), e)); //$NON-NLS-1$
+				}
+			}
+		}
+		return new URLConnectionTransport(connectTimeout, requestTimeout);
+	}
+	
+	/**
+	 * Determines whether compressed transfer encodings should be requested for the
+	 * provided URI. Only XML indexes benefit; bundles and .xz/.jar indexes are already
+	 * compressed.
+	 * 
+	 * @param uri the {@link URI} being requested
+	 * @return {@code true} if compression should be negotiated
+	 */
+	public static boolean isCompressible(URI uri) {
+		String path = uri.getPath();
+		return path != null && path.toLowerCase(Locale.ROOT).endsWith(".xml"); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Wraps the provided response stream to decode the given {@code Content-Encoding}.
+	 * 
+	 * @param is the raw response stream
+	 * @param contentEncoding the value of the {@code Content-Encoding} header; may be {@code null}
+	 * @return a stream of the decoded content
+	 * @throws IOException if there is a problem reading the encoded stream
+	 */
+	public static InputStream decode(InputStream is, String contentEncoding) throws IOException {
+		if(StringUtils.isEmpty(contentEncoding)) {
+			return is;
+		}
+		switch(contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+		case "gzip": //$NON-NLS-1$
+		case "x-gzip": //$NON-NLS-1$
+			return new GZIPInputStream(is);
+		case "deflate": //$NON-NLS-1$
+			return new InflaterInputStream(is);
+		default:
+			return is;
+		}
+	}
+	
+	/**
+	 * Wraps the provided response stream to report a connection closed before the declared
+	 * {@code Content-Length} was read as an error, rather than as the end of the content.
+	 * 
+	 * @param is the raw response stream
+	 * @param uri the {@link URI} being read, for error messages
+	 * @param contentLength the declared length of the response body, or a negative value if
+	 *        it is unknown, in which case {@code is} is returned as-is
+	 * @return a stream of the same content
+	 */
+	public static InputStream checkLength(InputStream is, URI uri, long contentLength) {
+		if(contentLength < 0) {
+			return is;
+		}
+		return new FilterInputStream(is) {
+			private long remaining = contentLength;
+			
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if(b == -1) {
+					checkRemaining();
+				} else {
+					remaining--;
+				}
+				return b;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if(read == -1) {
+					checkRemaining();
+				} else {
+					remaining -= read;
+				}
+				return read;
+			}
+			
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				remaining -= skipped;
+				return skipped;
+			}
+			
+			private void checkRemaining() throws EOFException {
+				if(remaining > 0) {
+					throw new EOFException(MessageFormat.format(Messages.getString("P2Transports.truncatedResponse"), uri, contentLength - remaining, contentLength)); //$NON-NLS-1$
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Wraps the provided response stream so that a read making no progress for longer than
+	 * {@code timeout} closes it and fails with a {@link SocketTimeoutException}, as the read
+	 * timeout of {@link java.net.URLConnection} does. This is needed for clients, such as
+	 * {@code java.net.http}, whose body streams otherwise block indefinitely on a stalled
+	 * connection.
+	 * 
+	 * @param is the raw response stream, which must unblock pending reads when closed
+	 * @param uri the {@link URI} being read, for error messages
+	 * @param timeout the longest time a single read may block, in milliseconds, or {@code 0}
+	 *        to return {@code is} as-is
+	 * @return a stream of the same content
+	 */
+	public static InputStream withReadTimeout(InputStream is, URI uri, long timeout) {
+		if(timeout <= 0) {
+			return is;
+		}
+		return new ReadTimeoutInputStream(is, uri, timeout);
+	}
+	
+	/**
+	 * Throws for a response status that signals a temporary failure, which is a server error
+	 * or {@code 429 Too Many Requests}. Other unexpected statuses are left to the caller to
+	 * treat as an unusable response, including {@code 403}, which some hosts send for
+	 * missing files.
+	 * 
+	 * @param uri the {@link URI} that was requested
+	 * @param status the status of the response
+	 * @param retryAfter the value of the {@code Retry-After} header; may be {@code null}
+	 * @throws HttpStatusException if the status signals a temporary failure
+	 */
+	public static void checkTransientStatus(URI uri, int status, String retryAfter) throws HttpStatusException {
+		if(status >= 500 || status == 429) {
+			throw new HttpStatusException(uri, status, parseRetryAfter(retryAfter));
+		}
+	}
+	
+	/**
+	 * Parses a {@code Retry-After} header, given either as a number of seconds or as an
+	 * HTTP date.
+	 * 
+	 * @param value the header value; may be {@code null}
+	 * @return the requested delay in milliseconds, or {@code -1} if there is no usable value
+	 */
+	public static long parseRetryAfter(String value) {
+		if(StringUtils.isBlank(value)) {
+			return -1;
+		}
+		String trimmed = value.trim();
+		if(StringUtils.isNumeric(trimmed)) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(trimmed));
+			} catch(NumberFormatException e) {
+				return -1;
+			}
+		}
+		try {
+			long at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			return Math.max(0, at - System.currentTimeMillis());
+		} catch(DateTimeParseException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Formats the value of a {@code Range} header for the provided range.
+	 * 
+	 * @param offset the offset of the first byte, or a negative value to request the last
+	 *        {@code length} bytes
+	 * @param length the number of bytes to request
+	 * @return the header value
+	 */
+	public static String formatRange(long offset, int length) {
+		if(offset < 0) {
+			return "bytes=-" + length; //$NON-NLS-1$
+		}
+		return "bytes=" + offset + '-' + (offset + length - 1); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Formats the value of a {@code Range} header requesting everything from an offset to
+	 * the end of a resource.
+	 * 
+	 * @param offset the offset of the first byte
+	 * @return the header value
+	 */
+	public static String formatRange(long offset) {
+		return "bytes=" + offset + '-'; //$NON-NLS-1$
+	}
+	
+	/**
+	 * Determines whether a {@code Content-Range} header describes a single range starting
+	 * at the provided offset, as expected in response to {@link #formatRange(long)}.
+	 * 
+	 * @param contentRange the value of the {@code Content-Range} header; may be {@code null}
+	 * @param offset the requested offset
+	 * @return {@code true} if the response body starts at {@code offset}
+	 */
+	public static boolean isRangeFrom(String contentRange, long offset) {
+		Matcher matcher = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.trim());
+		return matcher != null && matcher.matches() && Long.parseLong(matcher.group(1)) == offset;
+	}
+	
+	/**
+	 * Reads the body of a {@code 206 Partial Content} response.
+	 * 
+	 * @param is the response body, which is read and closed
+	 * @param contentRange the value of the {@code Content-Range} header
+	 * @return an {@link Optional} describing the bytes read, or an empty one if
+	 *         {@code contentRange} does not describe a single byte range
+	 * @throws IOException if there is a problem reading the body
+	 */
+	public static Optional<ByteRange> readRange(InputStream is, String contentRange) throws IOException {
+		try(InputStream in = is) {
+			Matcher matcher = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.trim());
+			if(matcher == null || !matcher.matches()) {
+				return Optional.empty();
+			}
+			long start = Long.parseLong(matcher.group(1));
+			long end = Long.parseLong(matcher.group(2));
+			long total = "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3)); //$NON-NLS-1$
+			if(end < start || end - start >= Integer.MAX_VALUE) {
+				return Optional.empty();
+			}
+			byte[] data = new byte[(int)(end - start + 1)];
+			int pos = 0;
+			while(pos < data.length) {
+				int read = in.read(data, pos, data.length - pos);
+				if(read == -1) {
+					throw new EOFException(MessageFormat.format(Messages.getString("P2Transports.truncatedRange"), contentRange)); //$NON-NLS-1$
+				}
+				pos += read;
+			}
+			return Optional.of(new ByteRange(data, start, total));
+		}
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	/**
+	 * Holds the thread that checks for stalled reads, created on first use.
+	 */
+	private static class Watchdog {
+		static final ScheduledThreadPoolExecutor INSTANCE;
+		static {
+			INSTANCE = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread thread = new Thread(r, "p2-read-timeout"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			});
+			INSTANCE.setRemoveOnCancelPolicy(true);
+		}
+	}
+	
+	private static class ReadTimeoutInputStream extends FilterInputStream {
+		private final URI uri;
+		private final long timeoutNanos;
+		private final ScheduledFuture<?> check;
+		/** The {@link System#nanoTime()} at which the pending read started, if {@link #reading} */
+		private volatile long readStart;
+		private volatile boolean reading;
+		private volatile boolean timedOut;
+		
+		ReadTimeoutInputStream(InputStream in, URI uri, long timeout) {
+			super(in);
+			this.uri = uri;
+			this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+			// Checked a few times per timeout, so a stall is caught within a quarter of it
+			long period = Math.max(10, timeout / 4);
+			this.check = Watchdog.INSTANCE.scheduleWithFixedDelay(this::checkStalled, period, period, TimeUnit.MILLISECONDS);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			begin();
+			try {
+				return finished(super.read());
+			} catch(IOException e) {
+				throw timedOut ? timeout() : e;
+			} finally {
+				end();
+			}
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			begin();
+			try {
+				return finished(super.read(b, off, len));
+			} catch(IOException e) {
+				throw timedOut ? timeout() : e;
+			} finally {
+				end();
+			}
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			begin();
+			try {
+				return super.skip(n);
+			} catch(IOException e) {
+				throw timedOut ? timeout() : e;
+			} finally {
+				end();
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			check.cancel(false);
+			super.close();
+		}
+		
+		/**
+		 * Stops checking a stream that was read to its end, as callers don't always close
+		 * them promptly.
+		 */
+		private int finished(int read) {
+			if(read == -1) {
+				check.cancel(false);
+			}
+			return read;
+		}
+		
+		private void begin() throws IOException {
+			if(timedOut) {
+				throw timeout();
+			}
+			readStart = System.nanoTime();
+			reading = true;
+		}
+		
+		private void end() throws IOException {
+			reading = false;
+			if(timedOut) {
+				// Closing the stream may have ended the read normally, which mustn't look like the end of the content
+				throw timeout();
+			}
+		}
+		
+		private void checkStalled() {
+			if(reading && System.nanoTime() - readStart > timeoutNanos) {
+				timedOut = true;
+				check.cancel(false);
+				try {
+					in.close();
+				} catch(IOException e) {
+					// Ignore
+				}
+			}
+		}
+		
+		private SocketTimeoutException timeout() {
+			return new SocketTimeoutException(MessageFormat.format(Messages.getString("P2Transports.readTimedOut"), uri, TimeUnit.NANOSECONDS.toMillis(timeoutNanos))); //$NON-NLS-1$
+		}
+	}
+}
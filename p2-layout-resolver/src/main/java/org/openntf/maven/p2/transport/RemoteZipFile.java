@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.openntf.maven.p2.Messages;
+
+/**
+ * Reads individual entries of a remote ZIP file with HTTP {@code Range} requests, so that
+ * small parts of a large bundle, such as its manifest, can be read without downloading
+ * the whole file.
+ * 
+ * <p>Opening the file reads the end of central directory record and the central directory,
+ * usually in a single request. Each entry is then read with one further request and held
+ * in memory, so entries larger than {@link #MAX_ENTRY_SIZE} are refused; larger content,
+ * such as embedded jars, should be read from a full download instead. ZIP64
+ * archives and entries compressed with methods other than STORED and DEFLATED are not
+ * supported, and are reported as unavailable so that callers can fall back to a full
+ * download.</p>
+ * 
+ * <p>Instances are safe for concurrent use.</p>
+ * 
+ * @since 1.9.0
+ */
+public class RemoteZipFile {
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int LOC_SIGNATURE = 0x04034b50;
+	private static final int EOCD_LENGTH = 22;
+	private static final int CEN_LENGTH = 46;
+	private static final int LOC_LENGTH = 30;
+	/** The length of the tail read when opening: the EOCD record, a maximum-length comment and room for a typical central directory */
+	private static final int TAIL_LENGTH = 64 * 1024 + EOCD_LENGTH;
+	/** Extra bytes requested past an entry's data to allow for local extra fields differing from the central ones */
+	private static final int LOC_SLACK = 256;
+	/** The largest entry, compressed or not, that {@link #readEntry(String)} will read */
+	public static final int MAX_ENTRY_SIZE = 1024 * 1024;
+	
+	/**
+	 * Opens the central directory of the provided remote ZIP file.
+	 * 
+	 * @param transport the {@link P2Transport} to read ranges with
+	 * @param uri the {@link URI} of the ZIP file
+	 * @return an {@link Optional} describing the opened file, or an empty one if the server
+	 *         does not honor range requests or the file is not a supported ZIP archive
+	 * @throws IOException if there is a problem reading from the server
+	 */
+	public static Optional<RemoteZipFile> open(P2Transport transport, URI uri) throws IOException {
+		Optional<ByteRange> optTail = transport.readRange(uri, -1, TAIL_LENGTH);
+		if(!optTail.isPresent() || optTail.get().getTotalLength() < 0) {
+			return Optional.empty();
+		}
+		ByteRange tail = optTail.get();
+		byte[] data = tail.getData();
+		
+		int eocd = -1;
+		for(int i = data.length - EOCD_LENGTH; i >= 0; i--) {
+			if(readInt(data, i) == EOCD_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if(eocd < 0) {
+			return Optional.empty();
+		}
+		int entryCount = readShort(data, eocd + 10);
+		long cenSize = readUnsignedInt(data, eocd + 12);
+		long cenOffset = readUnsignedInt(data, eocd + 16);
+		if(entryCount == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+			// ZIP64
+			return Optional.empty();
+		}
+		
+		byte[] cen;
+		int cenStart;
+		if(cenOffset >= tail.getOffset() && cenOffset + cenSize <= tail.getOffset() + eocd) {
+			cen = data;
+			cenStart = (int)(cenOffset - tail.getOffset());
+		} else {
+			Optional<ByteRange> optCen = transport.readRange(uri, cenOffset, (int)cenSize);
+			if(!optCen.isPresent() || optCen.get().getData().length < cenSize) {
+				return Optional.empty();
+			}
+			cen = optCen.get().getData();
+			cenStart = 0;
+		}
+		
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		int pos = cenStart;
+		for(int i = 0; i < entryCount; i++) {
+			if(pos + CEN_LENGTH > cen.length || readInt(cen, pos) != CEN_SIGNATURE) {
+				return Optional.empty();
+			}
+			int method = readShort(cen, pos + 10);
+			long crc = readUnsignedInt(cen, pos + 16);
+			long compressedSize = readUnsignedInt(cen, pos + 20);
+			long size = readUnsignedInt(cen, pos + 24);
+			int nameLength = readShort(cen, pos + 28);
+			int extraLength = readShort(cen, pos + 30);
+			int commentLength = readShort(cen, pos + 32);
+			long localOffset = readUnsignedInt(cen, pos + 42);
+			if(pos + CEN_LENGTH + nameLength > cen.length) {
+				return Optional.empty();
+			}
+			String name = new String(cen, pos + CEN_LENGTH, nameLength, StandardCharsets.UTF_8);
+			entries.put(name, new Entry(method, crc, compressedSize, size, nameLength + extraLength, localOffset));
+			pos += CEN_LENGTH + nameLength + extraLength + commentLength;
+		}
+		
+		return Optional.of(new RemoteZipFile(transport, uri, tail.getTotalLength(), entries));
+	}
+	
+	private final P2Transport transport;
+	private final URI uri;
+	private final long length;
+	private final Map<String, Entry> entries;
+	
+	private RemoteZipFile(P2Transport transport, URI uri, long length, Map<String, Entry> entries) {
+		this.transport = transport;
+		this.uri = uri;
+		this.length = length;
+		this.entries = entries;
+	}
+	
+	/**
+	 * @return the {@link URI} of the remote file
+	 */
+	public URI getUri() {
+		return uri;
+	}
+	
+	/**
+	 * @return the names of all entries in the file, in central directory order
+	 */
+	public Set<String> getEntryNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+	
+	/**
+	 * Reads and decompresses the named entry, verifying its CRC.
+	 * 
+	 * @param name the name of the entry to read
+	 * @return an {@link Optional} describing the entry content, or an empty one if the file
+	 *         has no such entry
+	 * @throws IOException if there is a problem reading the entry, including when the server
+	 *         stops honoring range requests or the entry is larger than {@link #MAX_ENTRY_SIZE}
+	 */
+	public Optional<byte[]> readEntry(String name) throws IOException {
+		Entry entry = entries.get(name);
+		if(entry == null) {
+			return Optional.empty();
+		}
+		if(entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) {
+			throw new ZipException(MessageFormat.format(Messages.getString("RemoteZipFile.unsupportedMethod"), entry.method, name, uri)); //$NON-NLS-1$
+		}
+		if(entry.size > MAX_ENTRY_SIZE || entry.compressedSize > MAX_ENTRY_SIZE) {
+			throw new ZipException(MessageFormat.format(Messages.getString("RemoteZipFile.entryTooLarge"), name, uri, entry.size, MAX_ENTRY_SIZE)); //$NON-NLS-1$
+		}
+		
+		// Request the local header and data together, guessing that the local extra field matches the central one
+		long requestLength = Math.min(LOC_LENGTH + entry.headerLength + entry.compressedSize + LOC_SLACK, length - entry.localOffset);
+		byte[] local = readRange(entry.localOffset, requestLength);
+		if(local.length < LOC_LENGTH || readInt(local, 0) != LOC_SIGNATURE) {
+			throw new ZipException(MessageFormat.format(Messages.getString("RemoteZipFile.invalidEntry"), name, uri)); //$NON-NLS-1$
+		}
+		int dataStart = LOC_LENGTH + readShort(local, 26) + readShort(local, 28);
+		byte[] compressed;
+		if(dataStart + entry.compressedSize <= local.length) {
+			compressed = new byte[(int)entry.compressedSize];
+			System.arraycopy(local, dataStart, compressed, 0, compressed.length);
+		} else {
+			compressed = readRange(entry.localOffset + dataStart, entry.compressedSize);
+		}
+		
+		byte[] content = entry.method == ZipEntry.STORED ? compressed : inflate(compressed, (int)entry.size);
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		if(content.length != entry.size || crc.getValue() != entry.crc) {
+			throw new ZipException(MessageFormat.format(Messages.getString("RemoteZipFile.invalidEntry"), name, uri)); //$NON-NLS-1$
+		}
+		return Optional.of(content);
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private byte[] readRange(long offset, long count) throws IOException {
+		if(count > Integer.MAX_VALUE) {
+			throw new ZipException(MessageFormat.format(Messages.getString("RemoteZipFile.rangeUnavailable"), offset, uri)); //$NON-NLS-1$
+		}
+		Optional<ByteRange> range = transport.readRange(uri, offset, (int)count);
+		if(!range.isPresent() || range.get().getOffset() != offset || range.get().getData().length < count) {
+			throw new IOException(MessageFormat.format(Messages.getString("RemoteZipFile.rangeUnavailable"), offset, uri)); //$NON-NLS-1$
+		}
+		return range.get().getData();
+	}
+	
+	/**
+	 * Inflates an entry, stopping as soon as it would exceed the size recorded in the
+	 * central directory; the caller then rejects it by its length.
+	 */
+	private static byte[] inflate(byte[] compressed, int size) throws IOException {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+			byte[] buf = new byte[8192];
+			while(!inflater.finished() && baos.size() <= size) {
+				int read = inflater.inflate(buf);
+				if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				baos.write(buf, 0, read);
+			}
+			return baos.toByteArray();
+		} catch(DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private static int readShort(byte[] b, int off) {
+		return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+	}
+	
+	private static int readInt(byte[] b, int off) {
+		return readShort(b, off) | (readShort(b, off + 2) << 16);
+	}
+	
+	private static long readUnsignedInt(byte[] b, int off) {
+		return readInt(b, off) & 0xFFFFFFFFL;
+	}
+	
+	private static class Entry {
+		final int method;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		/** The combined length of the name and central extra field, used to estimate the local header length */
+		final int headerLength;
+		final long localOffset;
+		
+		Entry(int method, long crc, long compressedSize, long size, int headerLength, long localOffset) {
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.headerLength = headerLength;
+			this.localOffset = localOffset;
+		}
+	}
+}
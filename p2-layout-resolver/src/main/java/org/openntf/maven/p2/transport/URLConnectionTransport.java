@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.util.HttpStatusException;
+import org.openntf.maven.p2.util.HttpValidators;
+import org.openntf.maven.p2.util.NotModifiedException;
+
+/**
+ * {@link P2Transport} implementation using {@link URLConnection}, available on all
+ * supported JVMs and used for non-HTTP URIs such as {@code file:} and {@code jar:}.
+ * 
+ * <p>HTTP connections are kept alive by the JVM's connection cache as long as each
+ * response is read to the end or closed, which includes draining error responses.</p>
+ * 
+ * @since 1.9.0
+ */
+public class URLConnectionTransport implements P2Transport {
+	private final int connectTimeout;
+	private final int readTimeout;
+	
+	public URLConnectionTransport(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public Optional<InputStream> open(URI uri, HttpValidators validators) throws IOException {
+		if(!isHttp(uri)) {
+			// For file://, etc., just try opening the connection
+			try {
+				URLConnection conn = uri.toURL().openConnection();
+				conn.setConnectTimeout(connectTimeout);
+				conn.setReadTimeout(readTimeout);
+				return Optional.of(conn.getInputStream());
+			} catch(FileNotFoundException e) {
+				return Optional.empty();
+			}
+		}
+		
+		Map<String, String> headers = new HashMap<>();
+		if(validators != null) {
+			if(validators.getEtag() != null) {
+				headers.put("If-None-Match", validators.getEtag()); //$NON-NLS-1$
+			}
+			if(validators.getLastModified() != null) {
+				headers.put("If-Modified-Since", validators.getLastModified()); //$NON-NLS-1$
+			}
+		}
+		if(P2Transports.isCompressible(uri)) {
+			headers.put("Accept-Encoding", "gzip, deflate"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return request(uri, headers, HttpURLConnection.HTTP_OK, (http, current) -> {
+			if(validators != null) {
+				validators.setEtag(http.getHeaderField("ETag")); //$NON-NLS-1$
+				validators.setLastModified(http.getHeaderField("Last-Modified")); //$NON-NLS-1$
+			}
+			// HttpURLConnection reports a connection dropped mid-body as the end of the content
+			InputStream body = P2Transports.checkLength(http.getInputStream(), current, http.getContentLengthLong());
+			return Optional.of(P2Transports.decode(body, http.getContentEncoding()));
+		});
+	}
+	
+	@Override
+	public Optional<ByteRange> readRange(URI uri, long offset, int length) throws IOException {
+		if(!isHttp(uri)) {
+			return Optional.empty();
+		}
+		Map<String, String> headers = Collections.singletonMap("Range", P2Transports.formatRange(offset, length)); //$NON-NLS-1$
+		return request(uri, headers, HttpURLConnection.HTTP_PARTIAL, (http, current) ->
+			P2Transports.readRange(http.getInputStream(), http.getHeaderField("Content-Range")) //$NON-NLS-1$
+		);
+	}
+	
+	@Override
+	public Optional<InputStream> openFrom(URI uri, long offset) throws IOException {
+		if(!isHttp(uri)) {
+			return Optional.empty();
+		}
+		Map<String, String> headers = Collections.singletonMap("Range", P2Transports.formatRange(offset)); //$NON-NLS-1$
+		return request(uri, headers, HttpURLConnection.HTTP_PARTIAL, (http, current) -> {
+			if(P2Transports.isRangeFrom(http.getHeaderField("Content-Range"), offset)) { //$NON-NLS-1$
+				return Optional.of(P2Transports.checkLength(http.getInputStream(), current, http.getContentLengthLong()));
+			}
+			http.disconnect();
+			return Optional.empty();
+		});
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	/**
+	 * Handles a response with the status a request expects.
+	 */
+	@FunctionalInterface
+	private interface ResponseHandler<T> {
+		/**
+		 * @param http the connection holding the response
+		 * @param uri the URI the response came from, after any redirects
+		 * @return an {@link Optional} describing the result, or an empty one if the response
+		 *         can't be used
+		 */
+		Optional<T> handle(HttpURLConnection http, URI uri) throws IOException;
+	}
+	
+	private static boolean isHttp(URI uri) {
+		String scheme = uri.getScheme();
+		return "http".equals(scheme) || "https".equals(scheme); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+	
+	/**
+	 * Sends a GET request with the provided headers, following redirects here since
+	 * {@link HttpURLConnection} won't cross protocols, and passes a response with the
+	 * expected status to the handler.
+	 * 
+	 * @return the result of the handler, or an empty {@link Optional} if the final response
+	 *         had another status or a redirect had no usable location
+	 * @throws NotModifiedException if the server answered a conditional request with
+	 *         {@code 304 Not Modified}
+	 * @throws HttpStatusException if the server answered with a server error or
+	 *         {@code 429 Too Many Requests}
+	 */
+	private <T> Optional<T> request(URI uri, Map<String, String> headers, int expectedStatus, ResponseHandler<T> handler) throws IOException {
+		URI current = uri;
+		for(int redirects = 0; redirects <= P2Transports.MAX_REDIRECTS; redirects++) {
+			HttpURLConnection http = (HttpURLConnection)current.toURL().openConnection();
+			http.setConnectTimeout(connectTimeout);
+			http.setReadTimeout(readTimeout);
+			http.setInstanceFollowRedirects(false);
+			headers.forEach(http::setRequestProperty);
+			
+			int status = http.getResponseCode();
+			if(status == expectedStatus) {
+				return handler.handle(http, current);
+			}
+			switch(status) {
+			case HttpURLConnection.HTTP_MOVED_PERM:
+			case HttpURLConnection.HTTP_MOVED_TEMP:
+			case HttpURLConnection.HTTP_SEE_OTHER:
+			case 307:
+			case 308: {
+				String location = http.getHeaderField("Location"); //$NON-NLS-1$
+				drain(http);
+				if(StringUtils.isEmpty(location)) {
+					return Optional.empty();
+				}
+				current = current.resolve(location);
+				if(!isHttp(current)) {
+					return Optional.empty();
+				}
+				continue;
+			}
+			case HttpURLConnection.HTTP_NOT_MODIFIED:
+				drain(http);
+				throw new NotModifiedException(uri);
+			case HttpURLConnection.HTTP_OK:
+				// The full content, for servers that ignore ranges, isn't worth reading to the end
+				http.disconnect();
+				return Optional.empty();
+			default:
+				drain(http);
+				// Temporary failures are reported so that they can be retried, rather than mistaken for a missing file
+				P2Transports.checkTransientStatus(current, status, http.getHeaderField("Retry-After")); //$NON-NLS-1$
+				// Assume it's an other error, such as a 404, or a 416 for an offset past the end
+				return Optional.empty();
+			}
+		}
+		throw new IOException(MessageFormat.format(Messages.getString("P2Transports.tooManyRedirects"), uri)); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Reads and closes any body of an unused response so that the underlying connection
+	 * can be returned to the keep-alive cache.
+	 */
+	private static void drain(HttpURLConnection http) {
+		try(InputStream is = http.getErrorStream() != null ? http.getErrorStream() : http.getInputStream()) {
+			if(is != null) {
+				byte[] buf = new byte[4096];
+				while(is.read(buf) != -1) {
+					// Discard
+				}
+			}
+		} catch(IOException e) {
+			// Then the connection just won't be reused
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.text.MessageFormat;
+
+import org.openntf.maven.p2.Messages;
+
+/**
+ * Thrown when a request is answered with a status indicating a temporary failure, such as
+ * HTTP 503 or 429, so that the caller can try again later rather than treating the resource
+ * as missing.
+ * 
+ * @since 1.9.0
+ */
+public class HttpStatusException extends IOException {
+	private static final long serialVersionUID = 1L;
+	
+	private final URI uri;
+	private final int status;
+	private final long retryAfter;
+
+	/**
+	 * @param uri the requested {@link URI}
+	 * @param status the HTTP status of the response
+	 * @param retryAfter the delay the server asked for before the next request, in
+	 *        milliseconds, or {@code -1} if it didn't specify one
+	 */
+	public HttpStatusException(URI uri, int status, long retryAfter) {
+		super(MessageFormat.format(Messages.getString("HttpStatusException.message"), uri, status)); //$NON-NLS-1$
+		this.uri = uri;
+		this.status = status;
+		this.retryAfter = retryAfter;
+	}
+	
+	public URI getUri() {
+		return uri;
+	}
+	
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return the delay the server asked for before the next request, in milliseconds, or
+	 *         {@code -1} if it didn't specify one
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util;
+
+/**
+ * Holds the HTTP cache validators ({@code ETag} and {@code Last-Modified}) for a
+ * remote resource.
+ * 
+ * <p>When passed to {@link P2Util#openConnection(java.net.URI, HttpValidators)}, any
+ * present values are sent as conditional request headers and are replaced by the
+ * values returned by the server.</p>
+ * 
+ * @since 1.9.0
+ */
+public class HttpValidators {
+	private String etag;
+	private String lastModified;
+	
+	public HttpValidators() {
+	}
+	
+	public HttpValidators(String etag, String lastModified) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+	
+	public String getEtag() {
+		return etag;
+	}
+	
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+	
+	public String getLastModified() {
+		return lastModified;
+	}
+	
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+	
+	/**
+	 * @return {@code true} if either validator is present
+	 */
+	public boolean isPresent() {
+		return etag != null || lastModified != null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("HttpValidators [etag=%s, lastModified=%s]", etag, lastModified); //$NON-NLS-1$
+	}
+}
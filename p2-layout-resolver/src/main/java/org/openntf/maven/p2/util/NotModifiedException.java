@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Thrown when a conditional request is answered with HTTP 304, indicating that the
+ * caller's copy of the resource is still current.
+ * 
+ * @since 1.9.0
+ */
+public class NotModifiedException extends IOException {
+	private static final long serialVersionUID = 1L;
+	
+	private final URI uri;
+
+	public NotModifiedException(URI uri) {
+		super(uri.toString());
+		this.uri = uri;
+	}
+	
+	public URI getUri() {
+		return uri;
+	}
+}
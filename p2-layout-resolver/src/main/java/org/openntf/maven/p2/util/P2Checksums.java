@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Utilities for working with the download checksums published in p2 artifact indexes.
+ * 
+ * <p>Algorithms are identified by their {@link MessageDigest} names, such as
+ * {@code SHA-256}, which match the names used by Maven Resolver checksum algorithms.</p>
+ * 
+ * @since 1.9.0
+ */
+public enum P2Checksums {
+	;
+	
+	public static final String PROP_CHECKSUM_PREFIX = "download.checksum."; //$NON-NLS-1$
+	/** Legacy property used by older p2 publishers for MD5 checksums */
+	public static final String PROP_LEGACY_MD5 = "download.md5"; //$NON-NLS-1$
+	
+	/** Supported algorithms, strongest first */
+	public static final List<String> ALGORITHMS = Collections.unmodifiableList(Arrays.asList(
+		"SHA-512", "SHA-256", "SHA-1", "MD5" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	));
+	
+	/** The length of a hex value for each supported algorithm */
+	private static final Map<String, Integer> HEX_LENGTHS;
+	static {
+		Map<String, Integer> lengths = new HashMap<>();
+		lengths.put("SHA-512", 128); //$NON-NLS-1$
+		lengths.put("SHA-256", 64); //$NON-NLS-1$
+		lengths.put("SHA-1", 40); //$NON-NLS-1$
+		lengths.put("MD5", 32); //$NON-NLS-1$
+		HEX_LENGTHS = Collections.unmodifiableMap(lengths);
+	}
+	
+	private static final Pattern HEX = Pattern.compile("[0-9a-fA-F]+"); //$NON-NLS-1$
+	
+	/**
+	 * Reads the well-formed checksums of supported algorithms from the provided bundle
+	 * properties. A value that isn't hex of the length its algorithm produces is skipped,
+	 * leaving the next strongest algorithm to verify the bundle with.
+	 * 
+	 * @param properties the properties of a bundle from the artifact index
+	 * @return a {@link Map} of algorithm names to lowercase hex values, strongest first
+	 */
+	public static Map<String, String> getPublishedChecksums(Map<String, String> properties) {
+		Map<String, String> result = new LinkedHashMap<>();
+		for(String algorithm : ALGORITHMS) {
+			String value = StringUtils.trimToEmpty(properties.get(PROP_CHECKSUM_PREFIX + algorithm.toLowerCase(Locale.ROOT)));
+			if(!isWellFormed(algorithm, value) && "MD5".equals(algorithm)) { //$NON-NLS-1$
+				value = StringUtils.trimToEmpty(properties.get(PROP_LEGACY_MD5));
+			}
+			if(isWellFormed(algorithm, value)) {
+				result.put(algorithm, value.toLowerCase(Locale.ROOT));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Determines the strongest of the provided algorithms.
+	 * 
+	 * @param algorithms a collection of algorithm names
+	 * @return an {@link Optional} describing the strongest supported algorithm, or an empty
+	 *         one if none are supported
+	 */
+	public static Optional<String> getStrongest(Collection<String> algorithms) {
+		return ALGORITHMS.stream()
+			.filter(algorithms::contains)
+			.findFirst();
+	}
+	
+	/**
+	 * Wraps the provided stream to compute digests of everything written to it.
+	 * 
+	 * @param os the stream to wrap
+	 * @param algorithms the algorithms to compute
+	 * @return a new {@link DigestingOutputStream}
+	 */
+	public static DigestingOutputStream digesting(OutputStream os, Collection<String> algorithms) {
+		Map<String, MessageDigest> digests = new LinkedHashMap<>();
+		for(String algorithm : algorithms) {
+			try {
+				digests.put(algorithm, MessageDigest.getInstance(algorithm));
+			} catch(NoSuchAlgorithmException e) {
+				// Then it can't be verified inline
+			}
+		}
+		return new DigestingOutputStream(os, digests);
+	}
+	
+	/**
+	 * Computes several digests of the content written through it in a single pass.
+	 */
+	public static class DigestingOutputStream extends FilterOutputStream {
+		private final Map<String, MessageDigest> digests;
+		
+		DigestingOutputStream(OutputStream out, Map<String, MessageDigest> digests) {
+			super(out);
+			this.digests = digests;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			for(MessageDigest digest : digests.values()) {
+				digest.update((byte)b);
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			for(MessageDigest digest : digests.values()) {
+				digest.update(b, off, len);
+			}
+		}
+		
+		/**
+		 * Adds content to the digests without writing it, such as content already written
+		 * by an earlier attempt that is being appended to.
+		 * 
+		 * @param b the content
+		 * @param off the offset of the content in {@code b}
+		 * @param len the length of the content
+		 */
+		public void updateDigests(byte[] b, int off, int len) {
+			for(MessageDigest digest : digests.values()) {
+				digest.update(b, off, len);
+			}
+		}
+		
+		/**
+		 * Completes the digests. This should be called once, after all content is written.
+		 * 
+		 * @return a {@link Map} of algorithm names to lowercase hex values
+		 */
+		public Map<String, String> getDigests() {
+			Map<String, String> result = new LinkedHashMap<>();
+			digests.forEach((algorithm, digest) -> result.put(algorithm, P2Util.toHex(digest.digest())));
+			return result;
+		}
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private static boolean isWellFormed(String algorithm, String value) {
+		return value.length() == HEX_LENGTHS.get(algorithm) && HEX.matcher(value).matches();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util;
+
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.Messages;
+import org.slf4j.Logger;
+
+/**
+ * Creates the executors used for concurrent index loading and downloads.
+ * 
+ * @since 1.9.0
+ */
+public enum P2Executors {
+	;
+	
+	/** Runs tasks on a bounded pool of daemon platform threads */
+	public static final String TYPE_PLATFORM = "platform"; //$NON-NLS-1$
+	/**
+	 * Runs each task on its own virtual thread when the JVM supports them (Java 21+),
+	 * falling back to {@link #TYPE_PLATFORM} otherwise
+	 */
+	public static final String TYPE_VIRTUAL = "virtual"; //$NON-NLS-1$
+	
+	/** How long idle platform threads are kept before they exit, in milliseconds */
+	private static final long IDLE_TIMEOUT = 60000;
+	
+	/**
+	 * Class name of the virtual-thread factory, which is only present in the Java 21
+	 * section of the multi-release JAR
+	 */
+	private static final String VIRTUAL_CLASS = "org.openntf.maven.p2.util.VirtualThreadExecutors"; //$NON-NLS-1$
+	
+	private static final Method VIRTUAL_FACTORY;
+	static {
+		Method factory;
+		try {
+			Class<?> clazz = Class.forName(VIRTUAL_CLASS, true, P2Executors.class.getClassLoader());
+			factory = clazz.getMethod("newExecutor", String.class); //$NON-NLS-1$
+		} catch(ReflectiveOperationException | LinkageError e) {
+			factory = null;
+		}
+		VIRTUAL_FACTORY = factory;
+	}
+	
+	/**
+	 * @return whether {@link #TYPE_VIRTUAL} executors are supported by the running JVM
+	 */
+	public static boolean isVirtualAvailable() {
+		return VIRTUAL_FACTORY != null;
+	}
+	
+	/**
+	 * Determines the executor type to use for a requested one, reporting when virtual
+	 * threads were requested but can't be provided: at warn level when the JVM supports them
+	 * but this build of the plugin doesn't, and at debug level on JVMs older than Java 21.
+	 * 
+	 * @param type the requested executor type
+	 * @param log the {@link Logger} to use for diagnostic messages
+	 * @return the type that {@link #newExecutor} will provide for the request
+	 */
+	public static String resolveType(String type, Logger log) {
+		String t = StringUtils.defaultIfEmpty(type, TYPE_PLATFORM).toLowerCase(Locale.ROOT);
+		if(!TYPE_VIRTUAL.equals(t) || VIRTUAL_FACTORY != null) {
+			return t;
+		}
+		if(getJavaVersion() >= 21) {
+			if(log.isWarnEnabled()) {
+				log.warn(Messages.getString("P2Executors.virtualNotBuilt")); //$NON-NLS-1$
+			}
+		} else if(log.isDebugEnabled()) {
+			log.debug(Messages.getString("P2Executors.virtualUnsupported")); //$NON-NLS-1$
+		}
+		return TYPE_PLATFORM;
+	}
+	
+	/**
+	 * Creates a new executor of the requested type.
+	 * 
+	 * @param type the executor type, such as {@link #TYPE_PLATFORM}
+	 * @param name the prefix for thread names
+	 * @param threads the number of platform threads to use; virtual threads are not limited by
+	 *        it, so callers bound their own concurrency
+	 * @return a new {@link ExecutorService}, which should be shut down by the caller
+	 * @see #resolveType(String, Logger)
+	 */
+	public static ExecutorService newExecutor(String type, String name, int threads) {
+		if(TYPE_VIRTUAL.equals(StringUtils.defaultString(type).toLowerCase(Locale.ROOT)) && VIRTUAL_FACTORY != null) {
+			try {
+				return (ExecutorService)VIRTUAL_FACTORY.invoke(null, name);
+			} catch(ReflectiveOperationException e) {
+				// The factory was found when this class loaded, so this is not an unsupported JVM
+				throw new IllegalStateException(MessageFormat.format(Messages.getString("P2Executors.virtualFailed"), name), e); //$NON-NLS-1$
+			}
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		int poolSize = Math.max(1, threads);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_TIMEOUT, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+			Thread thread = new Thread(task, name + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Pools that are never shut down, such as those of unclosed layouts, then hold no threads
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	/**
+	 * @return the feature version of the running JVM, such as {@code 8} or {@code 21}, or
+	 *         {@code 0} if it can't be determined
+	 */
+	private static int getJavaVersion() {
+		String version = StringUtils.defaultString(System.getProperty("java.specification.version")); //$NON-NLS-1$
+		if(version.startsWith("1.")) { //$NON-NLS-1$
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version);
+		} catch(NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -15,50 +15,187 @@
  */
 package org.openntf.maven.p2.util;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-import org.apache.commons.lang3.StringUtils;
+import org.eclipse.aether.ConfigurationProperties;
+import org.openntf.maven.p2.transport.P2Transport;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
 
 public enum P2Util {
 	;
+	
+	private static final P2Transport DEFAULT_TRANSPORT = new URLConnectionTransport(ConfigurationProperties.DEFAULT_CONNECT_TIMEOUT, ConfigurationProperties.DEFAULT_REQUEST_TIMEOUT);
 
 	public static Optional<InputStream> openConnection(URI uri) throws IOException {
-		try {
-			URLConnection conn = uri.toURL().openConnection();
-			if(conn instanceof HttpURLConnection) {
-				int status = ((HttpURLConnection)conn).getResponseCode();
-				switch(status) {
-				case HttpURLConnection.HTTP_MOVED_PERM:
-				case HttpURLConnection.HTTP_MOVED_TEMP:
-				case HttpURLConnection.HTTP_SEE_OTHER:
-				case 307:
-				case 308:
-					// Try handling a redirect
-					String location = ((HttpURLConnection)conn).getHeaderField("Location"); //$NON-NLS-1$
-					if(StringUtils.isNotEmpty(location)) {
-						return openConnection(uri.resolve(location));
-					} else {
-						return Optional.empty();
-					}
-				case 200:
-					// Good
-					return Optional.of(conn.getInputStream());
-				default:
-					// Assume it's an other error
-					return Optional.empty();
+		return openConnection(uri, null);
+	}
+	
+	/**
+	 * Opens a connection to the provided URI, optionally as a conditional request, using
+	 * a {@link URLConnectionTransport} with default timeouts.
+	 * 
+	 * @param uri the {@link URI} to open
+	 * @param validators previously-stored validators to send with the request, updated in place
+	 *        with the validators of a successful response; may be {@code null}
+	 * @return an {@link Optional} describing the response stream, or an empty one if the
+	 *         resource does not exist
+	 * @throws NotModifiedException if {@code validators} were sent and the server reports
+	 *         that the resource has not changed
+	 * @throws IOException if there is a problem opening the connection
+	 * @since 1.9.0
+	 */
+	public static Optional<InputStream> openConnection(URI uri, HttpValidators validators) throws IOException {
+		return DEFAULT_TRANSPORT.open(uri, validators);
+	}
+	
+	/**
+	 * Computes the value for the provided key at most once, even when called concurrently.
+	 * Unlike {@link java.util.concurrent.ConcurrentHashMap#computeIfAbsent}, the loader runs
+	 * without holding a lock on the map, so slow loads of different keys do not block each
+	 * other. Callers for a key already being loaded wait for that load to finish.
+	 * 
+	 * <p>A loader that throws leaves no entry behind, so a later call will try again.</p>
+	 * 
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 * @param map the map of memoized values
+	 * @param key the key to compute
+	 * @param loader the function used to compute the value; may return {@code null}
+	 * @return the computed value
+	 * @since 1.9.0
+	 */
+	public static <K, V> V computeOnce(ConcurrentMap<K, CompletableFuture<V>> map, K key, Function<? super K, ? extends V> loader) {
+		CompletableFuture<V> existing = map.get(key);
+		if(existing == null) {
+			CompletableFuture<V> future = new CompletableFuture<>();
+			existing = map.putIfAbsent(key, future);
+			if(existing == null) {
+				try {
+					V value = loader.apply(key);
+					future.complete(value);
+					return value;
+				} catch(RuntimeException | Error e) {
+					map.remove(key, future);
+					future.completeExceptionally(e);
+					throw e;
+				}
+			}
+		}
+		return join(existing);
+	}
+	
+	/**
+	 * Computes the value held by the provided reference at most once, even when called
+	 * concurrently, with the same semantics as
+	 * {@link #computeOnce(ConcurrentMap, Object, Function)} for a single value.
+	 * 
+	 * <p>Once the value has been computed, callers retrieve it without blocking.</p>
+	 * 
+	 * @param <V> the value type
+	 * @param ref the holder of the memoized value
+	 * @param loader the function used to compute the value; may return {@code null}
+	 * @return the computed value
+	 * @since 1.9.0
+	 */
+	public static <V> V computeOnce(AtomicReference<CompletableFuture<V>> ref, Supplier<? extends V> loader) {
+		CompletableFuture<V> existing = ref.get();
+		if(existing == null) {
+			CompletableFuture<V> future = new CompletableFuture<>();
+			if(ref.compareAndSet(null, future)) {
+				try {
+					V value = loader.get();
+					future.complete(value);
+					return value;
+				} catch(RuntimeException | Error e) {
+					ref.compareAndSet(future, null);
+					future.completeExceptionally(e);
+					throw e;
 				}
-			} else {
-				// For file://, etc., just try opening the connection
-				return Optional.of(conn.getInputStream());
 			}
-		} catch(FileNotFoundException e) {
-			return Optional.empty();
+			existing = ref.get();
+			if(existing == null) {
+				// The load that won failed in the meantime; try again
+				return computeOnce(ref, loader);
+			}
+		}
+		return join(existing);
+	}
+	
+	/**
+	 * Retrieves the values that have been successfully computed via
+	 * {@link #computeOnce(ConcurrentMap, Object, Function)}, skipping pending and failed loads.
+	 * 
+	 * @param <V> the value type
+	 * @param map the map of memoized values
+	 * @return a {@link List} of the non-{@code null} computed values
+	 * @since 1.9.0
+	 */
+	public static <V> List<V> completedValues(ConcurrentMap<?, CompletableFuture<V>> map) {
+		List<V> result = new ArrayList<>();
+		for(CompletableFuture<V> future : map.values()) {
+			if(future.isDone() && !future.isCompletedExceptionally()) {
+				V value = future.join();
+				if(value != null) {
+					result.add(value);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Formats the provided bytes, such as a digest, as a lowercase hex string.
+	 * 
+	 * @param bytes the bytes to format
+	 * @return the hex representation of {@code bytes}
+	 * @since 1.9.0
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Deletes the provided directory and everything within it, ignoring files that can't
+	 * be deleted, such as those another process is removing at the same time.
+	 * 
+	 * @param dir the directory to delete
+	 * @since 1.9.0
+	 */
+	public static void deleteTree(Path dir) {
+		if(!Files.isDirectory(dir)) {
+			return;
+		}
+		try(Stream<Path> walk = Files.walk(dir)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException e) {
+					// Ignore
+				}
+			});
+		} catch (IOException | UncheckedIOException e) {
+			// Ignore
 		}
 	}
 	
@@ -94,4 +231,22 @@ public enum P2Util {
 		}
 		return path;
 	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private static <V> V join(CompletableFuture<V> future) {
+		try {
+			return future.join();
+		} catch(CompletionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if(cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw e;
+		}
+	}
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util.xml;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Creates StAX readers for remote documents, such as p2 repository indexes and mirror
+ * lists, with DTDs and external entities disabled.
+ * 
+ * @since 1.9.0
+ */
+public enum XMLStreams {
+	;
+	
+	// Configured once up front; creating readers from a configured factory is thread-safe in the JDK and Woodstox implementations
+	private static final XMLInputFactory FACTORY = createFactory();
+	
+	/**
+	 * Creates a reader for the provided document, which doesn't resolve DTDs or external
+	 * entities and reports element and attribute names without namespace processing.
+	 * 
+	 * @param is the document content
+	 * @return a new {@link XMLStreamReader}, which the caller should close
+	 * @throws XMLStreamException if the reader can't be created
+	 */
+	public static XMLStreamReader createReader(InputStream is) throws XMLStreamException {
+		return FACTORY.createXMLStreamReader(is);
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		return factory;
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes simple XML documents straight to a {@link Writer}, without building a DOM or
+ * going through a {@link javax.xml.transform.Transformer}.
+ * 
+ * <p>Output matches that of {@link XMLNode#DEFAULT_TRANSFORMER} for documents made of
+ * elements containing either text or child nodes: the same declaration, two-space
+ * indentation, empty-element tags, escaping and line separators. As there, comments
+ * written after the root element follow it directly on the same line.</p>
+ * 
+ * <p>Characters that XML 1.0 does not allow at all, such as most C0 controls and unpaired
+ * surrogates, are dropped from text, attribute values and comments, as they can't be
+ * written even as character references. Manifest headers copied into POMs can contain
+ * them.</p>
+ * 
+ * <p>Instances are not thread-safe, but hold no shared state, so each thread can use
+ * its own.</p>
+ * 
+ * @since 1.9.0
+ */
+public class XMLWriter {
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	
+	private final Writer w;
+	private final Deque<String> open = new ArrayDeque<>();
+	/** Whether the start tag of the innermost open element is still awaiting attributes */
+	private boolean startTagOpen;
+	
+	public XMLWriter(Writer w) {
+		this.w = w;
+	}
+	
+	/**
+	 * Writes the XML declaration.
+	 * 
+	 * @return this writer
+	 * @throws IOException if there is a problem writing the output
+	 */
+	public XMLWriter startDocument() throws IOException {
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"); //$NON-NLS-1$
+		w.write(LINE_SEPARATOR);
+		return this;
+	}
+	
+	/**
+	 * Opens a new element as a child of the current element, or as the root element.
+	 * 
+	 * @param name the element name
+	 * @return this writer
+	 * @throws IOException if there is a problem writing the output
+	 */
+	public XMLWriter startElement(String name) throws IOException {
+		startChild();
+		w.write('<');
+		w.write(name);
+		open.push(name);
+		startTagOpen = true;
+		return this;
+	}
+	
+	/**
+	 * Adds an attribute to the element just opened with {@link #startElement(String)}.
+	 * 
+	 * @param name the attribute name
+	 * @param value the attribute value
+	 * @return this writer
+	 * @throws IOException if there is a problem writing the output
+	 * @throws IllegalStateException if a child node has already been written
+	 */
+	public XMLWriter attribute(String name, String value) throws IOException {
+		if(!startTagOpen) {
+			throw new IllegalStateException("Attributes must directly follow their element's start tag");
+		}
+		w.write(' ');
+		w.write(name);
+		w.write("=\""); //$NON-NLS-1$
+		writeEscaped(value, true);
+		w.write('"');
+		return this;
+	}
+	
+	/**
+	 * Writes an element containing only the provided text, or an empty element if the
+	 * text is {@code null} or empty.
+	 * 
+	 * @param name the element name
+	 * @param text the text content of the element; may be {@code null}
+	 * @return this writer
+	 * @throws IOException if there is a problem writing the output
+	 */
+	public XMLWriter element(String name, String text) throws IOException {
+		startChild();
+		w.write('<');
+		w.write(name);
+		if(text == null || text.isEmpty()) {
+			w.write("/>"); //$NON-NLS-1$
+		} else {
+			w.write('>');
+			writeEscaped(text, false);
+			w.write("</"); //$NON-NLS-1$
+			w.write(name);
+			w.write('>');
+		}
+		return this;
+	}
+	
+	/**
+	 * Writes a comment as a child of the current element, or after the root element.
+	 * 
+	 * @param text the comment text, in which {@code "--"} is broken up as it cannot appear
+	 *        in a comment, and characters not allowed in XML are dropped
+	 * @return this writer
+	 * @throws IOException if there is a problem writing the output
+	 */
+	public XMLWriter comment(String text) throws IOException {
+		if(open.isEmpty()) {
+			// Document-level comments are written inline after the root element
+			closeStartTag();
+		} else {
+			startChild();
+		}
+		w.write("<!--"); //$NON-NLS-1$
+		char prev = 0;
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if(isSurrogatePair(text, i)) {
+				// Comments can't contain character references, so pairs are written as-is
+				w.write(text, i, 2);
+				prev = text.charAt(++i);
+				continue;
+			} else if(!isXmlChar(c)) {
+				// Dropped without updating prev, so that "-\u0001-" doesn't become "--"
+				continue;
+			}
+			if(c == '-' && prev == '-') {
+				w.write(' ');
+			}
+			if(c == '\n') {
+				w.write(LINE_SEPARATOR);
+			} else {
+				w.write(c);
+			}
+			prev = c;
+		}
+		if(prev == '-') {
+			w.write(' ');
+		}
+		w.write("-->"); //$NON-NLS-1$
+		return this;
+	}
+	
+	/**
+	 * Closes the current element, as an empty-element tag if nothing was written inside it.
+	 * 
+	 * @return this writer
+	 * @throws IOException if there is a problem writing the output
+	 */
+	public XMLWriter endElement() throws IOException {
+		String name = open.pop();
+		if(startTagOpen) {
+			w.write("/>"); //$NON-NLS-1$
+			startTagOpen = false;
+		} else {
+			newLine(open.size());
+			w.write("</"); //$NON-NLS-1$
+			w.write(name);
+			w.write('>');
+		}
+		return this;
+	}
+	
+	/**
+	 * Closes any open elements, ends the document and flushes the underlying writer.
+	 * 
+	 * @throws IOException if there is a problem writing the output
+	 */
+	public void endDocument() throws IOException {
+		while(!open.isEmpty()) {
+			endElement();
+		}
+		w.write(LINE_SEPARATOR);
+		w.flush();
+	}
+	
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+	
+	private void startChild() throws IOException {
+		closeStartTag();
+		if(!open.isEmpty()) {
+			newLine(open.size());
+		}
+	}
+	
+	private void closeStartTag() throws IOException {
+		if(startTagOpen) {
+			w.write('>');
+			startTagOpen = false;
+		}
+	}
+	
+	private void newLine(int depth) throws IOException {
+		w.write(LINE_SEPARATOR);
+		for(int i = 0; i < depth; i++) {
+			w.write("  "); //$NON-NLS-1$
+		}
+	}
+	
+	private void writeEscaped(String value, boolean attribute) throws IOException {
+		// Write runs of characters that need no escaping in one call
+		int run = 0;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			int length = 1;
+			String replacement;
+			switch(c) {
+			case '&':
+				replacement = "&amp;"; //$NON-NLS-1$
+				break;
+			case '<':
+				replacement = "&lt;"; //$NON-NLS-1$
+				break;
+			case '>':
+				replacement = "&gt;"; //$NON-NLS-1$
+				break;
+			case '"':
+				replacement = attribute ? "&quot;" : null; //$NON-NLS-1$
+				break;
+			case '\n':
+				replacement = attribute ? "&#10;" : LINE_SEPARATOR; //$NON-NLS-1$
+				break;
+			case '\t':
+				replacement = attribute ? "&#9;" : null; //$NON-NLS-1$
+				break;
+			default:
+				if(isSurrogatePair(value, i)) {
+					replacement = charRef(Character.toCodePoint(c, value.charAt(i + 1)));
+					length = 2;
+				} else if(!isXmlChar(c)) {
+					// Not even a character reference to these is well-formed
+					replacement = ""; //$NON-NLS-1$
+				} else if(c < 0x20 || (!attribute && c >= 0x7F && c <= 0x9F)) {
+					replacement = charRef(c);
+				} else {
+					replacement = null;
+				}
+				break;
+			}
+			if(replacement != null) {
+				w.write(value, run, i - run);
+				w.write(replacement);
+				i += length - 1;
+				run = i + 1;
+			}
+		}
+		w.write(value, run, value.length() - run);
+	}
+	
+	private static boolean isSurrogatePair(String value, int i) {
+		return Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1));
+	}
+	
+	/**
+	 * Determines whether the provided character is allowed by the {@code Char} production
+	 * of XML 1.0, treating surrogates, which are only allowed in pairs, as not allowed.
+	 */
+	private static boolean isXmlChar(char c) {
+		return c == '\t' || c == '\n' || c == '\r'
+			|| (c >= 0x20 && c < Character.MIN_SURROGATE)
+			|| (c > Character.MAX_SURROGATE && c <= 0xFFFD);
+	}
+	
+	private static String charRef(int codePoint) {
+		return "&#" + codePoint + ';'; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openntf.maven.p2.Messages;
+import org.openntf.maven.p2.util.HttpStatusException;
+import org.openntf.maven.p2.util.HttpValidators;
+import org.openntf.maven.p2.util.NotModifiedException;
+
+/**
+ * {@link P2Transport} implementation using the {@code java.net.http} client, which pools
+ * connections and multiplexes requests to the same host over HTTP/2 where the server
+ * supports it.
+ * 
+ * <p>This class is part of the Java 11 section of the multi-release JAR and is loaded
+ * reflectively by {@link P2Transports}. Non-HTTP URIs are delegated to
+ * {@link URLConnectionTransport}.</p>
+ * 
+ * <p>The request timeout applies both to the wait for response headers and, as the read
+ * timeout of {@link URLConnectionTransport} does, to each read of the response body.</p>
+ * 
+ * @since 1.9.0
+ */
+public class HttpClientTransport implements P2Transport {
+	private final HttpClient client;
+	private final Duration requestTimeout;
+	private final URLConnectionTransport fallback;
+
+	public HttpClientTransport(int connectTimeout, int requestTimeout) {
+		this.client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NEVER)
+			.connectTimeout(Duration.ofMillis(connectTimeout))
+			.build();
+		this.requestTimeout = Duration.ofMillis(requestTimeout);
+		this.fallback = new URLConnectionTransport(connectTimeout, requestTimeout);
+	}
+
+	@Override
+	public Optional<InputStream> open(URI uri, HttpValidators validators) throws IOException {
+		if(!isHttp(uri)) {
+			return fallback.open(uri, validators);
+		}
+
+		Map<String, String> headers = new HashMap<>();
+		if(validators != null) {
+			if(validators.getEtag() != null) {
+				headers.put("If-None-Match", validators.getEtag()); //$NON-NLS-1$
+			}
+			if(validators.getLastModified() != null) {
+				headers.put("If-Modified-Since", validators.getLastModified()); //$NON-NLS-1$
+			}
+		}
+		if(P2Transports.isCompressible(uri)) {
+			headers.put("Accept-Encoding", "gzip, deflate"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return request(uri, headers, 200, (response, body) -> {
+			if(validators != null) {
+				validators.setEtag(response.headers().firstValue("ETag").orElse(null)); //$NON-NLS-1$
+				validators.setLastModified(response.headers().firstValue("Last-Modified").orElse(null)); //$NON-NLS-1$
+			}
+			return Optional.of(P2Transports.decode(body, response.headers().firstValue("Content-Encoding").orElse(null))); //$NON-NLS-1$
+		});
+	}
+
+	@Override
+	public Optional<ByteRange> readRange(URI uri, long offset, int length) throws IOException {
+		if(!isHttp(uri)) {
+			return Optional.empty();
+		}
+		Map<String, String> headers = Collections.singletonMap("Range", P2Transports.formatRange(offset, length)); //$NON-NLS-1$
+		return request(uri, headers, 206, (response, body) ->
+			P2Transports.readRange(body, response.headers().firstValue("Content-Range").orElse(null)) //$NON-NLS-1$
+		);
+	}
+
+	@Override
+	public Optional<InputStream> openFrom(URI uri, long offset) throws IOException {
+		if(!isHttp(uri)) {
+			return fallback.openFrom(uri, offset);
+		}
+		Map<String, String> headers = Collections.singletonMap("Range", P2Transports.formatRange(offset)); //$NON-NLS-1$
+		return request(uri, headers, 206, (response, body) -> {
+			if(P2Transports.isRangeFrom(response.headers().firstValue("Content-Range").orElse(null), offset)) { //$NON-NLS-1$
+				return Optional.of(body);
+			}
+			body.close();
+			return Optional.empty();
+		});
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	/**
+	 * Handles a response with the status a request expects.
+	 */
+	@FunctionalInterface
+	private interface ResponseHandler<T> {
+		/**
+		 * @param response the response, whose {@link HttpResponse#uri() URI} is the one it
+		 *        came from after any redirects
+		 * @param body the response body, subject to the request timeout for each read
+		 * @return an {@link Optional} describing the result, or an empty one if the response
+		 *         can't be used
+		 */
+		Optional<T> handle(HttpResponse<InputStream> response, InputStream body) throws IOException;
+	}
+
+	private static boolean isHttp(URI uri) {
+		String scheme = uri.getScheme();
+		return "http".equals(scheme) || "https".equals(scheme); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Sends a GET request with the provided headers, following redirects, and passes a
+	 * response with the expected status to the handler.
+	 * 
+	 * @return the result of the handler, or an empty {@link Optional} if the final response
+	 *         had another status or a redirect had no usable location
+	 * @throws NotModifiedException if the server answered a conditional request with
+	 *         {@code 304 Not Modified}
+	 * @throws HttpStatusException if the server answered with a server error or
+	 *         {@code 429 Too Many Requests}
+	 */
+	private <T> Optional<T> request(URI uri, Map<String, String> headers, int expectedStatus, ResponseHandler<T> handler) throws IOException {
+		URI current = uri;
+		for(int redirects = 0; redirects <= P2Transports.MAX_REDIRECTS; redirects++) {
+			HttpRequest.Builder request = HttpRequest.newBuilder(current)
+				.timeout(requestTimeout)
+				.GET();
+			headers.forEach(request::header);
+
+			HttpResponse<InputStream> response;
+			try {
+				response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			}
+
+			// The client's own timeout covers only the wait for the response headers
+			InputStream body = P2Transports.withReadTimeout(response.body(), current, requestTimeout.toMillis());
+			int status = response.statusCode();
+			if(status == expectedStatus) {
+				return handler.handle(response, body);
+			}
+			body.close();
+			switch(status) {
+			case 301:
+			case 302:
+			case 303:
+			case 307:
+			case 308: {
+				String location = response.headers().firstValue("Location").orElse(null); //$NON-NLS-1$
+				if(StringUtils.isEmpty(location)) {
+					return Optional.empty();
+				}
+				current = current.resolve(location);
+				if(!isHttp(current)) {
+					return Optional.empty();
+				}
+				continue;
+			}
+			case 304:
+				throw new NotModifiedException(uri);
+			default:
+				// Temporary failures are reported so that they can be retried, rather than mistaken for a missing file
+				P2Transports.checkTransientStatus(current, status, response.headers().firstValue("Retry-After").orElse(null)); //$NON-NLS-1$
+				// Assume it's an other error, or the full content from a server that ignores ranges
+				return Optional.empty();
+			}
+		}
+		throw new IOException(MessageFormat.format(Messages.getString("P2Transports.tooManyRedirects"), uri)); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors that start a new virtual thread for each task.
+ * 
+ * <p>This class is part of the Java 21 section of the multi-release JAR and is loaded
+ * reflectively by {@link P2Executors}.</p>
+ * 
+ * @since 1.9.0
+ */
+public class VirtualThreadExecutors {
+	public static ExecutorService newExecutor(String name) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 1).factory());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.cache.HttpCache;
+import org.openntf.maven.p2.model.P2RepositorySettings;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("nls")
+public class HttpCacheTest {
+	private static final byte[] CONTENT = "bundle content".getBytes(StandardCharsets.UTF_8);
+	private static final String ETAG = "\"v1\"";
+
+	private HttpServer server;
+	private final AtomicInteger fullResponses = new AtomicInteger();
+	private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/bundle.jar", exchange -> {
+			if(ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModifiedResponses.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				fullResponses.incrementAndGet();
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				exchange.sendResponseHeaders(200, CONTENT.length);
+				try(OutputStream os = exchange.getResponseBody()) {
+					os.write(CONTENT);
+				}
+			}
+			exchange.close();
+		});
+		server.createContext("/missing.jar", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	@Test
+	public void testNotModifiedServedFromCopy(@TempDir Path dir) throws Exception {
+		HttpCache cache = new HttpCache(dir, P2RepositorySettings.DEFAULT.getTransport(), LoggerFactory.getLogger(getClass()));
+
+		assertArrayEquals(CONTENT, read(cache.open(uri("/bundle.jar")).get()));
+		assertEquals(1, fullResponses.get());
+
+		assertArrayEquals(CONTENT, read(cache.open(uri("/bundle.jar")).get()));
+		assertArrayEquals(CONTENT, read(cache.open(uri("/bundle.jar")).get()));
+		assertEquals(1, fullResponses.get());
+		assertEquals(2, notModifiedResponses.get());
+	}
+
+	@Test
+	public void testIncompleteReadNotStored(@TempDir Path dir) throws Exception {
+		HttpCache cache = new HttpCache(dir, P2RepositorySettings.DEFAULT.getTransport(), LoggerFactory.getLogger(getClass()));
+
+		try(InputStream is = cache.open(uri("/bundle.jar")).get()) {
+			is.read();
+		}
+		assertArrayEquals(CONTENT, read(cache.open(uri("/bundle.jar")).get()));
+		assertEquals(2, fullResponses.get());
+		assertEquals(0, notModifiedResponses.get());
+	}
+
+	@Test
+	public void testMissing(@TempDir Path dir) throws Exception {
+		HttpCache cache = new HttpCache(dir, P2RepositorySettings.DEFAULT.getTransport(), LoggerFactory.getLogger(getClass()));
+		assertFalse(cache.open(uri("/missing.jar")).isPresent());
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		try(InputStream in = is) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while((read = in.read(buf)) != -1) {
+				baos.write(buf, 0, read);
+			}
+			return baos.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.cache.P2BundleCache;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.util.P2Util;
+
+@SuppressWarnings("nls")
+public class P2BundleCacheTest {
+	private static final byte[] CONTENT = "bundle content".getBytes(StandardCharsets.UTF_8);
+
+	private static P2Bundle bundle(Map<String, String> properties) {
+		return new P2Bundle(URI.create("https://example.com/repo/"), "com.example", "1.0.0", properties);
+	}
+
+	@Test
+	public void testKeyPrefersStrongest() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("download.md5", "0123456789abcdef0123456789abcdef");
+		assertEquals("MD5", P2BundleCache.keyFor(bundle(properties)).get().getAlgorithm());
+
+		properties.put("download.checksum.sha-256", "ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789");
+		P2BundleCache.Key key = P2BundleCache.keyFor(bundle(properties)).get();
+		assertEquals("SHA-256", key.getAlgorithm());
+		assertEquals("abcdef0123456789abcdef0123456789abcdef0123456789abcdef0123456789", key.getValue());
+	}
+
+	@Test
+	public void testKeyRejectsMalformed() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("download.checksum.sha-256", "../../../etc/passwd");
+		assertFalse(P2BundleCache.keyFor(bundle(properties)).isPresent());
+	}
+
+	@Test
+	public void testVerifiedInsert(@TempDir Path dir) throws Exception {
+		P2BundleCache cache = new P2BundleCache(dir);
+		String sha256 = P2Util.toHex(MessageDigest.getInstance("SHA-256").digest(CONTENT));
+		P2BundleCache.Key key = new P2BundleCache.Key("SHA-256", sha256);
+
+		assertFalse(cache.get(key).isPresent());
+		Path file = cache.put(key, new ByteArrayInputStream(CONTENT));
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+		assertEquals(file, cache.get(key).get());
+	}
+
+	@Test
+	public void testMismatchNotStored(@TempDir Path dir) throws Exception {
+		P2BundleCache cache = new P2BundleCache(dir);
+		P2BundleCache.Key key = new P2BundleCache.Key("SHA-256", "0000000000000000000000000000000000000000000000000000000000000000");
+
+		assertThrows(IOException.class, () -> cache.put(key, new ByteArrayInputStream(CONTENT)));
+		assertFalse(cache.get(key).isPresent());
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.cache.P2IndexCache;
+import org.openntf.maven.p2.model.P2ArtifactsReader;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2ContentReader;
+import org.openntf.maven.p2.model.P2InstallableUnit;
+import org.openntf.maven.p2.util.HttpValidators;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("nls")
+public class P2IndexCacheTest {
+	private static final URI BASE = URI.create("https://example.com/repo/");
+
+	@Test
+	public void testRoundTrip(@TempDir Path dir) throws Exception {
+		P2IndexCache cache = new P2IndexCache(dir, LoggerFactory.getLogger(getClass()));
+		assertFalse(cache.read(BASE).isPresent());
+
+		P2IndexCache.Entry entry = new P2IndexCache.Entry(1234L);
+		try(InputStream is = getClass().getResourceAsStream("/repo/simple/artifacts.xml")) {
+			P2ArtifactsReader.readBundles(is, BASE, entry.getBundles()::add);
+		}
+		entry.setChildren(Arrays.asList(URI.create("https://example.com/child/")));
+		entry.setArtifactsSource(new P2IndexCache.Source(BASE.resolve("artifacts.xml"), new HttpValidators("\"abc\"", null), "1700000000000"));
+		entry.setMirrorsUrl("https://example.com/mirrors.xml");
+		cache.write(BASE, entry);
+
+		P2IndexCache.Entry read = cache.read(BASE).get();
+		assertEquals(1234L, read.getFetchedAt());
+		assertEquals(entry.getChildren(), read.getChildren());
+		assertNull(read.getCompositeSource());
+		assertEquals(BASE.resolve("artifacts.xml"), read.getArtifactsSource().getUri());
+		assertEquals("\"abc\"", read.getArtifactsSource().getValidators().getEtag());
+		assertNull(read.getArtifactsSource().getValidators().getLastModified());
+		assertEquals("1700000000000", read.getArtifactsSource().getTimestamp());
+		assertEquals("https://example.com/mirrors.xml", read.getMirrorsUrl());
+
+		assertEquals(entry.getBundles().size(), read.getBundles().size());
+		for(int i = 0; i < entry.getBundles().size(); i++) {
+			P2Bundle expected = entry.getBundles().get(i);
+			P2Bundle actual = read.getBundles().get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getVersion(), actual.getVersion());
+			assertEquals(expected.getProperties(), actual.getProperties());
+			assertEquals(expected.getUri(null), actual.getUri(null));
+		}
+
+		// Other repositories don't share entries
+		assertFalse(cache.read(URI.create("https://example.com/other/")).isPresent());
+	}
+
+	@Test
+	public void testUnitsRoundTrip(@TempDir Path dir) throws Exception {
+		P2IndexCache cache = new P2IndexCache(dir, LoggerFactory.getLogger(getClass()));
+
+		P2IndexCache.Entry entry = new P2IndexCache.Entry(1L);
+		cache.write(BASE, entry);
+		// Units that weren't read are distinct from a repository without any
+		assertNull(cache.read(BASE).get().getUnits());
+
+		try(InputStream is = getClass().getResourceAsStream("/repo/simple/content.xml")) {
+			entry.setUnits(P2ContentReader.readUnits(is, BASE));
+		}
+		cache.write(BASE, entry);
+
+		List<P2InstallableUnit> read = cache.read(BASE).get().getUnits();
+		assertEquals(entry.getUnits().size(), read.size());
+		for(int i = 0; i < read.size(); i++) {
+			P2InstallableUnit expected = entry.getUnits().get(i);
+			P2InstallableUnit actual = read.get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getVersion(), actual.getVersion());
+			assertEquals(expected.getProperties(), actual.getProperties());
+			assertEquals(expected.getProvides().size(), actual.getProvides().size());
+			assertEquals(expected.getRequires().size(), actual.getRequires().size());
+			for(int j = 0; j < expected.getRequires().size(); j++) {
+				assertEquals(expected.getRequires().get(j).getName(), actual.getRequires().get(j).getName());
+				assertEquals(expected.getRequires().get(j).getRange(), actual.getRequires().get(j).getRange());
+				assertEquals(expected.getRequires().get(j).isOptional(), actual.getRequires().get(j).isOptional());
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptEntry(@TempDir Path dir) throws Exception {
+		P2IndexCache cache = new P2IndexCache(dir, LoggerFactory.getLogger(getClass()));
+		cache.write(BASE, new P2IndexCache.Entry(1L));
+		try(Stream<Path> files = Files.list(dir)) {
+			Path file = files.findFirst().get();
+			Files.write(file, new byte[] { 1, 2, 3 });
+		}
+		assertFalse(cache.read(BASE).isPresent());
+	}
+
+	@Test
+	public void testUpdatePolicy() {
+		long now = System.currentTimeMillis();
+		assertTrue(P2IndexCache.isUpdateRequired(now, RepositoryPolicy.UPDATE_POLICY_ALWAYS));
+		assertFalse(P2IndexCache.isUpdateRequired(0, RepositoryPolicy.UPDATE_POLICY_NEVER));
+		assertFalse(P2IndexCache.isUpdateRequired(now, RepositoryPolicy.UPDATE_POLICY_DAILY));
+		assertTrue(P2IndexCache.isUpdateRequired(now - 48L * 60 * 60 * 1000, RepositoryPolicy.UPDATE_POLICY_DAILY));
+		assertFalse(P2IndexCache.isUpdateRequired(now - 5L * 60 * 1000, "interval:10"));
+		assertTrue(P2IndexCache.isUpdateRequired(now - 15L * 60 * 1000, "interval:10"));
+		assertFalse(P2IndexCache.isUpdateRequired(now, null));
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.cache.P2MetadataCache;
+
+@SuppressWarnings("nls")
+public class P2MetadataCacheTest {
+	private static final byte[] CONTENT = "<project/>".getBytes(StandardCharsets.UTF_8);
+	private static final String REPOSITORY = P2MetadataCache.key("p2test", "https://example.com/repo/");
+
+	@Test
+	public void testKeys() {
+		String key = P2MetadataCache.key("pom", "repo", "com.example", "1.0.0", "index1");
+		assertEquals(key, P2MetadataCache.key("pom", "repo", "com.example", "1.0.0", "index1"));
+		assertNotEquals(key, P2MetadataCache.key("pom", "repo", "com.example", "1.0.0", "index2"));
+		// Parts are delimited, so shifting characters between them changes the key
+		assertNotEquals(P2MetadataCache.key("ab", "c"), P2MetadataCache.key("a", "bc"));
+	}
+
+	@Test
+	public void testRoundTrip(@TempDir Path dir) throws Exception {
+		P2MetadataCache cache = new P2MetadataCache(dir);
+		String key = P2MetadataCache.key("pom", "repo", "com.example", "1.0.0", "index1");
+
+		assertFalse(cache.get(REPOSITORY, "index1", key, "pom").isPresent());
+		Path file = cache.put(REPOSITORY, "index1", key, "pom", os -> os.write(CONTENT));
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+		assertEquals(file, cache.get(REPOSITORY, "index1", key, "pom").get());
+		assertFalse(cache.get(REPOSITORY, "index1", key, "xml").isPresent());
+	}
+
+	@Test
+	public void testPrunesSupersededGenerations(@TempDir Path dir) throws Exception {
+		String other = P2MetadataCache.key("other");
+		String oldKey = P2MetadataCache.key("pom", "com.example", "1.0.0", "index1");
+		String newKey = P2MetadataCache.key("pom", "com.example", "1.0.0", "index2");
+		P2MetadataCache earlier = new P2MetadataCache(dir);
+		Path oldFile = earlier.put(REPOSITORY, "index1", oldKey, "pom", os -> os.write(CONTENT));
+		Path otherFile = earlier.put(other, "index1", oldKey, "pom", os -> os.write(CONTENT));
+
+		// A later build finds the repository index changed
+		P2MetadataCache cache = new P2MetadataCache(dir);
+		assertTrue(cache.get(REPOSITORY, "index1", oldKey, "pom").isPresent());
+		Path newFile = cache.put(REPOSITORY, "index2", newKey, "pom", os -> os.write(CONTENT));
+		assertFalse(Files.exists(oldFile));
+		assertFalse(cache.get(REPOSITORY, "index1", oldKey, "pom").isPresent());
+		assertEquals(newFile, cache.get(REPOSITORY, "index2", newKey, "pom").get());
+		// Other repositories keep their entries
+		assertTrue(Files.exists(otherFile));
+
+		// Further entries of the current generation leave earlier ones in place
+		Path secondFile = cache.put(REPOSITORY, "index2", oldKey, "pom", os -> os.write(CONTENT));
+		assertTrue(Files.exists(newFile));
+		assertTrue(Files.exists(secondFile));
+		try(Stream<Path> generations = Files.list(newFile.getParent().getParent().getParent())) {
+			assertEquals(1, generations.count());
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.cache.P2PackageCache;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2PackageIndex;
+import org.osgi.framework.Version;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("nls")
+public class P2PackageCacheTest {
+	private static final URI REPO = URI.create("https://example.com/repo/");
+
+	@Test
+	public void testFingerprint() {
+		P2Bundle plain = new P2Bundle(REPO, "com.example", "1.0.0", Collections.emptyMap());
+		P2Bundle checksummed = new P2Bundle(REPO, "com.example", "1.0.0", Collections.singletonMap("download.checksum.sha-256", repeat('a')));
+		P2Bundle republished = new P2Bundle(REPO, "com.example", "1.0.0", Collections.singletonMap("download.checksum.sha-256", repeat('b')));
+		assertEquals(P2PackageCache.fingerprint(plain), P2PackageCache.fingerprint(new P2Bundle(REPO, "com.example", "1.0.0", Collections.emptyMap())));
+		assertNotEquals(P2PackageCache.fingerprint(plain), P2PackageCache.fingerprint(checksummed));
+		assertNotEquals(P2PackageCache.fingerprint(checksummed), P2PackageCache.fingerprint(republished));
+	}
+
+	@Test
+	public void testRoundTrip(@TempDir Path dir) throws Exception {
+		P2PackageCache cache = new P2PackageCache(dir, LoggerFactory.getLogger(getClass()));
+		assertTrue(cache.read(REPO).isEmpty());
+
+		Map<String, List<P2PackageIndex.Export>> exports = new HashMap<>();
+		exports.put("a", P2PackageIndex.parseExports("com.example.a;version=1.2.3.qualifier,com.example.b"));
+		exports.put("b", Collections.emptyList());
+		cache.write(REPO, exports);
+
+		Map<String, List<P2PackageIndex.Export>> read = cache.read(REPO);
+		assertEquals(exports.keySet(), read.keySet());
+		assertTrue(read.get("b").isEmpty());
+		List<P2PackageIndex.Export> a = read.get("a");
+		assertEquals(2, a.size());
+		assertEquals("com.example.a", a.get(0).getPackageName());
+		assertEquals(new Version(1, 2, 3, "qualifier"), a.get(0).getVersion());
+		assertEquals(Version.emptyVersion, a.get(1).getVersion());
+
+		// Entries are per repository
+		assertTrue(cache.read(URI.create("https://example.com/other/")).isEmpty());
+
+		// Unreadable entries are ignored
+		try(Stream<Path> files = Files.list(dir)) {
+			Path file = files.filter(p -> p.toString().endsWith(".pkg")).findFirst().get();
+			Files.write(file, "garbage".getBytes(StandardCharsets.UTF_8));
+		}
+		assertTrue(cache.read(REPO).isEmpty());
+	}
+
+	private static String repeat(char c) {
+		char[] value = new char[64];
+		Arrays.fill(value, c);
+		return new String(value);
+	}
+}
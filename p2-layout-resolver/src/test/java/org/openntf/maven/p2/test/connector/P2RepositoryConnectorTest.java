@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.connector;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithm;
+import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactory;
+import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactorySelector;
+import org.eclipse.aether.spi.connector.checksum.ChecksumAlgorithmFactorySupport;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.P2ConfigurationProperties;
+import org.openntf.maven.p2.connector.P2RepositoryConnector;
+import org.openntf.maven.p2.layout.P2RepositoryLayout;
+import org.openntf.maven.p2.util.P2Util;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("nls")
+public class P2RepositoryConnectorTest {
+	private static final String GROUP_ID = "p2test";
+	private static final byte[] BUNDLE = "not really a jar".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Selects algorithms the way Maven Resolver does, by {@link MessageDigest} name, but
+	 * without SHA-1 so that published checksums the runtime lacks are covered.
+	 */
+	private static class Selector implements ChecksumAlgorithmFactorySelector {
+		private final Map<String, ChecksumAlgorithmFactory> factories = new LinkedHashMap<>();
+
+		Selector() {
+			for(String name : Arrays.asList("SHA-512", "SHA-256", "MD5")) {
+				factories.put(name, new ChecksumAlgorithmFactorySupport(name, name.replace("-", "").toLowerCase()) {
+					@Override
+					public ChecksumAlgorithm getAlgorithm() {
+						MessageDigest digest = digest(name);
+						return new ChecksumAlgorithm() {
+							@Override
+							public void update(ByteBuffer input) {
+								digest.update(input);
+							}
+							@Override
+							public String checksum() {
+								return P2Util.toHex(digest.digest());
+							}
+						};
+					}
+				});
+			}
+		}
+
+		@Override
+		public ChecksumAlgorithmFactory select(String algorithmName) {
+			ChecksumAlgorithmFactory factory = factories.get(algorithmName);
+			if(factory == null) {
+				throw new IllegalArgumentException(algorithmName);
+			}
+			return factory;
+		}
+
+		@Override
+		public List<ChecksumAlgorithmFactory> selectList(Collection<String> algorithmNames) {
+			return algorithmNames.stream().map(this::select).collect(Collectors.toList());
+		}
+
+		@Override
+		public Collection<ChecksumAlgorithmFactory> getChecksumAlgorithmFactories() {
+			return factories.values();
+		}
+
+		@Override
+		public boolean isChecksumExtension(String extension) {
+			return factories.values().stream().anyMatch(factory -> factory.getFileExtension().equals(extension));
+		}
+	}
+
+	private static MessageDigest digest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(String algorithm) {
+		return P2Util.toHex(digest(algorithm).digest(BUNDLE));
+	}
+
+	/**
+	 * Creates a repository with a single bundle publishing its checksums weakest first.
+	 */
+	private static void createRepository(Path repoDir) throws Exception {
+		Files.createDirectories(repoDir.resolve("plugins"));
+		Files.write(repoDir.resolve("plugins/com.example.api_1.0.0.jar"), BUNDLE);
+		Files.write(repoDir.resolve("artifacts.xml"), ("<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<repository name='Checksums' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n"
+			+ "<artifacts><artifact classifier='osgi.bundle' id='com.example.api' version='1.0.0'>\n"
+			+ "<properties size='4'>\n"
+			+ "<property name='download.md5' value='" + hex("MD5") + "'/>\n"
+			+ "<property name='download.checksum.sha-1' value='" + hex("SHA-1") + "'/>\n"
+			+ "<property name='download.checksum.sha-256' value='" + hex("SHA-256") + "'/>\n"
+			+ "<property name='download.checksum.sha-512' value='" + hex("SHA-512") + "'/>\n"
+			+ "</properties>\n"
+			+ "</artifact></artifacts>\n"
+			+ "</repository>\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testExpectedChecksums(@TempDir Path repoDir) throws Exception {
+		createRepository(repoDir);
+		try(P2RepositoryLayout layout = new P2RepositoryLayout(GROUP_ID, repoDir.toUri().toString(), LoggerFactory.getLogger(getClass()), new Selector())) {
+			Artifact artifact = new DefaultArtifact(GROUP_ID, "com.example.api", "jar", "1.0.0");
+			Map<String, String> expected = new LinkedHashMap<>();
+			layout.getExpectedChecksums(artifact).forEach((factory, value) -> expected.put(factory.getName(), value));
+
+			// Strongest first, named as Maven Resolver names them, and without those it lacks
+			assertEquals(Arrays.asList("SHA-512", "SHA-256", "MD5"), new ArrayList<>(expected.keySet()));
+			assertEquals(hex("SHA-512"), expected.get("SHA-512"));
+			assertEquals(hex("MD5"), expected.get("MD5"));
+
+			assertTrue(layout.getExpectedChecksums(new DefaultArtifact(GROUP_ID, "com.example.api", "sources", "jar", "1.0.0")).isEmpty());
+			assertTrue(layout.getExpectedChecksums(new DefaultArtifact(GROUP_ID, "com.example.missing", "jar", "1.0.0")).isEmpty());
+			// Nothing is written for the resolver to read back
+			assertEquals(Collections.emptyList(), layout.getChecksumLocations(artifact, false, null));
+		}
+	}
+
+	@Test
+	public void testWritesChecksumFiles(@TempDir Path repoDir, @TempDir Path localRepo, @TempDir Path cacheDir) throws Exception {
+		createRepository(repoDir);
+		DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+		session.setConfigProperty(P2ConfigurationProperties.CACHE_DIR, cacheDir.toString());
+		RemoteRepository repository = new RemoteRepository.Builder(GROUP_ID, "p2", repoDir.toUri().toString()).build();
+
+		Path dest = localRepo.resolve("p2test/com.example.api/1.0.0/com.example.api-1.0.0.jar");
+		Files.createDirectories(dest.getParent());
+		ArtifactDownload download = new ArtifactDownload(new DefaultArtifact(GROUP_ID, "com.example.api", "jar", "1.0.0"), null, dest.toFile(), null);
+		download.setListener(new AbstractTransferListener() {});
+
+		P2RepositoryConnector connector = new P2RepositoryConnector(session, repository, LoggerFactory.getLogger(getClass()), new Selector());
+		try {
+			connector.get(Collections.singletonList(download), null);
+		} finally {
+			connector.close();
+		}
+		assertNull(download.getException());
+		assertArrayEquals(BUNDLE, Files.readAllBytes(dest));
+
+		// One sidecar per supported algorithm, beside the artifact and nowhere else
+		try(Stream<Path> files = Files.walk(localRepo)) {
+			assertEquals(
+				Arrays.asList("com.example.api-1.0.0.jar", "com.example.api-1.0.0.jar.md5", "com.example.api-1.0.0.jar.sha256", "com.example.api-1.0.0.jar.sha512"),
+				files.filter(Files::isRegularFile).map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList())
+			);
+		}
+		assertEquals(hex("SHA-512"), new String(Files.readAllBytes(dest.resolveSibling("com.example.api-1.0.0.jar.sha512")), StandardCharsets.US_ASCII));
+		assertEquals(hex("SHA-256"), new String(Files.readAllBytes(dest.resolveSibling("com.example.api-1.0.0.jar.sha256")), StandardCharsets.US_ASCII));
+		assertEquals(hex("MD5"), new String(Files.readAllBytes(dest.resolveSibling("com.example.api-1.0.0.jar.md5")), StandardCharsets.US_ASCII));
+	}
+}
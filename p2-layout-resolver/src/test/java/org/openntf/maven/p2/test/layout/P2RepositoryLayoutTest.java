@@ -0,0 +1,455 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.layout;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.cache.HttpCache;
+import org.openntf.maven.p2.cache.P2BundleCache;
+import org.openntf.maven.p2.layout.P2RepositoryLayout;
+import org.openntf.maven.p2.model.P2RepositorySettings;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+import org.openntf.maven.p2.util.P2Executors;
+import org.openntf.maven.p2.util.P2Util;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("nls")
+public class P2RepositoryLayoutTest {
+	private static final String GROUP_ID = "p2test";
+	private static final int DEPENDENCIES = 6;
+	private static final int DOWNLOAD_THREADS = 2;
+
+	@TempDir
+	Path repoDir;
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	/** Holds bundle downloads open until released */
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	/** The number of requests for each path to cut off partway through before serving it */
+	private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		// Held requests mustn't block others
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.createContext("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			requests.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+			try {
+				Path file = repoDir.resolve(path.substring(1));
+				if(!Files.isRegularFile(file)) {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+				if(path.startsWith("/plugins/")) {
+					maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} finally {
+						inFlight.decrementAndGet();
+					}
+				}
+				byte[] content = Files.readAllBytes(file);
+				exchange.sendResponseHeaders(200, content.length);
+				AtomicInteger failing = failures.get(path);
+				if(failing != null && failing.getAndDecrement() > 0) {
+					// Closing the exchange before the declared length drops the connection
+					exchange.getResponseBody().write(content, 0, content.length / 2);
+					return;
+				}
+				try(OutputStream os = exchange.getResponseBody()) {
+					os.write(content);
+				}
+			} catch(InterruptedException | IOException e) {
+				// Client went away
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		release.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private URI uri() {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+	}
+
+	private int bundleRequests(String id) {
+		AtomicInteger count = requests.get("/plugins/" + id + "_1.0.0.jar");
+		return count == null ? 0 : count.get();
+	}
+
+	private int totalBundleRequests() {
+		return requests.entrySet().stream()
+			.filter(entry -> entry.getKey().startsWith("/plugins/"))
+			.mapToInt(entry -> entry.getValue().get())
+			.sum();
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out waiting for condition");
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Creates a repository whose {@code root} bundle requires {@code DEPENDENCIES} bundles
+	 * and optionally imports a package from the {@code opt} bundle, described by its
+	 * content.xml so that POMs are synthesized without fetching any bundle.
+	 */
+	private void createPrefetchRepository() throws IOException {
+		StringBuilder artifacts = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<repository name='Prefetch' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n<artifacts>\n");
+		StringBuilder units = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<repository name='Prefetch' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' version='1'>\n<units>\n");
+		StringBuilder rootRequires = new StringBuilder();
+		for(int i = 0; i < DEPENDENCIES; i++) {
+			rootRequires.append("<required namespace='osgi.bundle' name='dep").append(i).append("' range='0.0.0'/>\n");
+		}
+		rootRequires.append("<required namespace='java.package' name='com.example.opt' range='0.0.0' optional='true'/>\n");
+
+		Files.createDirectories(repoDir.resolve("plugins"));
+		for(int i = -2; i < DEPENDENCIES; i++) {
+			String id = i == -2 ? "root" : i == -1 ? "opt" : "dep" + i;
+			artifacts.append("<artifact classifier='osgi.bundle' id='").append(id).append("' version='1.0.0'/>\n");
+			units.append("<unit id='").append(id).append("' version='1.0.0'>\n<provides>\n")
+				.append("<provided namespace='osgi.bundle' name='").append(id).append("' version='1.0.0'/>\n");
+			if(i == -1) {
+				units.append("<provided namespace='java.package' name='com.example.opt' version='1.0.0'/>\n");
+			}
+			units.append("</provides>\n");
+			if(i == -2) {
+				units.append("<requires>\n").append(rootRequires).append("</requires>\n");
+			}
+			units.append("</unit>\n");
+			writeBundle(repoDir.resolve("plugins").resolve(id + "_1.0.0.jar"), id);
+		}
+		artifacts.append("</artifacts>\n</repository>\n");
+		units.append("</units>\n</repository>\n");
+		Files.write(repoDir.resolve("artifacts.xml"), artifacts.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(repoDir.resolve("content.xml"), units.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void writeBundle(Path path, String symbolicName) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+		try(JarOutputStream jos = new JarOutputStream(Files.newOutputStream(path), manifest)) {
+			// Manifest only
+		}
+	}
+
+	/**
+	 * Creates a repository holding a single bundle with a STORED and a DEFLATED embedded
+	 * jar, a non-jar entry and an entry whose name escapes its directory. The bundle's
+	 * class path also names a jar that it doesn't contain.
+	 */
+	private void createEmbeddingRepository(byte[] stored, byte[] deflated) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", "embedder");
+		manifest.getMainAttributes().putValue("Bundle-ClassPath", ".,lib/stored.jar,lib/deflated.jar,lib/missing.jar");
+		Files.createDirectories(repoDir.resolve("plugins"));
+		Path bundle = repoDir.resolve("plugins/embedder_1.0.0.jar");
+		try(JarOutputStream jos = new JarOutputStream(Files.newOutputStream(bundle), manifest)) {
+			ZipEntry storedEntry = new ZipEntry("lib/stored.jar");
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(stored.length);
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			storedEntry.setCrc(crc.getValue());
+			jos.putNextEntry(storedEntry);
+			jos.write(stored);
+
+			jos.putNextEntry(new ZipEntry("lib/deflated.jar"));
+			jos.write(deflated);
+			jos.putNextEntry(new ZipEntry("lib/readme.txt"));
+			jos.write("Not a jar".getBytes(StandardCharsets.UTF_8));
+			jos.putNextEntry(new ZipEntry("../../../escaped.jar"));
+			jos.write(deflated);
+		}
+
+		Files.write(repoDir.resolve("artifacts.xml"), ("<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<repository name='Embedding' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n"
+			+ "<artifacts><artifact classifier='osgi.bundle' id='embedder' version='1.0.0'>\n"
+			+ "<properties size='1'><property name='download.checksum.sha-256' value='" + sha256(bundle) + "'/></properties>\n"
+			+ "</artifact></artifacts>\n"
+			+ "</repository>\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String sha256(Path file) throws IOException {
+		try {
+			return P2Util.toHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file)));
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Settings that read bundles in full, so that their entry index comes from the download
+	 * or the local copy, and that leave embedded jars unextracted.
+	 */
+	private static P2RepositorySettings entryIndexSettings(HttpCache httpCache, P2BundleCache bundleCache) {
+		return new P2RepositorySettings(new URLConnectionTransport(5000, 20000), null, httpCache, bundleCache, null, null, null,
+			P2Executors.TYPE_PLATFORM, 1, DOWNLOAD_THREADS, 1, false, false, false, false, false, false);
+	}
+
+	/**
+	 * Checks the classified requests and the POM of the {@code embedder} bundle, none of
+	 * which needs the bundle file once its entry index is known.
+	 */
+	private void assertEntryIndexLookups(P2RepositoryLayout layout) throws IOException {
+		URI stored = layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "lib$stored", "jar", "1.0.0"), false);
+		assertEquals("jar", stored.getScheme());
+		assertTrue(stored.toString().endsWith("!/lib/stored.jar"), stored::toString);
+		URI missing = layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "lib$missing", "jar", "1.0.0"), false);
+		assertEquals("file", missing.getScheme());
+		assertFalse(Files.exists(Paths.get(missing)));
+		assertFalse(Files.exists(Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "lib$readme", "jar", "1.0.0"), false))));
+
+		assertEquals(uri().resolve("plugins/embedder.source_1.0.0.jar"), layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "sources", "jar", "1.0.0"), false));
+
+		// Only the Bundle-ClassPath entries present in the bundle become dependencies
+		String pom = new String(Files.readAllBytes(Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "pom", "1.0.0"), false))), StandardCharsets.UTF_8);
+		assertTrue(pom.contains("<classifier>lib$stored</classifier>"), pom);
+		assertTrue(pom.contains("<classifier>lib$deflated</classifier>"), pom);
+		assertFalse(pom.contains("lib$missing"), pom);
+	}
+
+	private P2RepositoryLayout prefetchLayout() throws IOException {
+		// Virtual threads ignore the thread count, leaving only the layout's own limit
+		P2RepositorySettings settings = new P2RepositorySettings(new URLConnectionTransport(5000, 20000), null, null, null, null, null, null,
+			P2Executors.TYPE_VIRTUAL, 1, DOWNLOAD_THREADS, 1, true, false, true, true, false, true);
+		return new P2RepositoryLayout(GROUP_ID, uri().toString(), LoggerFactory.getLogger(getClass()), null, settings);
+	}
+
+	@Test
+	public void testPrefetchIsBoundedAndSkipsOptional() throws Exception {
+		createPrefetchRepository();
+		try(P2RepositoryLayout layout = prefetchLayout()) {
+			String pom = new String(Files.readAllBytes(Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "root", "pom", "1.0.0"), false))), StandardCharsets.UTF_8);
+			assertTrue(pom.contains("<artifactId>opt</artifactId>"), pom);
+			assertEquals(0, bundleRequests("root"));
+
+			waitFor(() -> inFlight.get() == DOWNLOAD_THREADS);
+			// Give any excess prefetches the chance to start
+			Thread.sleep(300);
+			assertEquals(DOWNLOAD_THREADS, maxInFlight.get());
+
+			release.countDown();
+			waitFor(() -> totalBundleRequests() == DEPENDENCIES);
+			for(int i = 0; i < DEPENDENCIES; i++) {
+				Path jar = Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "dep" + i, "jar", "1.0.0"), false));
+				assertTrue(Files.isRegularFile(jar), jar::toString);
+			}
+			// Requesting the jars used the prefetched copies
+			assertEquals(DEPENDENCIES, totalBundleRequests());
+			assertEquals(0, bundleRequests("opt"));
+			assertEquals(DOWNLOAD_THREADS, maxInFlight.get());
+		}
+	}
+
+	@Test
+	public void testCloseStopsPrefetch() throws Exception {
+		createPrefetchRepository();
+		P2RepositoryLayout layout = prefetchLayout();
+		layout.getLocation(new DefaultArtifact(GROUP_ID, "root", "pom", "1.0.0"), false);
+		waitFor(() -> inFlight.get() == DOWNLOAD_THREADS);
+
+		Thread closer = new Thread(layout::close);
+		closer.start();
+		// Let the downloads already in progress finish while close() waits for them
+		Thread.sleep(200);
+		release.countDown();
+		closer.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse(closer.isAlive(), "close() did not return");
+
+		// Queued prefetches were dropped rather than started
+		Thread.sleep(300);
+		assertEquals(DOWNLOAD_THREADS, totalBundleRequests());
+	}
+
+	@Test
+	public void testUnusedLayoutHoldsNoResources() throws Exception {
+		createPrefetchRepository();
+		String id = "unused" + System.nanoTime();
+		P2RepositorySettings settings = new P2RepositorySettings(new URLConnectionTransport(5000, 20000), null, null, null, null, null, null,
+			P2Executors.TYPE_PLATFORM, 1, DOWNLOAD_THREADS, 1, true, false, true, true, false, true);
+		// Layouts from P2RepositoryLayoutFactory are never closed
+		new P2RepositoryLayout(id, uri().toString(), LoggerFactory.getLogger(getClass()), null, settings);
+		assertFalse(Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().contains(id)));
+		try(Stream<Path> tempFiles = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+			assertFalse(tempFiles.anyMatch(path -> path.getFileName().toString().contains(id)));
+		}
+	}
+
+	@Test
+	public void testExtractsEmbeddedJarsInOnePass() throws Exception {
+		byte[] stored = new byte[16 * 1024];
+		new Random(1).nextBytes(stored);
+		byte[] deflated = new byte[16 * 1024];
+		createEmbeddingRepository(stored, deflated);
+		release.countDown();
+
+		// Range requests off, so that the bundle contents come from the single full download
+		P2RepositorySettings settings = new P2RepositorySettings(new URLConnectionTransport(5000, 20000), null, null, null, null, null, null,
+			P2Executors.TYPE_PLATFORM, 1, DOWNLOAD_THREADS, 1, true, false, false, false, false, false);
+		try(P2RepositoryLayout layout = new P2RepositoryLayout(GROUP_ID, uri().toString(), LoggerFactory.getLogger(getClass()), null, settings)) {
+			Path storedJar = Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "lib$stored", "jar", "1.0.0"), false));
+			assertArrayEquals(stored, Files.readAllBytes(storedJar));
+			assertEquals(1, bundleRequests("embedder"));
+
+			// The other embedded jar was extracted in the same pass
+			Path deflatedJar = storedJar.resolveSibling("deflated.jar");
+			assertArrayEquals(deflated, Files.readAllBytes(deflatedJar));
+			Files.write(deflatedJar, new byte[] { 1 });
+			assertEquals(deflatedJar, Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "lib$deflated", "jar", "1.0.0"), false)));
+			// Served from the first extraction rather than extracted again
+			assertArrayEquals(new byte[] { 1 }, Files.readAllBytes(deflatedJar));
+			assertEquals(1, bundleRequests("embedder"));
+
+			// Only jars are extracted, and never outside the extraction directory
+			assertFalse(Files.exists(storedJar.resolveSibling("readme.txt")));
+			// lib/stored.jar within embedded/<bundle> within the layout's working directory
+			Path scratch = storedJar.getParent().getParent().getParent().getParent();
+			assertFalse(Files.exists(scratch.resolveSibling("escaped.jar")));
+			try(Stream<Path> files = Files.walk(scratch)) {
+				List<Path> escaped = files.filter(file -> file.getFileName().toString().equals("escaped.jar")).collect(Collectors.toList());
+				assertTrue(escaped.isEmpty(), escaped::toString);
+			}
+		}
+	}
+
+	@Test
+	public void testEntryIndexCapturedWhileStreaming(@TempDir Path cacheDir) throws Exception {
+		createEmbeddingRepository(new byte[1024], new byte[1024]);
+		release.countDown();
+		// Bundles read through the HTTP cache are streamed rather than downloaded to a resumable file
+		HttpCache httpCache = new HttpCache(cacheDir, new URLConnectionTransport(5000, 20000), LoggerFactory.getLogger(getClass()));
+
+		try(P2RepositoryLayout layout = new P2RepositoryLayout(GROUP_ID, uri().toString(), LoggerFactory.getLogger(getClass()), null, entryIndexSettings(httpCache, null))) {
+			Path jar = Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "jar", "1.0.0"), false));
+			assertEquals(1, bundleRequests("embedder"));
+
+			// Anything reopening the bundle from here on would find it unreadable
+			Files.write(jar, new byte[] { 1 });
+			assertEntryIndexLookups(layout);
+			assertEquals(1, bundleRequests("embedder"));
+		}
+	}
+
+	@Test
+	public void testEntryIndexReadFromLocalJar(@TempDir Path cacheDir) throws Exception {
+		createEmbeddingRepository(new byte[1024], new byte[1024]);
+		release.countDown();
+		Path bundle = repoDir.resolve("plugins/embedder_1.0.0.jar");
+		P2BundleCache bundleCache = new P2BundleCache(cacheDir);
+		try(InputStream is = Files.newInputStream(bundle)) {
+			bundleCache.put(new P2BundleCache.Key("SHA-256", sha256(bundle)), is);
+		}
+
+		try(P2RepositoryLayout layout = new P2RepositoryLayout(GROUP_ID, uri().toString(), LoggerFactory.getLogger(getClass()), null, entryIndexSettings(null, bundleCache))) {
+			// The bundle wasn't downloaded, so its entries come from the cached copy's central directory
+			assertEntryIndexLookups(layout);
+			assertEquals(0, bundleRequests("embedder"));
+		}
+	}
+
+	@Test
+	public void testResumableDownloadKeptOutOfLocalRepository(@TempDir Path localRepo) throws Exception {
+		createEmbeddingRepository(new byte[1024], new byte[1024]);
+		release.countDown();
+		Path dest = localRepo.resolve("embedder-1.0.0.jar");
+
+		try(P2RepositoryLayout layout = new P2RepositoryLayout(GROUP_ID, uri().toString(), LoggerFactory.getLogger(getClass()), null, entryIndexSettings(null, null))) {
+			assertTrue(layout.downloadBundle(new DefaultArtifact(GROUP_ID, "embedder", "jar", "1.0.0"), dest));
+			assertArrayEquals(Files.readAllBytes(repoDir.resolve("plugins/embedder_1.0.0.jar")), Files.readAllBytes(dest));
+		}
+		// Neither the partial file nor its lock file was placed beside the artifact
+		try(Stream<Path> files = Files.list(localRepo)) {
+			assertEquals(Collections.singletonList(dest), files.collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testHttpCacheDownloadRetried(@TempDir Path cacheDir) throws Exception {
+		createEmbeddingRepository(new byte[1024], new byte[1024]);
+		release.countDown();
+		failures.put("/plugins/embedder_1.0.0.jar", new AtomicInteger(1));
+		HttpCache httpCache = new HttpCache(cacheDir, new URLConnectionTransport(5000, 20000), LoggerFactory.getLogger(getClass()));
+		P2RepositorySettings settings = new P2RepositorySettings(new URLConnectionTransport(5000, 20000), null, httpCache, null, null, null, null,
+			P2Executors.TYPE_PLATFORM, 1, DOWNLOAD_THREADS, 3, false, false, false, false, false, false);
+
+		try(P2RepositoryLayout layout = new P2RepositoryLayout(GROUP_ID, uri().toString(), LoggerFactory.getLogger(getClass()), null, settings)) {
+			Path jar = Paths.get(layout.getLocation(new DefaultArtifact(GROUP_ID, "embedder", "jar", "1.0.0"), false));
+			assertArrayEquals(Files.readAllBytes(repoDir.resolve("plugins/embedder_1.0.0.jar")), Files.readAllBytes(jar));
+			// The failed request was retried rather than reported as a failed download
+			assertEquals(2, bundleRequests("embedder"));
+		}
+	}
+}
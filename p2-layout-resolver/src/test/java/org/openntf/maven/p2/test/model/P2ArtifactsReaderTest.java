@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.openntf.maven.p2.model.P2ArtifactsReader;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.util.xml.XMLDocument;
+
+@SuppressWarnings("nls")
+public class P2ArtifactsReaderTest {
+	private static final URI BASE = URI.create("https://example.com/repo/");
+
+	@Test
+	public void testMatchesDom() throws Exception {
+		List<P2Bundle> dom;
+		try(InputStream is = getClass().getResourceAsStream("/repo/simple/artifacts.xml")) {
+			XMLDocument xml = new XMLDocument();
+			xml.loadInputStream(is);
+			dom = xml.selectNodes("/repository/artifacts/artifact[@classifier=\"osgi.bundle\"]")
+				.filter(el -> el.getElementsByTagName("processing").isEmpty())
+				.map(el -> new P2Bundle(BASE, el))
+				.collect(Collectors.toList());
+		}
+
+		List<P2Bundle> stax = new ArrayList<>();
+		try(InputStream is = getClass().getResourceAsStream("/repo/simple/artifacts.xml")) {
+			P2ArtifactsReader.readBundles(is, BASE, stax::add);
+		}
+
+		assertFalse(dom.isEmpty());
+		assertEquals(dom.size(), stax.size());
+		for(int i = 0; i < dom.size(); i++) {
+			P2Bundle expected = dom.get(i);
+			P2Bundle actual = stax.get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getVersion(), actual.getVersion());
+			assertEquals(expected.getProperties(), actual.getProperties());
+			assertEquals(expected.getUri(null), actual.getUri(null));
+		}
+	}
+
+	@Test
+	public void testSkipsProcessedAndNonBundles() throws Exception {
+		List<P2Bundle> bundles = new ArrayList<>();
+		try(InputStream is = getClass().getResourceAsStream("/repo/simple/artifacts.xml")) {
+			P2ArtifactsReader.readBundles(is, BASE, bundles::add);
+		}
+		assertEquals(
+			Arrays.asList("com.example.api", "com.example.api", "com.example.impl"),
+			bundles.stream().map(P2Bundle::getId).collect(Collectors.toList())
+		);
+	}
+
+	@Test
+	public void testCompositeChildren() throws Exception {
+		List<URI> children;
+		try(InputStream is = getClass().getResourceAsStream("/repo/compositeArtifacts.xml")) {
+			children = P2ArtifactsReader.readCompositeChildren(is, BASE);
+		}
+		assertEquals(
+			Arrays.asList(URI.create("https://example.com/repo/simple"), URI.create("https://example.com/other/")),
+			children
+		);
+	}
+}
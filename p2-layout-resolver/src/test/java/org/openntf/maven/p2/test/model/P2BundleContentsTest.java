@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.model.P2BundleContents;
+
+@SuppressWarnings("nls")
+public class P2BundleContentsTest {
+	private static byte[] createBundle() throws Exception {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", "com.example.api");
+		manifest.getMainAttributes().putValue("Bundle-Name", "%bundleName");
+		manifest.getMainAttributes().putValue("Bundle-ClassPath", "., lib/dep.jar");
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(JarOutputStream jos = new JarOutputStream(baos, manifest)) {
+			jos.putNextEntry(new ZipEntry("OSGI-INF/l10n/bundle.properties"));
+			jos.write("bundleName=Example API\n".getBytes(StandardCharsets.ISO_8859_1));
+			jos.closeEntry();
+			jos.putNextEntry(new ZipEntry("lib/dep.jar"));
+			jos.write(new byte[4096]);
+			jos.closeEntry();
+		}
+		return baos.toByteArray();
+	}
+
+	@Test
+	public void testCaptureMatchesRead(@TempDir Path dir) throws Exception {
+		byte[] bundle = createBundle();
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		P2BundleContents captured = P2BundleContents.capture(new ByteArrayInputStream(bundle), copy);
+		assertArrayEquals(bundle, copy.toByteArray());
+		assertEquals("Example API", captured.getManifest().get("Bundle-Name"));
+		assertTrue(captured.containsEntry("lib/dep.jar"));
+
+		Path jar = dir.resolve("bundle.jar");
+		Files.write(jar, bundle);
+		P2BundleContents read = P2BundleContents.read(jar);
+		assertEquals(read.getEntryNames(), captured.getEntryNames());
+		assertEquals(read.getManifest().get("Bundle-Name"), captured.getManifest().get("Bundle-Name"));
+	}
+
+	@Test
+	public void testCaptureNonZipStillCopies() throws Exception {
+		byte[] content = new byte[10000];
+		Arrays.fill(content, (byte)7);
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		P2BundleContents captured = P2BundleContents.capture(new ByteArrayInputStream(content), copy);
+		assertArrayEquals(content, copy.toByteArray());
+		assertNull(captured.getManifest());
+		assertTrue(captured.getEntryNames().isEmpty());
+	}
+}
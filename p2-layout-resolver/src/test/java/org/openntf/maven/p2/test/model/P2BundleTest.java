@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openntf.maven.p2.model.P2ArtifactsReader;
+import org.openntf.maven.p2.model.P2Bundle;
+
+@SuppressWarnings("nls")
+public class P2BundleTest {
+	private static final URI BASE = URI.create("https://example.com/repo/");
+
+	/** The shape of a bundle entry before the compact representation, for comparison */
+	private static class MapBundle {
+		@SuppressWarnings("unused")
+		final URI baseUri;
+		@SuppressWarnings("unused")
+		final String id;
+		@SuppressWarnings("unused")
+		final String version;
+		@SuppressWarnings("unused")
+		final Map<String, String> properties;
+
+		MapBundle(URI baseUri, String id, String version, Map<String, String> properties) {
+			this.baseUri = baseUri;
+			this.id = id;
+			this.version = version;
+			this.properties = properties;
+		}
+	}
+
+	/** Holds measured objects so they stay reachable until measured */
+	private static Object retained;
+
+	@Test
+	public void testProperties() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("artifact.size", "2048");
+		properties.put("download.size", "01024");
+		properties.put("download.md5", "0123456789abcdef0123456789abcdef");
+		properties.put("download.checksum.sha-256", "0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF");
+		P2Bundle bundle = new P2Bundle(BASE, "com.example.api", "1.0.0", properties);
+
+		assertEquals(properties, bundle.getProperties());
+		assertEquals("2048", bundle.getProperty("artifact.size"));
+		// Sizes that can't be restored exactly are kept as written
+		assertEquals("01024", bundle.getProperty("download.size"));
+		assertFalse(bundle.getDownloadSize().isPresent());
+		assertEquals("0123456789abcdef0123456789abcdef", bundle.getProperty("download.md5"));
+		assertEquals("0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF", bundle.getProperty("download.checksum.sha-256"));
+		assertNull(bundle.getProperty("download.checksum.sha-512"));
+		assertThrows(UnsupportedOperationException.class, () -> bundle.getProperties().put("foo", "bar"));
+		// The view is created once and reused
+		assertSame(bundle.getProperties(), bundle.getProperties());
+
+		properties.put("download.size", "1024");
+		assertEquals(1024L, new P2Bundle(BASE, "com.example.api", "1.0.0", properties).getDownloadSize().getAsLong());
+		assertEquals(URI.create("https://example.com/repo/plugins/com.example.api.source_1.0.0.jar"), bundle.getUri("sources"));
+	}
+
+	@Test
+	public void testPropertyOrder() {
+		Map<String, String> forward = new LinkedHashMap<>();
+		Map<String, String> reverse = new LinkedHashMap<>();
+		String[] names = { "maven-groupId", "download.checksum.sha-256", "artifact.size", "download.contentType", "download.md5" };
+		String[] values = { "com.example", "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef", "2048", "application/zip", "0123456789abcdef0123456789abcdef" };
+		for(int i = 0; i < names.length; i++) {
+			forward.put(names[i], values[i]);
+			reverse.put(names[names.length - 1 - i], values[names.length - 1 - i]);
+		}
+		// Entries are stored in the same order however the index listed them
+		P2Bundle first = new P2Bundle(BASE, "com.example.api", "1.0.0", forward);
+		P2Bundle second = new P2Bundle(BASE, "com.example.api", "1.0.0", reverse);
+		assertEquals(new ArrayList<>(first.getProperties().keySet()), new ArrayList<>(second.getProperties().keySet()));
+	}
+
+	@Test
+	public void testUri() {
+		P2Bundle bundle = new P2Bundle(BASE, "com.example.api", "1.0.0", new HashMap<>());
+		assertEquals(URI.create("https://example.com/repo/plugins/com.example.api_1.0.0.jar"), bundle.getUri(null));
+		// The bundle's own location is created once
+		assertSame(bundle.getUri(null), bundle.getUri(null));
+		assertSame(bundle.getUri(null), bundle.getUri(""));
+		assertEquals(URI.create("https://example.com/repo/plugins/com.example.api.javadoc_1.0.0.jar"), bundle.getUri("javadoc"));
+	}
+
+	@Test
+	public void testSharedNames() throws Exception {
+		List<P2Bundle> bundles = new ArrayList<>();
+		P2ArtifactsReader.readBundles(new ByteArrayInputStream(artifactsXml(2, 2).getBytes(StandardCharsets.UTF_8)), BASE, bundles::add);
+		assertEquals(4, bundles.size());
+		assertSame(bundles.get(0).getId(), bundles.get(1).getId());
+	}
+
+	/**
+	 * Compares the retained heap of the compact representation with a map per bundle.
+	 * Measurements rely on {@link System#gc()} and are unreliable under options such as
+	 * {@code -XX:+DisableExplicitGC} or alongside other tests, so this only runs with
+	 * {@code -Dp2layout.benchmark=true}.
+	 */
+	@Test
+	@EnabledIfSystemProperty(named = "p2layout.benchmark", matches = "true")
+	public void testHeapFootprint() throws Exception {
+		byte[] xml = artifactsXml(2000, 10).getBytes(StandardCharsets.UTF_8);
+
+		long mapBytes = measure(() -> {
+			List<MapBundle> result = new ArrayList<>();
+			// Copy each string, as read from the document, into a map per bundle as before
+			P2ArtifactsReader.readBundles(new ByteArrayInputStream(xml), BASE, bundle -> {
+				Map<String, String> properties = new HashMap<>();
+				bundle.getProperties().forEach((name, value) -> properties.put(new String(name), new String(value)));
+				result.add(new MapBundle(BASE, new String(bundle.getId()), new String(bundle.getVersion()), properties));
+			});
+			return result;
+		});
+		long compactBytes = measure(() -> {
+			List<P2Bundle> result = new ArrayList<>();
+			P2ArtifactsReader.readBundles(new ByteArrayInputStream(xml), BASE, result::add);
+			return result;
+		});
+
+		assertTrue(compactBytes > 0);
+		assertTrue(compactBytes * 2 < mapBytes, "Expected " + compactBytes + " to be less than half of " + mapBytes);
+	}
+
+	// *******************************************************************************
+	// * Internal implementation methods
+	// *******************************************************************************
+
+	@FunctionalInterface
+	private interface Loader {
+		Object load() throws Exception;
+	}
+
+	private static long measure(Loader loader) throws Exception {
+		long before = usedHeap();
+		retained = loader.load();
+		long after = usedHeap();
+		retained = null;
+		return after - before;
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static String artifactsXml(int idCount, int versionCount) {
+		StringBuilder xml = new StringBuilder("<repository><artifacts>");
+		for(int i = 0; i < idCount; i++) {
+			for(int j = 0; j < versionCount; j++) {
+				xml.append("<artifact classifier='osgi.bundle' id='com.example.bundle").append(i)
+					.append("' version='1.").append(j).append(".0.v20240101-1200'><properties size='4'>")
+					.append("<property name='artifact.size' value='").append(100000 + i).append("'/>")
+					.append("<property name='download.size' value='").append(100000 + i).append("'/>")
+					.append("<property name='download.md5' value='").append(String.format("%032x", i * 31L + j)).append("'/>")
+					.append("<property name='download.checksum.sha-256' value='").append(String.format("%064x", i * 17L + j)).append("'/>")
+					.append("</properties></artifact>");
+			}
+		}
+		return xml.append("</artifacts></repository>").toString();
+	}
+}
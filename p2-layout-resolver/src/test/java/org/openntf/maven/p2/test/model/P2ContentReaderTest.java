@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.openntf.maven.p2.model.P2ContentReader;
+import org.openntf.maven.p2.model.P2InstallableUnit;
+import org.openntf.maven.p2.model.P2PackageIndex;
+import org.osgi.framework.Version;
+
+@SuppressWarnings("nls")
+public class P2ContentReaderTest {
+	private static final URI BASE = URI.create("https://example.com/repo/");
+
+	@Test
+	public void testBundleUnits() throws Exception {
+		List<P2InstallableUnit> units;
+		try(InputStream is = getClass().getResourceAsStream("/repo/simple/content.xml")) {
+			units = P2ContentReader.readUnits(is, BASE);
+		}
+		// Feature groups don't provide bundles
+		assertEquals(
+			Arrays.asList("com.example.api", "com.example.impl", "com.example.impl.fragment"),
+			units.stream().map(P2InstallableUnit::getId).collect(Collectors.toList())
+		);
+
+		P2InstallableUnit api = units.get(0);
+		assertEquals("1.1.0.v20210101", api.getVersion());
+		assertEquals("Example API", api.getLocalizedProperty(P2InstallableUnit.PROP_NAME));
+		assertEquals("Example Org", api.getLocalizedProperty(P2InstallableUnit.PROP_PROVIDER));
+		assertEquals("https://example.com/api", api.getLocalizedProperty(P2InstallableUnit.PROP_DOC_URL));
+		assertNull(api.getLocalizedProperty(P2InstallableUnit.PROP_DESCRIPTION));
+
+		List<P2PackageIndex.Export> exports = P2PackageIndex.getExports(api);
+		assertEquals(Arrays.asList("com.example.api", "com.example.api.spi"), exports.stream().map(P2PackageIndex.Export::getPackageName).collect(Collectors.toList()));
+		assertEquals(new Version(1, 1, 0), exports.get(0).getVersion());
+
+		// Only bundle and package requirements are kept
+		assertEquals(1, api.getRequires().size());
+		P2InstallableUnit.Requirement slf4j = api.getRequires().get(0);
+		assertEquals(P2InstallableUnit.NAMESPACE_PACKAGE, slf4j.getNamespace());
+		assertEquals("org.slf4j", slf4j.getName());
+		assertTrue(slf4j.isOptional());
+		assertTrue(slf4j.getVersionRange().includes(new Version(2, 0, 0)));
+		assertFalse(slf4j.getVersionRange().includes(new Version(3, 0, 0)));
+
+		P2InstallableUnit impl = units.get(1);
+		assertEquals(2, impl.getRequires().size());
+		assertEquals(P2InstallableUnit.NAMESPACE_BUNDLE, impl.getRequires().get(0).getNamespace());
+		assertFalse(impl.getRequires().get(0).isOptional());
+
+		// A fragment's host isn't one of its dependencies
+		assertTrue(units.get(2).getRequires().isEmpty());
+	}
+
+	@Test
+	public void testCompositeChildren() throws Exception {
+		String xml = "<?compositeMetadataRepository version='1.0.0'?>"
+			+ "<repository name='Composite' type='org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository' version='1'>"
+			+ "<properties size='1'><property name='p2.atomic.composite.loading' value='true'/></properties>"
+			+ "<children size='2'><child location='simple'/><child location='https://example.com/other/'/></children>"
+			+ "</repository>";
+		List<URI> children = new ArrayList<>();
+		try(InputStream is = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))) {
+			P2ContentReader.read(is, BASE, new P2ContentReader.Handler() {
+				@Override
+				public void child(URI uri) {
+					children.add(uri);
+				}
+			});
+		}
+		assertEquals(Arrays.asList(BASE.resolve("simple"), URI.create("https://example.com/other/")), children);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2PackageIndex;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+@SuppressWarnings("nls")
+public class P2PackageIndexTest {
+	private static final URI BASE = URI.create("https://example.com/repo/");
+
+	@Test
+	public void testParseExports() throws Exception {
+		List<P2PackageIndex.Export> exports = P2PackageIndex.parseExports(
+			"com.example.a;version=\"1.2.0\";uses:=\"com.example.b\",com.example.b;com.example.c;specification-version=2.0,com.example.d,com.example.bad;version=x"
+		);
+		assertEquals(
+			Arrays.asList("com.example.a", "com.example.b", "com.example.c", "com.example.d"),
+			exports.stream().map(P2PackageIndex.Export::getPackageName).collect(Collectors.toList())
+		);
+		assertEquals(
+			Arrays.asList(new Version(1, 2, 0), new Version(2, 0, 0), new Version(2, 0, 0), Version.emptyVersion),
+			exports.stream().map(P2PackageIndex.Export::getVersion).collect(Collectors.toList())
+		);
+		assertTrue(P2PackageIndex.parseExports(null).isEmpty());
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		P2Bundle api1 = bundle("com.example.api", "1.0.0");
+		P2Bundle api2 = bundle("com.example.api", "2.0.0");
+		P2Bundle other = bundle("com.example.other", "1.0.0");
+		Map<P2Bundle, List<P2PackageIndex.Export>> exports = new LinkedHashMap<>();
+		exports.put(api1, P2PackageIndex.parseExports("com.example.api;version=1.0.0,com.example.shared;version=1.0.0"));
+		exports.put(api2, P2PackageIndex.parseExports("com.example.api;version=2.0.0,com.example.shared;version=1.0.0"));
+		exports.put(other, Collections.emptyList());
+		P2PackageIndex index = new P2PackageIndex(exports, true);
+
+		assertTrue(index.isComplete());
+		assertSame(api2, index.resolve("com.example.api", null).get());
+		assertSame(api1, index.resolve("com.example.api", new VersionRange("[1.0,2.0)")).get());
+		assertSame(api2, index.resolve("com.example.api", new VersionRange("1.5")).get());
+		assertFalse(index.resolve("com.example.api", new VersionRange("[3.0,4.0)")).isPresent());
+		// The same package version from several bundles prefers the newest bundle
+		assertSame(api2, index.resolve("com.example.shared", new VersionRange("[1.0,1.0]")).get());
+		assertFalse(index.resolve("org.w3c.dom", null).isPresent());
+	}
+
+	private static P2Bundle bundle(String id, String version) {
+		return new P2Bundle(BASE, id, version, Collections.emptyMap());
+	}
+}
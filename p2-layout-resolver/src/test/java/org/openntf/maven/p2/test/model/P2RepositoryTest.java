@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.model.P2Bundle;
+import org.openntf.maven.p2.model.P2Repository;
+import org.openntf.maven.p2.model.P2RepositorySettings;
+import org.openntf.maven.p2.transport.P2Transport;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+import org.openntf.maven.p2.util.P2Executors;
+import org.osgi.framework.VersionRange;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("nls")
+public class P2RepositoryTest {
+	private static URI resource(String path) throws Exception {
+		return P2RepositoryTest.class.getResource(path).toURI();
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		P2Repository repo = P2Repository.getInstance(resource("/repo/simple"), LoggerFactory.getLogger(getClass()));
+		assertEquals(3, repo.getBundles().size());
+		assertEquals(2, repo.getBundles("com.example.api").size());
+		assertTrue(repo.getBundles("com.example.packed").isEmpty());
+		assertEquals("1.1.0.v20210101", repo.getBundle("com.example.api", "1.1.0.v20210101").get().getVersion());
+		assertEquals("1.0.0.v20200101", repo.getBundle("com.example.api", null).get().getVersion());
+		assertFalse(repo.getBundle("com.example.api", "2.0.0").isPresent());
+	}
+
+	@Test
+	public void testIndexedLookup(@TempDir Path dir) throws Exception {
+		StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<repository name='Versions' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n")
+			.append("  <mappings size='1'>\n    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>\n  </mappings>\n")
+			.append("  <artifacts size='5'>\n");
+		for(String bundle : new String[] { "com.example.lib:2.0.0", "com.example.other:1.0.0", "com.example.lib:1.0.0", "com.example.lib:1.5.0.v20220101", "com.example.lib:1.0.0" }) {
+			String[] parts = bundle.split(":");
+			xml.append("    <artifact classifier='osgi.bundle' id='").append(parts[0]).append("' version='").append(parts[1]).append("'/>\n");
+		}
+		xml.append("  </artifacts>\n</repository>\n");
+		Files.write(dir.resolve("artifacts.xml"), xml.toString().getBytes(StandardCharsets.UTF_8));
+		P2Repository repo = P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()));
+
+		// Exact matches, with the first listing of a repeated version winning
+		assertEquals("1.5.0.v20220101", repo.getBundle("com.example.lib", "1.5.0.v20220101").get().getVersion());
+		assertSame(repo.getBundles().get(2), repo.getBundle("com.example.lib", "1.0.0").get());
+		assertEquals("com.example.other", repo.getBundle("com.example.other", "1.0.0").get().getId());
+
+		// Lookup by name keeps the listing order of the repository
+		assertEquals(
+			Arrays.asList("2.0.0", "1.0.0", "1.5.0.v20220101", "1.0.0"),
+			repo.getBundles("com.example.lib").stream().map(P2Bundle::getVersion).collect(Collectors.toList())
+		);
+		assertEquals("2.0.0", repo.getBundle("com.example.lib", null).get().getVersion());
+
+		// Misses on version and name
+		assertFalse(repo.getBundle("com.example.lib", "1.5.0").isPresent());
+		assertFalse(repo.getBundle("com.example.missing", "1.0.0").isPresent());
+		assertFalse(repo.getBundle("com.example.missing", null).isPresent());
+		assertTrue(repo.getBundles("com.example.missing").isEmpty());
+	}
+
+	@Test
+	public void testVersionRanges() throws Exception {
+		P2Repository repo = P2Repository.getInstance(resource("/repo/simple"), LoggerFactory.getLogger(getClass()));
+		// The highest match wins, regardless of listing order
+		assertEquals("1.1.0.v20210101", repo.resolveBundle("com.example.api", new VersionRange("[1.0.0,2.0.0)")).get().getVersion());
+		assertEquals("1.1.0.v20210101", repo.resolveBundle("com.example.api", new VersionRange("1.0.0")).get().getVersion());
+		assertEquals("1.1.0.v20210101", repo.resolveBundle("com.example.api", null).get().getVersion());
+		assertEquals("1.0.0.v20200101", repo.resolveBundle("com.example.api", new VersionRange("[1.0.0,1.1.0)")).get().getVersion());
+		assertEquals("1.1.0.v20210101", repo.resolveBundle("com.example.api", new VersionRange("[1.1.0.v20210101,1.1.0.v20210101]")).get().getVersion());
+		assertFalse(repo.resolveBundle("com.example.api", new VersionRange("(1.1.0.v20210101,2.0.0)")).isPresent());
+		assertFalse(repo.resolveBundle("com.example.api", new VersionRange("[2.0.0,1.0.0]")).isPresent());
+		assertFalse(repo.resolveBundle("com.example.missing", new VersionRange("1.0.0")).isPresent());
+		assertEquals("1.1.0.v20210101", repo.getLatestBundle("com.example.api").get().getVersion());
+		assertFalse(repo.getLatestBundle("com.example.missing").isPresent());
+	}
+
+	@Test
+	public void testCompositeCyclesAndDuplicates() throws Exception {
+		P2Repository repo = P2Repository.getInstance(resource("/repo/tree"), LoggerFactory.getLogger(getClass()));
+		// Depth-first in document order, with the cycle back to the root and the repeated children skipped
+		assertEquals(
+			Arrays.asList("com.example.b", "com.example.a"),
+			repo.getBundles().stream().map(P2Bundle::getId).collect(Collectors.toList())
+		);
+	}
+
+	@Test
+	public void testIndexVersion() throws Exception {
+		P2Repository simple = P2Repository.getInstance(resource("/repo/simple"), LoggerFactory.getLogger(getClass()));
+		P2Repository tree = P2Repository.getInstance(resource("/repo/tree"), LoggerFactory.getLogger(getClass()));
+		assertNotNull(simple.getIndexVersion());
+		assertEquals(simple.getIndexVersion(), simple.getIndexVersion());
+		assertNotEquals(simple.getIndexVersion(), tree.getIndexVersion());
+	}
+
+	@Test
+	public void testConcurrentFirstLoad(@TempDir Path dir) throws Exception {
+		Files.copy(Paths.get(resource("/repo/simple/artifacts.xml")), dir.resolve("artifacts.xml"));
+		P2Repository repo = P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()));
+
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<P2Bundle>>> results = new ArrayList<>();
+			for(int i = 0; i < 16; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					return P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass())).getBundles();
+				}));
+			}
+			start.countDown();
+			// Every caller sees the result of the same single load
+			for(Future<List<P2Bundle>> result : results) {
+				assertSame(repo.getBundles(), result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(3, repo.getBundles().size());
+	}
+
+	@Test
+	public void testInstancesPerSettings(@TempDir Path dir) throws Exception {
+		Files.copy(Paths.get(resource("/repo/simple/artifacts.xml")), dir.resolve("artifacts.xml"));
+		Files.copy(Paths.get(resource("/repo/simple/content.xml")), dir.resolve("content.xml"));
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+
+		P2Repository withUnits = P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()), settings(transport, true));
+		// A later session loading the repository the same way shares the instance
+		assertSame(withUnits, P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()), settings(transport, true)));
+		assertTrue(withUnits.getUnit("com.example.api", "1.1.0.v20210101").isPresent());
+		// As does one that only loads it with other threading
+		P2RepositorySettings threaded = new P2RepositorySettings(transport, null, null, null, null, null, null, P2Executors.TYPE_VIRTUAL, 8, 8, 1, true, false, false, true, false, false);
+		assertSame(withUnits, P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()), threaded));
+
+		// One that doesn't read content metadata isn't handed the earlier instance
+		P2Repository withoutUnits = P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()), settings(transport, false));
+		assertNotSame(withUnits, withoutUnits);
+		assertFalse(withoutUnits.getUnit("com.example.api", "1.1.0.v20210101").isPresent());
+	}
+
+	private static P2RepositorySettings settings(P2Transport transport, boolean contentMetadata) {
+		return new P2RepositorySettings(transport, null, null, null, null, null, null, P2Executors.TYPE_PLATFORM, 1, 1, 1, true, false, false, contentMetadata, false, false);
+	}
+
+	@Test
+	public void testMirrorsUrl(@TempDir Path dir) throws Exception {
+		String xml = new String(Files.readAllBytes(Paths.get(resource("/repo/simple/artifacts.xml"))), StandardCharsets.UTF_8)
+			.replace("<properties size='3'>", "<properties size='4'>\n    <property name='p2.mirrorsURL' value='mirrors.xml?format=xml'/>");
+		Files.write(dir.resolve("artifacts.xml"), xml.getBytes(StandardCharsets.UTF_8));
+		P2Repository repo = P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()));
+
+		assertEquals(Optional.of(dir.toUri().resolve("mirrors.xml?format=xml")), repo.getMirrorsUrl(dir.toUri()));
+		assertFalse(repo.getMirrorsUrl(URI.create("https://example.com/other/")).isPresent());
+	}
+
+	@Test
+	public void testFailedLoadNotKept(@TempDir Path dir) throws Exception {
+		byte[] xml = Files.readAllBytes(Paths.get(resource("/repo/simple/artifacts.xml")));
+		// A download cut off partway through the document
+		Files.write(dir.resolve("artifacts.xml"), Arrays.copyOf(xml, xml.length / 2));
+		P2Repository repo = P2Repository.getInstance(dir.toUri(), LoggerFactory.getLogger(getClass()));
+		assertThrows(RuntimeException.class, repo::getBundles);
+
+		// The next call loads the repository again rather than reusing the failure
+		Files.write(dir.resolve("artifacts.xml"), xml);
+		assertEquals(3, repo.getBundles().size());
+	}
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.transport.P2Downloader;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+import org.openntf.maven.p2.util.HttpStatusException;
+import org.openntf.maven.p2.util.P2Util;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("nls")
+public class P2DownloaderTest {
+	private static final byte[] CONTENT = new byte[256 * 1024];
+	static {
+		for(int i = 0; i < CONTENT.length; i++) {
+			CONTENT[i] = (byte)(i * 17);
+		}
+	}
+
+	/**
+	 * Decides how the server answers each request for the test file.
+	 */
+	@FunctionalInterface
+	private interface Responder {
+		void respond(HttpExchange exchange, int request, String range) throws IOException;
+	}
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private volatile Responder responder;
+	/** The {@code Range} header of each request, or {@code null} for requests without one */
+	private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+	@TempDir
+	Path tempDir;
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		// Lets one request be answered while another is held
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.createContext("/plugins/foo_1.0.0.jar", exchange -> {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			ranges.add(String.valueOf(range));
+			try {
+				responder.respond(exchange, ranges.size(), range);
+			} catch(IOException e) {
+				// Client went away
+			} finally {
+				exchange.close();
+			}
+		});
+		server.createContext("/plugins/bar_1.0.0.jar", exchange -> {
+			try {
+				sendFrom(exchange, null);
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private URI uri() {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/plugins/foo_1.0.0.jar");
+	}
+
+	private static P2Downloader downloader(int attempts) {
+		return new P2Downloader(new URLConnectionTransport(2000, 5000), attempts, 10, LoggerFactory.getLogger(P2DownloaderTest.class));
+	}
+
+	private static Map<String, String> checksums() throws Exception {
+		return Collections.singletonMap("SHA-256", P2Util.toHex(MessageDigest.getInstance("SHA-256").digest(CONTENT)));
+	}
+
+	/**
+	 * Sends the response headers for the full content but drops the connection after
+	 * {@code length} bytes.
+	 */
+	private static void sendTruncated(HttpExchange exchange, int length) throws IOException {
+		exchange.sendResponseHeaders(200, CONTENT.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(CONTENT, 0, length);
+		os.flush();
+		// Closing the exchange before the declared length closes the connection
+	}
+
+	/**
+	 * Sends the content from the requested offset, honoring {@code Range: bytes=N-}.
+	 */
+	private static void sendFrom(HttpExchange exchange, String range) throws IOException {
+		int offset = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+		if(offset > 0) {
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + (CONTENT.length - 1) + "/" + CONTENT.length);
+			exchange.sendResponseHeaders(206, CONTENT.length - offset);
+		} else {
+			exchange.sendResponseHeaders(200, CONTENT.length);
+		}
+		try(OutputStream os = exchange.getResponseBody()) {
+			os.write(CONTENT, offset, CONTENT.length - offset);
+		}
+	}
+
+	@Test
+	public void testResumesInterruptedTransfer() throws Exception {
+		responder = (exchange, request, range) -> {
+			if(request == 1) {
+				sendTruncated(exchange, 100000);
+			} else {
+				sendFrom(exchange, range);
+			}
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		// The digest covers the content kept from the first attempt as well as the rest
+		assertEquals(Optional.of(checksums()), downloader(3).download(uri(), file, checksums(), CONTENT.length));
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+
+		assertEquals(2, ranges.size());
+		assertEquals("null", ranges.get(0));
+		// The second request picks up after whatever reached the file
+		assertTrue(ranges.get(1).startsWith("bytes="), ranges.get(1));
+		assertFalse("bytes=0-".equals(ranges.get(1)));
+	}
+
+	@Test
+	public void testResumesAfterServerError() throws Exception {
+		responder = (exchange, request, range) -> {
+			if(request == 1) {
+				sendTruncated(exchange, 100000);
+			} else if(request == 2) {
+				exchange.getResponseHeaders().set("Retry-After", "0");
+				exchange.sendResponseHeaders(503, -1);
+			} else {
+				sendFrom(exchange, range);
+			}
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		assertEquals(Optional.of(checksums()), downloader(3).download(uri(), file, checksums(), CONTENT.length));
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+
+		// The temporary failure was retried, resuming from the same offset rather than starting over
+		assertEquals(3, ranges.size());
+		assertEquals("null", ranges.get(0));
+		assertTrue(ranges.get(1).startsWith("bytes="), ranges.get(1));
+		assertEquals(ranges.get(1), ranges.get(2));
+	}
+
+	@Test
+	public void testKeepsPartialFileWhileServerUnavailable() throws Exception {
+		responder = (exchange, request, range) -> {
+			if(request == 1) {
+				sendTruncated(exchange, 100000);
+			} else {
+				exchange.sendResponseHeaders(503, -1);
+			}
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		assertThrows(HttpStatusException.class, () -> downloader(2).download(uri(), file, checksums(), CONTENT.length));
+		// Not reported as missing, and kept for the next build to resume
+		assertTrue(Files.size(file) > 0);
+	}
+
+	@Test
+	public void testResumesPartialFileFromEarlierBuild() throws Exception {
+		responder = (exchange, request, range) -> sendFrom(exchange, range);
+		Path file = tempDir.resolve("foo.jar.part");
+		Files.write(file, Arrays.copyOf(CONTENT, 1000));
+
+		assertEquals(Optional.of(checksums()), downloader(1).download(uri(), file, checksums(), CONTENT.length));
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+		assertEquals(Collections.singletonList("bytes=1000-"), ranges);
+	}
+
+	@Test
+	public void testRestartsWhenRangeIgnored() throws Exception {
+		// A server without range support answers every request with the full content
+		responder = (exchange, request, range) -> {
+			if(request == 1) {
+				sendTruncated(exchange, 100000);
+			} else {
+				sendFrom(exchange, null);
+			}
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		assertTrue(downloader(3).download(uri(), file, checksums(), CONTENT.length).isPresent());
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+		// Range request answered with 200, then a plain request
+		assertEquals(3, ranges.size());
+		assertEquals("null", ranges.get(2));
+	}
+
+	@Test
+	public void testDiscardsCorruptContent() throws Exception {
+		byte[] corrupt = CONTENT.clone();
+		corrupt[5000]++;
+		responder = (exchange, request, range) -> {
+			exchange.sendResponseHeaders(200, corrupt.length);
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(corrupt);
+			}
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		IOException e = assertThrows(IOException.class, () -> downloader(2).download(uri(), file, checksums(), CONTENT.length).isPresent());
+		assertTrue(e.getMessage().contains("SHA-256"), e.getMessage());
+		assertFalse(Files.exists(file));
+		// Each attempt starts over rather than resuming untrusted content
+		assertEquals(Arrays.asList("null", "null"), ranges);
+	}
+
+	@Test
+	public void testGivesUpAfterAttempts() throws Exception {
+		responder = (exchange, request, range) -> sendTruncated(exchange, 1000);
+		Path file = tempDir.resolve("foo.jar.part");
+		assertThrows(IOException.class, () -> downloader(3).download(uri(), file, checksums(), CONTENT.length).isPresent());
+		// Each retry tries to resume first, which this server answers with the full content
+		assertEquals(Arrays.asList("null", "bytes=1000-", "null", "bytes=1000-", "null"), ranges);
+		// Kept for the next build, since it can be verified once complete
+		assertTrue(Files.exists(file));
+	}
+
+	@Test
+	public void testUnverifiablePartialDiscarded() throws Exception {
+		responder = (exchange, request, range) -> sendTruncated(exchange, 1000);
+		Path file = tempDir.resolve("foo.jar.part");
+		assertThrows(IOException.class, () -> downloader(2).download(uri(), file, Collections.emptyMap(), -1));
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	public void testSizeOnlyPartialNotResumed() throws Exception {
+		responder = (exchange, request, range) -> {
+			if(request == 1) {
+				sendTruncated(exchange, 1000);
+			} else {
+				sendFrom(exchange, range);
+			}
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		// Left by an earlier build, possibly of a different version of the file
+		Files.write(file, new byte[1000]);
+
+		assertTrue(downloader(2).download(uri(), file, Collections.emptyMap(), CONTENT.length).isPresent());
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+		// A matching size can't show that earlier content belongs to the same file
+		assertEquals(Arrays.asList("null", "null"), ranges);
+	}
+
+	@Test
+	public void testConcurrentDownloadsShareFile() throws Exception {
+		CountDownLatch requested = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		responder = (exchange, request, range) -> {
+			requested.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				throw new IOException(e);
+			}
+			sendFrom(exchange, range);
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Boolean> first = executor.submit(() -> downloader(1).download(uri(), file, checksums(), CONTENT.length).isPresent());
+			assertTrue(requested.await(10, TimeUnit.SECONDS));
+			Future<Boolean> second = executor.submit(() -> downloader(1).download(uri(), file, checksums(), CONTENT.length).isPresent());
+			// Give the second download the chance to write alongside the first
+			Thread.sleep(200);
+			release.countDown();
+
+			assertTrue(first.get(10, TimeUnit.SECONDS));
+			assertTrue(second.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertArrayEquals(CONTENT, Files.readAllBytes(file));
+		// The second waited for the first and then found the file complete
+		assertEquals(1, ranges.size());
+	}
+
+	@Test
+	public void testNotFound() throws Exception {
+		responder = (exchange, request, range) -> exchange.sendResponseHeaders(404, -1);
+		Path file = tempDir.resolve("foo.jar.part");
+		assertFalse(downloader(3).download(uri(), file, checksums(), CONTENT.length).isPresent());
+		assertFalse(Files.exists(file));
+		assertEquals(1, ranges.size());
+	}
+
+	@Test
+	public void testUnrelatedDownloadsDontWait() throws Exception {
+		CountDownLatch requested = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		responder = (exchange, request, range) -> {
+			requested.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				throw new IOException(e);
+			}
+			sendFrom(exchange, range);
+		};
+		Path file = tempDir.resolve("foo.jar.part");
+		Path other = tempDir.resolve("bar.jar.part");
+		URI otherUri = uri().resolve("bar_1.0.0.jar");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Boolean> held = executor.submit(() -> downloader(1).download(uri(), file, checksums(), CONTENT.length).isPresent());
+			assertTrue(requested.await(10, TimeUnit.SECONDS));
+			// Completes while the first download is still waiting on the server
+			Future<Boolean> unrelated = executor.submit(() -> downloader(1).download(otherUri, other, checksums(), CONTENT.length).isPresent());
+			assertTrue(unrelated.get(5, TimeUnit.SECONDS));
+			assertFalse(held.isDone());
+
+			release.countDown();
+			assertTrue(held.get(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+		assertArrayEquals(CONTENT, Files.readAllBytes(other));
+	}
+
+	@Test
+	public void testCompletionRunsOnVerifiedFile() throws Exception {
+		responder = (exchange, request, range) -> sendFrom(exchange, range);
+		Path file = tempDir.resolve("foo.jar.part");
+		Path target = tempDir.resolve("foo.jar");
+		Map<String, String> checksums = checksums();
+		Optional<Path> result = downloader(1).download(uri(), file, checksums, CONTENT.length, (downloaded, digests) -> {
+			assertEquals(checksums, digests);
+			return Files.move(downloaded, target);
+		});
+		assertEquals(Optional.of(target), result);
+		assertArrayEquals(CONTENT, Files.readAllBytes(target));
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	public void testWithRetries() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		assertEquals("done", downloader(3).withRetries(uri(), () -> {
+			if(calls.incrementAndGet() < 3) {
+				throw new IOException("failed");
+			}
+			return "done";
+		}));
+		assertEquals(3, calls.get());
+
+		// A missing file isn't retried
+		calls.set(0);
+		assertThrows(FileNotFoundException.class, () -> downloader(3).withRetries(uri(), () -> {
+			calls.incrementAndGet();
+			throw new FileNotFoundException();
+		}));
+		assertEquals(1, calls.get());
+	}
+}
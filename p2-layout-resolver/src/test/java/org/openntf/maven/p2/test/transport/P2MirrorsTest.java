@@ -0,0 +1,293 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.transport.P2Mirrors;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+import org.openntf.maven.p2.util.P2Util;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("nls")
+public class P2MirrorsTest {
+	private static final String PATH = "plugins/foo_1.0.0.jar";
+	private static final byte[] CONTENT = new byte[64 * 1024];
+	static {
+		for(int i = 0; i < CONTENT.length; i++) {
+			CONTENT[i] = (byte)(i * 31);
+		}
+	}
+
+	private enum Behavior {
+		GOOD, CORRUPT, STALL, MISSING
+	}
+
+	/**
+	 * A local repository or mirror serving {@link #PATH} with a configurable behavior for
+	 * each request, the last of which applies to any further requests.
+	 */
+	private class Server {
+		private final HttpServer http;
+		private final AtomicInteger requests = new AtomicInteger();
+
+		Server(long probeDelay, Behavior... behaviors) throws IOException {
+			this.http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			// Stalled responses mustn't block other requests to the same server
+			this.http.setExecutor(serverExecutor);
+			this.http.createContext("/p2.index", exchange -> {
+				sleep(probeDelay);
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+			});
+			this.http.createContext("/" + PATH, exchange -> {
+				Behavior behavior = behaviors[Math.min(this.requests.incrementAndGet(), behaviors.length) - 1];
+				if(behavior == Behavior.MISSING) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				exchange.sendResponseHeaders(200, CONTENT.length);
+				try(OutputStream os = exchange.getResponseBody()) {
+					if(behavior == Behavior.STALL) {
+						os.write(CONTENT, 0, CONTENT.length / 2);
+						os.flush();
+						release.await(10, TimeUnit.SECONDS);
+						os.write(CONTENT, CONTENT.length / 2, CONTENT.length / 2);
+					} else if(behavior == Behavior.CORRUPT) {
+						byte[] corrupt = CONTENT.clone();
+						corrupt[100]++;
+						os.write(corrupt);
+					} else {
+						os.write(CONTENT);
+					}
+				} catch(InterruptedException | IOException e) {
+					// Client went away
+				}
+			});
+			this.http.start();
+		}
+
+		URI getUri() {
+			return URI.create("http://127.0.0.1:" + this.http.getAddress().getPort() + "/");
+		}
+	}
+
+	private final List<Server> servers = new ArrayList<>();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private ExecutorService serverExecutor;
+	private ExecutorService executor;
+
+	@TempDir
+	Path tempDir;
+
+	@BeforeEach
+	public void createExecutors() {
+		serverExecutor = Executors.newCachedThreadPool();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	public void stopServers() {
+		release.countDown();
+		for(Server server : servers) {
+			server.http.stop(0);
+		}
+		serverExecutor.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	private Server server(Behavior behavior, long probeDelay) throws IOException {
+		return server(probeDelay, behavior);
+	}
+
+	private Server server(long probeDelay, Behavior... behaviors) throws IOException {
+		Server server = new Server(probeDelay, behaviors);
+		servers.add(server);
+		return server;
+	}
+
+	/**
+	 * Serves a mirror list naming the provided mirrors from the primary server.
+	 */
+	private URI mirrorList(Server primary, Server... mirrors) {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?><mirrors>");
+		for(Server mirror : mirrors) {
+			xml.append("<mirror url=\"").append(mirror.getUri()).append("\" label=\"local\"/>");
+		}
+		xml.append("</mirrors>");
+		byte[] content = xml.toString().getBytes(StandardCharsets.UTF_8);
+		primary.http.createContext("/mirrors.xml", exchange -> {
+			exchange.sendResponseHeaders(200, content.length);
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(content);
+			}
+		});
+		return primary.getUri().resolve("mirrors.xml");
+	}
+
+	private P2Mirrors mirrors(long hedgeDelay) {
+		return new P2Mirrors(new URLConnectionTransport(2000, 20000), executor, hedgeDelay, LoggerFactory.getLogger(getClass()));
+	}
+
+	private static Map<String, String> checksums() throws Exception {
+		return Collections.singletonMap("SHA-256", P2Util.toHex(MessageDigest.getInstance("SHA-256").digest(CONTENT)));
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static boolean isEmpty(Path dir) throws IOException {
+		try(Stream<Path> files = Files.list(dir)) {
+			return !files.findAny().isPresent();
+		}
+	}
+
+	@Test
+	public void testReadMirrorList() throws Exception {
+		String xml = "<mirrors>"
+			+ "<mirror url=\"https://a.example.com/eclipse/updates\" label=\"A\"/>"
+			+ "<mirror url=\"../b/\" label=\"B\"/>"
+			+ "<mirror label=\"No URL\"/>"
+			+ "</mirrors>";
+		List<URI> result = P2Mirrors.readMirrorList(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), URI.create("https://example.com/lists/mirrors.xml"));
+		assertEquals(Arrays.asList(URI.create("https://a.example.com/eclipse/updates/"), URI.create("https://example.com/b/")), result);
+	}
+
+	@Test
+	public void testRanksByProbeLatency() throws Exception {
+		Server primary = server(Behavior.GOOD, 300);
+		Server mirror = server(Behavior.GOOD, 0);
+		List<URI> candidates = mirrors(1000).getCandidates(primary.getUri(), mirrorList(primary, mirror), CONTENT.length);
+		assertEquals(Arrays.asList(mirror.getUri(), primary.getUri()), candidates);
+	}
+
+	@Test
+	public void testHedgesStalledDownload() throws Exception {
+		// The stalling server answers probes fastest, so it is tried first
+		Server stalling = server(Behavior.STALL, 0);
+		Server mirror = server(Behavior.GOOD, 300);
+		P2Mirrors mirrors = mirrors(200);
+
+		long start = System.nanoTime();
+		Optional<Path> result = mirrors.download(stalling.getUri(), mirrorList(stalling, mirror), PATH, checksums(), CONTENT.length, tempDir);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(result.isPresent());
+		assertArrayEquals(CONTENT, Files.readAllBytes(result.get()));
+		assertEquals(1, stalling.requests.get());
+		assertEquals(1, mirror.requests.get());
+		// Well short of the ten seconds the stalled response would take
+		assertTrue(elapsed < 5000, () -> "Download took " + elapsed + "ms");
+
+		// Let the abandoned request discard its copy before the directory is cleaned up
+		Files.delete(result.get());
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(!isEmpty(tempDir) && System.nanoTime() < deadline) {
+			sleep(10);
+		}
+	}
+
+	@Test
+	public void testRejectsCorruptMirror() throws Exception {
+		Server primary = server(Behavior.GOOD, 300);
+		Server corrupt = server(Behavior.CORRUPT, 0);
+		P2Mirrors mirrors = mirrors(1000);
+		URI mirrorList = mirrorList(primary, corrupt);
+
+		Optional<Path> result = mirrors.download(primary.getUri(), mirrorList, PATH, checksums(), CONTENT.length, tempDir);
+		assertTrue(result.isPresent());
+		assertArrayEquals(CONTENT, Files.readAllBytes(result.get()));
+		assertEquals(1, corrupt.requests.get());
+		assertEquals(1, primary.requests.get());
+
+		// The failed mirror is now ranked last despite its faster probe
+		assertEquals(Arrays.asList(primary.getUri(), corrupt.getUri()), mirrors.getCandidates(primary.getUri(), mirrorList, CONTENT.length));
+	}
+
+	@Test
+	public void testRecoveredMirrorRankedAgain() throws Exception {
+		Server primary = server(300, Behavior.GOOD, Behavior.STALL);
+		Server flaky = server(0, Behavior.CORRUPT, Behavior.GOOD);
+		P2Mirrors mirrors = mirrors(200);
+		URI mirrorList = mirrorList(primary, flaky);
+
+		assertTrue(mirrors.download(primary.getUri(), mirrorList, PATH, checksums(), CONTENT.length, tempDir).isPresent());
+		assertEquals(Arrays.asList(primary.getUri(), flaky.getUri()), mirrors.getCandidates(primary.getUri(), mirrorList, CONTENT.length));
+
+		// The primary stalls, so the hedged request to the mirror succeeds
+		Optional<Path> result = mirrors.download(primary.getUri(), mirrorList, PATH, checksums(), CONTENT.length, tempDir);
+		assertTrue(result.isPresent());
+		assertArrayEquals(CONTENT, Files.readAllBytes(result.get()));
+		assertEquals(2, flaky.requests.get());
+
+		// Its earlier failure no longer counts against its faster probe
+		assertEquals(Arrays.asList(flaky.getUri(), primary.getUri()), mirrors.getCandidates(primary.getUri(), mirrorList, CONTENT.length));
+
+		// Let the abandoned request discard its copy before the directory is cleaned up
+		Files.delete(result.get());
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(!isEmpty(tempDir) && System.nanoTime() < deadline) {
+			sleep(10);
+		}
+	}
+
+	@Test
+	public void testMissingEverywhere() throws Exception {
+		Server primary = server(Behavior.MISSING, 0);
+		Server mirror = server(Behavior.MISSING, 0);
+		Optional<Path> result = mirrors(1000).download(primary.getUri(), mirrorList(primary, mirror), PATH, checksums(), CONTENT.length, tempDir);
+		assertFalse(result.isPresent());
+		assertEquals(1, primary.requests.get());
+		assertEquals(1, mirror.requests.get());
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.openntf.maven.p2.transport.P2Transports;
+
+@SuppressWarnings("nls")
+public class P2TransportsTest {
+	private static final URI LOCATION = URI.create("https://example.com/plugins/foo_1.0.0.jar");
+
+	/**
+	 * Serves a number of bytes at a fixed interval and then blocks until closed, when it
+	 * reports the end of the stream, as {@code java.net.http} body streams do.
+	 */
+	private static class StallingInputStream extends InputStream {
+		private final CountDownLatch closed = new CountDownLatch(1);
+		private final long interval;
+		private int remaining;
+
+		StallingInputStream(int bytes, long interval) {
+			this.remaining = bytes;
+			this.interval = interval;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				if(remaining > 0) {
+					if(closed.await(interval, TimeUnit.MILLISECONDS)) {
+						return -1;
+					}
+					remaining--;
+					return 'a';
+				}
+				closed.await(30, TimeUnit.SECONDS);
+				return -1;
+			} catch(InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+	}
+
+	@Test
+	public void testStalledReadTimesOut() throws Exception {
+		InputStream is = P2Transports.withReadTimeout(new StallingInputStream(3, 0), LOCATION, 200);
+		assertEquals('a', is.read());
+		assertEquals('a', is.read());
+		assertEquals('a', is.read());
+
+		long start = System.nanoTime();
+		SocketTimeoutException e = assertThrows(SocketTimeoutException.class, is::read);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(e.getMessage().contains(LOCATION.toString()), e.getMessage());
+		assertTrue(elapsed < 5000, () -> "Read took " + elapsed + "ms");
+		// The stream stays failed rather than reporting the end of the content
+		assertThrows(SocketTimeoutException.class, is::read);
+	}
+
+	@Test
+	public void testSlowProgressDoesNotTimeOut() throws Exception {
+		// Each read takes half the timeout, so only the total would exceed it
+		try(InputStream is = P2Transports.withReadTimeout(new StallingInputStream(6, 100), LOCATION, 200)) {
+			for(int i = 0; i < 6; i++) {
+				assertEquals('a', is.read());
+			}
+		}
+	}
+
+	@Test
+	public void testParseRetryAfter() {
+		assertEquals(120000, P2Transports.parseRetryAfter("120"));
+		assertEquals(0, P2Transports.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+		long future = P2Transports.parseRetryAfter(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1)));
+		assertTrue(future > 30000 && future <= 60000, String.valueOf(future));
+		assertEquals(-1, P2Transports.parseRetryAfter(null));
+		assertEquals(-1, P2Transports.parseRetryAfter("soon"));
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openntf.maven.p2.model.P2BundleContents;
+import org.openntf.maven.p2.transport.P2Transport;
+import org.openntf.maven.p2.transport.RemoteZipFile;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("nls")
+public class RemoteZipFileTest {
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+	
+	private static byte[] bundle;
+	private static byte[] embedded;
+
+	private HttpServer server;
+	private final AtomicLong served = new AtomicLong();
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		embedded = new byte[2 * 1024 * 1024];
+		new Random(1).nextBytes(embedded);
+		bundle = createBundle();
+		
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ranged.jar", exchange -> {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			Matcher matcher = range == null ? null : RANGE.matcher(range);
+			int start = 0;
+			int end = bundle.length - 1;
+			if(matcher != null && matcher.matches()) {
+				if(matcher.group(1).isEmpty()) {
+					start = Math.max(0, bundle.length - Integer.parseInt(matcher.group(2)));
+				} else {
+					start = Integer.parseInt(matcher.group(1));
+					if(!matcher.group(2).isEmpty()) {
+						end = Math.min(end, Integer.parseInt(matcher.group(2)));
+					}
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + bundle.length);
+				exchange.sendResponseHeaders(206, end - start + 1);
+			} else {
+				exchange.sendResponseHeaders(200, bundle.length);
+			}
+			served.addAndGet(end - start + 1);
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(bundle, start, end - start + 1);
+			}
+		});
+		server.createContext("/full.jar", exchange -> {
+			exchange.sendResponseHeaders(200, bundle.length);
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(bundle);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	@Test
+	public void testReadsManifestWithoutFullDownload() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		RemoteZipFile zip = RemoteZipFile.open(transport, uri("/ranged.jar")).get();
+		assertTrue(zip.getEntryNames().contains("lib/embedded.jar"));
+		
+		P2BundleContents contents = P2BundleContents.read(zip);
+		assertEquals("Example Bundle", contents.getManifest().get("Bundle-Name"));
+		assertTrue(contents.containsEntry("OSGI-INF/l10n/bundle.properties"));
+		assertTrue(served.get() < bundle.length / 10, "served " + served.get() + " of " + bundle.length);
+	}
+
+	@Test
+	public void testReadsStoredAndDeflatedEntries() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		RemoteZipFile zip = RemoteZipFile.open(transport, uri("/ranged.jar")).get();
+		assertArrayEquals(Arrays.copyOf(embedded, 1024), zip.readEntry("lib/small.jar").get());
+		assertArrayEquals("bundle.name=Example Bundle\n".getBytes(StandardCharsets.ISO_8859_1), zip.readEntry("OSGI-INF/l10n/bundle.properties").get());
+		assertFalse(zip.readEntry("missing.jar").isPresent());
+	}
+
+	@Test
+	public void testRefusesLargeEntries() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		RemoteZipFile zip = RemoteZipFile.open(transport, uri("/ranged.jar")).get();
+		served.set(0);
+		ZipException e = assertThrows(ZipException.class, () -> zip.readEntry("lib/embedded.jar"));
+		assertTrue(e.getMessage().contains("lib/embedded.jar"), e.getMessage());
+		// Refused from the central directory, without requesting the entry
+		assertEquals(0, served.get());
+	}
+
+	@Test
+	public void testNoRangeSupport() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		assertFalse(RemoteZipFile.open(transport, uri("/full.jar")).isPresent());
+	}
+	
+	private static byte[] createBundle() throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", "com.example.bundle");
+		manifest.getMainAttributes().putValue("Bundle-Name", "%bundle.name");
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(JarOutputStream jos = new JarOutputStream(baos, manifest)) {
+			jos.putNextEntry(new ZipEntry("OSGI-INF/l10n/bundle.properties"));
+			jos.write("bundle.name=Example Bundle\n".getBytes(StandardCharsets.ISO_8859_1));
+			
+			ZipEntry stored = new ZipEntry("lib/embedded.jar");
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(embedded.length);
+			CRC32 crc = new CRC32();
+			crc.update(embedded);
+			stored.setCrc(crc.getValue());
+			jos.putNextEntry(stored);
+			jos.write(embedded);
+			
+			byte[] small = Arrays.copyOf(embedded, 1024);
+			ZipEntry storedSmall = new ZipEntry("lib/small.jar");
+			storedSmall.setMethod(ZipEntry.STORED);
+			storedSmall.setSize(small.length);
+			crc = new CRC32();
+			crc.update(small);
+			storedSmall.setCrc(crc.getValue());
+			jos.putNextEntry(storedSmall);
+			jos.write(small);
+			
+			for(int i = 0; i < 20; i++) {
+				jos.putNextEntry(new ZipEntry("com/example/Class" + i + ".class"));
+				jos.write(Arrays.copyOf(embedded, 64 * 1024));
+			}
+		}
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.transport.P2Transport;
+import org.openntf.maven.p2.transport.URLConnectionTransport;
+import org.openntf.maven.p2.util.HttpStatusException;
+
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("nls")
+public class URLConnectionTransportTest {
+	private static final byte[] CONTENT = "<repository/>".getBytes(StandardCharsets.UTF_8);
+
+	@TempDir
+	Path tempDir;
+
+	private HttpServer server;
+	private Path localFile;
+	private volatile String acceptEncoding;
+
+	@BeforeEach
+	public void startServer() throws IOException {
+		localFile = Files.write(tempDir.resolve("artifacts.xml"), CONTENT);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/artifacts.xml", exchange -> {
+			acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try(GZIPOutputStream gz = new GZIPOutputStream(baos)) {
+				gz.write(CONTENT);
+			}
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, baos.size());
+			try(OutputStream os = exchange.getResponseBody()) {
+				baos.writeTo(os);
+			}
+		});
+		server.createContext("/moved.xml", exchange -> {
+			exchange.getResponseHeaders().set("Location", "/artifacts.xml");
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		server.createContext("/range.bin", exchange -> {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if(range == null) {
+				exchange.sendResponseHeaders(200, CONTENT.length);
+				try(OutputStream os = exchange.getResponseBody()) {
+					os.write(CONTENT);
+				}
+				return;
+			}
+			int dash = range.indexOf('-');
+			int offset = Integer.parseInt(range.substring("bytes=".length(), dash));
+			int end = dash == range.length() - 1 ? CONTENT.length - 1 : Integer.parseInt(range.substring(dash + 1));
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + end + "/" + CONTENT.length);
+			exchange.sendResponseHeaders(206, end + 1 - offset);
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(CONTENT, offset, end + 1 - offset);
+			}
+		});
+		server.createContext("/moved.bin", exchange -> {
+			exchange.getResponseHeaders().set("Location", "/range.bin");
+			exchange.sendResponseHeaders(307, -1);
+			exchange.close();
+		});
+		server.createContext("/local.xml", exchange -> {
+			exchange.getResponseHeaders().set("Location", localFile.toUri().toString());
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		server.createContext("/busy.jar", exchange -> {
+			exchange.getResponseHeaders().set("Retry-After", "2");
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+		});
+		server.createContext("/missing.jar", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	@Test
+	public void testCompressedIndex() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		assertArrayEquals(CONTENT, read(transport.open(uri("/artifacts.xml"), null).get()));
+		assertEquals("gzip, deflate", acceptEncoding);
+	}
+
+	@Test
+	public void testRedirect() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		assertArrayEquals(CONTENT, read(transport.open(uri("/moved.xml"), null).get()));
+	}
+
+	@Test
+	public void testRedirectedRange() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		// The Range header is sent again to the redirect target
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 3, CONTENT.length), read(transport.openFrom(uri("/moved.bin"), 3).get()));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 3, 7), transport.readRange(uri("/moved.bin"), 3, 4).get().getData());
+	}
+
+	@Test
+	public void testRedirectToLocalFileRefused() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		assertFalse(transport.open(uri("/local.xml"), null).isPresent());
+	}
+
+	@Test
+	public void testMissing() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		assertFalse(transport.open(uri("/missing.jar"), null).isPresent());
+	}
+
+	@Test
+	public void testTemporaryFailure() throws Exception {
+		P2Transport transport = new URLConnectionTransport(5000, 5000);
+		// Reported as a failure to retry rather than as a missing file
+		HttpStatusException e = assertThrows(HttpStatusException.class, () -> transport.open(uri("/busy.jar"), null));
+		assertEquals(503, e.getStatus());
+		assertEquals(2000, e.getRetryAfter());
+		assertThrows(HttpStatusException.class, () -> transport.openFrom(uri("/busy.jar"), 10));
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		try(InputStream in = is) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while((read = in.read(buf)) != -1) {
+				baos.write(buf, 0, read);
+			}
+			return baos.toByteArray();
+		}
+	}
+}
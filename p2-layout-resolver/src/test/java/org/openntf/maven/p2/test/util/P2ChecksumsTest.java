@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.openntf.maven.p2.util.P2Checksums;
+import org.openntf.maven.p2.util.P2Checksums.DigestingOutputStream;
+import org.openntf.maven.p2.util.P2Util;
+
+@SuppressWarnings("nls")
+public class P2ChecksumsTest {
+	@Test
+	public void testPublishedChecksums() {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("download.md5", "0123456789ABCDEF0123456789ABCDEF");
+		properties.put("download.checksum.sha-256", "abcdef0123456789abcdef0123456789abcdef0123456789abcdef0123456789");
+		properties.put("download.checksum.sha-512", "not a checksum");
+
+		Map<String, String> checksums = P2Checksums.getPublishedChecksums(properties);
+		assertEquals(Arrays.asList("SHA-256", "MD5"), new ArrayList<>(checksums.keySet()));
+		assertEquals("0123456789abcdef0123456789abcdef", checksums.get("MD5"));
+		assertEquals("SHA-256", P2Checksums.getStrongest(checksums.keySet()).get());
+	}
+
+	@Test
+	public void testChecksumLengths() {
+		Map<String, String> properties = new HashMap<>();
+		// Well-formed hex, but of another algorithm's length
+		properties.put("download.checksum.sha-512", "abcdef0123456789abcdef0123456789abcdef0123456789abcdef0123456789");
+		properties.put("download.checksum.sha-256", "0123456789abcdef0123456789abcdef01234567");
+		properties.put("download.checksum.sha-1", "0123456789abcdef0123456789abcdef01234567");
+		properties.put("download.checksum.md5", "0123456789abcdef0123456789abcdef0");
+		properties.put("download.md5", "0123456789abcdef0123456789abcdef");
+
+		Map<String, String> checksums = P2Checksums.getPublishedChecksums(properties);
+		// Malformed values fall through to the next strongest algorithm
+		assertEquals(Arrays.asList("SHA-1", "MD5"), new ArrayList<>(checksums.keySet()));
+		assertEquals("SHA-1", P2Checksums.getStrongest(checksums.keySet()).get());
+		assertEquals("0123456789abcdef0123456789abcdef", checksums.get("MD5"));
+	}
+
+	@Test
+	public void testDigestingStream() throws Exception {
+		byte[] content = "bundle content".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Map<String, String> digests;
+		try(DigestingOutputStream os = P2Checksums.digesting(baos, P2Checksums.ALGORITHMS)) {
+			os.write(content, 0, 4);
+			os.write(content[4]);
+			os.write(content, 5, content.length - 5);
+			digests = os.getDigests();
+		}
+
+		assertEquals(new String(content, StandardCharsets.UTF_8), baos.toString("UTF-8"));
+		for(String algorithm : P2Checksums.ALGORITHMS) {
+			assertEquals(P2Util.toHex(MessageDigest.getInstance(algorithm).digest(content)), digests.get(algorithm), algorithm);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.openntf.maven.p2.util.P2Executors;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("nls")
+public class P2ExecutorsTest {
+	@ParameterizedTest
+	@ValueSource(strings = { P2Executors.TYPE_PLATFORM, P2Executors.TYPE_VIRTUAL, "" })
+	public void testRunsTasks(String type) throws Exception {
+		// Virtual executors fall back to platform threads where unsupported
+		ExecutorService executor = P2Executors.newExecutor(type, "p2-test-", 2);
+		try {
+			String name = executor.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS);
+			assertTrue(name.startsWith("p2-test-"), name);
+			assertEquals(Integer.valueOf(3), executor.submit(() -> 1 + 2).get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testResolveType() {
+		String expected = P2Executors.isVirtualAvailable() ? P2Executors.TYPE_VIRTUAL : P2Executors.TYPE_PLATFORM;
+		assertEquals(expected, P2Executors.resolveType("Virtual", LoggerFactory.getLogger(getClass())));
+		assertEquals(P2Executors.TYPE_PLATFORM, P2Executors.resolveType(null, LoggerFactory.getLogger(getClass())));
+		assertEquals(P2Executors.TYPE_PLATFORM, P2Executors.resolveType("Platform", LoggerFactory.getLogger(getClass())));
+	}
+}
@@ -16,9 +16,26 @@
 package org.openntf.maven.p2.test.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -47,4 +64,74 @@ public class P2UtilTest {
 	public void testPathUtil(String expected, String[] parts) {
 		assertEquals(expected, P2Util.concatPath('/', parts));
 	}
+	
+	@Test
+	public void testComputeOnceConcurrent() throws Exception {
+		ConcurrentMap<String, CompletableFuture<String>> map = new ConcurrentHashMap<>();
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for(int i = 0; i < 32; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					return P2Util.computeOnce(map, "key", key -> {
+						loads.incrementAndGet();
+						return key + "-value";
+					});
+				}));
+			}
+			start.countDown();
+			for(Future<String> result : results) {
+				assertEquals("key-value", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(Arrays.asList("key-value"), P2Util.completedValues(map));
+	}
+	
+	@Test
+	public void testComputeOnceRetriesFailure() {
+		ConcurrentMap<String, CompletableFuture<String>> map = new ConcurrentHashMap<>();
+		assertThrows(IllegalStateException.class, () -> P2Util.computeOnce(map, "key", key -> {
+			throw new IllegalStateException();
+		}));
+		assertTrue(map.isEmpty());
+		assertEquals("value", P2Util.computeOnce(map, "key", key -> "value"));
+	}
+	
+	@Test
+	public void testComputeOnceReference() throws Exception {
+		AtomicReference<CompletableFuture<String>> ref = new AtomicReference<>();
+		assertThrows(IllegalStateException.class, () -> P2Util.computeOnce(ref, () -> {
+			throw new IllegalStateException();
+		}));
+		assertNull(ref.get());
+		
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for(int i = 0; i < 32; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					return P2Util.computeOnce(ref, () -> {
+						loads.incrementAndGet();
+						return "value";
+					});
+				}));
+			}
+			start.countDown();
+			for(Future<String> result : results) {
+				assertEquals("value", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+	}
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.util.xml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openntf.maven.p2.util.xml.XMLStreams;
+
+@SuppressWarnings("nls")
+public class XMLStreamsTest {
+	@Test
+	public void testReadsDocument() throws Exception {
+		XMLStreamReader reader = XMLStreams.createReader(new ByteArrayInputStream("<p:repository xmlns:p='urn:p' name='test'/>".getBytes(StandardCharsets.UTF_8)));
+		try {
+			assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+			// Names are reported as written, without namespace processing
+			assertEquals("p:repository", reader.getLocalName());
+			assertEquals("test", reader.getAttributeValue(null, "name"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testIgnoresExternalEntities(@TempDir Path dir) throws Exception {
+		Path secret = Files.write(dir.resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+		String xml = "<?xml version='1.0'?>\n<!DOCTYPE repository [<!ENTITY e SYSTEM '" + secret.toUri() + "'>]>\n<repository>&e;</repository>";
+		StringBuilder text = new StringBuilder();
+		XMLStreamReader reader = XMLStreams.createReader(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		try {
+			while(reader.hasNext()) {
+				if(reader.next() == XMLStreamConstants.CHARACTERS) {
+					text.append(reader.getText());
+				}
+			}
+		} catch(XMLStreamException e) {
+			// Refusing the entity is as good as not resolving it
+		} finally {
+			reader.close();
+		}
+		assertFalse(text.toString().contains("secret"), text::toString);
+	}
+
+	@Test
+	public void testReadsConcurrently() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for(int i = 0; i < 64; i++) {
+				String name = "repo" + i;
+				results.add(executor.submit(() -> {
+					XMLStreamReader reader = XMLStreams.createReader(new ByteArrayInputStream(("<repository name='" + name + "'/>").getBytes(StandardCharsets.UTF_8)));
+					try {
+						reader.nextTag();
+						return reader.getAttributeValue(null, "name");
+					} finally {
+						reader.close();
+					}
+				}));
+			}
+			for(int i = 0; i < results.size(); i++) {
+				assertEquals("repo" + i, results.get(i).get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2019-2024 Contributors to the P2 Layout Resolver Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.maven.p2.test.util.xml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openntf.maven.p2.util.xml.XMLDocument;
+import org.openntf.maven.p2.util.xml.XMLNode;
+import org.openntf.maven.p2.util.xml.XMLWriter;
+
+@SuppressWarnings("nls")
+public class XMLWriterTest {
+	private static final String NAME = "Example & <Bundle> \"quoted\" 'single' é ☃ 😀 tab\there\r\nnext \u0085 control\u0001 lone\uD800 \uFFFE";
+	private static final String COMMENT = "Copyright (c) a---b - <x> & é\nline- 😀 -\u0001- \uDC00\u0002";
+	/** {@link #NAME} without the characters that XML 1.0 does not allow */
+	private static final String VALID_NAME = "Example & <Bundle> \"quoted\" 'single' é ☃ 😀 tab\there\r\nnext \u0085 control lone ";
+	/** {@link #COMMENT} without the characters that XML 1.0 does not allow */
+	private static final String VALID_COMMENT = "Copyright (c) a---b - <x> & é\nline- 😀 -- ";
+
+	@Test
+	public void testMatchesTransformerPom() throws Exception {
+		// Serializers differ in how they treat characters XML doesn't allow, so compare with valid input
+		assertEquals(domPom(VALID_NAME, VALID_COMMENT), streamedPom(NAME, COMMENT));
+		assertEquals(domPom("", "-"), streamedPom("", "-"));
+	}
+
+	@Test
+	public void testDropsInvalidCharacters() throws Exception {
+		String pom = streamedPom(NAME, COMMENT);
+		XMLDocument doc = new XMLDocument();
+		doc.loadString(pom);
+		XMLNode name = doc.getDocumentElement().getElementsByTagName("name").get(0);
+		assertEquals(VALID_NAME, name.getTextContent());
+
+		StringWriter w = new StringWriter();
+		XMLWriter xml = new XMLWriter(w);
+		xml.startDocument();
+		xml.startElement("project").attribute("name", NAME);
+		xml.endDocument();
+		doc = new XMLDocument();
+		doc.loadString(w.toString());
+		assertEquals(VALID_NAME, doc.getDocumentElement().getAttribute("name"));
+	}
+
+	@Test
+	public void testMatchesTransformerMetadata() throws Exception {
+		XMLDocument doc = new XMLDocument();
+		doc.loadString("<?xml version='1.0' encoding='UTF-8'?>\n<metadata/>");
+		XMLNode metadata = doc.getDocumentElement();
+		metadata.addChildElement("groupId").setTextContent("repo");
+		XMLNode versioning = metadata.addChildElement("versioning");
+		versioning.addChildElement("versions");
+		versioning.addChildElement("latest").setTextContent(null);
+		StringWriter expected = new StringWriter();
+		doc.getXml(null, expected);
+
+		StringWriter actual = new StringWriter();
+		XMLWriter xml = new XMLWriter(actual);
+		xml.startDocument();
+		xml.startElement("metadata");
+		xml.element("groupId", "repo");
+		xml.startElement("versioning");
+		xml.startElement("versions");
+		xml.endElement();
+		xml.element("latest", null);
+		xml.endDocument();
+
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void testConcurrentUse() throws Exception {
+		String expected = streamedPom(NAME, COMMENT);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for(int i = 0; i < 200; i++) {
+				results.add(executor.submit(() -> streamedPom(NAME, COMMENT)));
+			}
+			for(Future<String> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compares the per-POM cost of the DOM and {@code Transformer} path with the streaming
+	 * writer. Run with {@code -Dp2layout.benchmark=true}.
+	 */
+	@Test
+	@EnabledIfSystemProperty(named = "p2layout.benchmark", matches = "true")
+	public void benchmark() throws Exception {
+		int warmup = 2000;
+		int iterations = 20000;
+		for(int i = 0; i < warmup; i++) {
+			domPom(NAME, COMMENT);
+			streamedPom(NAME, COMMENT);
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			domPom(NAME, COMMENT);
+		}
+		long dom = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			streamedPom(NAME, COMMENT);
+		}
+		long streamed = System.nanoTime() - start;
+		System.out.println(String.format("DOM + Transformer: %.1f us/POM; XMLWriter: %.1f us/POM", dom / 1000.0 / iterations, streamed / 1000.0 / iterations));
+	}
+
+	private static String domPom(String name, String comment) throws Exception {
+		XMLDocument xml = new XMLDocument();
+		xml.loadString("<?xml version='1.0' encoding='UTF-8'?>\n<project xmlns='http://maven.apache.org/POM/4.0.0'/>");
+		xml.appendChild(xml.createComment("Synthesized by example"));
+		xml.appendChild(xml.createComment("Source: https://example.com/plugins/com.example_1.0.0.jar"));
+		XMLNode project = xml.getDocumentElement();
+		project.addChildElement("modelVersion").setTextContent("4.0.0");
+		project.addChildElement("groupId").setTextContent("repo");
+		project.addChildElement("artifactId").setTextContent("com.example");
+		project.addChildElement("version").setTextContent("1.0.0");
+		project.addChildElement("name").setTextContent(name);
+		project.appendChild(xml.createComment(comment));
+		XMLNode dependencies = project.addChildElement("dependencies");
+		for(int i = 0; i < 10; i++) {
+			XMLNode dependency = dependencies.addChildElement("dependency");
+			dependency.addChildElement("groupId").setTextContent("repo");
+			dependency.addChildElement("artifactId").setTextContent("com.example.dep" + i);
+			dependency.addChildElement("version").setTextContent("1.0." + i);
+		}
+		project.addChildElement("dependencies");
+		project.setAttribute("xmlns", "http://maven.apache.org/POM/4.0.0");
+		project.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+		project.setAttribute("xsi:schemaLocation", "http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd");
+		StringWriter w = new StringWriter();
+		xml.getXml(null, w);
+		return w.toString();
+	}
+
+	private static String streamedPom(String name, String comment) throws IOException {
+		StringWriter w = new StringWriter();
+		XMLWriter xml = new XMLWriter(w);
+		xml.startDocument();
+		xml.startElement("project")
+			.attribute("xmlns", "http://maven.apache.org/POM/4.0.0")
+			.attribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance")
+			.attribute("xsi:schemaLocation", "http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd");
+		xml.element("modelVersion", "4.0.0");
+		xml.element("groupId", "repo");
+		xml.element("artifactId", "com.example");
+		xml.element("version", "1.0.0");
+		xml.element("name", name);
+		xml.comment(comment);
+		xml.startElement("dependencies");
+		for(int i = 0; i < 10; i++) {
+			xml.startElement("dependency");
+			xml.element("groupId", "repo");
+			xml.element("artifactId", "com.example.dep" + i);
+			xml.element("version", "1.0." + i);
+			xml.endElement();
+		}
+		xml.endElement();
+		xml.startElement("dependencies");
+		xml.endElement();
+		xml.endElement();
+		xml.comment("Synthesized by example");
+		xml.comment("Source: https://example.com/plugins/com.example_1.0.0.jar");
+		xml.endDocument();
+		return w.toString();
+	}
+}